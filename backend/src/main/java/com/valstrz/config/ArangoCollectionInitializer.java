@@ -29,7 +29,9 @@ public class ArangoCollectionInitializer implements CommandLineRunner {
             "insuranceRates", "insuranceContributions", "insuranceThresholds",
             "payItems", "deductionItems", "payrolls", "payrollSnapshots",
             "monthClosingSnapshots", "accountingEntries",
-            "documentTemplates", "napSubmissions"
+            "documentTemplates", "napSubmissions",
+            "garnishmentLedger", "workTimeBalances", "payrollBaselines",
+            "legislationSnapshots", "payrollArchives"
     );
 
     @Value("${arangodb.spring.data.hosts:localhost:8529}")
@@ -0,0 +1,48 @@
+package com.valstrz.config;
+
+import com.arangodb.springframework.core.mapping.event.AbstractArangoEventListener;
+import com.arangodb.springframework.core.mapping.event.AfterDeleteEvent;
+import com.arangodb.springframework.core.mapping.event.AfterSaveEvent;
+import com.valstrz.entity.BaseEntity;
+import com.valstrz.entity.company.Company;
+import com.valstrz.entity.personnel.Amendment;
+import com.valstrz.entity.personnel.Employee;
+import com.valstrz.entity.personnel.Employment;
+import com.valstrz.entity.personnel.Termination;
+import com.valstrz.service.Article62Service;
+import org.springframework.stereotype.Component;
+
+/**
+ * Изчиства кешираните уведомления по чл. 62 на фирмата при запис на данни,
+ * от които те се строят. При изтриване фирмата не е известна — чисти се всичко.
+ */
+@Component
+public class Article62CacheListener extends AbstractArangoEventListener<Object> {
+
+    private final Article62Service article62Service;
+
+    public Article62CacheListener(Article62Service article62Service) {
+        this.article62Service = article62Service;
+    }
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<Object> event) {
+        Object source = event.getSource();
+        if (source instanceof Company company) {
+            article62Service.invalidate(company.getId());
+        } else if ((source instanceof Employment || source instanceof Amendment
+                || source instanceof Termination || source instanceof Employee)
+                && source instanceof BaseEntity entity) {
+            article62Service.invalidate(entity.getTenantId());
+        }
+    }
+
+    @Override
+    public void onAfterDelete(AfterDeleteEvent<Object> event) {
+        Class<?> type = event.getType();
+        if (type == Company.class || type == Employment.class || type == Amendment.class
+                || type == Termination.class || type == Employee.class) {
+            article62Service.invalidateAll();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.valstrz.config;
+
+import com.valstrz.service.EntityLoader;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Обхват на EntityLoader за една HTTP заявка към /api/.
+ */
+@Component
+public class EntityLoaderFilter extends OncePerRequestFilter {
+
+    private final EntityLoader entityLoader;
+
+    public EntityLoaderFilter(EntityLoader entityLoader) {
+        this.entityLoader = entityLoader;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !request.getRequestURI().startsWith("/api/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        try (EntityLoader.Scope ignored = entityLoader.open()) {
+            chain.doFilter(request, response);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.valstrz.config;
+
+import com.arangodb.springframework.core.mapping.event.AbstractArangoEventListener;
+import com.arangodb.springframework.core.mapping.event.AfterSaveEvent;
+import com.valstrz.service.EntityLoader;
+import org.springframework.stereotype.Component;
+
+/**
+ * Изважда записаните фирми, служители и правоотношения от картата на
+ * EntityLoader, така че следващото четене в същата заявка взима новата версия.
+ */
+@Component
+public class EntityLoaderListener extends AbstractArangoEventListener<Object> {
+
+    private final EntityLoader entityLoader;
+
+    public EntityLoaderListener(EntityLoader entityLoader) {
+        this.entityLoader = entityLoader;
+    }
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<Object> event) {
+        entityLoader.evict(event.getSource());
+    }
+}
@@ -0,0 +1,47 @@
+package com.valstrz.config;
+
+import com.arangodb.springframework.core.mapping.event.AbstractArangoEventListener;
+import com.arangodb.springframework.core.mapping.event.AfterLoadEvent;
+import com.arangodb.springframework.core.mapping.event.AfterSaveEvent;
+import com.arangodb.springframework.core.mapping.event.BeforeSaveEvent;
+import com.valstrz.entity.payroll.PayrollSnapshot;
+import com.valstrz.service.LegislationSnapshotService;
+import org.springframework.stereotype.Component;
+
+/**
+ * legislationParams на PayrollSnapshot се записват в legislationSnapshots.
+ *
+ * При запис в документа остава само legislationHash; при четене параметрите се
+ * връщат от кеша на LegislationSnapshotService. Старите документи с вградени
+ * параметри се четат без промяна, докато не бъдат записани отново (или мигрирани).
+ */
+@Component
+public class LegislationSnapshotListener extends AbstractArangoEventListener<PayrollSnapshot> {
+
+    private final LegislationSnapshotService legislationSnapshotService;
+
+    public LegislationSnapshotListener(LegislationSnapshotService legislationSnapshotService) {
+        this.legislationSnapshotService = legislationSnapshotService;
+    }
+
+    @Override
+    public void onBeforeSave(BeforeSaveEvent<PayrollSnapshot> event) {
+        PayrollSnapshot snapshot = event.getSource();
+        if (snapshot.getLegislationParams() == null) return;
+        snapshot.setLegislationHash(legislationSnapshotService.keyFor(snapshot));
+        snapshot.detachLegislationBeforeSave();
+    }
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<PayrollSnapshot> event) {
+        event.getSource().restoreAfterSave();
+    }
+
+    @Override
+    public void onAfterLoad(AfterLoadEvent<PayrollSnapshot> event) {
+        PayrollSnapshot snapshot = event.getSource();
+        if (snapshot.getLegislationParams() == null && snapshot.getLegislationHash() != null) {
+            snapshot.setLegislationParams(legislationSnapshotService.resolve(snapshot.getLegislationHash()));
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.valstrz.config;
+
+import com.arangodb.springframework.core.mapping.event.AbstractArangoEventListener;
+import com.arangodb.springframework.core.mapping.event.AfterDeleteEvent;
+import com.arangodb.springframework.core.mapping.event.AfterSaveEvent;
+import com.valstrz.entity.company.Company;
+import com.valstrz.entity.personnel.Employee;
+import com.valstrz.entity.personnel.Employment;
+import com.valstrz.repository.MasterDataRevisionRepository;
+import org.springframework.stereotype.Component;
+
+/**
+ * Увеличава брояча на промените (MasterDataRevision) при запис на фирмата,
+ * служител или правоотношение. При изтриване фирмата не е известна — увеличават
+ * се броячите на всички фирми със затворени месеци.
+ */
+@Component
+public class MasterDataRevisionListener extends AbstractArangoEventListener<Object> {
+
+    private final MasterDataRevisionRepository revisionRepository;
+
+    public MasterDataRevisionListener(MasterDataRevisionRepository revisionRepository) {
+        this.revisionRepository = revisionRepository;
+    }
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<Object> event) {
+        Object source = event.getSource();
+        if (source instanceof Company company) {
+            revisionRepository.increment(company.getId());
+        } else if (source instanceof Employee employee) {
+            revisionRepository.increment(employee.getTenantId());
+        } else if (source instanceof Employment employment) {
+            revisionRepository.increment(employment.getTenantId());
+        }
+    }
+
+    @Override
+    public void onAfterDelete(AfterDeleteEvent<Object> event) {
+        Class<?> type = event.getType();
+        if (type == Company.class || type == Employee.class || type == Employment.class) {
+            revisionRepository.incrementAll();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.valstrz.config;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.repository.core.support.RepositoryFactoryBeanSupport;
+
+/**
+ * Добавя RepositoryQueryMonitor към всички Spring Data репозиторита.
+ *
+ * Съветът се закача към прокси обекта, който фабриката създава, затова важи и за
+ * производните методи (findBy...), и за @Query, и за наследените от CrudRepository.
+ * Мониторът се взема при първото извикване — BeanPostProcessor-ът се създава
+ * преди MeterRegistry.
+ */
+@Configuration
+public class RepositoryInstrumentation {
+
+    @Bean
+    static BeanPostProcessor repositoryQueryInstrumentation(ObjectProvider<RepositoryQueryMonitor> monitor) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof RepositoryFactoryBeanSupport<?, ?, ?> factoryBean) {
+                    factoryBean.addRepositoryFactoryCustomizer(factory -> factory.addRepositoryProxyPostProcessor(
+                            (proxy, info) -> proxy.addAdvice(interceptor(info.getRepositoryInterface(), monitor))));
+                }
+                return bean;
+            }
+        };
+    }
+
+    private static MethodInterceptor interceptor(Class<?> repository, ObjectProvider<RepositoryQueryMonitor> monitor) {
+        return invocation -> {
+            if (invocation.getMethod().getDeclaringClass() == Object.class) return invocation.proceed();
+            long start = System.nanoTime();
+            try {
+                return invocation.proceed();
+            } finally {
+                monitor.getObject().record(repository, invocation.getMethod(), invocation.getArguments(),
+                        System.nanoTime() - start);
+            }
+        };
+    }
+}
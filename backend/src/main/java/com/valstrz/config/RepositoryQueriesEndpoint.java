@@ -0,0 +1,31 @@
+package com.valstrz.config;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * /actuator/repositoryqueries — бавни заявки и N+1 (RepositoryQueryMonitor).
+ * DELETE изчиства натрупаното, напр. след поправка.
+ */
+@Component
+@Endpoint(id = "repositoryqueries")
+public class RepositoryQueriesEndpoint {
+
+    private final RepositoryQueryMonitor monitor;
+
+    public RepositoryQueriesEndpoint(RepositoryQueryMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    @ReadOperation
+    public RepositoryQueryMonitor.Report report() {
+        return monitor.report();
+    }
+
+    @DeleteOperation
+    public void reset() {
+        monitor.reset();
+    }
+}
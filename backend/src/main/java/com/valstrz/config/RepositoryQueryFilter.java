@@ -0,0 +1,42 @@
+package com.valstrz.config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+
+/**
+ * Граници на HTTP заявката за броенето на извикванията към репозиторитата (N+1).
+ * Endpoint-ът е шаблонът на пътя (/api/companies/{tenantId}/...), не конкретният URL.
+ */
+@Component
+public class RepositoryQueryFilter extends OncePerRequestFilter {
+
+    private final RepositoryQueryMonitor monitor;
+
+    public RepositoryQueryFilter(RepositoryQueryMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !request.getRequestURI().startsWith("/api/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        monitor.beginRequest();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            monitor.endRequest(pattern != null ? request.getMethod() + " " + pattern : null);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.valstrz.config;
+
+import com.arangodb.springframework.annotation.Query;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Измерване на заявките през репозиторитата.
+ *
+ * Всяко извикване се записва в таймера valstrz.repository{repository, method}.
+ * Заявките над valstrz.repository.slow-query-ms се логват с AQL (за @Query) и
+ * параметрите. В рамките на една HTTP заявка се броят извикванията по метод;
+ * метод, извикан повече от valstrz.repository.n-plus-one-threshold пъти, се
+ * отбелязва като N+1 (напр. findById в цикъл по служителите).
+ * Справката е на /actuator/repositoryqueries.
+ */
+@Component
+public class RepositoryQueryMonitor {
+
+    private static final Logger log = LoggerFactory.getLogger(RepositoryQueryMonitor.class);
+
+    private static final int MAX_SLOW_QUERIES = 100;
+    private static final int MAX_FINDINGS = 500;
+    private static final int MAX_VALUE_LENGTH = 200;
+
+    private final MeterRegistry registry;
+    private final long slowQueryNanos;
+    private final int nPlusOneThreshold;
+
+    // findById, saveAll и т.н. са методи на CrudRepository — ключът е репозиторито + методът
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Deque<SlowQuery> slowQueries = new ArrayDeque<>();
+    private final Map<String, NPlusOne> findings = new ConcurrentHashMap<>();
+    private final ThreadLocal<Map<String, Integer>> requestCalls = new ThreadLocal<>();
+
+    public RepositoryQueryMonitor(MeterRegistry registry,
+                                  @Value("${valstrz.repository.slow-query-ms:200}") long slowQueryMs,
+                                  @Value("${valstrz.repository.n-plus-one-threshold:20}") int nPlusOneThreshold) {
+        this.registry = registry;
+        this.slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(slowQueryMs);
+        this.nPlusOneThreshold = nPlusOneThreshold;
+    }
+
+    /** Бавна заявка; aql е null за производните (findBy...) методи. */
+    public record SlowQuery(LocalDateTime at, String method, long millis, String aql, List<String> parameters) {}
+
+    /** Метод, извикван многократно в една заявка към даден endpoint. */
+    public record NPlusOne(String endpoint, String method, int maxCalls, long requests, LocalDateTime lastSeen) {}
+
+    public record Report(long slowQueryMs, int nPlusOneThreshold, List<SlowQuery> slowQueries, List<NPlusOne> nPlusOne) {}
+
+    // ── Извиквания (RepositoryInstrumentation) ──
+
+    void record(Class<?> repository, Method method, Object[] args, long nanos) {
+        String name = name(repository, method);
+        timers.computeIfAbsent(name, k -> Timer.builder("valstrz.repository")
+                .tag("repository", repository.getSimpleName())
+                .tag("method", method.getName())
+                .register(registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+
+        Map<String, Integer> calls = requestCalls.get();
+        if (calls != null) calls.merge(name, 1, Integer::sum);
+
+        if (nanos >= slowQueryNanos) slowQuery(repository, method, args, nanos);
+    }
+
+    // ── Рамка на HTTP заявката (RepositoryQueryFilter) ──
+
+    void beginRequest() {
+        requestCalls.set(new HashMap<>());
+    }
+
+    void endRequest(String endpoint) {
+        Map<String, Integer> calls = requestCalls.get();
+        requestCalls.remove();
+        if (calls == null || endpoint == null) return;
+
+        for (Map.Entry<String, Integer> e : calls.entrySet()) {
+            if (e.getValue() <= nPlusOneThreshold) continue;
+            String key = endpoint + " " + e.getKey();
+            if (!findings.containsKey(key) && findings.size() >= MAX_FINDINGS) continue;
+            NPlusOne finding = findings.merge(key,
+                    new NPlusOne(endpoint, e.getKey(), e.getValue(), 1, LocalDateTime.now()),
+                    (old, cur) -> new NPlusOne(endpoint, e.getKey(), Math.max(old.maxCalls(), cur.maxCalls()),
+                            old.requests() + 1, cur.lastSeen()));
+            if (finding.requests() == 1) {
+                log.warn("N+1: {} извиква {} {} пъти в една заявка", endpoint, e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    // ── Справка ──
+
+    public Report report() {
+        List<SlowQuery> slow;
+        synchronized (slowQueries) {
+            slow = new ArrayList<>(slowQueries);
+        }
+        Collections.reverse(slow);
+        List<NPlusOne> nPlusOne = new ArrayList<>(findings.values());
+        nPlusOne.sort(Comparator.comparingInt(NPlusOne::maxCalls).reversed());
+        return new Report(TimeUnit.NANOSECONDS.toMillis(slowQueryNanos), nPlusOneThreshold, slow, nPlusOne);
+    }
+
+    public void reset() {
+        synchronized (slowQueries) {
+            slowQueries.clear();
+        }
+        findings.clear();
+    }
+
+    // ── Helpers ──
+
+    private void slowQuery(Class<?> repository, Method method, Object[] args, long nanos) {
+        Query query = method.getAnnotation(Query.class);
+        String aql = query != null ? query.value().strip() : null;
+        List<String> parameters = describeParameters(method, args);
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+
+        log.warn("Бавна заявка {} ms: {}{} {}", millis, name(repository, method),
+                aql != null ? "\n" + aql : "", parameters);
+
+        synchronized (slowQueries) {
+            if (slowQueries.size() >= MAX_SLOW_QUERIES) slowQueries.removeFirst();
+            // В справката са само имената на параметрите — стойностите (ЕГН и др.) остават в лога
+            slowQueries.addLast(new SlowQuery(LocalDateTime.now(), name(repository, method), millis, aql,
+                    parameters.stream().map(p -> p.substring(0, p.indexOf('='))).toList()));
+        }
+    }
+
+    private static List<String> describeParameters(Method method, Object[] args) {
+        if (args == null || args.length == 0) return List.of();
+        Parameter[] params = method.getParameters();
+        List<String> result = new ArrayList<>(args.length);
+        for (int i = 0; i < args.length; i++) {
+            Param param = params[i].getAnnotation(Param.class);
+            String name = param != null ? param.value() : params[i].getName();
+            result.add(name + "=" + describe(args[i]));
+        }
+        return result;
+    }
+
+    private static String describe(Object value) {
+        if (value instanceof Collection<?> c && c.size() > 10) {
+            return "[" + c.size() + " елемента]";
+        }
+        String s = String.valueOf(value);
+        return s.length() > MAX_VALUE_LENGTH ? s.substring(0, MAX_VALUE_LENGTH) + "…" : s;
+    }
+
+    private static String name(Class<?> repository, Method method) {
+        return repository.getSimpleName() + "." + method.getName();
+    }
+}
@@ -0,0 +1,44 @@
+package com.valstrz.config;
+
+import com.arangodb.springframework.core.mapping.event.AbstractArangoEventListener;
+import com.arangodb.springframework.core.mapping.event.AfterSaveEvent;
+import com.arangodb.springframework.core.mapping.event.BeforeSaveEvent;
+import com.valstrz.entity.personnel.MonthlyTimesheet;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Преобразуване на дневните записи на часовите карти при запис в базата.
+ *
+ * При valstrz.timesheets.compact-storage=true масивът days се записва като
+ * MonthlyTimesheet.CompactDays (колони с часове в стотни, видове дни, речник на отсъствията).
+ * Четенето работи и за двата вида документи — getDays() разгръща компактния запис
+ * при първо обръщение, затова услугите и API-то не зависят от настройката.
+ */
+@Component
+public class TimesheetCompactionListener extends AbstractArangoEventListener<MonthlyTimesheet> {
+
+    private final boolean compactStorage;
+
+    public TimesheetCompactionListener(@Value("${valstrz.timesheets.compact-storage:false}") boolean compactStorage) {
+        this.compactStorage = compactStorage;
+    }
+
+    @Override
+    public void onBeforeSave(BeforeSaveEvent<MonthlyTimesheet> event) {
+        if (compactStorage) {
+            event.getSource().compactBeforeSave();
+        } else {
+            event.getSource().expandBeforeSave();
+        }
+    }
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<MonthlyTimesheet> event) {
+        event.getSource().restoreAfterSave();
+    }
+
+    public boolean isCompactStorage() {
+        return compactStorage;
+    }
+}
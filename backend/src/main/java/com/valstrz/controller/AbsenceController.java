@@ -2,6 +2,7 @@ package com.valstrz.controller;
 
 import com.valstrz.entity.personnel.Absence;
 import com.valstrz.repository.AbsenceRepository;
+import com.valstrz.service.WorkingCalendarService;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -15,9 +16,11 @@ import java.util.Optional;
 public class AbsenceController {
 
     private final AbsenceRepository repository;
+    private final WorkingCalendarService workingCalendarService;
 
-    public AbsenceController(AbsenceRepository repository) {
+    public AbsenceController(AbsenceRepository repository, WorkingCalendarService workingCalendarService) {
         this.repository = repository;
+        this.workingCalendarService = workingCalendarService;
     }
 
     @GetMapping
@@ -60,21 +63,11 @@ public class AbsenceController {
     private void calculateDays(Absence absence) {
         if (absence.getFromDate() == null || absence.getToDate() == null) return;
 
-        int totalWorkingDays = 0;
-        int employerDays = 0;
-        
-        java.time.LocalDate cur = absence.getFromDate();
-        while (!cur.isAfter(absence.getToDate())) {
-            // Simple check: Skip Saturday (6) and Sunday (7)
-            if (cur.getDayOfWeek().getValue() < 6) {
-                totalWorkingDays++;
-                // If it's a sick leave, first 2 working days are for the employer
-                if (absence.getType() != null && absence.getType().startsWith("SICK") && totalWorkingDays <= 2) {
-                    employerDays++;
-                }
-            }
-            cur = cur.plusDays(1);
-        }
+        // Работни дни по календара на фирмата (без събота, неделя и празници)
+        String tenantId = absence.getTenantId();
+        int totalWorkingDays = workingCalendarService.workingDays(tenantId, absence.getFromDate(), absence.getToDate());
+        // If it's a sick leave, first 2 working days are for the employer
+        int employerDays = Math.min(totalWorkingDays, 2);
 
         absence.setWorkingDays(totalWorkingDays);
         if (absence.getType() != null && absence.getType().startsWith("SICK")) {
@@ -3,6 +3,7 @@ package com.valstrz.controller;
 import com.valstrz.entity.calendar.AnnualCalendar;
 import com.valstrz.repository.AnnualCalendarRepository;
 import com.valstrz.service.CalendarService;
+import com.valstrz.service.WorkingCalendarService;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -17,10 +18,13 @@ public class AnnualCalendarController {
 
     private final AnnualCalendarRepository repository;
     private final CalendarService calendarService;
+    private final WorkingCalendarService workingCalendarService;
 
-    public AnnualCalendarController(AnnualCalendarRepository repository, CalendarService calendarService) {
+    public AnnualCalendarController(AnnualCalendarRepository repository, CalendarService calendarService,
+                                    WorkingCalendarService workingCalendarService) {
         this.repository = repository;
         this.calendarService = calendarService;
+        this.workingCalendarService = workingCalendarService;
     }
 
     @GetMapping
@@ -42,7 +46,9 @@ public class AnnualCalendarController {
     public ResponseEntity<AnnualCalendar> create(@PathVariable String tenantId,
                                                    @RequestBody AnnualCalendar calendar) {
         calendar.setTenantId(tenantId);
-        return ResponseEntity.status(HttpStatus.CREATED).body(repository.save(calendar));
+        AnnualCalendar saved = repository.save(calendar);
+        workingCalendarService.invalidate(tenantId);
+        return ResponseEntity.status(HttpStatus.CREATED).body(saved);
     }
 
     @PutMapping("/{id}")
@@ -54,21 +60,26 @@ public class AnnualCalendarController {
         }
         calendar.setId(id);
         calendar.setTenantId(tenantId);
-        return ResponseEntity.ok(repository.save(calendar));
+        AnnualCalendar saved = repository.save(calendar);
+        workingCalendarService.invalidate(tenantId);
+        return ResponseEntity.ok(saved);
     }
 
     @PostMapping("/seed")
     public ResponseEntity<AnnualCalendar> seedBgHolidays(@PathVariable String tenantId,
                                                            @RequestParam int year) {
-        return ResponseEntity.ok(calendarService.seedBulgarianHolidays(tenantId, year));
+        AnnualCalendar seeded = calendarService.seedBulgarianHolidays(tenantId, year);
+        workingCalendarService.invalidate(tenantId);
+        return ResponseEntity.ok(seeded);
     }
 
     @DeleteMapping("/{id}")
-    public ResponseEntity<Void> delete(@PathVariable String id) {
+    public ResponseEntity<Void> delete(@PathVariable String tenantId, @PathVariable String id) {
         if (!repository.existsById(id)) {
             return ResponseEntity.notFound().build();
         }
         repository.deleteById(id);
+        workingCalendarService.invalidate(tenantId);
         return ResponseEntity.noContent().build();
     }
 }
@@ -1,13 +1,16 @@
 package com.valstrz.controller;
 
 import com.valstrz.service.BankPaymentService;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
 import java.util.List;
 
 @PreAuthorize("hasAnyRole('ADMIN','ACCOUNTANT')")
@@ -22,29 +25,62 @@ public class BankPaymentController {
     }
 
     @GetMapping("/preview")
-    public List<BankPaymentService.PaymentRecord> preview(@PathVariable String tenantId,
-                                                            @RequestParam int year,
-                                                            @RequestParam int month) {
-        return bankPaymentService.preview(tenantId, year, month);
+    public ResponseEntity<List<BankPaymentService.PaymentRecord>> preview(@PathVariable String tenantId,
+                                                                            @RequestParam int year,
+                                                                            @RequestParam int month) {
+        try {
+            return ResponseEntity.ok(bankPaymentService.preview(tenantId, year, month));
+        } catch (IllegalStateException e) {
+            // Архивирана година
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
     }
 
     @PostMapping("/generate")
     public ResponseEntity<BankPaymentService.PaymentFileResult> generate(@PathVariable String tenantId,
                                                                           @RequestParam int year,
                                                                           @RequestParam int month) {
-        return ResponseEntity.ok(bankPaymentService.generateFile(tenantId, year, month));
+        try {
+            return ResponseEntity.ok(bankPaymentService.generateFile(tenantId, year, month));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
     }
 
+    /**
+     * Файл за банката (csv, txt или sepa), изпращан директно в отговора.
+     * При няколко сметки за заплати csv/txt са ZIP с файл за всяка сметка.
+     */
     @PostMapping("/download")
-    public ResponseEntity<byte[]> download(@PathVariable String tenantId,
-                                             @RequestParam int year,
-                                             @RequestParam int month) {
-        BankPaymentService.PaymentFileResult result = bankPaymentService.generateFile(tenantId, year, month);
-        byte[] bytes = result.fileContent().getBytes(StandardCharsets.UTF_8);
+    public ResponseEntity<StreamingResponseBody> download(@PathVariable String tenantId,
+                                                          @RequestParam int year,
+                                                          @RequestParam int month,
+                                                          @RequestParam(defaultValue = "csv") String format,
+                                                          @RequestParam(required = false)
+                                                          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+                                                          LocalDate executionDate) {
+        BankPaymentService.Format fileFormat;
+        try {
+            fileFormat = BankPaymentService.Format.of(format);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        // Планът (сметки, брой, суми) се изчислява преди потока — грешките връщат статус, не половин файл
+        BankPaymentService.PaymentPlan plan;
+        try {
+            plan = bankPaymentService.plan(tenantId, year, month);
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+        if (!plan.supports(fileFormat)) {
+            return ResponseEntity.badRequest().build();
+        }
+        LocalDate date = executionDate != null ? executionDate : LocalDate.now();
         return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + result.fileName() + "\"")
-                .contentType(MediaType.parseMediaType("text/csv; charset=utf-8"))
-                .contentLength(bytes.length)
-                .body(bytes);
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"" + bankPaymentService.fileName(plan, fileFormat) + "\"")
+                .contentType(MediaType.parseMediaType(bankPaymentService.contentType(plan, fileFormat)))
+                .body(out -> bankPaymentService.write(plan, fileFormat, date, out));
     }
 }
@@ -0,0 +1,118 @@
+package com.valstrz.controller;
+
+import com.valstrz.service.InsuranceService;
+import com.valstrz.service.LegislationSnapshotService;
+import com.valstrz.service.MonthClosingService;
+import com.valstrz.service.MonthlyTimesheetService;
+import com.valstrz.service.NssiExportService;
+import com.valstrz.service.PayrollSimulationService;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Операции върху всички фирми наведнъж (за счетоводни къщи с много фирми).
+ */
+@PreAuthorize("hasRole('ADMIN')")
+@RestController
+@RequestMapping("/api/batch")
+public class BatchOperationsController {
+
+    private final InsuranceService insuranceService;
+    private final MonthClosingService monthClosingService;
+    private final MonthlyTimesheetService monthlyTimesheetService;
+    private final PayrollSimulationService simulationService;
+    private final LegislationSnapshotService legislationSnapshotService;
+    private final NssiExportService nssiExportService;
+
+    public BatchOperationsController(InsuranceService insuranceService,
+                                     MonthClosingService monthClosingService,
+                                     MonthlyTimesheetService monthlyTimesheetService,
+                                     PayrollSimulationService simulationService,
+                                     LegislationSnapshotService legislationSnapshotService,
+                                     NssiExportService nssiExportService) {
+        this.insuranceService = insuranceService;
+        this.monthClosingService = monthClosingService;
+        this.monthlyTimesheetService = monthlyTimesheetService;
+        this.simulationService = simulationService;
+        this.legislationSnapshotService = legislationSnapshotService;
+        this.nssiExportService = nssiExportService;
+    }
+
+    @PostMapping("/payroll/start-new")
+    public List<MonthClosingService.MonthOpeningResult> startNewMonthForAllTenants(
+            @RequestParam int year,
+            @RequestParam int month) {
+        return monthClosingService.startNewMonthForAllTenants(year, month);
+    }
+
+    /**
+     * Симулация на законодателна промяна върху данните за месеца на всички фирми (без запис).
+     */
+    @PostMapping("/payroll/simulate")
+    public PayrollSimulationService.SimulationResult simulateForAllTenants(
+            @RequestParam int year,
+            @RequestParam int month,
+            @RequestBody PayrollSimulationService.Scenario scenario) {
+        return simulationService.simulateAllTenants(year, month, scenario);
+    }
+
+    @PostMapping("/insurance/import/mod")
+    public ResponseEntity<Map<String, InsuranceService.ModImportResult>> importModForAllTenants(
+            @RequestParam("year") int year,
+            @RequestParam("file") MultipartFile file) {
+        try {
+            return ResponseEntity.ok(insuranceService.importModForAllTenants(year, file));
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Миграция на часовите карти към текущия формат на съхранение (компактен/разгърнат).
+     */
+    @PostMapping("/timesheets/rewrite-storage")
+    public Map<String, Integer> rewriteTimesheetStorage() {
+        return monthlyTimesheetService.rewriteStorageForAllTenants();
+    }
+
+    /**
+     * Миграция: изнася вградените legislationParams на заплатите в legislationSnapshots.
+     */
+    @PostMapping("/payroll/compact-legislation")
+    public Map<String, LegislationSnapshotService.CompactionResult> compactLegislationParams() {
+        return legislationSnapshotService.compactForAllTenants();
+    }
+
+    /**
+     * Приложение 9 на всички фирми с болнични за месеца или периода — ZIP с файл
+     * за всяка фирма (и validation.txt, ако има грешки по схемата).
+     */
+    @GetMapping("/nssi/pril9")
+    public ResponseEntity<StreamingResponseBody> exportPril9ForAllTenants(
+            @RequestParam(required = false) Integer year,
+            @RequestParam(required = false) Integer month,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(defaultValue = "true") boolean validate) {
+        NssiExportService.Period period = NssiController.period(year, month, from, to);
+        if (period == null) return ResponseEntity.badRequest().build();
+
+        String filename = String.format("Pril9_%s_%s.zip", period.from(), period.to());
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .body(out -> nssiExportService.writeAnnex9AllTenants(period, out, validate));
+    }
+}
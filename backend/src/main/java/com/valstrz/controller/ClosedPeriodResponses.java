@@ -0,0 +1,66 @@
+package com.valstrz.controller;
+
+import com.valstrz.service.ClosedPeriodCache;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+/**
+ * GET отговори за затворен месец: силен ETag, 304 при If-None-Match и запомняне на
+ * резултата (ClosedPeriodCache). Браузърът проверява ETag-а при всяко използване
+ * (no-cache): справките показват и текущите фирмени данни, които се променят и след
+ * затваряне. За отворен месец отговорът се изчислява всеки път, без заглавия за кеширане.
+ */
+@Component
+public class ClosedPeriodResponses {
+
+    private static final CacheControl REVALIDATE = CacheControl.noCache().cachePrivate();
+
+    private final ClosedPeriodCache cache;
+
+    public ClosedPeriodResponses(ClosedPeriodCache cache) {
+        this.cache = cache;
+    }
+
+    /** Изчисляване на отговора (PDF/Excel експортите хвърлят проверими изключения). */
+    @FunctionalInterface
+    public interface Loader<T> {
+        ResponseEntity<T> load() throws Exception;
+    }
+
+    public <T> ResponseEntity<T> get(HttpServletRequest request, String tenantId, int year, int month,
+                                     Loader<T> loader) {
+        String etag = cache.etag(tenantId, year, month);
+        if (etag == null) return load(loader);
+
+        if (new ServletWebRequest(request).checkNotModified(etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(REVALIDATE).build();
+        }
+
+        // Ресурсът е пътят със заявката (year, month, departmentId и т.н.)
+        String resource = request.getQueryString() != null
+                ? request.getRequestURI() + "?" + request.getQueryString()
+                : request.getRequestURI();
+        ResponseEntity<T> response = cache.memoize(tenantId, year, month, resource, etag, () -> load(loader));
+        if (!response.getStatusCode().is2xxSuccessful()) return response;
+
+        return ResponseEntity.status(response.getStatusCode())
+                .headers(response.getHeaders())
+                .eTag(etag)
+                .cacheControl(REVALIDATE)
+                .body(response.getBody());
+    }
+
+    private static <T> ResponseEntity<T> load(Loader<T> loader) {
+        try {
+            return loader.load();
+        } catch (Exception e) {
+            ReflectionUtils.rethrowRuntimeException(e);
+            return null;
+        }
+    }
+}
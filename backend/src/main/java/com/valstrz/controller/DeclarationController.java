@@ -7,6 +7,8 @@ import com.valstrz.service.Article62Service;
 import com.valstrz.service.Article123Service;
 import com.valstrz.service.Declaration1Service;
 import com.valstrz.service.Declaration6Service;
+import com.valstrz.service.PayrollMetrics;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
@@ -30,28 +32,36 @@ public class DeclarationController {
     private final Article123Service art123Service;
     private final Art73DeclarationService art73Service;
     private final NapSubmissionRepository submissionRepo;
+    private final ClosedPeriodResponses closedPeriodResponses;
+    private final PayrollMetrics metrics;
 
     public DeclarationController(Declaration1Service d1Service,
                                   Declaration6Service d6Service,
                                   Article62Service art62Service,
                                   Article123Service art123Service,
                                   Art73DeclarationService art73Service,
-                                  NapSubmissionRepository submissionRepo) {
+                                  NapSubmissionRepository submissionRepo,
+                                  ClosedPeriodResponses closedPeriodResponses,
+                                  PayrollMetrics metrics) {
         this.d1Service = d1Service;
         this.d6Service = d6Service;
         this.art62Service = art62Service;
         this.art123Service = art123Service;
         this.art73Service = art73Service;
         this.submissionRepo = submissionRepo;
+        this.closedPeriodResponses = closedPeriodResponses;
+        this.metrics = metrics;
     }
 
     // ── Декларация 1 ──
 
     @GetMapping("/d1/preview")
-    public List<Declaration1Service.D1Record> d1Preview(@PathVariable String tenantId,
-                                                         @RequestParam int year,
-                                                         @RequestParam int month) {
-        return d1Service.preview(tenantId, year, month);
+    public ResponseEntity<List<Declaration1Service.D1Record>> d1Preview(@PathVariable String tenantId,
+                                                                        @RequestParam int year,
+                                                                        @RequestParam int month,
+                                                                        HttpServletRequest request) {
+        return closedPeriodResponses.get(request, tenantId, year, month,
+                () -> ResponseEntity.ok(d1Service.preview(tenantId, year, month)));
     }
 
     @PostMapping("/d1/generate")
@@ -59,14 +69,17 @@ public class DeclarationController {
                                                       @RequestParam int year,
                                                       @RequestParam int month,
                                                       @RequestParam(defaultValue = "0") int correctionCode) {
-        return ResponseEntity.ok(d1Service.generate(tenantId, year, month, correctionCode));
+        return ResponseEntity.ok(metrics.time("valstrz.declaration.generate", tenantId,
+                () -> d1Service.generate(tenantId, year, month, correctionCode), "type", "d1"));
     }
 
     @GetMapping("/d1/validate")
-    public List<Declaration1Service.ValidationError> d1Validate(@PathVariable String tenantId,
-                                                                  @RequestParam int year,
-                                                                  @RequestParam int month) {
-        return d1Service.validate(tenantId, year, month);
+    public ResponseEntity<List<Declaration1Service.ValidationError>> d1Validate(@PathVariable String tenantId,
+                                                                                 @RequestParam int year,
+                                                                                 @RequestParam int month,
+                                                                                 HttpServletRequest request) {
+        return closedPeriodResponses.get(request, tenantId, year, month,
+                () -> ResponseEntity.ok(d1Service.validate(tenantId, year, month)));
     }
 
     // ── Декларация 6 ──
@@ -74,17 +87,21 @@ public class DeclarationController {
     @GetMapping("/d6/preview")
     public ResponseEntity<Declaration6Service.D6Data> d6Preview(@PathVariable String tenantId,
                                                                   @RequestParam int year,
-                                                                  @RequestParam int month) {
-        Declaration6Service.D6Data data = d6Service.preview(tenantId, year, month);
-        if (data == null) return ResponseEntity.notFound().build();
-        return ResponseEntity.ok(data);
+                                                                  @RequestParam int month,
+                                                                  HttpServletRequest request) {
+        return closedPeriodResponses.get(request, tenantId, year, month, () -> {
+            Declaration6Service.D6Data data = d6Service.preview(tenantId, year, month);
+            if (data == null) return ResponseEntity.notFound().build();
+            return ResponseEntity.ok(data);
+        });
     }
 
     @PostMapping("/d6/generate")
     public ResponseEntity<NapSubmission> d6Generate(@PathVariable String tenantId,
                                                       @RequestParam int year,
                                                       @RequestParam int month) {
-        return ResponseEntity.ok(d6Service.generate(tenantId, year, month));
+        return ResponseEntity.ok(metrics.time("valstrz.declaration.generate", tenantId,
+                () -> d6Service.generate(tenantId, year, month), "type", "d6"));
     }
 
     // ── Чл. 62 ──
@@ -102,7 +119,8 @@ public class DeclarationController {
             @PathVariable String tenantId,
             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fromDate,
             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate toDate) {
-        return ResponseEntity.ok(art62Service.generate(tenantId, fromDate, toDate));
+        return ResponseEntity.ok(metrics.time("valstrz.declaration.generate", tenantId,
+                () -> art62Service.generate(tenantId, fromDate, toDate), "type", "art62"));
     }
 
     // ── Чл. 123 ──
@@ -118,7 +136,8 @@ public class DeclarationController {
     public ResponseEntity<NapSubmission> art123Generate(
             @PathVariable String tenantId,
             @RequestBody Article123Service.Art123Request request) {
-        return ResponseEntity.ok(art123Service.generate(tenantId, request));
+        return ResponseEntity.ok(metrics.time("valstrz.declaration.generate", tenantId,
+                () -> art123Service.generate(tenantId, request), "type", "art123"));
     }
 
     // ── Чл. 73 ЗДДФЛ (годишна справка) ──
@@ -134,7 +153,8 @@ public class DeclarationController {
     public ResponseEntity<NapSubmission> art73Generate(
             @PathVariable String tenantId,
             @RequestParam int year) {
-        return ResponseEntity.ok(art73Service.generate(tenantId, year));
+        return ResponseEntity.ok(metrics.time("valstrz.declaration.generate", tenantId,
+                () -> art73Service.generate(tenantId, year), "type", "art73"));
     }
 
     // ── Submissions (одит) ──
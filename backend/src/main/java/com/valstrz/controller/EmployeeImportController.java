@@ -21,11 +21,12 @@ public class EmployeeImportController {
     }
 
     @PostMapping
-    public ResponseEntity<Void> importEmployees(@PathVariable String tenantId,
-                                                @RequestParam("file") MultipartFile file) {
+    public ResponseEntity<EmployeeImportService.ImportResult> importEmployees(
+            @PathVariable String tenantId,
+            @RequestParam("file") MultipartFile file,
+            @RequestParam(defaultValue = "false") boolean dryRun) {
         try {
-            service.importEmployees(tenantId, file);
-            return ResponseEntity.ok().build();
+            return ResponseEntity.ok(service.importEmployees(tenantId, file, dryRun));
         } catch (IOException e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
@@ -2,8 +2,11 @@ package com.valstrz.controller;
 
 import com.valstrz.entity.payroll.PayrollSnapshot;
 import com.valstrz.entity.payroll.PayrollSnapshot.PayrollLine;
+import com.valstrz.service.PayrollMetrics;
 import com.valstrz.service.PayrollService;
 import com.valstrz.service.PdfExportService;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.http.HttpServletRequest;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.springframework.http.HttpHeaders;
@@ -25,16 +28,27 @@ public class ExportController {
 
     private final PayrollService payrollService;
     private final PdfExportService pdfExportService;
+    private final ClosedPeriodResponses closedPeriodResponses;
+    private final PayrollMetrics metrics;
 
-    public ExportController(PayrollService payrollService, PdfExportService pdfExportService) {
+    public ExportController(PayrollService payrollService, PdfExportService pdfExportService,
+                            ClosedPeriodResponses closedPeriodResponses, PayrollMetrics metrics) {
         this.payrollService = payrollService;
         this.pdfExportService = pdfExportService;
+        this.closedPeriodResponses = closedPeriodResponses;
+        this.metrics = metrics;
     }
 
     @GetMapping("/payroll/csv")
     public ResponseEntity<byte[]> exportPayrollCsv(@PathVariable String tenantId,
                                                      @RequestParam int year,
-                                                     @RequestParam int month) {
+                                                     @RequestParam int month,
+                                                     HttpServletRequest request) {
+        return closedPeriodResponses.get(request, tenantId, year, month,
+                () -> timed(tenantId, "csv", () -> payrollCsv(tenantId, year, month)));
+    }
+
+    private ResponseEntity<byte[]> payrollCsv(String tenantId, int year, int month) {
         List<PayrollSnapshot> snapshots = payrollService.getPayrollSnapshots(tenantId, year, month);
 
         StringBuilder csv = new StringBuilder();
@@ -100,7 +114,13 @@ public class ExportController {
     @GetMapping("/payroll/excel")
     public ResponseEntity<byte[]> exportPayrollExcel(@PathVariable String tenantId,
                                                        @RequestParam int year,
-                                                       @RequestParam int month) throws IOException {
+                                                       @RequestParam int month,
+                                                       HttpServletRequest request) {
+        return closedPeriodResponses.get(request, tenantId, year, month,
+                () -> timed(tenantId, "excel", () -> payrollExcel(tenantId, year, month)));
+    }
+
+    private ResponseEntity<byte[]> payrollExcel(String tenantId, int year, int month) throws IOException {
         List<PayrollSnapshot> snapshots = payrollService.getPayrollSnapshots(tenantId, year, month);
 
         try (XSSFWorkbook workbook = new XSSFWorkbook()) {
@@ -163,7 +183,13 @@ public class ExportController {
     @GetMapping("/payroll/pdf")
     public ResponseEntity<byte[]> exportPayrollPdf(@PathVariable String tenantId,
                                                       @RequestParam int year,
-                                                      @RequestParam int month) throws Exception {
+                                                      @RequestParam int month,
+                                                      HttpServletRequest request) {
+        return closedPeriodResponses.get(request, tenantId, year, month,
+                () -> timed(tenantId, "pdf", () -> payrollPdf(tenantId, year, month)));
+    }
+
+    private ResponseEntity<byte[]> payrollPdf(String tenantId, int year, int month) throws Exception {
         List<PayrollSnapshot> snapshots = payrollService.getPayrollSnapshots(tenantId, year, month);
         if (snapshots.isEmpty()) {
             return ResponseEntity.noContent().build();
@@ -182,7 +208,13 @@ public class ExportController {
     public ResponseEntity<byte[]> exportEmployeePdf(@PathVariable String tenantId,
                                                        @PathVariable String employeeId,
                                                        @RequestParam int year,
-                                                       @RequestParam int month) throws Exception {
+                                                       @RequestParam int month,
+                                                       HttpServletRequest request) {
+        return closedPeriodResponses.get(request, tenantId, year, month,
+                () -> timed(tenantId, "slip_pdf", () -> employeePdf(tenantId, employeeId, year, month)));
+    }
+
+    private ResponseEntity<byte[]> employeePdf(String tenantId, String employeeId, int year, int month) throws Exception {
         PayrollSnapshot snapshot = payrollService.getEmployeeSnapshot(tenantId, employeeId, year, month);
         if (snapshot == null) {
             return ResponseEntity.notFound().build();
@@ -197,6 +229,17 @@ public class ExportController {
                 .body(pdf);
     }
 
+    /** Време за генериране на файла (кешираните отговори не влизат). */
+    private ResponseEntity<byte[]> timed(String tenantId, String format,
+                                         ClosedPeriodResponses.Loader<byte[]> export) throws Exception {
+        Timer.Sample sample = metrics.start();
+        try {
+            return export.load();
+        } finally {
+            metrics.stop(sample, "valstrz.export", tenantId, "format", format);
+        }
+    }
+
     private void setMoney(Cell cell, java.math.BigDecimal val, CellStyle style) {
         cell.setCellValue(val != null ? val.doubleValue() : 0.00);
         cell.setCellStyle(style);
@@ -1,21 +1,27 @@
 package com.valstrz.controller;
 
 import com.valstrz.entity.personnel.Garnishment;
+import com.valstrz.entity.personnel.GarnishmentLedgerEntry;
 import com.valstrz.repository.GarnishmentRepository;
+import com.valstrz.service.GarnishmentLedgerService;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+
 @PreAuthorize("hasAnyRole('ADMIN','ACCOUNTANT','HR_MANAGER')")
 @RestController
 @RequestMapping("/api/companies/{tenantId}/employees/{employeeId}/garnishments")
 public class GarnishmentController {
 
     private final GarnishmentRepository repository;
+    private final GarnishmentLedgerService ledgerService;
 
-    public GarnishmentController(GarnishmentRepository repository) {
+    public GarnishmentController(GarnishmentRepository repository, GarnishmentLedgerService ledgerService) {
         this.repository = repository;
+        this.ledgerService = ledgerService;
     }
 
     @GetMapping
@@ -24,6 +30,14 @@ public class GarnishmentController {
         return repository.findByEmployeeId(employeeId);
     }
 
+    @GetMapping("/{id}/ledger")
+    public ResponseEntity<List<GarnishmentLedgerEntry>> getLedger(@PathVariable String tenantId,
+                                                                  @PathVariable String employeeId,
+                                                                  @PathVariable String id) {
+        if (!repository.existsById(id)) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok(ledgerService.getLedger(id));
+    }
+
     @PostMapping
     public ResponseEntity<Garnishment> create(@PathVariable String tenantId,
                                                 @PathVariable String employeeId,
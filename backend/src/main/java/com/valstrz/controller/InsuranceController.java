@@ -32,12 +32,11 @@ public class InsuranceController {
     }
 
     @PostMapping("/import/mod")
-    public ResponseEntity<Void> importMod(@PathVariable String tenantId,
-                                          @RequestParam("year") int year,
-                                          @RequestParam("file") MultipartFile file) {
+    public ResponseEntity<InsuranceService.ModImportResult> importMod(@PathVariable String tenantId,
+                                                                      @RequestParam("year") int year,
+                                                                      @RequestParam("file") MultipartFile file) {
         try {
-            insuranceService.importMod(tenantId, year, file);
-            return ResponseEntity.ok().build();
+            return ResponseEntity.ok(insuranceService.importMod(tenantId, year, file));
         } catch (IOException e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
@@ -3,6 +3,7 @@ package com.valstrz.controller;
 import com.valstrz.entity.calendar.MonthlyCalendar;
 import com.valstrz.repository.MonthlyCalendarRepository;
 import com.valstrz.service.MonthlyCalendarService;
+import com.valstrz.service.WorkingCalendarService;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -16,13 +17,16 @@ public class MonthlyCalendarController {
     private final MonthlyCalendarRepository repository;
     private final MonthlyCalendarService service;
     private final com.valstrz.service.CalendarService calendarService;
+    private final WorkingCalendarService workingCalendarService;
 
     public MonthlyCalendarController(MonthlyCalendarRepository repository, 
                                      MonthlyCalendarService service,
-                                     com.valstrz.service.CalendarService calendarService) {
+                                     com.valstrz.service.CalendarService calendarService,
+                                     WorkingCalendarService workingCalendarService) {
         this.repository = repository;
         this.service = service;
         this.calendarService = calendarService;
+        this.workingCalendarService = workingCalendarService;
     }
 
     @PostMapping("/{year}/{month}/generate")
@@ -35,6 +39,8 @@ public class MonthlyCalendarController {
     @PostMapping("/generate-year")
     public ResponseEntity<Void> generateYear(@PathVariable String tenantId, @RequestParam int year) {
         calendarService.seedBulgarianHolidays(tenantId, year);
+        // Кешираната година може да е от преди празниците — изграждаме я наново
+        workingCalendarService.invalidate(tenantId);
         service.generateYearlyCalendar(tenantId, year);
         return ResponseEntity.ok().build();
     }
@@ -1,7 +1,9 @@
 package com.valstrz.controller;
 
 import com.valstrz.entity.personnel.MonthlyTimesheet;
+import com.valstrz.repository.MonthClosingSnapshotRepository;
 import com.valstrz.repository.MonthlyTimesheetRepository;
+import com.valstrz.service.PayrollArchiveService;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -15,9 +17,15 @@ import java.util.Optional;
 public class MonthlyTimesheetController {
 
     private final MonthlyTimesheetRepository repository;
+    private final PayrollArchiveService archiveService;
+    private final MonthClosingSnapshotRepository closingRepository;
 
-    public MonthlyTimesheetController(MonthlyTimesheetRepository repository) {
+    public MonthlyTimesheetController(MonthlyTimesheetRepository repository,
+                                      PayrollArchiveService archiveService,
+                                      MonthClosingSnapshotRepository closingRepository) {
         this.repository = repository;
+        this.archiveService = archiveService;
+        this.closingRepository = closingRepository;
     }
 
     @GetMapping
@@ -44,6 +52,9 @@ public class MonthlyTimesheetController {
     @PostMapping
     public ResponseEntity<MonthlyTimesheet> create(@PathVariable String tenantId,
                                                      @RequestBody MonthlyTimesheet timesheet) {
+        if (isReadOnly(tenantId, timesheet.getYear(), timesheet.getMonth())) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
         timesheet.setTenantId(tenantId);
         return ResponseEntity.status(HttpStatus.CREATED).body(repository.save(timesheet));
     }
@@ -52,20 +63,39 @@ public class MonthlyTimesheetController {
     public ResponseEntity<MonthlyTimesheet> update(@PathVariable String tenantId,
                                                      @PathVariable String id,
                                                      @RequestBody MonthlyTimesheet timesheet) {
-        if (!repository.existsById(id)) {
+        Optional<MonthlyTimesheet> existing = repository.findById(id);
+        if (existing.isEmpty()) {
             return ResponseEntity.notFound().build();
         }
+        // Картата не може да се премести от или към затворен месец
+        if (isReadOnly(tenantId, existing.get().getYear(), existing.get().getMonth())
+                || isReadOnly(tenantId, timesheet.getYear(), timesheet.getMonth())) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
         timesheet.setId(id);
         timesheet.setTenantId(tenantId);
         return ResponseEntity.ok(repository.save(timesheet));
     }
 
     @DeleteMapping("/{id}")
-    public ResponseEntity<Void> delete(@PathVariable String id) {
-        if (!repository.existsById(id)) {
+    public ResponseEntity<Void> delete(@PathVariable String tenantId, @PathVariable String id) {
+        Optional<MonthlyTimesheet> existing = repository.findById(id);
+        if (existing.isEmpty()) {
             return ResponseEntity.notFound().build();
         }
+        if (isReadOnly(tenantId, existing.get().getYear(), existing.get().getMonth())) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
         repository.deleteById(id);
         return ResponseEntity.noContent().build();
     }
+
+    /**
+     * Архивираната година и затвореният месец са само за четене: справките от
+     * затворен месец се кешират по версията на затварянето и не виждат промени в картите.
+     */
+    private boolean isReadOnly(String tenantId, int year, int month) {
+        return archiveService.isArchived(tenantId, year)
+                || closingRepository.findByTenantIdAndYearAndMonth(tenantId, year, month).iterator().hasNext();
+    }
 }
@@ -1,58 +1,79 @@
 package com.valstrz.controller;
 
-import com.valstrz.entity.personnel.Absence;
-import com.valstrz.repository.AbsenceRepository;
 import com.valstrz.service.NssiExportService;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.nio.charset.StandardCharsets;
-import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
+import java.time.LocalDate;
 
 @PreAuthorize("hasAnyRole('ADMIN','ACCOUNTANT')")
 @RestController
 @RequestMapping("/api/companies/{tenantId}/nssi")
 public class NssiController {
 
-    private final AbsenceRepository absenceRepository;
     private final NssiExportService nssiExportService;
 
-    public NssiController(AbsenceRepository absenceRepository, NssiExportService nssiExportService) {
-        this.absenceRepository = absenceRepository;
+    public NssiController(NssiExportService nssiExportService) {
         this.nssiExportService = nssiExportService;
     }
 
+    /**
+     * Приложение 9 за месец (year, month), за период (from, to) или за всички болнични.
+     * При validate (по подразбиране) файлът първо се проверява по схемата: без болнични — 204,
+     * с грешки — 422 със списъка; след това се изпраща директно в отговора.
+     */
     @GetMapping("/export/pril9")
-    public ResponseEntity<byte[]> exportPril9(@PathVariable String tenantId,
-                                               @RequestParam(required = false) String employeeId) {
-        
-        Iterable<Absence> allAbsences;
-        if (employeeId != null) {
-            allAbsences = absenceRepository.findByTenantIdAndEmployeeId(tenantId, employeeId);
-        } else {
-            allAbsences = absenceRepository.findAll();
-        }
-
-        List<Absence> sickLeaves = StreamSupport.stream(allAbsences.spliterator(), false)
-                .filter(a -> a.getType() != null && a.getType().startsWith("SICK"))
-                .filter(a -> a.getTenantId().equals(tenantId))
-                .collect(Collectors.toList());
+    public ResponseEntity<?> exportPril9(@PathVariable String tenantId,
+                                         @RequestParam(required = false) String employeeId,
+                                         @RequestParam(required = false) Integer year,
+                                         @RequestParam(required = false) Integer month,
+                                         @RequestParam(required = false)
+                                         @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                         @RequestParam(required = false)
+                                         @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                         @RequestParam(defaultValue = "true") boolean validate) {
+        NssiExportService.Period period = period(year, month, from, to);
+        if (period == null) return ResponseEntity.badRequest().build();
 
-        if (sickLeaves.isEmpty()) {
-            return ResponseEntity.noContent().build();
+        if (validate) {
+            NssiExportService.ExportResult result = nssiExportService.validateAnnex9(tenantId, period, employeeId);
+            if (result.documents() == 0) return ResponseEntity.noContent().build();
+            if (!result.valid()) return ResponseEntity.unprocessableEntity().body(result);
         }
 
-        String xml = nssiExportService.generateAnnex9Xml(tenantId, sickLeaves);
-        byte[] content = xml.getBytes(StandardCharsets.UTF_8);
-
+        StreamingResponseBody body = out ->
+                nssiExportService.writeAnnex9(tenantId, period, employeeId, out, false);
         return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"Pril9_" + tenantId + ".xml\"")
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"" + nssiExportService.fileName(tenantId) + "\"")
                 .contentType(MediaType.APPLICATION_XML)
-                .body(content);
+                .body(body);
+    }
+
+    @GetMapping("/export/pril9/validate")
+    public ResponseEntity<NssiExportService.ExportResult> validatePril9(
+            @PathVariable String tenantId,
+            @RequestParam(required = false) String employeeId,
+            @RequestParam(required = false) Integer year,
+            @RequestParam(required = false) Integer month,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        NssiExportService.Period period = period(year, month, from, to);
+        if (period == null) return ResponseEntity.badRequest().build();
+        return ResponseEntity.ok(nssiExportService.validateAnnex9(tenantId, period, employeeId));
+    }
+
+    /** Месец, период или (без параметри) всички; null при непълни или обърнати граници. */
+    static NssiExportService.Period period(Integer year, Integer month, LocalDate from, LocalDate to) {
+        if (year != null && month != null) return NssiExportService.Period.month(year, month);
+        if (year != null || month != null) return null;
+        if (from == null && to == null) return NssiExportService.Period.all();
+        if (from == null || to == null || to.isBefore(from)) return null;
+        return new NssiExportService.Period(from, to);
     }
 }
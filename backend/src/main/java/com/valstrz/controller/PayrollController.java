@@ -2,17 +2,30 @@ package com.valstrz.controller;
 
 import com.valstrz.entity.payroll.MonthClosingSnapshot;
 import com.valstrz.entity.payroll.Payroll;
+import com.valstrz.entity.payroll.PayrollArchive;
 import com.valstrz.entity.payroll.PayrollSnapshot;
+import com.valstrz.service.AttendanceMatrixService;
 import com.valstrz.service.MonthClosingService;
+import com.valstrz.service.NetToGrossService;
+import com.valstrz.service.PayrollAnomalyService;
+import com.valstrz.service.PayrollArchiveService;
+import com.valstrz.service.PayrollComparisonService;
 import com.valstrz.service.PayrollReportService;
+import com.valstrz.service.PayrollSimulationService;
 import com.valstrz.service.PayrollService;
+import com.valstrz.service.SeniorityBonusService;
 import com.valstrz.service.YearClosingService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.math.BigDecimal;
+import java.time.YearMonth;
 import java.util.List;
 import java.util.Map;
 
@@ -25,15 +38,39 @@ public class PayrollController {
     private final MonthClosingService monthClosingService;
     private final PayrollReportService reportService;
     private final YearClosingService yearClosingService;
+    private final SeniorityBonusService seniorityBonusService;
+    private final AttendanceMatrixService attendanceMatrixService;
+    private final PayrollComparisonService comparisonService;
+    private final PayrollAnomalyService anomalyService;
+    private final PayrollSimulationService simulationService;
+    private final NetToGrossService netToGrossService;
+    private final PayrollArchiveService archiveService;
+    private final ClosedPeriodResponses closedPeriodResponses;
 
     public PayrollController(PayrollService payrollService,
                               MonthClosingService monthClosingService,
                               PayrollReportService reportService,
-                              YearClosingService yearClosingService) {
+                              YearClosingService yearClosingService,
+                              SeniorityBonusService seniorityBonusService,
+                              AttendanceMatrixService attendanceMatrixService,
+                              PayrollComparisonService comparisonService,
+                              PayrollAnomalyService anomalyService,
+                              PayrollSimulationService simulationService,
+                              NetToGrossService netToGrossService,
+                              PayrollArchiveService archiveService,
+                              ClosedPeriodResponses closedPeriodResponses) {
         this.payrollService = payrollService;
         this.monthClosingService = monthClosingService;
         this.reportService = reportService;
         this.yearClosingService = yearClosingService;
+        this.seniorityBonusService = seniorityBonusService;
+        this.attendanceMatrixService = attendanceMatrixService;
+        this.comparisonService = comparisonService;
+        this.anomalyService = anomalyService;
+        this.simulationService = simulationService;
+        this.netToGrossService = netToGrossService;
+        this.archiveService = archiveService;
+        this.closedPeriodResponses = closedPeriodResponses;
     }
 
     // ── Статус ──
@@ -46,11 +83,14 @@ public class PayrollController {
     }
 
     @PostMapping("/start-new")
-    public ResponseEntity<Void> startNewMonth(@PathVariable String tenantId,
-                                              @RequestParam int year,
-                                              @RequestParam int month) {
-        monthClosingService.startNewMonth(tenantId, year, month);
-        return ResponseEntity.ok().build();
+    public ResponseEntity<MonthClosingService.MonthOpeningResult> startNewMonth(@PathVariable String tenantId,
+                                                                                 @RequestParam int year,
+                                                                                 @RequestParam int month) {
+        try {
+            return ResponseEntity.ok(monthClosingService.startNewMonth(tenantId, year, month));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
     }
 
     // ── Изчисление ──
@@ -59,8 +99,12 @@ public class PayrollController {
     public ResponseEntity<List<PayrollSnapshot>> calculateAll(@PathVariable String tenantId,
                                                                 @RequestParam int year,
                                                                 @RequestParam int month) {
-        List<PayrollSnapshot> results = payrollService.calculateAll(tenantId, year, month);
-        return ResponseEntity.ok(results);
+        try {
+            List<PayrollSnapshot> results = payrollService.calculateAll(tenantId, year, month);
+            return ResponseEntity.ok(results);
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
     }
 
     @PostMapping("/calculate/{employeeId}")
@@ -75,22 +119,27 @@ public class PayrollController {
     // ── Snapshots ──
 
     @GetMapping("/snapshots")
-    public List<PayrollSnapshot> getSnapshots(@PathVariable String tenantId,
-                                               @RequestParam int year,
-                                               @RequestParam int month) {
-        return payrollService.getPayrollSnapshots(tenantId, year, month);
+    public ResponseEntity<List<PayrollSnapshot>> getSnapshots(@PathVariable String tenantId,
+                                                              @RequestParam int year,
+                                                              @RequestParam int month,
+                                                              HttpServletRequest request) {
+        return closedPeriodResponses.get(request, tenantId, year, month,
+                () -> ResponseEntity.ok(payrollService.getPayrollSnapshots(tenantId, year, month)));
     }
 
     @GetMapping("/snapshots/{employeeId}")
     public ResponseEntity<PayrollSnapshot> getEmployeeSnapshot(@PathVariable String tenantId,
                                                                  @PathVariable String employeeId,
                                                                  @RequestParam int year,
-                                                                 @RequestParam int month) {
-        PayrollSnapshot snapshot = payrollService.getEmployeeSnapshot(tenantId, employeeId, year, month);
-        if (snapshot == null) {
-            return ResponseEntity.notFound().build();
-        }
-        return ResponseEntity.ok(snapshot);
+                                                                 @RequestParam int month,
+                                                                 HttpServletRequest request) {
+        return closedPeriodResponses.get(request, tenantId, year, month, () -> {
+            PayrollSnapshot snapshot = payrollService.getEmployeeSnapshot(tenantId, employeeId, year, month);
+            if (snapshot == null) {
+                return ResponseEntity.notFound().build();
+            }
+            return ResponseEntity.ok(snapshot);
+        });
     }
 
     // ── Затваряне/отваряне на месец ──
@@ -107,12 +156,27 @@ public class PayrollController {
         }
     }
 
+    @GetMapping("/close/seniority-status")
+    public ResponseEntity<SeniorityBonusService.UpdateStatus> seniorityUpdateStatus(@PathVariable String tenantId,
+                                                                                    @RequestParam int year,
+                                                                                    @RequestParam int month) {
+        SeniorityBonusService.UpdateStatus status = seniorityBonusService.getStatus(tenantId, year, month);
+        if (status == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(status);
+    }
+
     @PostMapping("/reopen")
     public ResponseEntity<Void> reopenMonth(@PathVariable String tenantId,
                                               @RequestParam int year,
                                               @RequestParam int month) {
-        monthClosingService.reopenMonth(tenantId, year, month);
-        return ResponseEntity.ok().build();
+        try {
+            monthClosingService.reopenMonth(tenantId, year, month);
+            return ResponseEntity.ok().build();
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
     }
 
     // ── Преизчисляване на минал месец ──
@@ -121,15 +185,20 @@ public class PayrollController {
     public ResponseEntity<List<PayrollSnapshot>> recalculateMonth(@PathVariable String tenantId,
                                                                      @RequestParam int year,
                                                                      @RequestParam int month) {
-        boolean wasClosed = monthClosingService.isMonthClosed(tenantId, year, month);
-        if (wasClosed) {
-            monthClosingService.reopenMonth(tenantId, year, month);
-        }
-        List<PayrollSnapshot> results = payrollService.calculateAll(tenantId, year, month);
-        if (wasClosed) {
-            monthClosingService.closeMonth(tenantId, year, month);
+        try {
+            boolean wasClosed = monthClosingService.isMonthClosed(tenantId, year, month);
+            if (wasClosed) {
+                monthClosingService.reopenMonth(tenantId, year, month);
+            }
+            List<PayrollSnapshot> results = payrollService.calculateAll(tenantId, year, month);
+            if (wasClosed) {
+                monthClosingService.closeMonth(tenantId, year, month);
+            }
+            return ResponseEntity.ok(results);
+        } catch (IllegalStateException e) {
+            // Архивирана година
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
         }
-        return ResponseEntity.ok(results);
     }
 
     // ── Справки ──
@@ -137,29 +206,37 @@ public class PayrollController {
     @GetMapping("/reports/general")
     public ResponseEntity<PayrollReportService.PayrollReportData> generalReport(
             @PathVariable String tenantId,
-            @RequestParam int year, @RequestParam int month) {
-        return ResponseEntity.ok(reportService.getGeneralReport(tenantId, year, month));
+            @RequestParam int year, @RequestParam int month,
+            HttpServletRequest request) {
+        return closedPeriodResponses.get(request, tenantId, year, month,
+                () -> ResponseEntity.ok(reportService.getGeneralReport(tenantId, year, month)));
     }
 
     @GetMapping("/reports/recap")
     public ResponseEntity<List<PayrollReportService.RecapLine>> recapReport(
             @PathVariable String tenantId,
-            @RequestParam int year, @RequestParam int month) {
-        return ResponseEntity.ok(reportService.getRecapReport(tenantId, year, month));
+            @RequestParam int year, @RequestParam int month,
+            HttpServletRequest request) {
+        return closedPeriodResponses.get(request, tenantId, year, month,
+                () -> ResponseEntity.ok(reportService.getRecapReport(tenantId, year, month)));
     }
 
     @GetMapping("/reports/by-department")
     public ResponseEntity<Map<String, PayrollReportService.PayrollReportData>> byDepartmentReport(
             @PathVariable String tenantId,
-            @RequestParam int year, @RequestParam int month) {
-        return ResponseEntity.ok(reportService.getByDepartmentReport(tenantId, year, month));
+            @RequestParam int year, @RequestParam int month,
+            HttpServletRequest request) {
+        return closedPeriodResponses.get(request, tenantId, year, month,
+                () -> ResponseEntity.ok(reportService.getByDepartmentReport(tenantId, year, month)));
     }
 
     @GetMapping("/reports/insurance-income")
     public ResponseEntity<List<PayrollReportService.InsuranceIncomeRow>> insuranceIncomeReport(
             @PathVariable String tenantId,
-            @RequestParam int year, @RequestParam int month) {
-        return ResponseEntity.ok(reportService.getInsuranceIncomeReport(tenantId, year, month));
+            @RequestParam int year, @RequestParam int month,
+            HttpServletRequest request) {
+        return closedPeriodResponses.get(request, tenantId, year, month,
+                () -> ResponseEntity.ok(reportService.getInsuranceIncomeReport(tenantId, year, month)));
     }
 
     @GetMapping("/reports/comparison")
@@ -169,6 +246,85 @@ public class PayrollController {
         return ResponseEntity.ok(reportService.getComparisonReport(tenantId, year, month));
     }
 
+    /**
+     * Сравнение на два произволни периода; връща само редовете над прага.
+     */
+    @GetMapping("/reports/comparison/periods")
+    public ResponseEntity<PayrollComparisonService.PeriodComparison> comparePeriods(
+            @PathVariable String tenantId,
+            @RequestParam int year, @RequestParam int month,
+            @RequestParam int baseYear, @RequestParam int baseMonth,
+            @RequestParam(required = false) BigDecimal minDelta,
+            @RequestParam(required = false) BigDecimal minPercent) {
+        return ResponseEntity.ok(comparisonService.compare(
+                tenantId, year, month, baseYear, baseMonth, minDelta, minPercent));
+    }
+
+    /**
+     * Тенденция за последните N месеца до (year, month) и отклонение от средното.
+     */
+    @GetMapping("/reports/comparison/trend")
+    public ResponseEntity<PayrollComparisonService.TrendReport> comparisonTrend(
+            @PathVariable String tenantId,
+            @RequestParam int year, @RequestParam int month,
+            @RequestParam(defaultValue = "6") int months,
+            @RequestParam(required = false) BigDecimal minDelta) {
+        if (months < 2 || months > PayrollComparisonService.MAX_TREND_MONTHS) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(comparisonService.trend(tenantId, year, month, months, minDelta));
+    }
+
+    // ── Проверка спрямо историята ──
+
+    @GetMapping("/anomalies")
+    public ResponseEntity<List<PayrollAnomalyService.AnomalyRow>> anomalies(
+            @PathVariable String tenantId,
+            @RequestParam int year, @RequestParam int month) {
+        return ResponseEntity.ok(anomalyService.getAnomalies(tenantId, year, month));
+    }
+
+    @PostMapping("/anomalies/rebuild-baselines")
+    public ResponseEntity<Map<String, Integer>> rebuildAnomalyBaselines(
+            @PathVariable String tenantId,
+            @RequestParam int year, @RequestParam int month) {
+        return ResponseEntity.ok(Map.of("employees", anomalyService.rebuildBaselines(tenantId, year, month)));
+    }
+
+    // ── Симулация при промяна на законодателството ──
+
+    /**
+     * Преизчислява месеца в паметта с подменени ставки/вноски/прагове; нищо не се записва.
+     */
+    @PostMapping("/simulate")
+    public ResponseEntity<PayrollSimulationService.SimulationResult> simulate(
+            @PathVariable String tenantId,
+            @RequestParam int year, @RequestParam int month,
+            @RequestBody PayrollSimulationService.Scenario scenario) {
+        return ResponseEntity.ok(simulationService.simulate(tenantId, year, month, scenario));
+    }
+
+    // ── Обратно изчисление (нето → бруто) ──
+
+    @PostMapping("/net-to-gross")
+    public ResponseEntity<NetToGrossService.SolveResult> netToGross(
+            @PathVariable String tenantId,
+            @RequestParam int year,
+            @RequestBody NetToGrossService.SolveRequest request) {
+        return ResponseEntity.ok(netToGrossService.solve(tenantId, year, request));
+    }
+
+    /**
+     * Пакетно обратно изчисление (напр. таблица за преглед на заплатите).
+     */
+    @PostMapping("/net-to-gross/batch")
+    public ResponseEntity<List<NetToGrossService.SolveResult>> netToGrossBatch(
+            @PathVariable String tenantId,
+            @RequestParam int year,
+            @RequestBody List<NetToGrossService.SolveRequest> requests) {
+        return ResponseEntity.ok(netToGrossService.solveBatch(tenantId, year, requests));
+    }
+
     // ── Годишно приключване ──
 
     @PostMapping("/close-year")
@@ -178,17 +334,88 @@ public class PayrollController {
         return ResponseEntity.ok(yearClosingService.closeYear(tenantId, year));
     }
 
+    // ── Архив на приключени години ──
+
+    @GetMapping("/archive")
+    public ResponseEntity<List<PayrollArchive>> getArchives(@PathVariable String tenantId) {
+        return ResponseEntity.ok(archiveService.getArchives(tenantId));
+    }
+
+    @PostMapping("/archive")
+    public ResponseEntity<PayrollArchive> archiveYear(@PathVariable String tenantId,
+                                                      @RequestParam int year) {
+        try {
+            return ResponseEntity.ok(archiveService.archiveYear(tenantId, year));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+    }
+
+    @PostMapping("/archive/restore")
+    public ResponseEntity<PayrollArchive> restoreYear(@PathVariable String tenantId,
+                                                      @RequestParam int year) {
+        try {
+            return ResponseEntity.ok(archiveService.restoreYear(tenantId, year));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+    }
+
+    @GetMapping("/archive/verify")
+    public ResponseEntity<PayrollArchiveService.VerifyResult> verifyArchive(@PathVariable String tenantId,
+                                                                            @RequestParam int year) {
+        try {
+            return ResponseEntity.ok(archiveService.verify(tenantId, year));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
     @GetMapping("/reports/attendance")
     public ResponseEntity<PayrollReportService.AttendanceReport> attendanceReport(
             @PathVariable String tenantId,
-            @RequestParam int year, @RequestParam int month) {
-        return ResponseEntity.ok(reportService.getAttendanceReport(tenantId, year, month));
+            @RequestParam int year, @RequestParam int month,
+            @RequestParam(required = false) String departmentId,
+            HttpServletRequest request) {
+        return closedPeriodResponses.get(request, tenantId, year, month,
+                () -> ResponseEntity.ok(reportService.getAttendanceReport(tenantId, year, month, departmentId)));
+    }
+
+    /**
+     * Присъствена ведомост за период от месеци, изпращана ред по ред (NDJSON или CSV).
+     */
+    @GetMapping("/reports/attendance/stream")
+    public ResponseEntity<StreamingResponseBody> attendanceReportStream(
+            @PathVariable String tenantId,
+            @RequestParam int fromYear, @RequestParam int fromMonth,
+            @RequestParam int toYear, @RequestParam int toMonth,
+            @RequestParam(required = false) String departmentId,
+            @RequestParam(defaultValue = "ndjson") String format) {
+        YearMonth from = YearMonth.of(fromYear, fromMonth);
+        YearMonth to = YearMonth.of(toYear, toMonth);
+        // След началото на потока статусът вече е 200 — грешният период се връща тук
+        if (!AttendanceMatrixService.isValidRange(from, to)) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        if ("csv".equalsIgnoreCase(format)) {
+            String filename = String.format("attendance_%d_%02d-%d_%02d.csv", fromYear, fromMonth, toYear, toMonth);
+            return ResponseEntity.ok()
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+                    .contentType(MediaType.parseMediaType("text/csv; charset=UTF-8"))
+                    .body(out -> attendanceMatrixService.writeCsv(tenantId, from, to, departmentId, out));
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .body(out -> attendanceMatrixService.writeNdjson(tenantId, from, to, departmentId, out));
     }
 
     @GetMapping("/reports/statistics")
     public ResponseEntity<PayrollReportService.StatisticsReport> statisticsReport(
             @PathVariable String tenantId,
-            @RequestParam int year, @RequestParam int month) {
-        return ResponseEntity.ok(reportService.getStatisticsReport(tenantId, year, month));
+            @RequestParam int year, @RequestParam int month,
+            HttpServletRequest request) {
+        return closedPeriodResponses.get(request, tenantId, year, month,
+                () -> ResponseEntity.ok(reportService.getStatisticsReport(tenantId, year, month)));
     }
 }
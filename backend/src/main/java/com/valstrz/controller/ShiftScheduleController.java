@@ -2,11 +2,16 @@ package com.valstrz.controller;
 
 import com.valstrz.entity.calendar.ShiftSchedule;
 import com.valstrz.repository.ShiftScheduleRepository;
+import com.valstrz.service.ScheduleRegistry;
+import com.valstrz.service.ShiftRotationService;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.StreamSupport;
 
@@ -16,9 +21,14 @@ import java.util.stream.StreamSupport;
 public class ShiftScheduleController {
 
     private final ShiftScheduleRepository repository;
+    private final ScheduleRegistry scheduleRegistry;
+    private final ShiftRotationService shiftRotationService;
 
-    public ShiftScheduleController(ShiftScheduleRepository repository) {
+    public ShiftScheduleController(ShiftScheduleRepository repository, ScheduleRegistry scheduleRegistry,
+                                   ShiftRotationService shiftRotationService) {
         this.repository = repository;
+        this.scheduleRegistry = scheduleRegistry;
+        this.shiftRotationService = shiftRotationService;
     }
 
     @GetMapping
@@ -37,11 +47,30 @@ public class ShiftScheduleController {
                 .orElse(ResponseEntity.notFound().build());
     }
 
+    /**
+     * Разгръща ротацията за период [from, to] (преглед на графика по дни).
+     */
+    @GetMapping("/{id}/rotation")
+    public ResponseEntity<List<ShiftRotationService.RotationDay>> rotation(
+            @PathVariable String tenantId,
+            @PathVariable String id,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate rotationStart) {
+        ShiftSchedule schedule = scheduleRegistry.findShiftScheduleById(tenantId, id);
+        if (schedule == null) return ResponseEntity.notFound().build();
+        ShiftRotationService.ShiftDays days = shiftRotationService.forRange(
+                schedule, rotationStart != null ? rotationStart : from, from, to);
+        return ResponseEntity.ok(days != null ? shiftRotationService.toDays(days) : List.of());
+    }
+
     @PostMapping
     public ResponseEntity<ShiftSchedule> create(@PathVariable String tenantId,
                                                   @RequestBody ShiftSchedule schedule) {
         schedule.setTenantId(tenantId);
-        return ResponseEntity.status(HttpStatus.CREATED).body(repository.save(schedule));
+        ShiftSchedule saved = repository.save(schedule);
+        scheduleRegistry.invalidateShiftSchedules(tenantId);
+        return ResponseEntity.status(HttpStatus.CREATED).body(saved);
     }
 
     @PutMapping("/{id}")
@@ -53,15 +82,18 @@ public class ShiftScheduleController {
         }
         schedule.setId(id);
         schedule.setTenantId(tenantId);
-        return ResponseEntity.ok(repository.save(schedule));
+        ShiftSchedule saved = repository.save(schedule);
+        scheduleRegistry.invalidateShiftSchedules(tenantId);
+        return ResponseEntity.ok(saved);
     }
 
     @DeleteMapping("/{id}")
-    public ResponseEntity<Void> delete(@PathVariable String id) {
+    public ResponseEntity<Void> delete(@PathVariable String tenantId, @PathVariable String id) {
         if (!repository.existsById(id)) {
             return ResponseEntity.notFound().build();
         }
         repository.deleteById(id);
+        scheduleRegistry.invalidateShiftSchedules(tenantId);
         return ResponseEntity.noContent().build();
     }
 
@@ -93,7 +125,10 @@ public class ShiftScheduleController {
                         List.of(1, 1, 1, 1, 1, 0, 0))
         );
 
-        return templates.stream().map(repository::save).toList();
+        List<ShiftSchedule> saved = new ArrayList<>();
+        repository.saveAll(templates).forEach(saved::add);
+        scheduleRegistry.invalidateShiftSchedules(tenantId);
+        return saved;
     }
 
     // ── Помощни методи ──
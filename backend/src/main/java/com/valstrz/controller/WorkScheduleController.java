@@ -2,6 +2,7 @@ package com.valstrz.controller;
 
 import com.valstrz.entity.calendar.WorkSchedule;
 import com.valstrz.repository.WorkScheduleRepository;
+import com.valstrz.service.ScheduleRegistry;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -13,9 +14,11 @@ import org.springframework.web.bind.annotation.*;
 public class WorkScheduleController {
 
     private final WorkScheduleRepository repository;
+    private final ScheduleRegistry scheduleRegistry;
 
-    public WorkScheduleController(WorkScheduleRepository repository) {
+    public WorkScheduleController(WorkScheduleRepository repository, ScheduleRegistry scheduleRegistry) {
         this.repository = repository;
+        this.scheduleRegistry = scheduleRegistry;
     }
 
     @GetMapping
@@ -27,7 +30,9 @@ public class WorkScheduleController {
     public ResponseEntity<WorkSchedule> create(@PathVariable String tenantId,
                                                 @RequestBody WorkSchedule schedule) {
         schedule.setTenantId(tenantId);
-        return ResponseEntity.status(HttpStatus.CREATED).body(repository.save(schedule));
+        WorkSchedule saved = repository.save(schedule);
+        scheduleRegistry.invalidateWorkSchedules(tenantId);
+        return ResponseEntity.status(HttpStatus.CREATED).body(saved);
     }
 
     @PutMapping("/{id}")
@@ -39,15 +44,18 @@ public class WorkScheduleController {
         }
         schedule.setId(id);
         schedule.setTenantId(tenantId);
-        return ResponseEntity.ok(repository.save(schedule));
+        WorkSchedule saved = repository.save(schedule);
+        scheduleRegistry.invalidateWorkSchedules(tenantId);
+        return ResponseEntity.ok(saved);
     }
 
     @DeleteMapping("/{id}")
-    public ResponseEntity<Void> delete(@PathVariable String id) {
+    public ResponseEntity<Void> delete(@PathVariable String tenantId, @PathVariable String id) {
         if (!repository.existsById(id)) {
             return ResponseEntity.notFound().build();
         }
         repository.deleteById(id);
+        scheduleRegistry.invalidateWorkSchedules(tenantId);
         return ResponseEntity.noContent().build();
     }
 }
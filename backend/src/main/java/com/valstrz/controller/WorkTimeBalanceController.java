@@ -0,0 +1,41 @@
+package com.valstrz.controller;
+
+import com.valstrz.entity.personnel.WorkTimeBalance;
+import com.valstrz.service.SummarizedWorkingTimeService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+/**
+ * Салдо на работното време при СИРВ.
+ */
+@PreAuthorize("hasAnyRole('ADMIN','ACCOUNTANT','HR_MANAGER')")
+@RestController
+@RequestMapping("/api/companies/{tenantId}/work-time-balances")
+public class WorkTimeBalanceController {
+
+    private final SummarizedWorkingTimeService service;
+
+    public WorkTimeBalanceController(SummarizedWorkingTimeService service) {
+        this.service = service;
+    }
+
+    @GetMapping
+    public List<WorkTimeBalance> getByMonth(@PathVariable String tenantId,
+                                            @RequestParam int year,
+                                            @RequestParam int month) {
+        return service.getMonthBalances(tenantId, year, month);
+    }
+
+    @GetMapping("/employee/{employeeId}")
+    public ResponseEntity<SummarizedWorkingTimeService.PeriodBalance> getPeriodBalance(
+            @PathVariable String tenantId,
+            @PathVariable String employeeId,
+            @RequestParam int year,
+            @RequestParam int month) {
+        SummarizedWorkingTimeService.PeriodBalance balance = service.getPeriodBalance(tenantId, employeeId, year, month);
+        return balance != null ? ResponseEntity.ok(balance) : ResponseEntity.notFound().build();
+    }
+}
@@ -0,0 +1,45 @@
+package com.valstrz.entity.company;
+
+/**
+ * Банкова сметка на фирмата за изплащане на заплати.
+ * Вграден обект (не е отделен документ в ArangoDB).
+ *
+ * Преводите към служители със сметка в същата банка се нареждат от тази
+ * сметка (вътрешнобанковите преводи са по-евтини); останалите — от сметката
+ * по подразбиране.
+ */
+public class BankAccount {
+
+    private String iban;
+    private String bic;
+    private String bankName;
+    private boolean defaultAccount;   // за служителите в банки без фирмена сметка
+
+    public BankAccount() {}
+
+    public BankAccount(String iban, String bic, String bankName, boolean defaultAccount) {
+        this.iban = iban;
+        this.bic = bic;
+        this.bankName = bankName;
+        this.defaultAccount = defaultAccount;
+    }
+
+    /** Код на банката от IBAN (позиции 5–8, напр. UNCR за BG..UNCR...). */
+    public static String bankCode(String iban) {
+        if (iban == null) return "";
+        String normalized = iban.replace(" ", "").toUpperCase();
+        return normalized.length() >= 8 ? normalized.substring(4, 8) : "";
+    }
+
+    public String getIban() { return iban; }
+    public void setIban(String iban) { this.iban = iban; }
+
+    public String getBic() { return bic; }
+    public void setBic(String bic) { this.bic = bic; }
+
+    public String getBankName() { return bankName; }
+    public void setBankName(String bankName) { this.bankName = bankName; }
+
+    public boolean isDefaultAccount() { return defaultAccount; }
+    public void setDefaultAccount(boolean defaultAccount) { this.defaultAccount = defaultAccount; }
+}
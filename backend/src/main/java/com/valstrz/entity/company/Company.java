@@ -3,6 +3,8 @@ package com.valstrz.entity.company;
 import com.arangodb.springframework.annotation.Document;
 import com.valstrz.entity.BaseEntity;
 
+import java.util.List;
+
 /**
  * Фирмени данни - БУЛСТАТ, адрес, контактна информация.
  * Служи и като tenant идентификатор - id на Company = tenantId за всички останали entities.
@@ -51,6 +53,7 @@ public class Company extends BaseEntity {
     private String companyIban;
     private String companyBic;
     private String companyBankName;
+    private List<BankAccount> payrollAccounts;   // сметки за заплати; празно = companyIban
 
     // НКИД
     private String nkidCode;              // код на основна икон. дейност
@@ -159,6 +162,9 @@ public class Company extends BaseEntity {
     public String getCompanyBankName() { return companyBankName; }
     public void setCompanyBankName(String companyBankName) { this.companyBankName = companyBankName; }
 
+    public List<BankAccount> getPayrollAccounts() { return payrollAccounts; }
+    public void setPayrollAccounts(List<BankAccount> payrollAccounts) { this.payrollAccounts = payrollAccounts; }
+
     public String getNkidCode() { return nkidCode; }
     public void setNkidCode(String nkidCode) { this.nkidCode = nkidCode; }
 
@@ -0,0 +1,22 @@
+package com.valstrz.entity.company;
+
+import com.arangodb.springframework.annotation.Document;
+import com.valstrz.entity.BaseEntity;
+
+/**
+ * Брояч на промените в данните на фирмата, служителите и правоотношенията им.
+ *
+ * Увеличава се при всеки запис (MasterDataRevisionListener). Справките от затворен
+ * месец показват и тези данни, затова броячът влиза в ETag-а им — проверката чете
+ * един документ вместо всички служители. Ключът е tenantId.
+ */
+@Document("masterDataRevisions")
+public class MasterDataRevision extends BaseEntity {
+
+    private long revision;
+
+    public MasterDataRevision() {}
+
+    public long getRevision() { return revision; }
+    public void setRevision(long revision) { this.revision = revision; }
+}
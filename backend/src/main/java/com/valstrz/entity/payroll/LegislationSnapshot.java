@@ -0,0 +1,30 @@
+package com.valstrz.entity.payroll;
+
+import com.arangodb.springframework.annotation.Document;
+import com.valstrz.entity.BaseEntity;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * Параметрите на законодателството, с които е изчислена заплата (legislationParams).
+ *
+ * Ключът е SHA-256 на съдържанието, затова един и същ набор от ставки, прагове и
+ * календар се пази веднъж, а PayrollSnapshot сочи към него с legislationHash.
+ * Документът не се променя след запис — при друго съдържание се получава друг ключ.
+ * Общ е за всички фирми (tenantId е празно).
+ */
+@Document("legislationSnapshots")
+public class LegislationSnapshot extends BaseEntity {
+
+    private Map<String, Object> params;
+    private LocalDateTime createdAt;
+
+    public LegislationSnapshot() {}
+
+    public Map<String, Object> getParams() { return params; }
+    public void setParams(Map<String, Object> params) { this.params = params; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+}
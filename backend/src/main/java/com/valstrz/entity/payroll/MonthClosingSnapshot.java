@@ -1,6 +1,7 @@
 package com.valstrz.entity.payroll;
 
 import com.arangodb.springframework.annotation.Document;
+import com.arangodb.springframework.annotation.PersistentIndex;
 import com.valstrz.entity.BaseEntity;
 
 import java.time.LocalDateTime;
@@ -17,12 +18,14 @@ import java.util.Map;
  * без значение какви промени е имало след това.
  */
 @Document("monthClosingSnapshots")
+@PersistentIndex(fields = {"tenantId", "year", "month"})
 public class MonthClosingSnapshot extends BaseEntity {
 
     private int year;
     private int month;
     private LocalDateTime closedAt;
     private String closedBy;              // потребител затворил месеца
+    private int closingVersion;           // Payroll.closingVersion към момента на затваряне
 
     // Пълен snapshot на фирмените настройки към момента на затваряне
     private Map<String, Object> companyData;
@@ -57,6 +60,9 @@ public class MonthClosingSnapshot extends BaseEntity {
     public String getClosedBy() { return closedBy; }
     public void setClosedBy(String closedBy) { this.closedBy = closedBy; }
 
+    public int getClosingVersion() { return closingVersion; }
+    public void setClosingVersion(int closingVersion) { this.closingVersion = closingVersion; }
+
     public Map<String, Object> getCompanyData() { return companyData; }
     public void setCompanyData(Map<String, Object> companyData) { this.companyData = companyData; }
 
@@ -18,7 +18,9 @@ public class Payroll extends BaseEntity {
     private LocalDateTime calculatedAt;
     private LocalDateTime closedAt;
     private String closedBy;
+    private int closingVersion;         // +1 при всяко отваряне (ETag на затворения месец)
     private int employeeCount;
+    private java.util.List<String> calculationErrors; // служители, които не са изчислени при последното изчисление
     private java.math.BigDecimal totalGross;
     private java.math.BigDecimal totalNet;
     private java.math.BigDecimal totalEmployerCost;
@@ -43,9 +45,15 @@ public class Payroll extends BaseEntity {
     public String getClosedBy() { return closedBy; }
     public void setClosedBy(String closedBy) { this.closedBy = closedBy; }
 
+    public int getClosingVersion() { return closingVersion; }
+    public void setClosingVersion(int closingVersion) { this.closingVersion = closingVersion; }
+
     public int getEmployeeCount() { return employeeCount; }
     public void setEmployeeCount(int employeeCount) { this.employeeCount = employeeCount; }
 
+    public java.util.List<String> getCalculationErrors() { return calculationErrors; }
+    public void setCalculationErrors(java.util.List<String> calculationErrors) { this.calculationErrors = calculationErrors; }
+
     public java.math.BigDecimal getTotalGross() { return totalGross; }
     public void setTotalGross(java.math.BigDecimal totalGross) { this.totalGross = totalGross; }
 
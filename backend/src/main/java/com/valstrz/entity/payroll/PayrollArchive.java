@@ -0,0 +1,65 @@
+package com.valstrz.entity.payroll;
+
+import com.arangodb.springframework.annotation.Document;
+import com.valstrz.entity.BaseEntity;
+
+import java.time.LocalDateTime;
+
+/**
+ * Архивирана (приключена) година на фирма.
+ *
+ * Заплатите, часовите карти и дневникът за годината са изнесени в сегментен файл
+ * (SegmentFile) и премахнати от базата. Докато status е ARCHIVED, справките ги четат
+ * от файла; при RESTORED документите са върнати в базата, а файлът се пази.
+ * Ключът е tenantId_year.
+ */
+@Document("payrollArchives")
+public class PayrollArchive extends BaseEntity {
+
+    private int year;
+    private String status;             // ARCHIVED, RESTORED
+    private String segmentFile;        // път до сегмента
+    private String segmentSha256;      // контролна сума на целия файл след последния запис
+    private long segmentSize;
+    private int payrollSnapshots;
+    private int monthlyTimesheets;
+    private int auditLogs;
+    private LocalDateTime archivedAt;
+    private LocalDateTime restoredAt;
+
+    public PayrollArchive() {}
+
+    public static String keyOf(String tenantId, int year) {
+        return tenantId + "_" + year;
+    }
+
+    public int getYear() { return year; }
+    public void setYear(int year) { this.year = year; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public String getSegmentFile() { return segmentFile; }
+    public void setSegmentFile(String segmentFile) { this.segmentFile = segmentFile; }
+
+    public String getSegmentSha256() { return segmentSha256; }
+    public void setSegmentSha256(String segmentSha256) { this.segmentSha256 = segmentSha256; }
+
+    public long getSegmentSize() { return segmentSize; }
+    public void setSegmentSize(long segmentSize) { this.segmentSize = segmentSize; }
+
+    public int getPayrollSnapshots() { return payrollSnapshots; }
+    public void setPayrollSnapshots(int payrollSnapshots) { this.payrollSnapshots = payrollSnapshots; }
+
+    public int getMonthlyTimesheets() { return monthlyTimesheets; }
+    public void setMonthlyTimesheets(int monthlyTimesheets) { this.monthlyTimesheets = monthlyTimesheets; }
+
+    public int getAuditLogs() { return auditLogs; }
+    public void setAuditLogs(int auditLogs) { this.auditLogs = auditLogs; }
+
+    public LocalDateTime getArchivedAt() { return archivedAt; }
+    public void setArchivedAt(LocalDateTime archivedAt) { this.archivedAt = archivedAt; }
+
+    public LocalDateTime getRestoredAt() { return restoredAt; }
+    public void setRestoredAt(LocalDateTime restoredAt) { this.restoredAt = restoredAt; }
+}
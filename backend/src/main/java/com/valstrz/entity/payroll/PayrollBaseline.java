@@ -0,0 +1,142 @@
+package com.valstrz.entity.payroll;
+
+import com.arangodb.springframework.annotation.Document;
+import com.valstrz.entity.BaseEntity;
+import com.valstrz.util.MoneyUtil;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * База за сравнение на заплатата на един служител — затворените месеци по период.
+ *
+ * Пазят се стойностите от последните месеци (до retainMonths назад от най-новия),
+ * а средното и отклонението се изчисляват в BigDecimal за прозореца преди проверявания
+ * месец. Така премахването на месец при повторно отваряне връща в прозореца
+ * по-старите месеци, без да се четат старите snapshot-и. Ключът е employeeId.
+ */
+@Document("payrollBaselines")
+public class PayrollBaseline extends BaseEntity {
+
+    public static final String GROSS = "gross";
+    public static final String NET = "net";
+    public static final String INSURABLE_INCOME = "insurableIncome";
+    public static final String INCOME_TAX = "incomeTax";
+
+    private String employeeId;
+    private List<Sample> samples = new ArrayList<>();   // по ред на периода, най-старият първи
+    private LocalDateTime updatedAt;
+
+    public PayrollBaseline() {}
+
+    public static String keyOf(String employeeId) {
+        return employeeId;
+    }
+
+    /**
+     * Добавя (или заменя) месеца и премахва месеците отпреди retainMonths от най-новия.
+     */
+    public void addSample(Sample sample, int retainMonths) {
+        removeSample(sample.getYear(), sample.getMonth());
+        int i = samples.size();
+        while (i > 0 && samples.get(i - 1).period() > sample.period()) i--;
+        samples.add(i, sample);
+
+        int oldestAllowed = samples.get(samples.size() - 1).period() - retainMonths + 1;
+        while (samples.get(0).period() < oldestAllowed) samples.remove(0);
+    }
+
+    /** @return true, ако месецът е бил в базата */
+    public boolean removeSample(int year, int month) {
+        return samples.removeIf(s -> s.getYear() == year && s.getMonth() == month);
+    }
+
+    /** Статистика за показателя по месеците от последните windowMonths преди (year, month). */
+    public Stats stats(String metric, int year, int month, int windowMonths) {
+        int period = year * 12 + month - 1;
+        List<BigDecimal> values = new ArrayList<>();
+        for (Sample s : samples) {
+            if (s.period() < period && s.period() >= period - windowMonths) values.add(s.value(metric));
+        }
+        return Stats.of(values);
+    }
+
+    public String getEmployeeId() { return employeeId; }
+    public void setEmployeeId(String employeeId) { this.employeeId = employeeId; }
+
+    public List<Sample> getSamples() { return samples; }
+    public void setSamples(List<Sample> samples) { this.samples = samples; }
+
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+
+    /**
+     * Стойностите от един затворен месец.
+     */
+    public static class Sample {
+        private int year;
+        private int month;
+        private BigDecimal gross;
+        private BigDecimal net;
+        private BigDecimal insurableIncome;
+        private BigDecimal incomeTax;
+
+        public Sample() {}
+
+        public int period() { return year * 12 + month - 1; }
+
+        public BigDecimal value(String metric) {
+            BigDecimal v = switch (metric) {
+                case GROSS -> gross;
+                case NET -> net;
+                case INSURABLE_INCOME -> insurableIncome;
+                case INCOME_TAX -> incomeTax;
+                default -> throw new IllegalArgumentException("Непознат показател: " + metric);
+            };
+            return v != null ? v : BigDecimal.ZERO;
+        }
+
+        public int getYear() { return year; }
+        public void setYear(int year) { this.year = year; }
+
+        public int getMonth() { return month; }
+        public void setMonth(int month) { this.month = month; }
+
+        public BigDecimal getGross() { return gross; }
+        public void setGross(BigDecimal gross) { this.gross = gross; }
+
+        public BigDecimal getNet() { return net; }
+        public void setNet(BigDecimal net) { this.net = net; }
+
+        public BigDecimal getInsurableIncome() { return insurableIncome; }
+        public void setInsurableIncome(BigDecimal insurableIncome) { this.insurableIncome = insurableIncome; }
+
+        public BigDecimal getIncomeTax() { return incomeTax; }
+        public void setIncomeTax(BigDecimal incomeTax) { this.incomeTax = incomeTax; }
+    }
+
+    /**
+     * Брой, средно и стандартно отклонение на извадката (0 при по-малко от 2 стойности).
+     */
+    public record Stats(int count, BigDecimal mean, BigDecimal stdDev) {
+
+        static Stats of(List<BigDecimal> values) {
+            int n = values.size();
+            if (n == 0) return new Stats(0, BigDecimal.ZERO, BigDecimal.ZERO);
+            BigDecimal sum = BigDecimal.ZERO;
+            for (BigDecimal v : values) sum = sum.add(v);
+            BigDecimal mean = sum.divide(BigDecimal.valueOf(n), MoneyUtil.CALC_SCALE, MoneyUtil.ROUNDING);
+            if (n == 1) return new Stats(1, mean, BigDecimal.ZERO);
+
+            BigDecimal squares = BigDecimal.ZERO;
+            for (BigDecimal v : values) {
+                BigDecimal d = v.subtract(mean);
+                squares = squares.add(d.multiply(d));
+            }
+            BigDecimal variance = squares.divide(BigDecimal.valueOf(n - 1L), MoneyUtil.CALC_SCALE, MoneyUtil.ROUNDING);
+            return new Stats(n, mean, variance.sqrt(MoneyUtil.MC));
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package com.valstrz.entity.payroll;
 
 import com.arangodb.springframework.annotation.Document;
+import com.arangodb.springframework.annotation.PersistentIndex;
 import com.valstrz.entity.BaseEntity;
+import org.springframework.data.annotation.Transient;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
@@ -16,8 +18,13 @@ import java.util.Map;
  * бъдещи промени в законодателството, осигурителни ставки или настройки.
  *
  * Един JSON = пълна истина за този месец, завинаги.
+ * Параметрите на законодателството се пазят веднъж в legislationSnapshots
+ * (неизменим документ с ключ хеша на съдържанието) и се зареждат обратно в
+ * legislationParams при четене — за кода snapshot-ът е същият.
  */
 @Document("payrollSnapshots")
+@PersistentIndex(fields = {"tenantId", "year", "month"})
+@PersistentIndex(fields = {"tenantId", "employeeId", "year", "month"})
 public class PayrollSnapshot extends BaseEntity {
 
     // === ИДЕНТИФИКАЦИЯ ===
@@ -35,6 +42,9 @@ public class PayrollSnapshot extends BaseEntity {
 
     // === SNAPSHOT НА ПАРАМЕТРИТЕ (законодателство + фирмени настройки) ===
     private Map<String, Object> legislationParams;
+    private String legislationHash;          // ключ в legislationSnapshots
+    @Transient
+    private transient Map<String, Object> legislationBeforeSave; // legislationParams по време на запис
     // Включва:
     // - МРЗ, максимален осиг. доход
     // - плосък данък %
@@ -76,6 +86,10 @@ public class PayrollSnapshot extends BaseEntity {
     private BigDecimal totalEmployerCost;      // общ разход за работодателя
     private BigDecimal totalEmployerInsurance;  // осигуровки работодател
 
+    // === ПРОВЕРКА СПРЯМО ИСТОРИЯТА ===
+    // Отклонения от базата на предходните затворени месеци (празно = няма)
+    private List<Anomaly> anomalies;
+
     public PayrollSnapshot() {}
 
     // === Getters/Setters ===
@@ -104,6 +118,26 @@ public class PayrollSnapshot extends BaseEntity {
     public Map<String, Object> getLegislationParams() { return legislationParams; }
     public void setLegislationParams(Map<String, Object> legislationParams) { this.legislationParams = legislationParams; }
 
+    public String getLegislationHash() { return legislationHash; }
+    public void setLegislationHash(String legislationHash) { this.legislationHash = legislationHash; }
+
+    /**
+     * Премахва legislationParams от записвания документ (остава само legislationHash).
+     * Параметрите се връщат на обекта с {@link #restoreAfterSave()}.
+     */
+    public void detachLegislationBeforeSave() {
+        if (legislationParams == null) return;
+        legislationBeforeSave = legislationParams;
+        legislationParams = null;
+    }
+
+    public void restoreAfterSave() {
+        if (legislationBeforeSave != null) {
+            legislationParams = legislationBeforeSave;
+            legislationBeforeSave = null;
+        }
+    }
+
     public Map<String, Object> getTimesheetData() { return timesheetData; }
     public void setTimesheetData(Map<String, Object> timesheetData) { this.timesheetData = timesheetData; }
 
@@ -143,6 +177,9 @@ public class PayrollSnapshot extends BaseEntity {
     public BigDecimal getTotalEmployerInsurance() { return totalEmployerInsurance; }
     public void setTotalEmployerInsurance(BigDecimal totalEmployerInsurance) { this.totalEmployerInsurance = totalEmployerInsurance; }
 
+    public List<Anomaly> getAnomalies() { return anomalies; }
+    public void setAnomalies(List<Anomaly> anomalies) { this.anomalies = anomalies; }
+
     /**
      * Един ред от изчислението - перо за начисление, удръжка или осигуровка.
      */
@@ -182,4 +219,36 @@ public class PayrollSnapshot extends BaseEntity {
         public Map<String, String> getMetadata() { return metadata; }
         public void setMetadata(Map<String, String> metadata) { this.metadata = metadata; }
     }
+
+    /**
+     * Отклонение на показател (брутно, нето, осиг. доход, ДОД) от базата на служителя.
+     */
+    public static class Anomaly {
+        private String metric;        // gross, net, insurableIncome, incomeTax
+        private BigDecimal value;     // стойност за месеца
+        private BigDecimal mean;      // средно за базовите месеци
+        private BigDecimal stdDev;    // стандартно отклонение за базовите месеци
+        private BigDecimal zScore;    // (стойност - средно) / отклонение
+        private int baselineMonths;   // брой месеци в базата
+
+        public Anomaly() {}
+
+        public String getMetric() { return metric; }
+        public void setMetric(String metric) { this.metric = metric; }
+
+        public BigDecimal getValue() { return value; }
+        public void setValue(BigDecimal value) { this.value = value; }
+
+        public BigDecimal getMean() { return mean; }
+        public void setMean(BigDecimal mean) { this.mean = mean; }
+
+        public BigDecimal getStdDev() { return stdDev; }
+        public void setStdDev(BigDecimal stdDev) { this.stdDev = stdDev; }
+
+        public BigDecimal getZScore() { return zScore; }
+        public void setZScore(BigDecimal zScore) { this.zScore = zScore; }
+
+        public int getBaselineMonths() { return baselineMonths; }
+        public void setBaselineMonths(int baselineMonths) { this.baselineMonths = baselineMonths; }
+    }
 }
@@ -1,6 +1,7 @@
 package com.valstrz.entity.personnel;
 
 import com.arangodb.springframework.annotation.Document;
+import com.arangodb.springframework.annotation.PersistentIndex;
 import com.valstrz.entity.BaseEntity;
 
 import java.time.LocalDate;
@@ -13,6 +14,7 @@ import java.util.Map;
  * дни за сметка на работодателя / НОИ).
  */
 @Document("absences")
+@PersistentIndex(fields = {"tenantId", "fromDate"})
 public class Absence extends BaseEntity {
 
     private String employeeId;
@@ -1,6 +1,7 @@
 package com.valstrz.entity.personnel;
 
 import com.arangodb.springframework.annotation.Document;
+import com.arangodb.springframework.annotation.PersistentIndex;
 import com.valstrz.entity.BaseEntity;
 
 import java.time.LocalDate;
@@ -11,6 +12,7 @@ import java.util.Map;
  * Пази snapshot на променените условия преди ДС-то.
  */
 @Document("amendments")
+@PersistentIndex(fields = {"tenantId", "date"})
 public class Amendment extends BaseEntity {
 
     private String employeeId;
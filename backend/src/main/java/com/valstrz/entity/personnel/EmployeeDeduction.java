@@ -1,6 +1,7 @@
 package com.valstrz.entity.personnel;
 
 import com.arangodb.springframework.annotation.Document;
+import com.arangodb.springframework.annotation.PersistentIndex;
 import com.valstrz.entity.BaseEntity;
 
 import java.math.BigDecimal;
@@ -10,6 +11,7 @@ import java.math.BigDecimal;
  * Свързва DeductionItem с конкретен служител и задава сума/период.
  */
 @Document("employeeDeductions")
+@PersistentIndex(fields = {"tenantId", "employeeId"})
 public class EmployeeDeduction extends BaseEntity {
 
     private String employeeId;
@@ -1,6 +1,7 @@
 package com.valstrz.entity.personnel;
 
 import com.arangodb.springframework.annotation.Document;
+import com.arangodb.springframework.annotation.PersistentIndex;
 import com.valstrz.entity.BaseEntity;
 
 import java.math.BigDecimal;
@@ -12,6 +13,7 @@ import java.time.LocalDate;
  * а тук се обновяват текущите.
  */
 @Document("employments")
+@PersistentIndex(fields = {"tenantId", "contractDate"})
 public class Employment extends BaseEntity {
 
     private String employeeId;
@@ -36,6 +38,8 @@ public class Employment extends BaseEntity {
     private String workPhone;              // служебен телефон
     private String workTimeType;           // вид работно време (пълно, непълно, ненормирано)
     private String workScheduleCode;       // код на часова схема
+    private String shiftScheduleCode;      // код на сменен график (при работа на смени)
+    private LocalDate shiftRotationStart;  // ден, от който започва ротацията (позиция 0 в модела)
     private String insuranceType;          // вид осигурителна вноска
     private String insuredType;            // вид осигурен
 
@@ -134,6 +138,12 @@ public class Employment extends BaseEntity {
     public String getWorkScheduleCode() { return workScheduleCode; }
     public void setWorkScheduleCode(String workScheduleCode) { this.workScheduleCode = workScheduleCode; }
 
+    public String getShiftScheduleCode() { return shiftScheduleCode; }
+    public void setShiftScheduleCode(String shiftScheduleCode) { this.shiftScheduleCode = shiftScheduleCode; }
+
+    public LocalDate getShiftRotationStart() { return shiftRotationStart; }
+    public void setShiftRotationStart(LocalDate shiftRotationStart) { this.shiftRotationStart = shiftRotationStart; }
+
     public String getInsuranceType() { return insuranceType; }
     public void setInsuranceType(String insuranceType) { this.insuranceType = insuranceType; }
 
@@ -1,6 +1,7 @@
 package com.valstrz.entity.personnel;
 
 import com.arangodb.springframework.annotation.Document;
+import com.arangodb.springframework.annotation.PersistentIndex;
 import com.valstrz.entity.BaseEntity;
 
 import java.math.BigDecimal;
@@ -10,6 +11,7 @@ import java.time.LocalDate;
  * Запор на служител.
  */
 @Document("garnishments")
+@PersistentIndex(fields = {"tenantId", "employeeId"})
 public class Garnishment extends BaseEntity {
 
     private String employeeId;
@@ -19,7 +21,8 @@ public class Garnishment extends BaseEntity {
     private String bailiffName;        // ЧСИ / Публичен изпълнител
     
     private BigDecimal totalAmount;    // обща сума на дълга
-    private BigDecimal paidAmount;     // вече удържана сума
+    private BigDecimal paidAmount;     // вече удържана сума (= openingPaidAmount + дневник)
+    private BigDecimal openingPaidAmount; // удържано преди воденето на дневника (garnishmentLedger)
     private BigDecimal monthlyAmount;  // фиксирана месечна сума (при издръжка)
     
     private int priority;              // приоритет (по-малко число = по-висок приоритет)
@@ -62,6 +65,9 @@ public class Garnishment extends BaseEntity {
     public BigDecimal getPaidAmount() { return paidAmount; }
     public void setPaidAmount(BigDecimal paidAmount) { this.paidAmount = paidAmount; }
 
+    public BigDecimal getOpeningPaidAmount() { return openingPaidAmount; }
+    public void setOpeningPaidAmount(BigDecimal openingPaidAmount) { this.openingPaidAmount = openingPaidAmount; }
+
     public BigDecimal getMonthlyAmount() { return monthlyAmount; }
     public void setMonthlyAmount(BigDecimal monthlyAmount) { this.monthlyAmount = monthlyAmount; }
 
@@ -0,0 +1,53 @@
+package com.valstrz.entity.personnel;
+
+import com.arangodb.springframework.annotation.Document;
+import com.valstrz.entity.BaseEntity;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Запис в дневника на удръжките по запор: един запис на запор за затворен месец.
+ *
+ * Ключът е детерминиран (garnishmentId-година-месец), така че повторно
+ * затваряне на месеца презаписва същия документ. Платената сума по запора
+ * се изчислява като сбор от записите; отварянето на месец изтрива неговите записи.
+ */
+@Document("garnishmentLedger")
+public class GarnishmentLedgerEntry extends BaseEntity {
+
+    private String garnishmentId;
+    private String employeeId;
+    private String snapshotId;         // PayrollSnapshot, от който идва удръжката
+    private int year;
+    private int month;
+    private BigDecimal amount;         // удържана сума за месеца
+    private LocalDateTime recordedAt;
+
+    public GarnishmentLedgerEntry() {}
+
+    public static String keyOf(String garnishmentId, int year, int month) {
+        return garnishmentId + "-" + year + "-" + month;
+    }
+
+    public String getGarnishmentId() { return garnishmentId; }
+    public void setGarnishmentId(String garnishmentId) { this.garnishmentId = garnishmentId; }
+
+    public String getEmployeeId() { return employeeId; }
+    public void setEmployeeId(String employeeId) { this.employeeId = employeeId; }
+
+    public String getSnapshotId() { return snapshotId; }
+    public void setSnapshotId(String snapshotId) { this.snapshotId = snapshotId; }
+
+    public int getYear() { return year; }
+    public void setYear(int year) { this.year = year; }
+
+    public int getMonth() { return month; }
+    public void setMonth(int month) { this.month = month; }
+
+    public BigDecimal getAmount() { return amount; }
+    public void setAmount(BigDecimal amount) { this.amount = amount; }
+
+    public LocalDateTime getRecordedAt() { return recordedAt; }
+    public void setRecordedAt(LocalDateTime recordedAt) { this.recordedAt = recordedAt; }
+}
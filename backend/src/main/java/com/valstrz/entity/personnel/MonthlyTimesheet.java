@@ -1,9 +1,13 @@
 package com.valstrz.entity.personnel;
 
 import com.arangodb.springframework.annotation.Document;
+import com.arangodb.springframework.annotation.PersistentIndex;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.valstrz.entity.BaseEntity;
+import org.springframework.data.annotation.Transient;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -11,6 +15,7 @@ import java.util.List;
  * Масив от дневни записи - какво е работено/отсъствано всеки ден.
  */
 @Document("monthlyTimesheets")
+@PersistentIndex(fields = {"tenantId", "year", "month"})
 public class MonthlyTimesheet extends BaseEntity {
 
     private String employeeId;
@@ -18,9 +23,14 @@ public class MonthlyTimesheet extends BaseEntity {
     private int month;
 
     private List<DailyEntry> days;
+    private CompactDays compactDays;   // компактен запис на days (само в базата, виж TimesheetCompactionListener)
+
+    @Transient
+    private transient List<DailyEntry> daysBeforeSave; // days по време на запис в компактен вид
 
     // Обобщение за месеца
     private int totalWorkedDays;
+    private Integer scheduledShiftDays;  // дни със смяна по сменния график (null при обикновено работно време)
     private BigDecimal totalWorkedHours;
     private BigDecimal totalOvertimeHours;
     private BigDecimal totalNightHours;
@@ -39,12 +49,64 @@ public class MonthlyTimesheet extends BaseEntity {
     public int getMonth() { return month; }
     public void setMonth(int month) { this.month = month; }
 
-    public List<DailyEntry> getDays() { return days; }
-    public void setDays(List<DailyEntry> days) { this.days = days; }
+    /**
+     * Дневните записи; документ, записан в компактен вид, се разгръща при първо обръщение.
+     */
+    public List<DailyEntry> getDays() {
+        if (days == null && daysBeforeSave != null) {
+            days = daysBeforeSave;
+            daysBeforeSave = null;
+        } else if (days == null && compactDays != null) {
+            days = compactDays.unpack();
+        }
+        return days;
+    }
+
+    public void setDays(List<DailyEntry> days) {
+        this.days = days;
+        this.compactDays = null;
+        this.daysBeforeSave = null;
+    }
+
+    @JsonIgnore
+    public CompactDays getCompactDays() { return compactDays; }
+    public void setCompactDays(CompactDays compactDays) { this.compactDays = compactDays; }
+
+    /**
+     * Преди запис: заменя days с компактния запис, ако това е възможно без загуба.
+     * Списъкът се връща на обекта с {@link #restoreAfterSave()}.
+     */
+    public void compactBeforeSave() {
+        List<DailyEntry> current = getDays();
+        CompactDays packed = CompactDays.pack(current);
+        if (packed == null) {
+            compactDays = null;
+            return;
+        }
+        compactDays = packed;
+        daysBeforeSave = current;
+        days = null;
+    }
+
+    /** Преди запис в разгърнат вид (компактирането е изключено). */
+    public void expandBeforeSave() {
+        getDays();
+        compactDays = null;
+    }
+
+    public void restoreAfterSave() {
+        if (daysBeforeSave != null) {
+            days = daysBeforeSave;
+            daysBeforeSave = null;
+        }
+    }
 
     public int getTotalWorkedDays() { return totalWorkedDays; }
     public void setTotalWorkedDays(int totalWorkedDays) { this.totalWorkedDays = totalWorkedDays; }
 
+    public Integer getScheduledShiftDays() { return scheduledShiftDays; }
+    public void setScheduledShiftDays(Integer scheduledShiftDays) { this.scheduledShiftDays = scheduledShiftDays; }
+
     public BigDecimal getTotalWorkedHours() { return totalWorkedHours; }
     public void setTotalWorkedHours(BigDecimal totalWorkedHours) { this.totalWorkedHours = totalWorkedHours; }
 
@@ -94,4 +156,141 @@ public class MonthlyTimesheet extends BaseEntity {
         public String getAbsenceCode() { return absenceCode; }
         public void setAbsenceCode(String absenceCode) { this.absenceCode = absenceCode; }
     }
+
+    /**
+     * Колонен запис на дневните записи: часовете са в стотни от часа (int),
+     * видът на деня е по един символ на ден, а кодовете на отсъствие са в речник.
+     * Дните са 1..n подред; NULL_HOURS означава липсваща стойност.
+     */
+    public static class CompactDays {
+
+        static final int NULL_HOURS = Integer.MIN_VALUE;
+
+        private static final String TYPES = "WEHA";
+        private static final String[] TYPE_NAMES = { "WORK", "WEEKEND", "HOLIDAY", "ABSENCE" };
+        private static final char NULL_TYPE = '-';
+
+        private String dayTypes;             // напр. "WWWWWEEWWWWWEE..."
+        private int[] workedHours;           // стотни от часа
+        private int[] overtimeHours;
+        private int[] nightHours;
+        private List<String> absenceCodes;   // речник на кодовете
+        private int[] absenceIndex;          // 0 = няма, i = absenceCodes[i - 1]
+
+        public CompactDays() {}
+
+        /**
+         * Компактира дневните записи. Връща null, ако записът не може да се
+         * представи без загуба (непоследователни дни, непознат вид ден, повече от 2 знака след запетаята).
+         */
+        public static CompactDays pack(List<DailyEntry> days) {
+            if (days == null) return null;
+            int n = days.size();
+            StringBuilder types = new StringBuilder(n);
+            int[] worked = new int[n];
+            int[] overtime = new int[n];
+            int[] night = new int[n];
+            List<String> codes = new ArrayList<>();
+            int[] absence = new int[n];
+            boolean anyAbsence = false;
+
+            for (int i = 0; i < n; i++) {
+                DailyEntry e = days.get(i);
+                if (e == null || e.getDay() != i + 1) return null;
+
+                char type = typeChar(e.getDayType());
+                if (type == 0) return null;
+                types.append(type);
+
+                Integer w = toHundredths(e.getWorkedHours());
+                Integer o = toHundredths(e.getOvertimeHours());
+                Integer h = toHundredths(e.getNightHours());
+                if (w == null || o == null || h == null) return null;
+                worked[i] = w;
+                overtime[i] = o;
+                night[i] = h;
+
+                if (e.getAbsenceCode() != null) {
+                    int idx = codes.indexOf(e.getAbsenceCode());
+                    if (idx < 0) {
+                        codes.add(e.getAbsenceCode());
+                        idx = codes.size() - 1;
+                    }
+                    absence[i] = idx + 1;
+                    anyAbsence = true;
+                }
+            }
+
+            CompactDays c = new CompactDays();
+            c.dayTypes = types.toString();
+            c.workedHours = worked;
+            c.overtimeHours = overtime;
+            c.nightHours = night;
+            if (anyAbsence) {
+                c.absenceCodes = codes;
+                c.absenceIndex = absence;
+            }
+            return c;
+        }
+
+        public List<DailyEntry> unpack() {
+            int n = dayTypes != null ? dayTypes.length() : 0;
+            List<DailyEntry> days = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                DailyEntry e = new DailyEntry();
+                e.setDay(i + 1);
+                int t = TYPES.indexOf(dayTypes.charAt(i));
+                e.setDayType(t >= 0 ? TYPE_NAMES[t] : null);
+                e.setWorkedHours(fromHundredths(workedHours, i));
+                e.setOvertimeHours(fromHundredths(overtimeHours, i));
+                e.setNightHours(fromHundredths(nightHours, i));
+                if (absenceIndex != null && absenceIndex[i] > 0) {
+                    e.setAbsenceCode(absenceCodes.get(absenceIndex[i] - 1));
+                }
+                days.add(e);
+            }
+            return days;
+        }
+
+        private static char typeChar(String dayType) {
+            if (dayType == null) return NULL_TYPE;
+            for (int t = 0; t < TYPE_NAMES.length; t++) {
+                if (TYPE_NAMES[t].equals(dayType)) return TYPES.charAt(t);
+            }
+            return 0;
+        }
+
+        private static Integer toHundredths(BigDecimal value) {
+            if (value == null) return NULL_HOURS;
+            try {
+                int v = value.movePointRight(2).intValueExact();
+                return v == NULL_HOURS ? null : v;
+            } catch (ArithmeticException e) {
+                return null;
+            }
+        }
+
+        private static BigDecimal fromHundredths(int[] values, int i) {
+            if (values == null || values[i] == NULL_HOURS) return null;
+            return BigDecimal.valueOf(values[i], 2);
+        }
+
+        public String getDayTypes() { return dayTypes; }
+        public void setDayTypes(String dayTypes) { this.dayTypes = dayTypes; }
+
+        public int[] getWorkedHours() { return workedHours; }
+        public void setWorkedHours(int[] workedHours) { this.workedHours = workedHours; }
+
+        public int[] getOvertimeHours() { return overtimeHours; }
+        public void setOvertimeHours(int[] overtimeHours) { this.overtimeHours = overtimeHours; }
+
+        public int[] getNightHours() { return nightHours; }
+        public void setNightHours(int[] nightHours) { this.nightHours = nightHours; }
+
+        public List<String> getAbsenceCodes() { return absenceCodes; }
+        public void setAbsenceCodes(List<String> absenceCodes) { this.absenceCodes = absenceCodes; }
+
+        public int[] getAbsenceIndex() { return absenceIndex; }
+        public void setAbsenceIndex(int[] absenceIndex) { this.absenceIndex = absenceIndex; }
+    }
 }
@@ -1,6 +1,7 @@
 package com.valstrz.entity.personnel;
 
 import com.arangodb.springframework.annotation.Document;
+import com.arangodb.springframework.annotation.PersistentIndex;
 import com.valstrz.entity.BaseEntity;
 
 import java.time.LocalDate;
@@ -9,6 +10,7 @@ import java.time.LocalDate;
  * Заповед за прекратяване на трудово правоотношение.
  */
 @Document("terminations")
+@PersistentIndex(fields = {"tenantId", "orderDate"})
 public class Termination extends BaseEntity {
 
     private String employeeId;
@@ -0,0 +1,79 @@
+package com.valstrz.entity.personnel;
+
+import com.arangodb.springframework.annotation.Document;
+import com.valstrz.entity.BaseEntity;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Натрупване на работното време при сумирано изчисляване (СИРВ) за един служител и месец.
+ *
+ * Пази норма и отработени часове за месеца и натрупаните стойности от началото
+ * на периода, така че изчислението на следващия месец чете само предходния запис.
+ * Ключът е детерминиран (employeeId-година-месец) — преизчисление презаписва записа.
+ */
+@Document("workTimeBalances")
+public class WorkTimeBalance extends BaseEntity {
+
+    private String employeeId;
+    private String shiftScheduleCode;
+    private int year;
+    private int month;
+    private int referenceMonths;               // продължителност на периода (месеци)
+    private int periodStartMonth;              // първи месец на периода
+    private int periodEndMonth;                // последен месец на периода
+
+    private BigDecimal plannedHours;           // норма за месеца (намалена с отсъствията)
+    private BigDecimal workedHours;            // отработени часове (без празничен труд)
+    private BigDecimal cumulativePlannedHours; // норма от началото на периода
+    private BigDecimal cumulativeWorkedHours;  // отработени от началото на периода
+    private BigDecimal overtimeHours;          // извънреден труд, уреден в края на периода
+
+    private LocalDateTime updatedAt;
+
+    public WorkTimeBalance() {}
+
+    public static String keyOf(String employeeId, int year, int month) {
+        return employeeId + "-" + year + "-" + month;
+    }
+
+    public String getEmployeeId() { return employeeId; }
+    public void setEmployeeId(String employeeId) { this.employeeId = employeeId; }
+
+    public String getShiftScheduleCode() { return shiftScheduleCode; }
+    public void setShiftScheduleCode(String shiftScheduleCode) { this.shiftScheduleCode = shiftScheduleCode; }
+
+    public int getYear() { return year; }
+    public void setYear(int year) { this.year = year; }
+
+    public int getMonth() { return month; }
+    public void setMonth(int month) { this.month = month; }
+
+    public int getReferenceMonths() { return referenceMonths; }
+    public void setReferenceMonths(int referenceMonths) { this.referenceMonths = referenceMonths; }
+
+    public int getPeriodStartMonth() { return periodStartMonth; }
+    public void setPeriodStartMonth(int periodStartMonth) { this.periodStartMonth = periodStartMonth; }
+
+    public int getPeriodEndMonth() { return periodEndMonth; }
+    public void setPeriodEndMonth(int periodEndMonth) { this.periodEndMonth = periodEndMonth; }
+
+    public BigDecimal getPlannedHours() { return plannedHours; }
+    public void setPlannedHours(BigDecimal plannedHours) { this.plannedHours = plannedHours; }
+
+    public BigDecimal getWorkedHours() { return workedHours; }
+    public void setWorkedHours(BigDecimal workedHours) { this.workedHours = workedHours; }
+
+    public BigDecimal getCumulativePlannedHours() { return cumulativePlannedHours; }
+    public void setCumulativePlannedHours(BigDecimal cumulativePlannedHours) { this.cumulativePlannedHours = cumulativePlannedHours; }
+
+    public BigDecimal getCumulativeWorkedHours() { return cumulativeWorkedHours; }
+    public void setCumulativeWorkedHours(BigDecimal cumulativeWorkedHours) { this.cumulativeWorkedHours = cumulativeWorkedHours; }
+
+    public BigDecimal getOvertimeHours() { return overtimeHours; }
+    public void setOvertimeHours(BigDecimal overtimeHours) { this.overtimeHours = overtimeHours; }
+
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+}
@@ -1,8 +1,43 @@
 package com.valstrz.repository;
 
+import com.arangodb.springframework.annotation.Query;
 import com.arangodb.springframework.repository.ArangoRepository;
 import com.valstrz.entity.personnel.Absence;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDate;
 
 public interface AbsenceRepository extends ArangoRepository<Absence, String> {
     Iterable<Absence> findByTenantIdAndEmployeeId(String tenantId, String employeeId);
+
+    /** Отсъствия, които се припокриват с периода [from, to]. */
+    Iterable<Absence> findByTenantIdAndFromDateLessThanEqualAndToDateGreaterThanEqual(
+            String tenantId, LocalDate to, LocalDate from);
+
+    /**
+     * Болничните, които се припокриват с [from, to], по дата и служител
+     * (за Приложение 9). employeeId = null — на всички служители.
+     */
+    @Query("""
+            FOR a IN absences
+              FILTER a.tenantId == @tenantId AND a.fromDate <= @to AND a.toDate >= @from
+              FILTER LIKE(a.type, "SICK%")
+              FILTER @employeeId == null OR a.employeeId == @employeeId
+              SORT a.fromDate, a.employeeId
+              RETURN a
+            """)
+    Iterable<Absence> findSickLeaves(@Param("tenantId") String tenantId,
+                                     @Param("from") LocalDate from, @Param("to") LocalDate to,
+                                     @Param("employeeId") String employeeId);
+
+    /** Фирмите с болнични в периода [from, to]. */
+    @Query("""
+            FOR a IN absences
+              FILTER a.fromDate <= @to AND a.toDate >= @from
+              FILTER LIKE(a.type, "SICK%")
+              COLLECT tenantId = a.tenantId
+              SORT tenantId
+              RETURN tenantId
+            """)
+    Iterable<String> findTenantsWithSickLeaves(@Param("from") LocalDate from, @Param("to") LocalDate to);
 }
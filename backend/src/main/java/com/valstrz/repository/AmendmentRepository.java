@@ -3,8 +3,13 @@ package com.valstrz.repository;
 import com.arangodb.springframework.repository.ArangoRepository;
 import com.valstrz.entity.personnel.Amendment;
 
+import java.time.LocalDate;
+
 public interface AmendmentRepository extends ArangoRepository<Amendment, String> {
     Iterable<Amendment> findByTenantId(String tenantId);
     Iterable<Amendment> findByTenantIdAndEmployeeId(String tenantId, String employeeId);
     Iterable<Amendment> findByTenantIdAndEmploymentId(String tenantId, String employmentId);
+
+    /** ДС с дата в [from, to] (индекс tenantId, date). */
+    Iterable<Amendment> findByTenantIdAndDateBetween(String tenantId, LocalDate from, LocalDate to);
 }
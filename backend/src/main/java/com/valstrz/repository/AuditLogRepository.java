@@ -3,8 +3,11 @@ package com.valstrz.repository;
 import com.arangodb.springframework.repository.ArangoRepository;
 import com.valstrz.entity.AuditLog;
 
+import java.time.LocalDateTime;
+
 public interface AuditLogRepository extends ArangoRepository<AuditLog, String> {
     Iterable<AuditLog> findByTenantId(String tenantId);
     Iterable<AuditLog> findByTenantIdAndAction(String tenantId, String action);
     Iterable<AuditLog> findByTenantIdAndEntityType(String tenantId, String entityType);
+    Iterable<AuditLog> findByTenantIdAndPerformedAtBetween(String tenantId, LocalDateTime from, LocalDateTime to);
 }
@@ -1,8 +1,16 @@
 package com.valstrz.repository;
 
+import com.arangodb.springframework.annotation.Query;
 import com.arangodb.springframework.repository.ArangoRepository;
 import com.valstrz.entity.company.Company;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
 
 public interface CompanyRepository extends ArangoRepository<Company, String> {
     Iterable<Company> findByBulstat(String bulstat);
+
+    /** Фирмите с дадените ключове с една заявка (EntityLoader). */
+    @Query("FOR c IN companies FILTER c._key IN @keys RETURN c")
+    Iterable<Company> findByKeys(@Param("keys") Collection<String> keys);
 }
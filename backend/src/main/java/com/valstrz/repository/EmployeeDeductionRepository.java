@@ -4,5 +4,6 @@ import com.arangodb.springframework.repository.ArangoRepository;
 import com.valstrz.entity.personnel.EmployeeDeduction;
 
 public interface EmployeeDeductionRepository extends ArangoRepository<EmployeeDeduction, String> {
+    Iterable<EmployeeDeduction> findByTenantId(String tenantId);
     Iterable<EmployeeDeduction> findByTenantIdAndEmployeeId(String tenantId, String employeeId);
 }
@@ -4,5 +4,6 @@ import com.arangodb.springframework.repository.ArangoRepository;
 import com.valstrz.entity.personnel.EmployeePayItem;
 
 public interface EmployeePayItemRepository extends ArangoRepository<EmployeePayItem, String> {
+    Iterable<EmployeePayItem> findByTenantId(String tenantId);
     Iterable<EmployeePayItem> findByTenantIdAndEmployeeId(String tenantId, String employeeId);
 }
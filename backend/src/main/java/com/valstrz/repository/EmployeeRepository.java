@@ -1,11 +1,20 @@
 package com.valstrz.repository;
 
+import com.arangodb.springframework.annotation.Query;
 import com.arangodb.springframework.repository.ArangoRepository;
 import com.valstrz.entity.personnel.Employee;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
 
 public interface EmployeeRepository extends ArangoRepository<Employee, String> {
     Iterable<Employee> findByTenantId(String tenantId);
     Iterable<Employee> findByTenantIdAndActive(String tenantId, boolean active);
+    long countByTenantIdAndActive(String tenantId, boolean active);
     Iterable<Employee> findByTenantIdAndEgn(String tenantId, String egn);
     Iterable<Employee> findByTenantIdAndLastNameStartsWith(String tenantId, String prefix);
+
+    /** Служителите с дадените ключове с една заявка (EntityLoader). */
+    @Query("FOR e IN employees FILTER e._key IN @keys RETURN e")
+    Iterable<Employee> findByKeys(@Param("keys") Collection<String> keys);
 }
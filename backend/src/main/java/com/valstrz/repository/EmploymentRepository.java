@@ -1,10 +1,33 @@
 package com.valstrz.repository;
 
+import com.arangodb.springframework.annotation.Query;
 import com.arangodb.springframework.repository.ArangoRepository;
 import com.valstrz.entity.personnel.Employment;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDate;
+import java.util.Collection;
 
 public interface EmploymentRepository extends ArangoRepository<Employment, String> {
     Iterable<Employment> findByTenantId(String tenantId);
     Iterable<Employment> findByTenantIdAndEmployeeId(String tenantId, String employeeId);
+    Iterable<Employment> findByTenantIdAndDepartmentId(String tenantId, String departmentId);
+    Iterable<Employment> findByTenantIdAndCurrent(String tenantId, boolean current);
     Iterable<Employment> findByTenantIdAndEmployeeIdAndCurrent(String tenantId, String employeeId, boolean current);
+
+    /** Договори, сключени в [from, to] (индекс tenantId, contractDate). */
+    Iterable<Employment> findByTenantIdAndContractDateBetween(String tenantId, LocalDate from, LocalDate to);
+
+    /** Правоотношенията с дадените ключове с една заявка. */
+    @Query("FOR e IN employments FILTER e._key IN @keys RETURN e")
+    Iterable<Employment> findByKeys(@Param("keys") Collection<String> keys);
+
+    /** Текущите правоотношения на дадените служители с една заявка (EntityLoader). */
+    @Query("""
+            FOR e IN employments
+              FILTER e.tenantId == @tenantId AND e.current == true AND e.employeeId IN @employeeIds
+              RETURN e
+            """)
+    Iterable<Employment> findCurrentByEmployeeIds(@Param("tenantId") String tenantId,
+                                                  @Param("employeeIds") Collection<String> employeeIds);
 }
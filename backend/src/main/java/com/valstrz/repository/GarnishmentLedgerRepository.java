@@ -0,0 +1,13 @@
+package com.valstrz.repository;
+
+import com.arangodb.springframework.repository.ArangoRepository;
+import com.valstrz.entity.personnel.GarnishmentLedgerEntry;
+
+import java.util.Collection;
+
+public interface GarnishmentLedgerRepository extends ArangoRepository<GarnishmentLedgerEntry, String> {
+    Iterable<GarnishmentLedgerEntry> findByGarnishmentId(String garnishmentId);
+    Iterable<GarnishmentLedgerEntry> findByGarnishmentIdIn(Collection<String> garnishmentIds);
+    Iterable<GarnishmentLedgerEntry> findByTenantIdAndYearAndMonth(String tenantId, int year, int month);
+    void deleteByTenantIdAndYearAndMonth(String tenantId, int year, int month);
+}
@@ -8,5 +8,6 @@ import java.util.List;
 
 @Repository
 public interface GarnishmentRepository extends ArangoRepository<Garnishment, String> {
+    List<Garnishment> findByTenantId(String tenantId);
     List<Garnishment> findByEmployeeId(String employeeId);
 }
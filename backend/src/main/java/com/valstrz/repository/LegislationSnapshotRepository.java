@@ -0,0 +1,7 @@
+package com.valstrz.repository;
+
+import com.arangodb.springframework.repository.ArangoRepository;
+import com.valstrz.entity.payroll.LegislationSnapshot;
+
+public interface LegislationSnapshotRepository extends ArangoRepository<LegislationSnapshot, String> {
+}
@@ -0,0 +1,33 @@
+package com.valstrz.repository;
+
+import com.arangodb.springframework.annotation.Query;
+import com.arangodb.springframework.repository.ArangoRepository;
+import com.valstrz.entity.company.MasterDataRevision;
+import org.springframework.data.repository.query.Param;
+
+public interface MasterDataRevisionRepository extends ArangoRepository<MasterDataRevision, String> {
+
+    @Query("""
+            UPSERT { _key: @tenantId }
+              INSERT { _key: @tenantId, tenantId: @tenantId, revision: 1 }
+              UPDATE { revision: OLD.revision + 1 }
+              IN masterDataRevisions
+            RETURN NEW.revision
+            """)
+    Iterable<Long> increment(@Param("tenantId") String tenantId);
+
+    /**
+     * Увеличава брояча на всяка фирма със затворен месец — при изтриване фирмата
+     * на документа не е известна.
+     */
+    @Query("""
+            FOR c IN monthClosingSnapshots
+              COLLECT tenantId = c.tenantId
+              UPSERT { _key: tenantId }
+                INSERT { _key: tenantId, tenantId: tenantId, revision: 1 }
+                UPDATE { revision: OLD.revision + 1 }
+                IN masterDataRevisions
+              RETURN NEW.revision
+            """)
+    Iterable<Long> incrementAll();
+}
@@ -1,8 +1,30 @@
 package com.valstrz.repository;
 
+import com.arangodb.springframework.annotation.Query;
 import com.arangodb.springframework.repository.ArangoRepository;
 import com.valstrz.entity.payroll.MonthClosingSnapshot;
+import org.springframework.data.repository.query.Param;
 
 public interface MonthClosingSnapshotRepository extends ArangoRepository<MonthClosingSnapshot, String> {
     Iterable<MonthClosingSnapshot> findByTenantIdAndYearAndMonth(String tenantId, int year, int month);
+
+    record ClosingVersion(String id, int closingVersion, long masterDataRevision) {}
+
+    /**
+     * Само ключът и версията на затварянето (без фирмените данни в документа), плюс
+     * брояча на промените в данните за фирмата, служителите и правоотношенията им
+     * (MasterDataRevision) — справките от затворен месец четат и тях.
+     */
+    @Query("""
+            FOR c IN monthClosingSnapshots
+              FILTER c.tenantId == @tenantId AND c.year == @year AND c.month == @month
+              LIMIT 1
+              RETURN {
+                id: c._key,
+                closingVersion: c.closingVersion || 0,
+                masterDataRevision: DOCUMENT("masterDataRevisions", @tenantId).revision || 0
+              }
+            """)
+    Iterable<ClosingVersion> findClosingVersion(@Param("tenantId") String tenantId,
+                                                @Param("year") int year, @Param("month") int month);
 }
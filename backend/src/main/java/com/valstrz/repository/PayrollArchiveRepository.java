@@ -0,0 +1,8 @@
+package com.valstrz.repository;
+
+import com.arangodb.springframework.repository.ArangoRepository;
+import com.valstrz.entity.payroll.PayrollArchive;
+
+public interface PayrollArchiveRepository extends ArangoRepository<PayrollArchive, String> {
+    Iterable<PayrollArchive> findByTenantId(String tenantId);
+}
@@ -0,0 +1,8 @@
+package com.valstrz.repository;
+
+import com.arangodb.springframework.repository.ArangoRepository;
+import com.valstrz.entity.payroll.PayrollBaseline;
+
+public interface PayrollBaselineRepository extends ArangoRepository<PayrollBaseline, String> {
+    Iterable<PayrollBaseline> findByTenantId(String tenantId);
+}
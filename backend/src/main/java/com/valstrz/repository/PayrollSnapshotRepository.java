@@ -1,7 +1,13 @@
 package com.valstrz.repository;
 
+import com.arangodb.springframework.annotation.Query;
 import com.arangodb.springframework.repository.ArangoRepository;
 import com.valstrz.entity.payroll.PayrollSnapshot;
+import org.springframework.data.repository.query.Param;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
 
 public interface PayrollSnapshotRepository extends ArangoRepository<PayrollSnapshot, String> {
     Iterable<PayrollSnapshot> findByTenantIdAndYearAndMonth(String tenantId, int year, int month);
@@ -10,4 +16,128 @@ public interface PayrollSnapshotRepository extends ArangoRepository<PayrollSnaps
 
     Iterable<PayrollSnapshot> findByTenantIdAndYearAndMonthAndStatus(
             String tenantId, int year, int month, String status);
+
+    /** Snapshot-и с вградени legislationParams (за миграция към legislationSnapshots). */
+    Iterable<PayrollSnapshot> findByTenantIdAndLegislationHashIsNull(String tenantId);
+
+    // ── Сравнителни справки (съединяването е в AQL, връщат се само нужните полета) ──
+
+    record ComparisonProjection(String employeeId, String employeeName,
+                                BigDecimal currentGross, BigDecimal previousGross,
+                                BigDecimal currentNet, BigDecimal previousNet) {}
+
+    record TrendPoint(int year, int month, BigDecimal gross, BigDecimal net) {}
+
+    record TrendProjection(String employeeId, String employeeName, List<TrendPoint> points,
+                           BigDecimal baselineGross, BigDecimal lastGross, BigDecimal delta) {}
+
+    /**
+     * Служителите от текущия период, чиито брутно или нето се различават от базовия
+     * с поне minDelta (лв.) и поне minPercent (%). Липсващ базов период се брои за 0.
+     */
+    @Query("""
+            FOR cur IN payrollSnapshots
+              FILTER cur.tenantId == @tenantId AND cur.year == @year AND cur.month == @month
+              LET prev = FIRST(
+                FOR p IN payrollSnapshots
+                  FILTER p.tenantId == @tenantId AND p.employeeId == cur.employeeId
+                     AND p.year == @baseYear AND p.month == @baseMonth
+                  LIMIT 1
+                  RETURN { gross: TO_NUMBER(p.grossSalary), net: TO_NUMBER(p.netSalary) })
+              LET curGross = TO_NUMBER(cur.grossSalary)
+              LET curNet = TO_NUMBER(cur.netSalary)
+              LET prevGross = prev != null ? prev.gross : 0
+              LET prevNet = prev != null ? prev.net : 0
+              LET dGross = ABS(curGross - prevGross)
+              LET dNet = ABS(curNet - prevNet)
+              LET dPercent = prevGross != 0 ? dGross * 100 / ABS(prevGross) : (dGross != 0 ? 100 : 0)
+              FILTER (dGross >= @minDelta OR dNet >= @minDelta) AND dPercent >= @minPercent
+              SORT dGross DESC, cur.employeeData.fullName
+              RETURN { employeeId: cur.employeeId, employeeName: cur.employeeData.fullName,
+                       currentGross: curGross, previousGross: prevGross,
+                       currentNet: curNet, previousNet: prevNet }
+            """)
+    Iterable<ComparisonProjection> compareMonths(@Param("tenantId") String tenantId,
+                                                 @Param("year") int year, @Param("month") int month,
+                                                 @Param("baseYear") int baseYear, @Param("baseMonth") int baseMonth,
+                                                 @Param("minDelta") double minDelta,
+                                                 @Param("minPercent") double minPercent);
+
+    /**
+     * Брутно/нето по месеци в [fromPeriod, toPeriod] (период = година * 12 + месец - 1) за служителите
+     * с изчисление в последния месец. Отклонението е спрямо средното брутно на предходните месеци.
+     */
+    @Query("""
+            FOR s IN payrollSnapshots
+              FILTER s.tenantId == @tenantId AND s.year >= @fromYear AND s.year <= @toYear
+              LET period = s.year * 12 + s.month - 1
+              FILTER period >= @fromPeriod AND period <= @toPeriod
+              SORT period
+              COLLECT employeeId = s.employeeId INTO g = {
+                period: period, year: s.year, month: s.month, name: s.employeeData.fullName,
+                gross: TO_NUMBER(s.grossSalary), net: TO_NUMBER(s.netSalary) }
+              LET last = LAST(g)
+              FILTER last.period == @toPeriod
+              LET earlier = SLICE(g, 0, LENGTH(g) - 1)
+              LET baseline = LENGTH(earlier) > 0 ? AVERAGE(earlier[*].gross) : 0
+              LET delta = last.gross - baseline
+              FILTER ABS(delta) >= @minDelta
+              SORT ABS(delta) DESC, last.name
+              RETURN { employeeId: employeeId, employeeName: last.name,
+                       points: g[* RETURN { year: CURRENT.year, month: CURRENT.month,
+                                            gross: CURRENT.gross, net: CURRENT.net }],
+                       baselineGross: baseline, lastGross: last.gross, delta: delta }
+            """)
+    Iterable<TrendProjection> trend(@Param("tenantId") String tenantId,
+                                    @Param("fromYear") int fromYear, @Param("toYear") int toYear,
+                                    @Param("fromPeriod") int fromPeriod, @Param("toPeriod") int toPeriod,
+                                    @Param("minDelta") double minDelta);
+
+    // ── Банкови плащания (служителите се съединяват в AQL — без findById на служител) ──
+
+    record PaymentProjection(String employeeId, String employeeName, String iban, String bic,
+                             String bankCode, BigDecimal netSalary) {}
+
+    record BankTotal(String bankCode, long count, long cents) {}
+
+    /**
+     * Плащанията за месеца, подредени по име. bankCodes ограничава до служителите
+     * с IBAN в тези банки (null = всички); payableOnly пропуска служителите без IBAN.
+     */
+    @Query("""
+            FOR s IN payrollSnapshots
+              FILTER s.tenantId == @tenantId AND s.year == @year AND s.month == @month AND s.status == @status
+              FILTER TO_NUMBER(s.netSalary) > 0
+              LET e = DOCUMENT("employees", s.employeeId)
+              FILTER e != null
+              LET iban = UPPER(SUBSTITUTE(e.iban || "", " ", ""))
+              LET bankCode = SUBSTRING(iban, 4, 4)
+              FILTER @bankCodes == null OR bankCode IN @bankCodes
+              FILTER !@payableOnly OR iban != ""
+              SORT e.lastName, e.firstName, s.employeeId
+              RETURN { employeeId: s.employeeId,
+                       employeeName: CONCAT_SEPARATOR(" ", e.firstName, e.middleName, e.lastName),
+                       iban: iban, bic: e.bic, bankCode: bankCode, netSalary: s.netSalary }
+            """)
+    Iterable<PaymentProjection> findPayments(@Param("tenantId") String tenantId,
+                                             @Param("year") int year, @Param("month") int month,
+                                             @Param("status") String status,
+                                             @Param("bankCodes") Collection<String> bankCodes,
+                                             @Param("payableOnly") boolean payableOnly);
+
+    /** Брой и сума (в центове) на плащанията по банка на получателя; "" = без IBAN. */
+    @Query("""
+            FOR s IN payrollSnapshots
+              FILTER s.tenantId == @tenantId AND s.year == @year AND s.month == @month AND s.status == @status
+              LET net = TO_NUMBER(s.netSalary)
+              FILTER net > 0
+              LET e = DOCUMENT("employees", s.employeeId)
+              FILTER e != null
+              LET iban = UPPER(SUBSTITUTE(e.iban || "", " ", ""))
+              COLLECT bankCode = SUBSTRING(iban, 4, 4) AGGREGATE count = COUNT(1), cents = SUM(ROUND(net * 100))
+              RETURN { bankCode: bankCode, count: count, cents: cents }
+            """)
+    Iterable<BankTotal> paymentTotalsByBank(@Param("tenantId") String tenantId,
+                                            @Param("year") int year, @Param("month") int month,
+                                            @Param("status") String status);
 }
@@ -3,8 +3,13 @@ package com.valstrz.repository;
 import com.arangodb.springframework.repository.ArangoRepository;
 import com.valstrz.entity.personnel.Termination;
 
+import java.time.LocalDate;
+
 public interface TerminationRepository extends ArangoRepository<Termination, String> {
     Iterable<Termination> findByTenantId(String tenantId);
     Iterable<Termination> findByTenantIdAndEmployeeId(String tenantId, String employeeId);
     Iterable<Termination> findByTenantIdAndEmploymentId(String tenantId, String employmentId);
+
+    /** Заповеди за прекратяване с дата в [from, to] (индекс tenantId, orderDate). */
+    Iterable<Termination> findByTenantIdAndOrderDateBetween(String tenantId, LocalDate from, LocalDate to);
 }
@@ -0,0 +1,10 @@
+package com.valstrz.repository;
+
+import com.arangodb.springframework.repository.ArangoRepository;
+import com.valstrz.entity.personnel.WorkTimeBalance;
+
+public interface WorkTimeBalanceRepository extends ArangoRepository<WorkTimeBalance, String> {
+    Iterable<WorkTimeBalance> findByTenantIdAndYearAndMonth(String tenantId, int year, int month);
+    Iterable<WorkTimeBalance> findByTenantIdAndEmployeeIdAndYear(String tenantId, String employeeId, int year);
+    Iterable<WorkTimeBalance> findByTenantIdAndYearAndMonthBetween(String tenantId, int year, int fromMonth, int toMonth);
+}
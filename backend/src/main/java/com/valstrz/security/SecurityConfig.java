@@ -30,6 +30,9 @@ public class SecurityConfig {
             .sessionManagement(sm -> sm.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
             .authorizeHttpRequests(auth -> auth
                 .requestMatchers("/api/auth/**").permitAll()
+                // AQL на бавните заявки и N+1, метриките по фирми — само за администратори
+                .requestMatchers("/actuator/repositoryqueries/**").hasRole("ADMIN")
+                .requestMatchers("/actuator/prometheus/**").hasRole("ADMIN")
                 .requestMatchers("/actuator/**").permitAll()
                 // Static frontend resources
                 .requestMatchers(HttpMethod.GET, "/", "/index.html", "/assets/**", "/*.js", "/*.css", "/favicon.ico").permitAll()
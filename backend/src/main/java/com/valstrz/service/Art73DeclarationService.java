@@ -30,17 +30,20 @@ public class Art73DeclarationService {
     private final EmployeeRepository employeeRepo;
     private final EmploymentRepository employmentRepo;
     private final NapSubmissionRepository submissionRepo;
+    private final PayrollArchiveService archiveService;
 
     public Art73DeclarationService(PayrollSnapshotRepository snapshotRepo,
                                     CompanyRepository companyRepo,
                                     EmployeeRepository employeeRepo,
                                     EmploymentRepository employmentRepo,
-                                    NapSubmissionRepository submissionRepo) {
+                                    NapSubmissionRepository submissionRepo,
+                                    PayrollArchiveService archiveService) {
         this.snapshotRepo = snapshotRepo;
         this.companyRepo = companyRepo;
         this.employeeRepo = employeeRepo;
         this.employmentRepo = employmentRepo;
         this.submissionRepo = submissionRepo;
+        this.archiveService = archiveService;
     }
 
     // ── DTO ──
@@ -241,6 +244,9 @@ public class Art73DeclarationService {
     // ── Помощни методи ──
 
     private List<PayrollSnapshot> getSnapshots(String tenantId, int year, int month) {
+        List<PayrollSnapshot> archived = archiveService.snapshots(tenantId, year, month);
+        if (archived != null) return archived;
+
         List<PayrollSnapshot> closed = StreamSupport.stream(
                 snapshotRepo.findByTenantIdAndYearAndMonthAndStatus(tenantId, year, month, "CLOSED").spliterator(), false
         ).toList();
@@ -7,43 +7,53 @@ import com.valstrz.entity.personnel.Employee;
 import com.valstrz.entity.personnel.Employment;
 import com.valstrz.entity.personnel.Termination;
 import com.valstrz.repository.*;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.stream.StreamSupport;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Генериране на уведомления по чл. 62 от КТ за НАП.
  * Събития: нов ТД (01), допълнително споразумение (02), прекратяване (03).
+ *
+ * Събитията се търсят по индексите (tenantId, contractDate / date / orderDate)
+ * само за периода. Готовите записи се пазят по фирма и ден: повторно
+ * генериране чете от базата само дните, които още не са в кеша, така че
+ * дневният файл струва колкото събитията за деня. Запис на правоотношение,
+ * ДС, прекратяване, служител или фирма изчиства кеша на фирмата
+ * (Article62CacheListener).
  */
 @Service
 public class Article62Service {
 
     private static final DateTimeFormatter DATE_FMT = DateTimeFormatter.ofPattern("dd.MM.yyyy");
 
-    private final CompanyRepository companyRepo;
-    private final EmployeeRepository employeeRepo;
     private final EmploymentRepository employmentRepo;
     private final AmendmentRepository amendmentRepo;
     private final TerminationRepository terminationRepo;
     private final NapSubmissionRepository submissionRepo;
+    private final EntityLoader entityLoader;
+    private final int cacheDays;
 
-    public Article62Service(CompanyRepository companyRepo,
-                            EmployeeRepository employeeRepo,
-                            EmploymentRepository employmentRepo,
+    private final Map<String, TenantDays> cache = new ConcurrentHashMap<>();
+
+    public Article62Service(EmploymentRepository employmentRepo,
                             AmendmentRepository amendmentRepo,
                             TerminationRepository terminationRepo,
-                            NapSubmissionRepository submissionRepo) {
-        this.companyRepo = companyRepo;
-        this.employeeRepo = employeeRepo;
+                            NapSubmissionRepository submissionRepo,
+                            EntityLoader entityLoader,
+                            @Value("${valstrz.declarations.art62-cache-days:400}") int cacheDays) {
         this.employmentRepo = employmentRepo;
         this.amendmentRepo = amendmentRepo;
         this.terminationRepo = terminationRepo;
         this.submissionRepo = submissionRepo;
+        this.entityLoader = entityLoader;
+        this.cacheDays = cacheDays;
     }
 
     // ── DTO ──
@@ -64,48 +74,35 @@ public class Article62Service {
     // ── Публични методи ──
 
     public List<Art62Record> preview(String tenantId, LocalDate fromDate, LocalDate toDate) {
-        Company company = companyRepo.findById(tenantId).orElse(null);
-        if (company == null) return List.of();
-
-        List<Art62Record> records = new ArrayList<>();
-
-        // 01: Нови трудови договори (contractDate в диапазона)
-        List<Employment> employments = StreamSupport.stream(
-                employmentRepo.findByTenantId(tenantId).spliterator(), false).toList();
-        for (Employment emp : employments) {
-            if (emp.getContractDate() != null && isInRange(emp.getContractDate(), fromDate, toDate)) {
-                Employee employee = employeeRepo.findById(emp.getEmployeeId()).orElse(null);
-                records.add(buildRecord(company, employee, emp, "01", "Нов ТД"));
-            }
+        Company company = entityLoader.company(tenantId);
+        if (company == null || toDate.isBefore(fromDate)) return List.of();
+
+        Map<LocalDate, List<Art62Record>> byDay;
+        if (ChronoUnit.DAYS.between(fromDate, toDate) >= cacheDays) {
+            byDay = load(company, fromDate, toDate);
+        } else {
+            byDay = cached(company, fromDate, toDate);
         }
 
-        // 02: Допълнителни споразумения (date в диапазона)
-        List<Amendment> amendments = StreamSupport.stream(
-                amendmentRepo.findByTenantId(tenantId).spliterator(), false).toList();
-        for (Amendment amend : amendments) {
-            if (amend.getDate() != null && isInRange(amend.getDate(), fromDate, toDate)) {
-                Employee employee = employeeRepo.findById(amend.getEmployeeId()).orElse(null);
-                Employment emp = findEmployment(amend.getEmploymentId());
-                records.add(buildAmendmentRecord(company, employee, emp, amend));
-            }
-        }
+        // Както преди: първо новите ТД, после ДС, после прекратяванията (всяка група по дата)
+        List<Art62Record> records = new ArrayList<>();
+        byDay.values().forEach(records::addAll);
+        records.sort(Comparator.comparing(Art62Record::eventType));
+        return records;
+    }
 
-        // 03: Прекратявания (orderDate в диапазона)
-        List<Termination> terminations = StreamSupport.stream(
-                terminationRepo.findByTenantId(tenantId).spliterator(), false).toList();
-        for (Termination term : terminations) {
-            if (term.getOrderDate() != null && isInRange(term.getOrderDate(), fromDate, toDate)) {
-                Employee employee = employeeRepo.findById(term.getEmployeeId()).orElse(null);
-                Employment emp = findEmployment(term.getEmploymentId());
-                records.add(buildTerminationRecord(company, employee, emp, term));
-            }
-        }
+    /** Изчиства кешираните записи на фирмата (след промяна на данните ѝ). */
+    public void invalidate(String tenantId) {
+        TenantDays days = cache.get(tenantId);
+        if (days != null) days.clear();
+    }
 
-        return records;
+    public void invalidateAll() {
+        cache.values().forEach(TenantDays::clear);
     }
 
     public NapSubmission generate(String tenantId, LocalDate fromDate, LocalDate toDate) {
-        Company company = companyRepo.findById(tenantId).orElse(null);
+        Company company = entityLoader.company(tenantId);
         if (company == null) throw new RuntimeException("Фирмата не е намерена: " + tenantId);
 
         List<Art62Record> records = preview(tenantId, fromDate, toDate);
@@ -212,17 +209,140 @@ public class Article62Service {
         return rec;
     }
 
-    // ── Помощни методи ──
+    // ── Зареждане и кеш ──
+
+    /**
+     * Записите по ден за [from, to]; от базата се четат само поредиците от дни,
+     * които ги няма в кеша.
+     */
+    private Map<LocalDate, List<Art62Record>> cached(Company company, LocalDate from, LocalDate to) {
+        TenantDays days = cache.computeIfAbsent(company.getId(), k -> new TenantDays(cacheDays));
+        Map<LocalDate, List<Art62Record>> result = new TreeMap<>();
+
+        LocalDate gapStart = null;
+        for (LocalDate d = from; !d.isAfter(to); d = d.plusDays(1)) {
+            List<Art62Record> day = days.get(d);
+            if (day != null) {
+                result.put(d, day);
+                if (gapStart != null) {
+                    result.putAll(loadAndCache(days, company, gapStart, d.minusDays(1)));
+                    gapStart = null;
+                }
+            } else if (gapStart == null) {
+                gapStart = d;
+            }
+        }
+        if (gapStart != null) result.putAll(loadAndCache(days, company, gapStart, to));
+        return result;
+    }
 
-    private Employment findEmployment(String employmentId) {
-        if (employmentId == null || employmentId.isEmpty()) return null;
-        return employmentRepo.findById(employmentId).orElse(null);
+    private Map<LocalDate, List<Art62Record>> loadAndCache(TenantDays days, Company company,
+                                                           LocalDate from, LocalDate to) {
+        long generation = days.generation();
+        Map<LocalDate, List<Art62Record>> loaded = load(company, from, to);
+        days.putAll(loaded, generation);
+        return loaded;
     }
 
-    private boolean isInRange(LocalDate date, LocalDate from, LocalDate to) {
-        return !date.isBefore(from) && !date.isAfter(to);
+    /**
+     * Събитията с дата в [from, to] (три заявки по индекс); служителите и
+     * правоотношенията на ДС/прекратяванията се зареждат с по една заявка.
+     * Всеки ден от периода присъства в резултата (и без събития).
+     */
+    private Map<LocalDate, List<Art62Record>> load(Company company, LocalDate from, LocalDate to) {
+        String tenantId = company.getId();
+        List<Employment> employments = new ArrayList<>();
+        employmentRepo.findByTenantIdAndContractDateBetween(tenantId, from, to).forEach(employments::add);
+        List<Amendment> amendments = new ArrayList<>();
+        amendmentRepo.findByTenantIdAndDateBetween(tenantId, from, to).forEach(amendments::add);
+        List<Termination> terminations = new ArrayList<>();
+        terminationRepo.findByTenantIdAndOrderDateBetween(tenantId, from, to).forEach(terminations::add);
+
+        Set<String> employeeIds = new LinkedHashSet<>();
+        Set<String> employmentIds = new LinkedHashSet<>();
+        employments.forEach(e -> employeeIds.add(e.getEmployeeId()));
+        for (Amendment a : amendments) {
+            employeeIds.add(a.getEmployeeId());
+            if (a.getEmploymentId() != null && !a.getEmploymentId().isEmpty()) employmentIds.add(a.getEmploymentId());
+        }
+        for (Termination t : terminations) {
+            employeeIds.add(t.getEmployeeId());
+            if (t.getEmploymentId() != null && !t.getEmploymentId().isEmpty()) employmentIds.add(t.getEmploymentId());
+        }
+        Map<String, Employee> employees = entityLoader.employees(employeeIds);
+        Map<String, Employment> employmentsById = new HashMap<>();
+        if (!employmentIds.isEmpty()) {
+            employmentRepo.findByKeys(employmentIds).forEach(e -> employmentsById.put(e.getId(), e));
+        }
+
+        Map<LocalDate, List<Art62Record>> byDay = new TreeMap<>();
+        for (LocalDate d = from; !d.isAfter(to); d = d.plusDays(1)) byDay.put(d, new ArrayList<>());
+
+        // 01: Нови трудови договори
+        employments.sort(Comparator.comparing(Employment::getContractDate));
+        for (Employment emp : employments) {
+            byDay.get(emp.getContractDate()).add(freeze(
+                    buildRecord(company, employees.get(emp.getEmployeeId()), emp, "01", "Нов ТД")));
+        }
+        // 02: Допълнителни споразумения
+        amendments.sort(Comparator.comparing(Amendment::getDate));
+        for (Amendment amend : amendments) {
+            byDay.get(amend.getDate()).add(freeze(buildAmendmentRecord(company,
+                    employees.get(amend.getEmployeeId()), employmentsById.get(amend.getEmploymentId()), amend)));
+        }
+        // 03: Прекратявания
+        terminations.sort(Comparator.comparing(Termination::getOrderDate));
+        for (Termination term : terminations) {
+            byDay.get(term.getOrderDate()).add(freeze(buildTerminationRecord(company,
+                    employees.get(term.getEmployeeId()), employmentsById.get(term.getEmploymentId()), term)));
+        }
+        return byDay;
+    }
+
+    /** Кешираните записи се споделят между заявките — полетата стават непроменими. */
+    private static Art62Record freeze(Art62Record r) {
+        return new Art62Record(r.employeeId(), r.employeeName(), r.egn(), r.eventType(), r.eventTypeName(),
+                List.copyOf(r.fields()));
     }
 
+    /**
+     * Записите на една фирма по ден (LRU до cacheDays дни). generation расте при
+     * всяко изчистване — заредено преди изчистването не влиза в кеша.
+     */
+    private static final class TenantDays {
+        private final Map<LocalDate, List<Art62Record>> days;
+        private long generation;
+
+        TenantDays(int maxDays) {
+            this.days = new LinkedHashMap<>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<LocalDate, List<Art62Record>> eldest) {
+                    return size() > maxDays;
+                }
+            };
+        }
+
+        synchronized List<Art62Record> get(LocalDate day) {
+            List<Art62Record> records = days.get(day);
+            return records != null ? Collections.unmodifiableList(records) : null;
+        }
+
+        synchronized long generation() {
+            return generation;
+        }
+
+        synchronized void putAll(Map<LocalDate, List<Art62Record>> loaded, long loadedAt) {
+            if (loadedAt == generation) days.putAll(loaded);
+        }
+
+        synchronized void clear() {
+            generation++;
+            days.clear();
+        }
+    }
+
+    // ── Помощни методи ──
+
     private String safe(String s) {
         return s != null ? s : "";
     }
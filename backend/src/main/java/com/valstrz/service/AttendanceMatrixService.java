@@ -0,0 +1,208 @@
+package com.valstrz.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.valstrz.entity.personnel.Employee;
+import com.valstrz.entity.personnel.Employment;
+import com.valstrz.entity.personnel.MonthlyTimesheet;
+import com.valstrz.repository.EmployeeRepository;
+import com.valstrz.repository.EmploymentRepository;
+import com.valstrz.repository.MonthlyTimesheetRepository;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.YearMonth;
+import java.util.*;
+
+/**
+ * Присъствена матрица (служител × ден) за един или няколко месеца.
+ *
+ * Всяка часова карта се обхожда веднъж и дните се записват на позиция day - 1
+ * в масив с фиксирана дължина. Редовете се подават един по един към RowSink,
+ * така че справката за период може да се изпраща към клиента (NDJSON / CSV)
+ * без да се държи цялата в паметта. Зарежда се само по един месец наведнъж.
+ */
+@Service
+public class AttendanceMatrixService {
+
+    public static final int MAX_MONTHS = 36;
+
+    private final MonthlyTimesheetRepository timesheetRepository;
+    private final EmployeeRepository employeeRepository;
+    private final EmploymentRepository employmentRepository;
+    private final ObjectMapper objectMapper;
+    private final PayrollArchiveService archiveService;
+
+    public AttendanceMatrixService(MonthlyTimesheetRepository timesheetRepository,
+                                   EmployeeRepository employeeRepository,
+                                   EmploymentRepository employmentRepository,
+                                   ObjectMapper objectMapper,
+                                   PayrollArchiveService archiveService) {
+        this.timesheetRepository = timesheetRepository;
+        this.employeeRepository = employeeRepository;
+        this.employmentRepository = employmentRepository;
+        this.objectMapper = objectMapper;
+        this.archiveService = archiveService;
+    }
+
+    /** Ред от матрицата; dayCodes има точно толкова елемента, колкото са дните в месеца. */
+    public record MatrixRow(int year, int month, String employeeId, String employeeName,
+                            String[] dayCodes, int workedDays, int absenceDays) {}
+
+    @FunctionalInterface
+    public interface RowSink {
+        void accept(MatrixRow row) throws IOException;
+    }
+
+    // ── Публични методи ──
+
+    /** Периодът е от 1 до MAX_MONTHS месеца (проверява се преди потока, за да върне 400). */
+    public static boolean isValidRange(YearMonth from, YearMonth to) {
+        return !to.isBefore(from) && !from.plusMonths(MAX_MONTHS).isBefore(to.plusMonths(1));
+    }
+
+    /**
+     * Обхожда матрицата за месеците [from, to].
+     *
+     * @param departmentId null = всички служители
+     * @return брой подадени редове
+     */
+    public int stream(String tenantId, YearMonth from, YearMonth to, String departmentId,
+                      RowSink sink) throws IOException {
+        if (to.isBefore(from)) {
+            throw new IllegalArgumentException("Крайният месец е преди началния.");
+        }
+        if (!isValidRange(from, to)) {
+            throw new IllegalArgumentException("Периодът не може да е по-дълъг от " + MAX_MONTHS + " месеца.");
+        }
+
+        Set<String> departmentEmployees = departmentId != null && !departmentId.isEmpty()
+                ? employeesInDepartment(tenantId, departmentId) : null;
+        if (departmentEmployees != null && departmentEmployees.isEmpty()) return 0;
+
+        Map<String, String> names = new HashMap<>();
+        int count = 0;
+        for (YearMonth ym = from; !ym.isAfter(to); ym = ym.plusMonths(1)) {
+            int daysInMonth = ym.lengthOfMonth();
+            Iterable<MonthlyTimesheet> timesheets = archiveService.isArchived(tenantId, ym.getYear())
+                    ? archiveService.timesheets(tenantId, ym.getYear(), ym.getMonthValue(), departmentEmployees)
+                    : departmentEmployees != null
+                    ? timesheetRepository.findByTenantIdAndYearAndMonthAndEmployeeIdIn(
+                            tenantId, ym.getYear(), ym.getMonthValue(), departmentEmployees)
+                    : timesheetRepository.findByTenantIdAndYearAndMonth(tenantId, ym.getYear(), ym.getMonthValue());
+
+            // Една карта на служител (при дубликати печели последната, както досега)
+            Map<String, MonthlyTimesheet> byEmployee = new LinkedHashMap<>();
+            for (MonthlyTimesheet ts : timesheets) {
+                byEmployee.put(ts.getEmployeeId(), ts);
+            }
+            resolveNames(names, byEmployee.keySet());
+
+            for (MonthlyTimesheet ts : byEmployee.values()) {
+                sink.accept(new MatrixRow(ym.getYear(), ym.getMonthValue(), ts.getEmployeeId(),
+                        names.getOrDefault(ts.getEmployeeId(), ts.getEmployeeId()),
+                        encodeDays(ts, daysInMonth), ts.getTotalWorkedDays(), ts.getTotalAbsenceDays()));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** Редове като JSON обекти, по един на ред (application/x-ndjson). */
+    public void writeNdjson(String tenantId, YearMonth from, YearMonth to, String departmentId,
+                            OutputStream out) throws IOException {
+        stream(tenantId, from, to, departmentId, row -> {
+            out.write(objectMapper.writeValueAsBytes(row));
+            out.write('\n');
+        });
+        out.flush();
+    }
+
+    /** CSV с колони за 31 дни; дните извън месеца остават празни. */
+    public void writeCsv(String tenantId, YearMonth from, YearMonth to, String departmentId,
+                         OutputStream out) throws IOException {
+        BufferedWriter w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        // BOM for Excel UTF-8 detection
+        w.write('\uFEFF');
+        w.write("Година,Месец,Служител");
+        for (int d = 1; d <= 31; d++) w.write("," + d);
+        w.write(",Отработени дни,Дни отсъствие\n");
+
+        stream(tenantId, from, to, departmentId, row -> {
+            w.write(row.year() + "," + row.month() + "," + csvEscape(row.employeeName()));
+            for (int d = 0; d < 31; d++) {
+                w.write(',');
+                if (d < row.dayCodes().length) w.write(csvEscape(row.dayCodes()[d]));
+            }
+            w.write("," + row.workedDays() + "," + row.absenceDays() + "\n");
+        });
+        w.flush();
+    }
+
+    /**
+     * Кодове по дни: код на отсъствие, отработени часове, "П" (почивен), "Пр" (празник)
+     * или "" за ден без запис.
+     */
+    public static String[] encodeDays(MonthlyTimesheet ts, int daysInMonth) {
+        String[] codes = new String[daysInMonth];
+        Arrays.fill(codes, "");
+        if (ts.getDays() == null) return codes;
+
+        // Обхождаме в обратен ред, така че при повтарящ се ден печели първият запис
+        List<MonthlyTimesheet.DailyEntry> days = ts.getDays();
+        for (int i = days.size() - 1; i >= 0; i--) {
+            MonthlyTimesheet.DailyEntry de = days.get(i);
+            if (de.getDay() < 1 || de.getDay() > daysInMonth) continue;
+            codes[de.getDay() - 1] = dayCode(de);
+        }
+        return codes;
+    }
+
+    // ── Helpers ──
+
+    private static String dayCode(MonthlyTimesheet.DailyEntry de) {
+        if (de.getAbsenceCode() != null && !de.getAbsenceCode().isEmpty()) {
+            return de.getAbsenceCode();
+        } else if ("WORK".equals(de.getDayType())) {
+            return de.getWorkedHours() != null
+                    ? de.getWorkedHours().stripTrailingZeros().toPlainString()
+                    : "8";
+        } else if ("WEEKEND".equals(de.getDayType())) {
+            return "П";
+        } else if ("HOLIDAY".equals(de.getDayType())) {
+            return "Пр";
+        }
+        return de.getDayType() != null ? de.getDayType() : "";
+    }
+
+    private Set<String> employeesInDepartment(String tenantId, String departmentId) {
+        Set<String> ids = new HashSet<>();
+        for (Employment e : employmentRepository.findByTenantIdAndDepartmentId(tenantId, departmentId)) {
+            if (e.getEmployeeId() != null) ids.add(e.getEmployeeId());
+        }
+        return ids;
+    }
+
+    /** Зарежда само имената, които още не са известни (по ключ, не цялата фирма). */
+    private void resolveNames(Map<String, String> names, Collection<String> employeeIds) {
+        List<String> missing = new ArrayList<>();
+        for (String id : employeeIds) {
+            if (id != null && !names.containsKey(id)) missing.add(id);
+        }
+        if (missing.isEmpty()) return;
+        for (Employee emp : employeeRepository.findAllById(missing)) {
+            names.put(emp.getId(), emp.getFullName());
+        }
+    }
+
+    private static String csvEscape(String value) {
+        if (value == null) return "";
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+}
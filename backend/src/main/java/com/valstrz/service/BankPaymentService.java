@@ -1,35 +1,54 @@
 package com.valstrz.service;
 
+import com.valstrz.entity.company.BankAccount;
 import com.valstrz.entity.company.Company;
-import com.valstrz.entity.payroll.PayrollSnapshot;
-import com.valstrz.entity.personnel.Employee;
-import com.valstrz.repository.CompanyRepository;
-import com.valstrz.repository.EmployeeRepository;
 import com.valstrz.repository.PayrollSnapshotRepository;
+import com.valstrz.repository.PayrollSnapshotRepository.BankTotal;
+import com.valstrz.repository.PayrollSnapshotRepository.PaymentProjection;
+import com.valstrz.util.SepaCreditTransferWriter;
 import org.springframework.stereotype.Service;
 
+import javax.xml.stream.XMLStreamException;
+import java.io.*;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.stream.StreamSupport;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
  * Генериране на файл за масови банкови преводи на заплати.
+ *
+ * IBAN/BIC на служителите се взимат с една заявка заедно с нетните суми
+ * (съединяване в AQL). Файлът се записва направо в изходния поток, ред по ред,
+ * във формат CSV, TXT (фиксирана ширина, Windows-1251) или SEPA pain.001.
+ * Ако фирмата има няколко сметки за заплати, преводите се разделят по банката
+ * на получателя; CSV/TXT тогава са ZIP с по един файл на сметка, а SEPA — един
+ * файл с по един блок PmtInf на сметка.
  */
 @Service
 public class BankPaymentService {
 
+    private static final Charset WINDOWS_1251 = Charset.forName("windows-1251");
+    /** Първо затворените, после изчислените snapshot-и. */
+    private static final List<String> STATUSES = List.of("CLOSED", "CALCULATED");
+    /** Първият месец, изплащан в евро; сумите от по-ранните периоди са в лева. */
+    private static final YearMonth EURO_FROM = YearMonth.of(2026, 1);
+
     private final PayrollSnapshotRepository snapshotRepo;
-    private final CompanyRepository companyRepo;
-    private final EmployeeRepository employeeRepo;
+    private final EntityLoader entityLoader;
+    private final PayrollArchiveService archiveService;
 
     public BankPaymentService(PayrollSnapshotRepository snapshotRepo,
-                               CompanyRepository companyRepo,
-                               EmployeeRepository employeeRepo) {
+                               EntityLoader entityLoader,
+                               PayrollArchiveService archiveService) {
         this.snapshotRepo = snapshotRepo;
-        this.companyRepo = companyRepo;
-        this.employeeRepo = employeeRepo;
+        this.entityLoader = entityLoader;
+        this.archiveService = archiveService;
     }
 
     public record PaymentRecord(
@@ -39,7 +58,8 @@ public class BankPaymentService {
             String bic,
             BigDecimal amount,
             String description,
-            List<String> warnings
+            List<String> warnings,
+            String debtorIban
     ) {}
 
     public record PaymentFileResult(
@@ -50,70 +70,319 @@ public class BankPaymentService {
             List<PaymentRecord> records
     ) {}
 
-    public List<PaymentRecord> preview(String tenantId, int year, int month) {
-        List<PayrollSnapshot> snapshots = getSnapshots(tenantId, year, month);
-        List<PaymentRecord> records = new ArrayList<>();
+    public enum Format {
+        CSV("CSV", "text/csv; charset=utf-8"),
+        TXT("TXT", "text/plain; charset=windows-1251"),
+        SEPA("XML", "application/xml");
+
+        final String extension;
+        final String contentType;
+
+        Format(String extension, String contentType) {
+            this.extension = extension;
+            this.contentType = contentType;
+        }
+
+        public static Format of(String value) {
+            return valueOf(value.toUpperCase());
+        }
+    }
 
-        for (PayrollSnapshot s : snapshots) {
-            Employee emp = employeeRepo.findById(s.getEmployeeId()).orElse(null);
-            if (emp == null) continue;
+    /** Преводите от една сметка на фирмата: банките на получателите, брой и сума. */
+    public record AccountBatch(BankAccount account, List<String> bankCodes, long count, BigDecimal total) {}
 
-            BigDecimal netSalary = s.getNetSalary() != null ? s.getNetSalary() : BigDecimal.ZERO;
-            if (netSalary.compareTo(BigDecimal.ZERO) <= 0) continue;
+    /**
+     * План на плащанията за месеца; currency = валутата на сумите в периода (ISO 4217),
+     * missingIban = служители с нето, но без IBAN.
+     */
+    public record PaymentPlan(Company company, int year, int month, String status, String currency,
+                              List<AccountBatch> batches, long count, BigDecimal total, long missingIban) {
+
+        public boolean split() {
+            return batches.size() > 1;
+        }
+
+        /** SEPA нареждане може да се състави само за суми в евро. */
+        public boolean supports(Format format) {
+            return format != Format.SEPA || SepaCreditTransferWriter.CURRENCY.equals(currency);
+        }
+    }
+
+    /** Валутата на заплатите за периода: лева до 31.12.2025 г., евро след това. */
+    public static String currency(int year, int month) {
+        return YearMonth.of(year, month).isBefore(EURO_FROM) ? "BGN" : "EUR";
+    }
+
+    /**
+     * @throws IllegalStateException ако годината е архивирана — заплатите ѝ отдавна са
+     *         изплатени, а плащанията се съставят от живите snapshot-и и служители
+     */
+    public List<PaymentRecord> preview(String tenantId, int year, int month) {
+        archiveService.requireNotArchived(tenantId, year);
+        Company company = entityLoader.company(tenantId);
+        String status = resolveStatus(tenantId, year, month);
+        List<PaymentRecord> records = new ArrayList<>();
+        if (status == null) return records;
 
+        List<BankAccount> accounts = company != null ? payrollAccounts(company) : List.of();
+        for (PaymentProjection p : snapshotRepo.findPayments(tenantId, year, month, status, null, false)) {
             List<String> warnings = new ArrayList<>();
-            String iban = emp.getIban() != null ? emp.getIban() : "";
-            String bic = emp.getBic() != null ? emp.getBic() : "";
+            String iban = p.iban() != null ? p.iban() : "";
+            String bic = p.bic() != null ? p.bic() : "";
             if (iban.isEmpty()) warnings.add("Липсва IBAN");
             if (bic.isEmpty()) warnings.add("Липсва BIC");
 
-            String description = String.format("Заплата %02d/%d", month, year);
-
+            BankAccount debtor = iban.isEmpty() || accounts.isEmpty() ? null : route(accounts, p.bankCode());
             records.add(new PaymentRecord(
-                    emp.getId(), emp.getFullName(), iban, bic,
-                    netSalary.setScale(2, RoundingMode.HALF_UP), description, warnings));
+                    p.employeeId(), p.employeeName(), iban, bic,
+                    p.netSalary().setScale(2, RoundingMode.HALF_UP), description(year, month), warnings,
+                    debtor != null ? debtor.getIban() : null));
         }
         return records;
     }
 
     public PaymentFileResult generateFile(String tenantId, int year, int month) {
-        Company company = companyRepo.findById(tenantId).orElse(null);
+        PaymentPlan plan = plan(tenantId, year, month);
+        List<PaymentRecord> records = preview(tenantId, year, month);
+
+        StringWriter sw = new StringWriter();
+        try {
+            sw.write(CSV_HEADER);
+            for (PaymentProjection p : payments(plan, null)) {
+                writeCsvLine(sw, p, description(year, month));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return new PaymentFileResult(fileName(plan, Format.CSV, null), sw.toString(),
+                (int) plan.count(), plan.total(), records);
+    }
+
+    /**
+     * Разпределя плащанията по сметките на фирмата по броя и сумите на банка
+     * (една агрегираща заявка — самите преводи още не са прочетени).
+     *
+     * @throws IllegalStateException ако годината е архивирана
+     */
+    public PaymentPlan plan(String tenantId, int year, int month) {
+        archiveService.requireNotArchived(tenantId, year);
+        Company company = entityLoader.company(tenantId);
         if (company == null) throw new RuntimeException("Фирмата не е намерена");
 
-        List<PaymentRecord> records = preview(tenantId, year, month);
-        if (records.isEmpty()) throw new RuntimeException("Няма плащания за генериране");
+        String status = null;
+        List<BankTotal> totals = List.of();
+        for (String candidate : STATUSES) {
+            totals = new ArrayList<>();
+            snapshotRepo.paymentTotalsByBank(tenantId, year, month, candidate).forEach(totals::add);
+            if (!totals.isEmpty()) {
+                status = candidate;
+                break;
+            }
+        }
+        if (status == null) throw new RuntimeException("Няма плащания за генериране");
+
+        List<BankAccount> accounts = payrollAccounts(company);
+        Map<BankAccount, List<BankTotal>> byAccount = new LinkedHashMap<>();
+        for (BankAccount account : accounts) byAccount.put(account, new ArrayList<>());
 
-        StringBuilder sb = new StringBuilder();
-        // Header
-        sb.append("IBAN;BIC;Сума;Получател;Основание\r\n");
+        long missingIban = 0;
+        for (BankTotal t : totals) {
+            if (t.bankCode().isEmpty()) {
+                missingIban += t.count();
+            } else {
+                byAccount.get(route(accounts, t.bankCode())).add(t);
+            }
+        }
 
+        List<AccountBatch> batches = new ArrayList<>();
+        long count = 0;
         BigDecimal total = BigDecimal.ZERO;
-        int count = 0;
-        for (PaymentRecord r : records) {
-            if (r.iban().isEmpty()) continue; // пропусни без IBAN
-            sb.append(r.iban()).append(";");
-            sb.append(r.bic()).append(";");
-            sb.append(r.amount().toPlainString()).append(";");
-            sb.append(r.employeeName()).append(";");
-            sb.append(r.description()).append("\r\n");
-            total = total.add(r.amount());
-            count++;
+        for (Map.Entry<BankAccount, List<BankTotal>> e : byAccount.entrySet()) {
+            if (e.getValue().isEmpty()) continue;
+            long batchCount = e.getValue().stream().mapToLong(BankTotal::count).sum();
+            BigDecimal batchTotal = BigDecimal.valueOf(e.getValue().stream().mapToLong(BankTotal::cents).sum(), 2);
+            batches.add(new AccountBatch(e.getKey(), e.getValue().stream().map(BankTotal::bankCode).toList(),
+                    batchCount, batchTotal));
+            count += batchCount;
+            total = total.add(batchTotal);
+        }
+        if (batches.isEmpty()) throw new RuntimeException("Няма плащания за генериране");
+
+        return new PaymentPlan(company, year, month, status, currency(year, month),
+                batches, count, total, missingIban);
+    }
+
+    /** Име на файла; за CSV/TXT при разделяне по сметки — ZIP. */
+    public String fileName(PaymentPlan plan, Format format) {
+        if (format != Format.SEPA && plan.split()) {
+            return String.format("SALARY_%s_%d_%02d.ZIP", bulstat(plan), plan.year(), plan.month());
+        }
+        return fileName(plan, format, null);
+    }
+
+    public String contentType(PaymentPlan plan, Format format) {
+        return format != Format.SEPA && plan.split() ? "application/zip" : format.contentType;
+    }
+
+    /**
+     * Записва файла в out. Преводите се четат от курсора и се записват веднага —
+     * паметта не зависи от броя служители. При SEPA броят и сумата от плана се сверяват
+     * с прочетените преводи; ако месецът е преизчислен междувременно, записът спира
+     * с IllegalStateException и файлът остава незавършен.
+     */
+    public void write(PaymentPlan plan, Format format, LocalDate executionDate, OutputStream out) throws IOException {
+        if (format == Format.SEPA) {
+            writeSepa(plan, executionDate, out);
+            return;
+        }
+        if (!plan.split()) {
+            writeFlat(plan, format, plan.batches().get(0), out);
+            return;
+        }
+
+        ZipOutputStream zip = new ZipOutputStream(out);
+        for (AccountBatch batch : plan.batches()) {
+            zip.putNextEntry(new ZipEntry(fileName(plan, format, batch)));
+            writeFlat(plan, format, batch, zip);
+            zip.closeEntry();
+        }
+        zip.finish();
+    }
+
+    // ── Формати ──
+
+    private static final String CSV_HEADER = "IBAN;BIC;Сума;Получател;Основание\r\n";
+
+    private void writeFlat(PaymentPlan plan, Format format, AccountBatch batch, OutputStream out) throws IOException {
+        // Без затваряне — при ZIP потокът продължава със следващия файл
+        Writer w = new BufferedWriter(new OutputStreamWriter(out,
+                format == Format.TXT ? WINDOWS_1251 : StandardCharsets.UTF_8));
+        String description = description(plan.year(), plan.month());
+        if (format == Format.CSV) w.write(CSV_HEADER);
+        for (PaymentProjection p : payments(plan, batch)) {
+            if (format == Format.CSV) {
+                writeCsvLine(w, p, description);
+            } else {
+                writeTxtLine(w, p, description);
+            }
+        }
+        w.flush();
+    }
+
+    private static void writeCsvLine(Writer w, PaymentProjection p, String description) throws IOException {
+        w.write(p.iban());
+        w.write(';');
+        w.write(p.bic() != null ? p.bic() : "");
+        w.write(';');
+        w.write(p.netSalary().setScale(2, RoundingMode.HALF_UP).toPlainString());
+        w.write(';');
+        w.write(p.employeeName());
+        w.write(';');
+        w.write(description);
+        w.write("\r\n");
+    }
+
+    /**
+     * Фиксирана ширина: IBAN (34), BIC (11), сума (15, дясно подравнена),
+     * получател (35), основание (35); ред \r\n.
+     */
+    private static void writeTxtLine(Writer w, PaymentProjection p, String description) throws IOException {
+        w.write(padRight(p.iban(), 34));
+        w.write(padRight(p.bic(), 11));
+        w.write(padLeft(p.netSalary().setScale(2, RoundingMode.HALF_UP).toPlainString(), 15));
+        w.write(padRight(p.employeeName(), 35));
+        w.write(padRight(description, 35));
+        w.write("\r\n");
+    }
+
+    private void writeSepa(PaymentPlan plan, LocalDate executionDate, OutputStream out) throws IOException {
+        Company company = plan.company();
+        SepaCreditTransferWriter.Party party = new SepaCreditTransferWriter.Party(company.getName(), company.getBulstat());
+        String period = String.format("%d%02d", plan.year(), plan.month());
+        String messageId = "SAL-" + bulstat(plan) + "-" + period + "-" + Long.toString(System.currentTimeMillis(), 36);
+        String description = description(plan.year(), plan.month());
+
+        try (SepaCreditTransferWriter sepa = new SepaCreditTransferWriter(out, plan.currency())) {
+            sepa.start(messageId, party, plan.count(), plan.total());
+            int n = 0;
+            for (AccountBatch batch : plan.batches()) {
+                BankAccount account = batch.account();
+                if (account.getIban() == null || account.getIban().isBlank()) {
+                    throw new IllegalStateException("Липсва IBAN на фирмената сметка за заплати");
+                }
+                sepa.startPayment(messageId + "-" + (++n), party, account.getIban(), account.getBic(),
+                        executionDate, batch.count(), batch.total());
+                for (PaymentProjection p : payments(plan, batch)) {
+                    sepa.transfer(period + "-" + p.employeeId(), p.netSalary(), p.employeeName(),
+                            p.iban(), p.bic(), description);
+                }
+                sepa.endPayment();
+            }
+            sepa.end();
+        } catch (XMLStreamException e) {
+            throw new IOException("Грешка при запис на SEPA файла", e);
+        }
+    }
+
+    // ── Helpers ──
+
+    /** Плащанията с IBAN за сметката (null = всички), подредени по име. */
+    private Iterable<PaymentProjection> payments(PaymentPlan plan, AccountBatch batch) {
+        return snapshotRepo.findPayments(plan.company().getId(), plan.year(), plan.month(), plan.status(),
+                batch != null ? batch.bankCodes() : null, true);
+    }
+
+    /** Първо CLOSED, после CALCULATED; null ако няма нито едно. */
+    private String resolveStatus(String tenantId, int year, int month) {
+        for (String status : STATUSES) {
+            if (snapshotRepo.paymentTotalsByBank(tenantId, year, month, status).iterator().hasNext()) return status;
+        }
+        return null;
+    }
+
+    /** Сметките за заплати или, ако не са въведени, основната сметка на фирмата. */
+    private static List<BankAccount> payrollAccounts(Company company) {
+        if (company.getPayrollAccounts() != null && !company.getPayrollAccounts().isEmpty()) {
+            return company.getPayrollAccounts();
         }
+        return List.of(new BankAccount(company.getCompanyIban(), company.getCompanyBic(),
+                company.getCompanyBankName(), true));
+    }
 
-        String bulstat = company.getBulstat() != null ? company.getBulstat() : "UNKNOWN";
-        String fileName = String.format("SALARY_%s_%d_%02d.CSV", bulstat, year, month);
+    /** Сметка в банката на получателя, иначе сметката по подразбиране (или първата). */
+    private static BankAccount route(List<BankAccount> accounts, String bankCode) {
+        BankAccount fallback = null;
+        for (BankAccount account : accounts) {
+            if (accounts.size() > 1 && BankAccount.bankCode(account.getIban()).equals(bankCode)) return account;
+            if (fallback == null && account.isDefaultAccount()) fallback = account;
+        }
+        return fallback != null ? fallback : accounts.get(0);
+    }
 
-        return new PaymentFileResult(fileName, sb.toString(), count, total, records);
+    private String fileName(PaymentPlan plan, Format format, AccountBatch batch) {
+        String suffix = batch != null ? "_" + BankAccount.bankCode(batch.account().getIban()) : "";
+        return String.format("SALARY_%s_%d_%02d%s.%s", bulstat(plan), plan.year(), plan.month(), suffix,
+                format.extension);
     }
 
-    private List<PayrollSnapshot> getSnapshots(String tenantId, int year, int month) {
-        List<PayrollSnapshot> closed = StreamSupport.stream(
-                snapshotRepo.findByTenantIdAndYearAndMonthAndStatus(tenantId, year, month, "CLOSED").spliterator(), false
-        ).toList();
-        if (!closed.isEmpty()) return closed;
+    private static String bulstat(PaymentPlan plan) {
+        return plan.company().getBulstat() != null ? plan.company().getBulstat() : "UNKNOWN";
+    }
+
+    private static String description(int year, int month) {
+        return String.format("Заплата %02d/%d", month, year);
+    }
+
+    private static String padRight(String value, int width) {
+        String s = value != null ? value : "";
+        if (s.length() > width) return s.substring(0, width);
+        return s + " ".repeat(width - s.length());
+    }
 
-        return StreamSupport.stream(
-                snapshotRepo.findByTenantIdAndYearAndMonthAndStatus(tenantId, year, month, "CALCULATED").spliterator(), false
-        ).toList();
+    private static String padLeft(String value, int width) {
+        String s = value != null ? value : "";
+        if (s.length() > width) return s.substring(s.length() - width);
+        return " ".repeat(width - s.length()) + s;
     }
 }
@@ -2,8 +2,10 @@ package com.valstrz.service;
 
 import com.valstrz.entity.company.Company;
 import com.valstrz.entity.payroll.PayrollSnapshot;
+import com.valstrz.entity.personnel.Absence;
 import com.valstrz.entity.personnel.Employee;
 import com.valstrz.entity.personnel.Employment;
+import com.valstrz.repository.AbsenceRepository;
 import com.valstrz.repository.CompanyRepository;
 import com.valstrz.repository.EmployeeRepository;
 import com.valstrz.repository.EmploymentRepository;
@@ -15,6 +17,8 @@ import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.StreamSupport;
@@ -30,15 +34,24 @@ public class CertificateService {
     private final EmployeeRepository employeeRepo;
     private final EmploymentRepository employmentRepo;
     private final CompanyRepository companyRepo;
+    private final AbsenceRepository absenceRepo;
+    private final WorkingCalendarService workingCalendarService;
+    private final PayrollArchiveService archiveService;
 
     public CertificateService(PayrollSnapshotRepository snapshotRepo,
                                EmployeeRepository employeeRepo,
                                EmploymentRepository employmentRepo,
-                               CompanyRepository companyRepo) {
+                               CompanyRepository companyRepo,
+                               AbsenceRepository absenceRepo,
+                               WorkingCalendarService workingCalendarService,
+                               PayrollArchiveService archiveService) {
         this.snapshotRepo = snapshotRepo;
         this.employeeRepo = employeeRepo;
         this.employmentRepo = employmentRepo;
         this.companyRepo = companyRepo;
+        this.absenceRepo = absenceRepo;
+        this.workingCalendarService = workingCalendarService;
+        this.archiveService = archiveService;
     }
 
     public record MonthlyInsuranceData(
@@ -64,19 +77,9 @@ public class CertificateService {
         int y = fromYear;
         int m = fromMonth;
         while (y < toYear || (y == toYear && m <= toMonth)) {
-            List<PayrollSnapshot> snapshots = StreamSupport.stream(
-                    snapshotRepo.findByTenantIdAndYearAndMonthAndStatus(tenantId, y, m, "CLOSED").spliterator(), false
-            ).toList();
-
-            if (snapshots.isEmpty()) {
-                snapshots = StreamSupport.stream(
-                        snapshotRepo.findByTenantIdAndYearAndMonthAndStatus(tenantId, y, m, "CALCULATED").spliterator(), false
-                ).toList();
-            }
-
-            PayrollSnapshot match = snapshots.stream()
-                    .filter(s -> employeeId.equals(s.getEmployeeId()))
-                    .findFirst().orElse(null);
+            PayrollSnapshot match = archiveService.isArchived(tenantId, y)
+                    ? archiveService.snapshot(tenantId, employeeId, y, m)
+                    : findLiveSnapshot(tenantId, employeeId, y, m);
 
             if (match != null) {
                 BigDecimal income = match.getInsurableIncome() != null ? match.getInsurableIncome() : BigDecimal.ZERO;
@@ -96,6 +99,22 @@ public class CertificateService {
         return result;
     }
 
+    private PayrollSnapshot findLiveSnapshot(String tenantId, String employeeId, int year, int month) {
+        List<PayrollSnapshot> snapshots = StreamSupport.stream(
+                snapshotRepo.findByTenantIdAndYearAndMonthAndStatus(tenantId, year, month, "CLOSED").spliterator(), false
+        ).toList();
+
+        if (snapshots.isEmpty()) {
+            snapshots = StreamSupport.stream(
+                    snapshotRepo.findByTenantIdAndYearAndMonthAndStatus(tenantId, year, month, "CALCULATED").spliterator(), false
+            ).toList();
+        }
+
+        return snapshots.stream()
+                .filter(s -> employeeId.equals(s.getEmployeeId()))
+                .findFirst().orElse(null);
+    }
+
     public UP2Data generateUP2(String tenantId, String employeeId,
                                 int fromYear, int fromMonth,
                                 int toYear, int toMonth) {
@@ -221,10 +240,19 @@ public class CertificateService {
         List<Employment> employments = StreamSupport.stream(
                 employmentRepo.findByTenantIdAndEmployeeId(tenantId, employeeId).spliterator(), false).toList();
 
+        // Неплатен отпуск: до 30 работни дни в календарна година се зачитат за стаж (чл. 160, ал. 3 КТ)
+        List<Absence> unpaidLeaves = new ArrayList<>();
+        for (Absence abs : absenceRepo.findByTenantIdAndEmployeeId(tenantId, employeeId)) {
+            if (isUnpaidLeave(abs) && abs.getFromDate() != null && abs.getToDate() != null) unpaidLeaves.add(abs);
+        }
+        Map<Integer, Integer> unpaidDaysByYear = new HashMap<>();
+
         List<SeniorityPeriod> periods = new ArrayList<>();
         int totalYears = 0, totalMonths = 0, totalDays = 0;
 
-        for (Employment empl : employments) {
+        for (Employment empl : employments.stream()
+                .filter(e -> e.getStartDate() != null)
+                .sorted(Comparator.comparing(Employment::getStartDate)).toList()) {
             LocalDate start = empl.getStartDate();
             if (start == null) continue;
 
@@ -251,6 +279,15 @@ public class CertificateService {
             if (d >= 30) { m++; d = 0; }
             if (m >= 12) { y++; m -= 12; }
 
+            // Незачетен неплатен отпуск се приспада (месец = 30 дни, година = 12 месеца)
+            int excess = excessUnpaidLeaveDays(tenantId, unpaidLeaves, unpaidDaysByYear, start, end);
+            if (excess > 0) {
+                int remaining = Math.max(0, y * 360 + m * 30 + d - excess);
+                y = remaining / 360;
+                m = (remaining % 360) / 30;
+                d = remaining % 30;
+            }
+
             int category = 3; // по подразбиране трета категория
             periods.add(new SeniorityPeriod(start, end,
                     empl.getJobTitle() != null ? empl.getJobTitle() : "",
@@ -277,6 +314,35 @@ public class CertificateService {
                 totalYears, totalMonths, totalDays, html);
     }
 
+    private static boolean isUnpaidLeave(Absence abs) {
+        return "351305".equals(abs.getType()) || "351306".equals(abs.getType());
+    }
+
+    /**
+     * Работни дни неплатен отпуск в [start, end] над лимита от 30 на календарна година.
+     * Лимитът се споделя между периодите, затова unpaidDaysByYear се пази между извикванията.
+     */
+    private int excessUnpaidLeaveDays(String tenantId, List<Absence> unpaidLeaves,
+                                      Map<Integer, Integer> unpaidDaysByYear,
+                                      LocalDate start, LocalDate end) {
+        int excess = 0;
+        for (Absence abs : unpaidLeaves) {
+            LocalDate from = abs.getFromDate().isBefore(start) ? start : abs.getFromDate();
+            LocalDate to = abs.getToDate().isAfter(end) ? end : abs.getToDate();
+            for (int y = from.getYear(); y <= to.getYear(); y++) {
+                LocalDate yFrom = y == from.getYear() ? from : LocalDate.of(y, 1, 1);
+                LocalDate yTo = y == to.getYear() ? to : LocalDate.of(y, 12, 31);
+                if (yTo.isBefore(yFrom)) continue;
+                int days = workingCalendarService.get(tenantId, y).workingDays(yFrom, yTo);
+                int usedBefore = unpaidDaysByYear.getOrDefault(y, 0);
+                int usedAfter = usedBefore + days;
+                unpaidDaysByYear.put(y, usedAfter);
+                excess += Math.max(0, usedAfter - Math.max(30, usedBefore));
+            }
+        }
+        return excess;
+    }
+
     private String buildUP3Html(Company company, Employee emp,
                                  List<SeniorityPeriod> periods,
                                  int totalYears, int totalMonths, int totalDays,
@@ -0,0 +1,81 @@
+package com.valstrz.service;
+
+import com.valstrz.repository.MonthClosingSnapshotRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Кеш на отговори за затворени месеци.
+ *
+ * Затворен месец не се променя до reopenMonth, затова версията му (ключът на
+ * MonthClosingSnapshot + closingVersion) определя ETag-а заедно с брояча на промените
+ * във фирмените данни (MasterDataRevision — фирма, служители, правоотношения), които
+ * справките също показват; часовите карти на затворен месец не могат да се променят.
+ * Запомнените резултати се пазят с ETag-а, при който са изчислени — след повторно
+ * затваряне или промяна на данните ETag-ът е друг и старият резултат просто не
+ * съвпада; reopenMonth ги изчиства веднага.
+ */
+@Service
+public class ClosedPeriodCache {
+
+    private final MonthClosingSnapshotRepository closingRepository;
+    private final Map<String, Memo> memos;
+
+    public ClosedPeriodCache(MonthClosingSnapshotRepository closingRepository,
+                             @Value("${valstrz.http.closed-period-cache.max-entries:256}") int maxEntries) {
+        this.closingRepository = closingRepository;
+        this.memos = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Memo> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    private record Memo(String etag, Object value) {}
+
+    /**
+     * Силен ETag на затворения месец или null, ако месецът не е затворен.
+     */
+    public String etag(String tenantId, int year, int month) {
+        for (MonthClosingSnapshotRepository.ClosingVersion v :
+                closingRepository.findClosingVersion(tenantId, year, month)) {
+            return "\"" + v.id() + "." + v.closingVersion() + "." + v.masterDataRevision() + "\"";
+        }
+        return null;
+    }
+
+    /**
+     * Резултатът за ресурса от затворения месец; loader се извиква само ако няма
+     * запомнен резултат със същия ETag.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T memoize(String tenantId, int year, int month, String resource, String etag, Supplier<T> loader) {
+        String key = periodKey(tenantId, year, month) + resource;
+        synchronized (memos) {
+            Memo memo = memos.get(key);
+            if (memo != null && memo.etag().equals(etag)) return (T) memo.value();
+        }
+        T value = loader.get();
+        synchronized (memos) {
+            memos.put(key, new Memo(etag, value));
+        }
+        return value;
+    }
+
+    /** Премахва всичко запомнено за месеца (при отваряне). */
+    public void invalidate(String tenantId, int year, int month) {
+        String prefix = periodKey(tenantId, year, month);
+        synchronized (memos) {
+            memos.keySet().removeIf(k -> k.startsWith(prefix));
+        }
+    }
+
+    private static String periodKey(String tenantId, int year, int month) {
+        return tenantId + "|" + year + "|" + month + "|";
+    }
+}
@@ -24,21 +24,21 @@ import java.util.stream.StreamSupport;
 public class Declaration1Service {
 
     private final PayrollSnapshotRepository snapshotRepo;
-    private final CompanyRepository companyRepo;
-    private final EmployeeRepository employeeRepo;
     private final EmploymentRepository employmentRepo;
     private final NapSubmissionRepository submissionRepo;
+    private final EntityLoader entityLoader;
+    private final PayrollArchiveService archiveService;
 
     public Declaration1Service(PayrollSnapshotRepository snapshotRepo,
-                               CompanyRepository companyRepo,
-                               EmployeeRepository employeeRepo,
                                EmploymentRepository employmentRepo,
-                               NapSubmissionRepository submissionRepo) {
+                               NapSubmissionRepository submissionRepo,
+                               EntityLoader entityLoader,
+                               PayrollArchiveService archiveService) {
         this.snapshotRepo = snapshotRepo;
-        this.companyRepo = companyRepo;
-        this.employeeRepo = employeeRepo;
         this.employmentRepo = employmentRepo;
         this.submissionRepo = submissionRepo;
+        this.entityLoader = entityLoader;
+        this.archiveService = archiveService;
     }
 
     // ── DTO за преглед ──
@@ -84,36 +84,21 @@ public class Declaration1Service {
     // ── Публични методи ──
 
     public List<D1Record> preview(String tenantId, int year, int month) {
-        Company company = companyRepo.findById(tenantId).orElse(null);
+        Company company = entityLoader.company(tenantId);
         if (company == null) return List.of();
 
-        List<PayrollSnapshot> snapshots = getSnapshots(tenantId, year, month);
-        List<D1Record> records = new ArrayList<>();
-
-        for (PayrollSnapshot snapshot : snapshots) {
-            Employee employee = employeeRepo.findById(snapshot.getEmployeeId()).orElse(null);
-            Employment employment = findCurrentEmployment(tenantId, snapshot.getEmployeeId());
-            records.add(buildRecord(snapshot, company, employee, employment, 0));
-        }
-        return records;
+        return buildRecords(tenantId, company, getSnapshots(tenantId, year, month), 0);
     }
 
     public NapSubmission generate(String tenantId, int year, int month, int correctionCode) {
-        Company company = companyRepo.findById(tenantId).orElse(null);
+        Company company = entityLoader.company(tenantId);
         if (company == null) throw new RuntimeException("Фирмата не е намерена: " + tenantId);
 
         List<PayrollSnapshot> snapshots = getSnapshots(tenantId, year, month);
         if (snapshots.isEmpty()) throw new RuntimeException("Няма изчислени заплати за " + month + "/" + year);
 
-        List<D1Record> records = new ArrayList<>();
-        List<String> employeeIds = new ArrayList<>();
-
-        for (PayrollSnapshot snapshot : snapshots) {
-            Employee employee = employeeRepo.findById(snapshot.getEmployeeId()).orElse(null);
-            Employment employment = findCurrentEmployment(tenantId, snapshot.getEmployeeId());
-            records.add(buildRecord(snapshot, company, employee, employment, correctionCode));
-            employeeIds.add(snapshot.getEmployeeId());
-        }
+        List<D1Record> records = buildRecords(tenantId, company, snapshots, correctionCode);
+        List<String> employeeIds = snapshots.stream().map(PayrollSnapshot::getEmployeeId).toList();
 
         StringBuilder sb = new StringBuilder();
         List<String> allErrors = new ArrayList<>();
@@ -384,7 +369,28 @@ public class Declaration1Service {
 
     // ── Помощни методи ──
 
+    /** Служителите и правоотношенията на всички snapshot-и се зареждат с по една заявка. */
+    private List<D1Record> buildRecords(String tenantId, Company company, List<PayrollSnapshot> snapshots,
+                                        int correctionCode) {
+        List<String> employeeIds = snapshots.stream().map(PayrollSnapshot::getEmployeeId).distinct().toList();
+        Map<String, Employee> employees = entityLoader.employees(employeeIds);
+        Map<String, Employment> employments = entityLoader.currentEmployments(tenantId, employeeIds);
+
+        List<D1Record> records = new ArrayList<>();
+        for (PayrollSnapshot snapshot : snapshots) {
+            Employee employee = employees.get(snapshot.getEmployeeId());
+            Employment employment = employments.get(snapshot.getEmployeeId());
+            if (employment == null) employment = findAnyEmployment(tenantId, snapshot.getEmployeeId());
+            records.add(buildRecord(snapshot, company, employee, employment, correctionCode));
+        }
+        return records;
+    }
+
     private List<PayrollSnapshot> getSnapshots(String tenantId, int year, int month) {
+        // Архивираната година се чете от архива (всички месеци в него са затворени)
+        List<PayrollSnapshot> archived = archiveService.snapshots(tenantId, year, month);
+        if (archived != null) return archived;
+
         // Опитваме първо CLOSED, после CALCULATED
         List<PayrollSnapshot> closed = StreamSupport.stream(
                 snapshotRepo.findByTenantIdAndYearAndMonthAndStatus(tenantId, year, month, "CLOSED").spliterator(), false
@@ -396,14 +402,9 @@ public class Declaration1Service {
         ).toList();
     }
 
-    private Employment findCurrentEmployment(String tenantId, String employeeId) {
+    /** Fallback при липса на текущо правоотношение: първото от всички. */
+    private Employment findAnyEmployment(String tenantId, String employeeId) {
         List<Employment> employments = StreamSupport.stream(
-                employmentRepo.findByTenantIdAndEmployeeIdAndCurrent(tenantId, employeeId, true).spliterator(), false
-        ).toList();
-        if (!employments.isEmpty()) return employments.get(0);
-
-        // Fallback: всички
-        employments = StreamSupport.stream(
                 employmentRepo.findByTenantIdAndEmployeeId(tenantId, employeeId).spliterator(), false
         ).toList();
         return employments.isEmpty() ? null : employments.get(0);
@@ -25,13 +25,16 @@ public class Declaration6Service {
     private final PayrollSnapshotRepository snapshotRepo;
     private final CompanyRepository companyRepo;
     private final NapSubmissionRepository submissionRepo;
+    private final PayrollArchiveService archiveService;
 
     public Declaration6Service(PayrollSnapshotRepository snapshotRepo,
                                CompanyRepository companyRepo,
-                               NapSubmissionRepository submissionRepo) {
+                               NapSubmissionRepository submissionRepo,
+                               PayrollArchiveService archiveService) {
         this.snapshotRepo = snapshotRepo;
         this.companyRepo = companyRepo;
         this.submissionRepo = submissionRepo;
+        this.archiveService = archiveService;
     }
 
     // ── DTO ──
@@ -212,6 +215,10 @@ public class Declaration6Service {
     }
 
     private List<PayrollSnapshot> getSnapshots(String tenantId, int year, int month) {
+        // Архивираната година се чете от архива (всички месеци в него са затворени)
+        List<PayrollSnapshot> archived = archiveService.snapshots(tenantId, year, month);
+        if (archived != null) return archived;
+
         List<PayrollSnapshot> closed = StreamSupport.stream(
                 snapshotRepo.findByTenantIdAndYearAndMonthAndStatus(tenantId, year, month, "CLOSED").spliterator(), false
         ).toList();
@@ -4,20 +4,37 @@ import com.valstrz.entity.personnel.Employee;
 import com.valstrz.entity.personnel.Employment;
 import com.valstrz.repository.EmployeeRepository;
 import com.valstrz.repository.EmploymentRepository;
+import com.valstrz.util.CsvTokenizer;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.format.DateTimeParseException;
+import java.util.*;
 
+/**
+ * Поточен импорт на служители от CSV.
+ *
+ * Колони: ЕГН, име, презиме, фамилия, дата на раждане, длъжност, НКПД, КИД, заплата
+ * [, дата на ТД [, дата на постъпване]]. Датите са във формат YYYY-MM-DD.
+ *
+ * Съществуващите служители и текущите им правоотношения се зареждат с по една заявка
+ * в хеш индекс по ЕГН. Редовете се записват на партиди (saveAll = multi-document repsert),
+ * а не по 4 заявки на служител.
+ */
 @Service
 public class EmployeeImportService {
 
+    static final int BATCH_SIZE = 500;
+    private static final int MIN_COLUMNS = 9;
+    private static final int MAX_REPORTED_ERRORS = 1000;
+
     private final EmployeeRepository employeeRepository;
     private final EmploymentRepository employmentRepository;
 
@@ -26,98 +43,239 @@ public class EmployeeImportService {
         this.employmentRepository = employmentRepository;
     }
 
-    public void importEmployees(String tenantId, MultipartFile file) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(file.getInputStream(), StandardCharsets.UTF_8))) {
-            String line;
-            boolean isFirstLine = true;
-            while ((line = reader.readLine()) != null) {
-                if (line.trim().isEmpty()) continue;
-                if (isFirstLine) {
-                    if (line.toLowerCase().contains("egn")) {
-                        isFirstLine = false;
-                        continue;
-                    }
-                    isFirstLine = false;
-                }
+    // ── DTO ──
 
-                String[] parts = line.split(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)");
-                if (parts.length >= 9) {
-                    processLine(tenantId, parts);
-                }
+    public record ImportResult(
+            boolean dryRun,
+            int totalRows,
+            int createdEmployees,
+            int updatedEmployees,
+            int failedRows,
+            long durationMs,
+            List<RowError> errors
+    ) {}
+
+    public record RowError(int line, String egn, String message) {}
+
+    private record ImportRow(
+            int line, String egn, String firstName, String middleName, String lastName,
+            LocalDate birthDate, String jobTitle, String nkpd, String kid, BigDecimal salary,
+            LocalDate contractDate, LocalDate startDate
+    ) {}
+
+    // ── Публични методи ──
+
+    public ImportResult importEmployees(String tenantId, MultipartFile file) throws IOException {
+        return importEmployees(tenantId, file, false);
+    }
+
+    public ImportResult importEmployees(String tenantId, MultipartFile file, boolean dryRun) throws IOException {
+        try (InputStream in = file.getInputStream()) {
+            return importEmployees(tenantId, in, dryRun);
+        }
+    }
+
+    public ImportResult importEmployees(String tenantId, InputStream in, boolean dryRun) throws IOException {
+        long started = System.currentTimeMillis();
+        ImportContext ctx = new ImportContext(tenantId, dryRun);
+        ctx.loadIndex();
+
+        CsvTokenizer tokenizer = new CsvTokenizer(
+                new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 64 * 1024));
+        boolean isFirstRecord = true;
+        String[] parts;
+        while ((parts = tokenizer.next()) != null) {
+            if (isBlankRecord(parts)) continue;
+            int line = tokenizer.getRecordLineNumber();
+            if (isFirstRecord) {
+                isFirstRecord = false;
+                if (parts[0].toLowerCase().contains("egn") || parts[0].contains("ЕГН")) continue;
+            }
+
+            ctx.totalRows++;
+            ImportRow row = parseRow(line, parts, ctx);
+            if (row != null) {
+                ctx.apply(row);
+            }
+            if (ctx.pendingSize() >= BATCH_SIZE) {
+                ctx.flush();
             }
         }
+        ctx.flush();
+
+        return new ImportResult(dryRun, ctx.totalRows, ctx.created, ctx.updated, ctx.failed,
+                System.currentTimeMillis() - started, ctx.errors);
     }
 
-    private void processLine(String tenantId, String[] parts) {
+    // ── Парсване и валидация на ред ──
+
+    private ImportRow parseRow(int line, String[] parts, ImportContext ctx) {
         String egn = parts[0].trim();
+        if (parts.length < MIN_COLUMNS) {
+            ctx.reject(line, egn, "Очаквани са поне " + MIN_COLUMNS + " колони, намерени " + parts.length);
+            return null;
+        }
+        if (!isValidEgn(egn)) {
+            ctx.reject(line, egn, "Невалидно ЕГН");
+            return null;
+        }
         String firstName = parts[1].trim();
-        String middleName = parts[2].trim();
         String lastName = parts[3].trim();
-        LocalDate birthDate = parseDate(parts[4].trim());
-        String jobTitle = parts[5].trim();
-        String nkpd = parts[6].trim();
-        String kid = parts[7].trim();
-        BigDecimal salary = parseDecimal(parts[8].trim());
-        LocalDate contractDate = parseDate(parts.length > 9 ? parts[9].trim() : LocalDate.now().toString());
-        LocalDate startDate = parseDate(parts.length > 10 ? parts[10].trim() : contractDate.toString());
-
-        // Find or create Employee
-        Iterable<Employee> existing = employeeRepository.findByTenantIdAndEgn(tenantId, egn);
-        Employee employee;
-        if (existing.iterator().hasNext()) {
-            employee = existing.iterator().next();
-        } else {
-            employee = new Employee();
-            employee.setTenantId(tenantId);
-            employee.setEgn(egn);
-            employee.setActive(true);
-        }
-        
-        employee.setFirstName(firstName);
-        employee.setMiddleName(middleName);
-        employee.setLastName(lastName);
-        employee.setBirthDate(birthDate);
-        
-        employee = employeeRepository.save(employee);
-
-        // Create/Update Employment
-        Iterable<Employment> employments = employmentRepository.findByTenantIdAndEmployeeIdAndCurrent(tenantId, employee.getId(), true);
-        Employment employment;
-        if (employments.iterator().hasNext()) {
-            employment = employments.iterator().next();
-        } else {
-            employment = new Employment();
-            employment.setTenantId(tenantId);
-            employment.setEmployeeId(employee.getId());
-            employment.setCurrent(true);
+        if (firstName.isEmpty() || lastName.isEmpty()) {
+            ctx.reject(line, egn, "Липсва име или фамилия");
+            return null;
         }
 
-        employment.setJobTitle(jobTitle);
-        employment.setNkpdCode(nkpd);
-        employment.setKidCode(kid);
-        employment.setBaseSalary(salary);
-        employment.setContractDate(contractDate);
-        employment.setStartDate(startDate);
-        if (employment.getContractNumber() == null) {
-             employment.setContractNumber("IMP-" + egn);
+        try {
+            LocalDate birthDate = parseDate(parts[4], null);
+            BigDecimal salary = parseDecimal(parts[8]);
+            LocalDate contractDate = parseDate(parts.length > 9 ? parts[9] : null, LocalDate.now());
+            LocalDate startDate = parseDate(parts.length > 10 ? parts[10] : null, contractDate);
+            return new ImportRow(line, egn, firstName, parts[2].trim(), lastName, birthDate,
+                    parts[5].trim(), parts[6].trim(), parts[7].trim(), salary, contractDate, startDate);
+        } catch (DateTimeParseException e) {
+            ctx.reject(line, egn, "Невалидна дата: " + e.getParsedString());
+        } catch (NumberFormatException e) {
+            ctx.reject(line, egn, "Невалидна заплата: " + parts[8].trim());
         }
+        return null;
+    }
 
-        employmentRepository.save(employment);
+    private static boolean isValidEgn(String egn) {
+        if (egn.length() != 10) return false;
+        for (int i = 0; i < 10; i++) {
+            char c = egn.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
     }
 
-    private LocalDate parseDate(String dateStr) {
-        try {
-            return LocalDate.parse(dateStr); // Expects YYYY-MM-DD
-        } catch (DateTimeParseException | NullPointerException e) {
-            return LocalDate.now();
+    private static boolean isBlankRecord(String[] parts) {
+        for (String p : parts) {
+            if (!p.isBlank()) return false;
         }
+        return true;
     }
 
-    private BigDecimal parseDecimal(String str) {
-        try {
-            return new BigDecimal(str);
-        } catch (NumberFormatException e) {
-            return BigDecimal.ZERO;
+    private static LocalDate parseDate(String value, LocalDate defaultValue) {
+        if (value == null || value.isBlank()) return defaultValue;
+        return LocalDate.parse(value.trim()); // YYYY-MM-DD
+    }
+
+    private static BigDecimal parseDecimal(String value) {
+        if (value == null || value.isBlank()) return BigDecimal.ZERO;
+        return new BigDecimal(value.trim());
+    }
+
+    // ── Състояние на един импорт ──
+
+    /**
+     * Хеш индекси по ЕГН / employeeId и буфер с чакащите за запис документи.
+     * Нови служители нямат id до записа на партидата, затова правоотношенията
+     * им се свързват по ЕГН и получават employeeId при flush().
+     */
+    private final class ImportContext {
+
+        private final String tenantId;
+        private final boolean dryRun;
+
+        private final Map<String, Employee> employeesByEgn = new HashMap<>();
+        private final Map<String, Employment> employmentsByEmployeeId = new HashMap<>();
+
+        private final Map<String, Employee> pendingEmployees = new LinkedHashMap<>();
+        private final Map<String, Employment> pendingEmployments = new LinkedHashMap<>();
+        private final Set<String> seenEgns = new HashSet<>();
+
+        private int totalRows;
+        private int created;
+        private int updated;
+        private int failed;
+        private final List<RowError> errors = new ArrayList<>();
+
+        ImportContext(String tenantId, boolean dryRun) {
+            this.tenantId = tenantId;
+            this.dryRun = dryRun;
+        }
+
+        void loadIndex() {
+            for (Employee e : employeeRepository.findByTenantId(tenantId)) {
+                if (e.getEgn() != null) employeesByEgn.putIfAbsent(e.getEgn(), e);
+            }
+            for (Employment empl : employmentRepository.findByTenantIdAndCurrent(tenantId, true)) {
+                if (empl.getEmployeeId() != null) employmentsByEmployeeId.putIfAbsent(empl.getEmployeeId(), empl);
+            }
+        }
+
+        void apply(ImportRow row) {
+            boolean firstOccurrence = seenEgns.add(row.egn());
+            Employee employee = employeesByEgn.get(row.egn());
+            if (employee == null) {
+                employee = new Employee();
+                employee.setTenantId(tenantId);
+                employee.setEgn(row.egn());
+                employee.setActive(true);
+                employeesByEgn.put(row.egn(), employee);
+                created++;
+            } else if (firstOccurrence) {
+                updated++;
+            }
+            employee.setFirstName(row.firstName());
+            employee.setMiddleName(row.middleName());
+            employee.setLastName(row.lastName());
+            employee.setBirthDate(row.birthDate());
+            pendingEmployees.put(row.egn(), employee);
+
+            Employment employment = employee.getId() != null
+                    ? employmentsByEmployeeId.get(employee.getId())
+                    : pendingEmployments.get(row.egn());
+            if (employment == null) {
+                employment = new Employment();
+                employment.setTenantId(tenantId);
+                employment.setEmployeeId(employee.getId());
+                employment.setCurrent(true);
+                if (employee.getId() != null) employmentsByEmployeeId.put(employee.getId(), employment);
+            }
+            employment.setJobTitle(row.jobTitle());
+            employment.setNkpdCode(row.nkpd());
+            employment.setKidCode(row.kid());
+            employment.setBaseSalary(row.salary());
+            employment.setContractDate(row.contractDate());
+            employment.setStartDate(row.startDate());
+            if (employment.getContractNumber() == null) {
+                employment.setContractNumber("IMP-" + row.egn());
+            }
+            pendingEmployments.put(row.egn(), employment);
+        }
+
+        int pendingSize() {
+            return pendingEmployees.size();
+        }
+
+        /** Записва партидата: един repsert за служителите и един за правоотношенията. */
+        void flush() {
+            if (pendingEmployees.isEmpty()) return;
+            if (!dryRun) {
+                for (Employee saved : employeeRepository.saveAll(pendingEmployees.values())) {
+                    employeesByEgn.put(saved.getEgn(), saved);
+                    Employment employment = pendingEmployments.get(saved.getEgn());
+                    if (employment != null && employment.getEmployeeId() == null) {
+                        employment.setEmployeeId(saved.getId());
+                        employmentsByEmployeeId.put(saved.getId(), employment);
+                    }
+                }
+                for (Employment saved : employmentRepository.saveAll(pendingEmployments.values())) {
+                    employmentsByEmployeeId.put(saved.getEmployeeId(), saved);
+                }
+            }
+            pendingEmployees.clear();
+            pendingEmployments.clear();
+        }
+
+        void reject(int line, String egn, String message) {
+            failed++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(new RowError(line, egn, message));
+            }
         }
     }
 }
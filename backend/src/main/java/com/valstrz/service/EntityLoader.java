@@ -0,0 +1,153 @@
+package com.valstrz.service;
+
+import com.valstrz.entity.company.Company;
+import com.valstrz.entity.personnel.Employee;
+import com.valstrz.entity.personnel.Employment;
+import com.valstrz.repository.CompanyRepository;
+import com.valstrz.repository.EmployeeRepository;
+import com.valstrz.repository.EmploymentRepository;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Карта на идентичност за фирми, служители и текущи правоотношения в рамките
+ * на една заявка или задача.
+ *
+ * Всеки обект се чете най-много веднъж за обхвата; липсващите ключове се
+ * събират и се зареждат с една заявка (FOR d IN c FILTER d._key IN @keys).
+ * Цикъл по snapshot-ите първо вика employees(...) с всички ключове, след което
+ * employee(id) в цикъла не стига до базата.
+ *
+ * HTTP заявките под /api/ отварят обхват (EntityLoaderFilter); задачи извън
+ * заявка го отварят с scope(...). Без отворен обхват нищо не се пази между
+ * извикванията. Записаните обекти се изваждат от картата (EntityLoaderListener).
+ */
+@Component
+public class EntityLoader {
+
+    private final CompanyRepository companyRepository;
+    private final EmployeeRepository employeeRepository;
+    private final EmploymentRepository employmentRepository;
+
+    private final ThreadLocal<IdentityMap> current = new ThreadLocal<>();
+
+    public EntityLoader(CompanyRepository companyRepository,
+                        EmployeeRepository employeeRepository,
+                        EmploymentRepository employmentRepository) {
+        this.companyRepository = companyRepository;
+        this.employeeRepository = employeeRepository;
+        this.employmentRepository = employmentRepository;
+    }
+
+    /** Обхват на картата; затварянето на вложен обхват не изчиства външния. */
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static final class IdentityMap {
+        final Map<String, Company> companies = new HashMap<>();
+        final Map<String, Employee> employees = new HashMap<>();
+        // tenantId → employeeId → текущо правоотношение (null = няма)
+        final Map<String, Map<String, Employment>> currentEmployments = new HashMap<>();
+    }
+
+    // ── Обхват ──
+
+    public Scope open() {
+        if (current.get() != null) return () -> {};
+        current.set(new IdentityMap());
+        return current::remove;
+    }
+
+    public <T> T scope(Supplier<T> action) {
+        try (Scope ignored = open()) {
+            return action.get();
+        }
+    }
+
+    // ── Четене ──
+
+    public Company company(String id) {
+        return companies(List.of(id)).get(id);
+    }
+
+    public Map<String, Company> companies(Collection<String> ids) {
+        return load(map().companies, ids, companyRepository::findByKeys, Company::getId);
+    }
+
+    public Employee employee(String id) {
+        if (id == null) return null;
+        return employees(List.of(id)).get(id);
+    }
+
+    /** Служителите по ключ (в реда на ids); липсващите са със стойност null. */
+    public Map<String, Employee> employees(Collection<String> ids) {
+        return load(map().employees, ids, employeeRepository::findByKeys, Employee::getId);
+    }
+
+    public Employment currentEmployment(String tenantId, String employeeId) {
+        if (employeeId == null) return null;
+        return currentEmployments(tenantId, List.of(employeeId)).get(employeeId);
+    }
+
+    /** Текущото правоотношение по служител; при няколко текущи се взима първото. */
+    public Map<String, Employment> currentEmployments(String tenantId, Collection<String> employeeIds) {
+        Map<String, Employment> cache = map().currentEmployments.computeIfAbsent(tenantId, k -> new HashMap<>());
+        return load(cache, employeeIds,
+                keys -> employmentRepository.findCurrentByEmployeeIds(tenantId, keys), Employment::getEmployeeId);
+    }
+
+    // ── Поддръжка на картата ──
+
+    public void prime(Employee employee) {
+        IdentityMap map = current.get();
+        if (map != null && employee.getId() != null) map.employees.put(employee.getId(), employee);
+    }
+
+    /** Изважда записания обект, за да не се върне остаряло копие до края на обхвата. */
+    public void evict(Object entity) {
+        IdentityMap map = current.get();
+        if (map == null) return;
+        if (entity instanceof Company c) {
+            map.companies.remove(c.getId());
+        } else if (entity instanceof Employee e) {
+            map.employees.remove(e.getId());
+        } else if (entity instanceof Employment e) {
+            Map<String, Employment> tenant = map.currentEmployments.get(e.getTenantId());
+            if (tenant != null) tenant.remove(e.getEmployeeId());
+        }
+    }
+
+    // ── Helpers ──
+
+    private IdentityMap map() {
+        IdentityMap map = current.get();
+        return map != null ? map : new IdentityMap();
+    }
+
+    private static <T> Map<String, T> load(Map<String, T> cache, Collection<String> ids,
+                                           Function<Collection<String>, Iterable<T>> batch,
+                                           Function<T, String> keyOf) {
+        Set<String> missing = new LinkedHashSet<>();
+        for (String id : ids) {
+            if (id != null && !cache.containsKey(id)) missing.add(id);
+        }
+        if (!missing.isEmpty()) {
+            for (T entity : batch.apply(missing)) {
+                cache.putIfAbsent(keyOf.apply(entity), entity);
+            }
+            // Запомнят се и липсващите — следващото търсене не стига до базата
+            for (String id : missing) cache.putIfAbsent(id, null);
+        }
+
+        Map<String, T> result = new LinkedHashMap<>();
+        for (String id : ids) {
+            if (id != null) result.put(id, cache.get(id));
+        }
+        return result;
+    }
+}
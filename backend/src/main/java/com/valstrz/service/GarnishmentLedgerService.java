@@ -0,0 +1,171 @@
+package com.valstrz.service;
+
+import com.valstrz.entity.payroll.PayrollSnapshot;
+import com.valstrz.entity.personnel.Garnishment;
+import com.valstrz.entity.personnel.GarnishmentLedgerEntry;
+import com.valstrz.repository.GarnishmentLedgerRepository;
+import com.valstrz.repository.GarnishmentRepository;
+import com.valstrz.util.MoneyUtil;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Дневник на удръжките по запори (garnishmentLedger).
+ *
+ * При затваряне на месец се записва по един запис на запор; платената сума
+ * се изчислява наново от дневника и всички засегнати запори се записват
+ * с един saveAll. Отварянето на месеца изтрива записите му с една заявка.
+ * Няма read-modify-write на paidAmount, затова две припокриващи се
+ * затваряния не могат да удвоят сумата.
+ */
+@Service
+public class GarnishmentLedgerService {
+
+    private static final String GARNISHMENT_ID = "garnishmentId";
+
+    private final GarnishmentLedgerRepository ledgerRepository;
+    private final GarnishmentRepository garnishmentRepository;
+
+    public GarnishmentLedgerService(GarnishmentLedgerRepository ledgerRepository,
+                                    GarnishmentRepository garnishmentRepository) {
+        this.ledgerRepository = ledgerRepository;
+        this.garnishmentRepository = garnishmentRepository;
+    }
+
+    /**
+     * Записва удръжките по запори от затворените snapshot-и и обновява платените суми.
+     */
+    public void recordMonth(String tenantId, int year, int month, List<PayrollSnapshot> snapshots) {
+        Map<String, GarnishmentLedgerEntry> entries = collectEntries(tenantId, year, month, snapshots);
+        if (entries.isEmpty()) return;
+
+        // Базовата сума се фиксира преди записа, за да не включва текущия месец
+        initOpeningAmounts(entries.keySet());
+        ledgerRepository.saveAll(entries.values());
+        refreshPaidAmounts(entries.keySet());
+    }
+
+    /**
+     * Връща месеца: изтрива записите му и преизчислява платените суми.
+     * За месеци, затворени преди въвеждането на дневника (няма записи),
+     * сумите от snapshot-ите се изваждат от базовата сума.
+     */
+    public void rollbackMonth(String tenantId, int year, int month, Iterable<PayrollSnapshot> snapshots) {
+        Set<String> affected = new HashSet<>();
+        for (GarnishmentLedgerEntry e : ledgerRepository.findByTenantIdAndYearAndMonth(tenantId, year, month)) {
+            affected.add(e.getGarnishmentId());
+        }
+
+        if (!affected.isEmpty()) {
+            ledgerRepository.deleteByTenantIdAndYearAndMonth(tenantId, year, month);
+            refreshPaidAmounts(affected);
+            return;
+        }
+
+        List<PayrollSnapshot> list = new ArrayList<>();
+        snapshots.forEach(list::add);
+        Map<String, GarnishmentLedgerEntry> legacy = collectEntries(tenantId, year, month, list);
+        if (legacy.isEmpty()) return;
+
+        initOpeningAmounts(legacy.keySet());
+        List<Garnishment> changed = new ArrayList<>();
+        for (Garnishment g : garnishmentRepository.findAllById(legacy.keySet())) {
+            g.setOpeningPaidAmount(MoneyUtil.subtract(g.getOpeningPaidAmount(), legacy.get(g.getId()).getAmount()));
+            changed.add(g);
+        }
+        garnishmentRepository.saveAll(changed);
+        refreshPaidAmounts(legacy.keySet());
+    }
+
+    public List<GarnishmentLedgerEntry> getLedger(String garnishmentId) {
+        List<GarnishmentLedgerEntry> list = new ArrayList<>();
+        ledgerRepository.findByGarnishmentId(garnishmentId).forEach(list::add);
+        list.sort(Comparator.comparingInt(GarnishmentLedgerEntry::getYear)
+                .thenComparingInt(GarnishmentLedgerEntry::getMonth));
+        return list;
+    }
+
+    // ── Helpers ──
+
+    private Map<String, GarnishmentLedgerEntry> collectEntries(String tenantId, int year, int month,
+                                                               List<PayrollSnapshot> snapshots) {
+        Map<String, GarnishmentLedgerEntry> entries = new LinkedHashMap<>();
+        LocalDateTime now = LocalDateTime.now();
+        for (PayrollSnapshot s : snapshots) {
+            if (s.getDeductions() == null) continue;
+            for (PayrollSnapshot.PayrollLine line : s.getDeductions()) {
+                if (line.getMetadata() == null || !line.getMetadata().containsKey(GARNISHMENT_ID)) continue;
+                String gId = line.getMetadata().get(GARNISHMENT_ID);
+                GarnishmentLedgerEntry entry = entries.computeIfAbsent(gId, id -> {
+                    GarnishmentLedgerEntry e = new GarnishmentLedgerEntry();
+                    e.setId(GarnishmentLedgerEntry.keyOf(id, year, month));
+                    e.setTenantId(tenantId);
+                    e.setGarnishmentId(id);
+                    e.setEmployeeId(s.getEmployeeId());
+                    e.setSnapshotId(s.getId());
+                    e.setYear(year);
+                    e.setMonth(month);
+                    e.setAmount(BigDecimal.ZERO);
+                    e.setRecordedAt(now);
+                    return e;
+                });
+                entry.setAmount(MoneyUtil.add(entry.getAmount(), line.getAmount()));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Запори отпреди дневника: базовата сума = текуща платена сума - сбор от дневника.
+     */
+    private void initOpeningAmounts(Collection<String> garnishmentIds) {
+        List<Garnishment> missing = new ArrayList<>();
+        for (Garnishment g : garnishmentRepository.findAllById(garnishmentIds)) {
+            if (g.getOpeningPaidAmount() == null) missing.add(g);
+        }
+        if (missing.isEmpty()) return;
+
+        Map<String, BigDecimal> ledgerTotals = sumLedger(missing.stream().map(Garnishment::getId).toList());
+        for (Garnishment g : missing) {
+            g.setOpeningPaidAmount(MoneyUtil.subtract(g.getPaidAmount(), ledgerTotals.get(g.getId())));
+        }
+        garnishmentRepository.saveAll(missing);
+    }
+
+    /**
+     * Платена сума = базова сума + сбор от дневника. Изплатен запор се деактивира;
+     * запор, деактивиран заради изплащане, се активира отново при намалена сума.
+     */
+    private void refreshPaidAmounts(Collection<String> garnishmentIds) {
+        Map<String, BigDecimal> ledgerTotals = sumLedger(garnishmentIds);
+        List<Garnishment> changed = new ArrayList<>();
+        for (Garnishment g : garnishmentRepository.findAllById(garnishmentIds)) {
+            boolean wasPaidOff = isPaidOff(g);
+            g.setPaidAmount(MoneyUtil.add(g.getOpeningPaidAmount(), ledgerTotals.get(g.getId())));
+            if (isPaidOff(g)) {
+                g.setActive(false);
+            } else if (wasPaidOff) {
+                g.setActive(true);
+            }
+            changed.add(g);
+        }
+        garnishmentRepository.saveAll(changed);
+    }
+
+    /** Агрегира дневника по запор (BigDecimal, без загуба на точност). */
+    private Map<String, BigDecimal> sumLedger(Collection<String> garnishmentIds) {
+        Map<String, BigDecimal> totals = new HashMap<>();
+        for (GarnishmentLedgerEntry e : ledgerRepository.findByGarnishmentIdIn(garnishmentIds)) {
+            totals.merge(e.getGarnishmentId(), e.getAmount() != null ? e.getAmount() : BigDecimal.ZERO, BigDecimal::add);
+        }
+        return totals;
+    }
+
+    private static boolean isPaidOff(Garnishment g) {
+        return g.getTotalAmount() != null && g.getPaidAmount() != null
+                && g.getPaidAmount().compareTo(g.getTotalAmount()) >= 0;
+    }
+}
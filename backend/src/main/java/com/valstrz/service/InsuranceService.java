@@ -1,23 +1,26 @@
 package com.valstrz.service;
 
+import com.valstrz.entity.company.Company;
 import com.valstrz.entity.insurance.InsuranceContributions;
 import com.valstrz.entity.insurance.InsuranceThreshold;
 import com.valstrz.entity.nomenclature.EconomicActivity;
+import com.valstrz.repository.CompanyRepository;
 import com.valstrz.repository.EconomicActivityRepository;
 import com.valstrz.repository.InsuranceContributionsRepository;
 import com.valstrz.repository.InsuranceThresholdRepository;
+import com.valstrz.util.CsvTokenizer;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.StreamSupport;
 
 @Service
@@ -26,13 +29,16 @@ public class InsuranceService {
     private final EconomicActivityRepository economicActivityRepository;
     private final InsuranceContributionsRepository contributionsRepository;
     private final InsuranceThresholdRepository thresholdRepository;
+    private final CompanyRepository companyRepository;
 
     public InsuranceService(EconomicActivityRepository economicActivityRepository,
                             InsuranceContributionsRepository contributionsRepository,
-                            InsuranceThresholdRepository thresholdRepository) {
+                            InsuranceThresholdRepository thresholdRepository,
+                            CompanyRepository companyRepository) {
         this.economicActivityRepository = economicActivityRepository;
         this.contributionsRepository = contributionsRepository;
         this.thresholdRepository = thresholdRepository;
+        this.companyRepository = companyRepository;
     }
 
     /**
@@ -1035,67 +1041,160 @@ public class InsuranceService {
         return result;
     }
 
-    public void importMod(String tenantId, int year, MultipartFile file) throws IOException {
-        List<EconomicActivity> activities = parseModCsv(new BufferedReader(new InputStreamReader(file.getInputStream(), StandardCharsets.UTF_8)), year);
-        for (EconomicActivity activity : activities) {
-            activity.setTenantId(tenantId);
-            economicActivityRepository.save(activity);
+    // ── Импорт на МОД/ТЗПБ (mod.csv) ──
+    // Колони: Red, KID_Code, Name, MOD, TZPB%
+
+    private static final int MOD_BATCH_SIZE = 500;
+
+    /** duplicates = повторения на вече прочетен код във файла (прилага се последният ред). */
+    public record ModImportResult(int inserted, int updated, int skipped, int duplicates, int invalid) {}
+
+    private record ModRow(String code, String name, BigDecimal modAmount, BigDecimal tzpbPercent) {}
+
+    public ModImportResult importMod(String tenantId, int year, MultipartFile file) throws IOException {
+        try (Reader reader = new InputStreamReader(file.getInputStream(), StandardCharsets.UTF_8)) {
+            ModUpserter upserter = new ModUpserter(tenantId, year);
+            int invalid = parseModCsv(reader, upserter::accept);
+            return upserter.finish(invalid);
         }
     }
-    
-    public void importModFromFileSystem(String tenantId, int year, java.io.InputStream inputStream) throws IOException {
-         List<EconomicActivity> activities = parseModCsv(new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8)), year);
-         for (EconomicActivity activity : activities) {
-            activity.setTenantId(tenantId);
-            economicActivityRepository.save(activity);
+
+    public ModImportResult importModFromFileSystem(String tenantId, int year, Path path) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            ModUpserter upserter = new ModUpserter(tenantId, year);
+            int invalid = parseModCsv(reader, upserter::accept);
+            return upserter.finish(invalid);
+        }
+    }
+
+    /**
+     * Годишно обновяване на МОД за всички фирми: файлът се парсва веднъж,
+     * след което редовете се прилагат към всяка фирма на партиди.
+     */
+    public Map<String, ModImportResult> importModForAllTenants(int year, MultipartFile file) throws IOException {
+        List<ModRow> rows = new ArrayList<>();
+        int invalid;
+        try (Reader reader = new InputStreamReader(file.getInputStream(), StandardCharsets.UTF_8)) {
+            invalid = parseModCsv(reader, rows::add);
+        }
+
+        Map<String, ModImportResult> results = new LinkedHashMap<>();
+        for (Company company : companyRepository.findAll()) {
+            ModUpserter upserter = new ModUpserter(company.getId(), year);
+            rows.forEach(upserter::accept);
+            results.put(company.getId(), upserter.finish(invalid));
         }
+        return results;
     }
 
-    private List<EconomicActivity> parseModCsv(BufferedReader reader, int year) throws IOException {
-        List<EconomicActivity> activities = new ArrayList<>();
-        String line;
-        boolean isFirstLine = true;
+    /**
+     * Поточно парсване на mod.csv през CsvTokenizer (без регулярни изрази).
+     *
+     * @return брой невалидни редове
+     */
+    private int parseModCsv(Reader reader, Consumer<ModRow> sink) throws IOException {
+        CsvTokenizer tokenizer = new CsvTokenizer(reader);
+        int invalid = 0;
+        boolean isFirstRecord = true;
+        String[] parts;
 
-        while ((line = reader.readLine()) != null) {
-            if (line.trim().isEmpty()) continue;
-            
-            if (isFirstLine) {
-                 if (line.contains("Red") || line.contains("KID_Code")) {
-                     isFirstLine = false;
-                     continue;
-                 }
-                 isFirstLine = false;
+        while ((parts = tokenizer.next()) != null) {
+            if (parts.length == 1 && parts[0].isBlank()) continue;
+
+            if (isFirstRecord) {
+                isFirstRecord = false;
+                if (parts[0].contains("Red") || (parts.length > 1 && parts[1].contains("KID_Code"))) continue;
             }
 
-            // CSV Parsing (comma separated, handles quotes)
-            String[] parts = line.split(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)");
+            if (parts.length < 5) {
+                invalid++;
+                continue;
+            }
 
-            if (parts.length >= 5) {
-                EconomicActivity activity = new EconomicActivity();
+            String code = parts[1].trim();
+            try {
+                String tzpbStr = parts[4].trim();
+                if (tzpbStr.endsWith("%")) {
+                    tzpbStr = tzpbStr.substring(0, tzpbStr.length() - 1);
+                }
+                sink.accept(new ModRow(code, parts[2].trim(),
+                        new BigDecimal(parts[3].trim()), new BigDecimal(tzpbStr)));
+            } catch (NumberFormatException e) {
+                invalid++;
+            }
+        }
+        return invalid;
+    }
+
+    /**
+     * Upsert на икономически дейности по ключ (tenantId, year, code).
+     * Съществуващите записи за годината се зареждат с една заявка; записват се
+     * само новите и променените, на партиди през saveAll. Флагът active се запазва.
+     */
+    private final class ModUpserter {
+
+        private final String tenantId;
+        private final int year;
+        private final Map<String, EconomicActivity> byCode = new HashMap<>();
+        private final Map<String, EconomicActivity> pending = new LinkedHashMap<>();
+        private final Set<String> seen = new HashSet<>();
+        private int inserted;
+        private int updated;
+        private int skipped;
+        private int duplicates;
+
+        ModUpserter(String tenantId, int year) {
+            this.tenantId = tenantId;
+            this.year = year;
+            for (EconomicActivity a : economicActivityRepository.findByTenantIdAndYear(tenantId, year)) {
+                byCode.putIfAbsent(a.getCode(), a);
+            }
+        }
+
+        void accept(ModRow row) {
+            boolean duplicate = !seen.add(row.code());
+            EconomicActivity activity = byCode.get(row.code());
+            if (duplicate) {
+                duplicates++;
+                if (sameValues(activity, row)) return;
+            } else if (activity == null) {
+                activity = new EconomicActivity();
+                activity.setTenantId(tenantId);
                 activity.setYear(year);
-                activity.setCode(parts[1].trim());
+                activity.setCode(row.code());
+                byCode.put(row.code(), activity);
+                inserted++;
+            } else if (sameValues(activity, row)) {
+                skipped++;
+                return;
+            } else {
+                updated++;
+            }
+            activity.setName(row.name());
+            activity.setModAmount(row.modAmount());
+            activity.setTzpbPercent(row.tzpbPercent());
+            pending.put(row.code(), activity);
 
-                String name = parts[2].trim();
-                if (name.startsWith("\"") && name.endsWith("\"")) {
-                    name = name.substring(1, name.length() - 1);
-                }
-                activity.setName(name);
+            if (pending.size() >= MOD_BATCH_SIZE) flush();
+        }
 
-                try {
-                    activity.setModAmount(new BigDecimal(parts[3].trim()));
-                    
-                    String tzpbStr = parts[4].trim();
-                    if (tzpbStr.endsWith("%")) {
-                        tzpbStr = tzpbStr.substring(0, tzpbStr.length() - 1);
-                    }
-                    activity.setTzpbPercent(new BigDecimal(tzpbStr));
-                } catch (NumberFormatException e) {
-                    continue; 
-                }
+        ModImportResult finish(int invalid) {
+            flush();
+            return new ModImportResult(inserted, updated, skipped, duplicates, invalid);
+        }
 
-                activities.add(activity);
+        private void flush() {
+            if (pending.isEmpty()) return;
+            for (EconomicActivity saved : economicActivityRepository.saveAll(pending.values())) {
+                byCode.put(saved.getCode(), saved);
             }
+            pending.clear();
+        }
+
+        private boolean sameValues(EconomicActivity a, ModRow row) {
+            return Objects.equals(a.getName(), row.name())
+                    && a.getModAmount() != null && a.getModAmount().compareTo(row.modAmount()) == 0
+                    && a.getTzpbPercent() != null && a.getTzpbPercent().compareTo(row.tzpbPercent()) == 0;
         }
-        return activities;
     }
 }
@@ -0,0 +1,154 @@
+package com.valstrz.service;
+
+import com.valstrz.entity.company.Company;
+import com.valstrz.entity.payroll.LegislationSnapshot;
+import com.valstrz.entity.payroll.PayrollSnapshot;
+import com.valstrz.repository.CompanyRepository;
+import com.valstrz.repository.LegislationSnapshotRepository;
+import com.valstrz.repository.PayrollSnapshotRepository;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Съхранение на legislationParams по съдържание (legislationSnapshots).
+ *
+ * Хешът е SHA-256 на параметрите, подредени по ключ. Записаните документи не се
+ * променят, затова прочетените се кешират без срок — кешът се изчиства само ако
+ * нарасне над MAX_CACHED (реално наборите са по няколко на година).
+ */
+@Service
+public class LegislationSnapshotService {
+
+    private static final int MAX_CACHED = 10_000;
+    private static final int BATCH_SIZE = 500;
+
+    private final LegislationSnapshotRepository legislationRepository;
+    private final PayrollSnapshotRepository snapshotRepository;
+    private final CompanyRepository companyRepository;
+
+    private final Map<String, Map<String, Object>> cache = new ConcurrentHashMap<>();
+
+    public LegislationSnapshotService(LegislationSnapshotRepository legislationRepository,
+                                      PayrollSnapshotRepository snapshotRepository,
+                                      CompanyRepository companyRepository) {
+        this.legislationRepository = legislationRepository;
+        this.snapshotRepository = snapshotRepository;
+        this.companyRepository = companyRepository;
+    }
+
+    public record CompactionResult(int snapshots, int legislationSets) {}
+
+    // ── Запис / четене ──
+
+    /**
+     * Записва параметрите (ако още ги няма) и връща ключа им.
+     */
+    public String store(Map<String, Object> params) {
+        String hash = hashOf(params);
+        if (cache.containsKey(hash)) return hash;
+
+        if (!legislationRepository.existsById(hash)) {
+            LegislationSnapshot doc = new LegislationSnapshot();
+            doc.setId(hash);
+            doc.setParams(new LinkedHashMap<>(params));
+            doc.setCreatedAt(LocalDateTime.now());
+            legislationRepository.save(doc);
+        }
+        remember(hash, params);
+        return hash;
+    }
+
+    /**
+     * Параметрите по ключ (неизменим Map) или null, ако документът липсва.
+     */
+    public Map<String, Object> resolve(String hash) {
+        Map<String, Object> params = cache.get(hash);
+        if (params != null) return params;
+        return legislationRepository.findById(hash)
+                .map(doc -> remember(hash, doc.getParams() != null ? doc.getParams() : Map.of()))
+                .orElse(null);
+    }
+
+    /**
+     * Ключът за записвания snapshot: запазва се текущият, ако параметрите са
+     * същите като прочетените по него (напр. при затваряне на месеца).
+     */
+    public String keyFor(PayrollSnapshot snapshot) {
+        Map<String, Object> params = snapshot.getLegislationParams();
+        String current = snapshot.getLegislationHash();
+        if (current != null && params.equals(resolve(current))) return current;
+        return store(params);
+    }
+
+    // ── Миграция ──
+
+    /**
+     * Изнася вградените legislationParams на фирмата в legislationSnapshots.
+     * Самото преместване става в LegislationSnapshotListener при запис.
+     */
+    public CompactionResult compact(String tenantId) {
+        List<PayrollSnapshot> batch = new ArrayList<>(BATCH_SIZE);
+        Set<String> hashes = new HashSet<>();
+        int compacted = 0;
+        for (PayrollSnapshot s : snapshotRepository.findByTenantIdAndLegislationHashIsNull(tenantId)) {
+            if (s.getLegislationParams() == null) continue;
+            batch.add(s);
+            if (batch.size() >= BATCH_SIZE) {
+                compacted += saveBatch(batch, hashes);
+            }
+        }
+        compacted += saveBatch(batch, hashes);
+        return new CompactionResult(compacted, hashes.size());
+    }
+
+    public Map<String, CompactionResult> compactForAllTenants() {
+        Map<String, CompactionResult> result = new LinkedHashMap<>();
+        for (Company company : companyRepository.findAll()) {
+            result.put(company.getId(), compact(company.getId()));
+        }
+        return result;
+    }
+
+    // ── Helpers ──
+
+    /** SHA-256 (hex) на параметрите, подредени по ключ; BigDecimal — без експонента. */
+    public static String hashOf(Map<String, Object> params) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Object> e : new TreeMap<>(params).entrySet()) {
+            Object v = e.getValue();
+            sb.append(e.getKey()).append('=')
+                    .append(v instanceof BigDecimal bd ? bd.toPlainString() : String.valueOf(v))
+                    .append('\n');
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Map<String, Object> remember(String hash, Map<String, Object> params) {
+        if (cache.size() >= MAX_CACHED) cache.clear();
+        Map<String, Object> copy = Collections.unmodifiableMap(new LinkedHashMap<>(params));
+        cache.put(hash, copy);
+        return copy;
+    }
+
+    private int saveBatch(List<PayrollSnapshot> batch, Set<String> hashes) {
+        if (batch.isEmpty()) return 0;
+        snapshotRepository.saveAll(batch);
+        for (PayrollSnapshot s : batch) hashes.add(s.getLegislationHash());
+        int saved = batch.size();
+        batch.clear();
+        return saved;
+    }
+}
@@ -1,6 +1,6 @@
 package com.valstrz.service;
 
-import com.valstrz.entity.company.SeniorityBonusConfig;
+import com.valstrz.entity.company.Company;
 import com.valstrz.entity.insurance.InsuranceContributions;
 import com.valstrz.entity.insurance.InsuranceRates;
 import com.valstrz.entity.insurance.InsuranceThreshold;
@@ -8,16 +8,13 @@ import com.valstrz.entity.payroll.MonthClosingSnapshot;
 import com.valstrz.entity.payroll.Payroll;
 import com.valstrz.entity.payroll.PayrollSnapshot;
 import com.valstrz.entity.personnel.Employee;
-import com.valstrz.entity.personnel.Employment;
 import com.valstrz.repository.*;
 import com.valstrz.util.MoneyUtil;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
 import java.util.*;
 
 @Service
@@ -36,11 +33,15 @@ public class MonthClosingService {
     private final DeductionItemRepository deductionItemRepository;
     private final EmployeeRepository employeeRepository;
     private final EmploymentRepository employmentRepository;
-    private final SeniorityBonusConfigRepository seniorityConfigRepository;
-    private final GarnishmentRepository garnishmentRepository;
+    private final SeniorityBonusService seniorityBonusService;
+    private final GarnishmentLedgerService garnishmentLedgerService;
+    private final PayrollAnomalyService anomalyService;
     private final MonthlyCalendarService monthlyCalendarService;
     private final MonthlyTimesheetService monthlyTimesheetService;
     private final AuditService auditService;
+    private final PayrollArchiveService archiveService;
+    private final ClosedPeriodCache closedPeriodCache;
+    private final PayrollMetrics metrics;
 
     public MonthClosingService(PayrollService payrollService,
                                 PayrollRepository payrollRepository,
@@ -55,11 +56,15 @@ public class MonthClosingService {
                                 DeductionItemRepository deductionItemRepository,
                                 EmployeeRepository employeeRepository,
                                 EmploymentRepository employmentRepository,
-                                SeniorityBonusConfigRepository seniorityConfigRepository,
-                                GarnishmentRepository garnishmentRepository,
+                                SeniorityBonusService seniorityBonusService,
+                                GarnishmentLedgerService garnishmentLedgerService,
+                                PayrollAnomalyService anomalyService,
                                 MonthlyCalendarService monthlyCalendarService,
                                 MonthlyTimesheetService monthlyTimesheetService,
-                                AuditService auditService) {
+                                AuditService auditService,
+                                PayrollArchiveService archiveService,
+                                ClosedPeriodCache closedPeriodCache,
+                                PayrollMetrics metrics) {
         this.payrollService = payrollService;
         this.payrollRepository = payrollRepository;
         this.snapshotRepository = snapshotRepository;
@@ -73,34 +78,62 @@ public class MonthClosingService {
         this.deductionItemRepository = deductionItemRepository;
         this.employeeRepository = employeeRepository;
         this.employmentRepository = employmentRepository;
-        this.seniorityConfigRepository = seniorityConfigRepository;
-        this.garnishmentRepository = garnishmentRepository;
+        this.seniorityBonusService = seniorityBonusService;
+        this.garnishmentLedgerService = garnishmentLedgerService;
+        this.anomalyService = anomalyService;
         this.monthlyCalendarService = monthlyCalendarService;
         this.monthlyTimesheetService = monthlyTimesheetService;
         this.auditService = auditService;
+        this.archiveService = archiveService;
+        this.closedPeriodCache = closedPeriodCache;
+        this.metrics = metrics;
     }
 
+    public record MonthOpeningResult(String tenantId, int year, int month,
+                                     int activeEmployees, int createdTimesheets, String error) {}
+
     /**
      * Подготвя нов месец: генерира календар и празни присъствени форми (timesheets)
      * за всички активни служители.
      */
-    public void startNewMonth(String tenantId, int year, int month) {
+    public MonthOpeningResult startNewMonth(String tenantId, int year, int month) {
+        archiveService.requireNotArchived(tenantId, year);
+
         // 1. Генерираме календар
         monthlyCalendarService.generateCalendar(tenantId, year, month);
 
         // 2. Намираме всички активни служители
-        Iterable<Employee> activeEmployees = employeeRepository.findByTenantIdAndActive(tenantId, true);
-        
-        // 3. Създаваме празни timesheets
-        for (Employee emp : activeEmployees) {
-            monthlyTimesheetService.getOrCreateTimesheet(tenantId, emp.getId(), year, month);
+        List<String> employeeIds = new ArrayList<>();
+        for (Employee emp : employeeRepository.findByTenantIdAndActive(tenantId, true)) {
+            employeeIds.add(emp.getId());
         }
 
+        // 3. Създаваме празни timesheets (общите данни се зареждат веднъж за фирмата)
+        int created = monthlyTimesheetService.createTimesheetsForMonth(tenantId, year, month, employeeIds);
+
         // 4. Създаваме запис за Payroll
         payrollService.getOrCreatePayroll(tenantId, year, month);
 
         auditService.log(tenantId, "MONTH_START", "Payroll",
-                year + "/" + month, "Подготвен месец " + month + "/" + year, null);
+                year + "/" + month, "Подготвен месец " + month + "/" + year,
+                Map.of("createdTimesheets", created));
+
+        return new MonthOpeningResult(tenantId, year, month, employeeIds.size(), created, null);
+    }
+
+    /**
+     * Подготвя месеца за всички фирми. Грешка в една фирма не спира останалите.
+     */
+    public List<MonthOpeningResult> startNewMonthForAllTenants(int year, int month) {
+        List<MonthOpeningResult> results = new ArrayList<>();
+        for (Company company : companyRepository.findAll()) {
+            try {
+                results.add(startNewMonth(company.getId(), year, month));
+            } catch (RuntimeException e) {
+                results.add(new MonthOpeningResult(company.getId(), year, month, 0, 0, e.getMessage()));
+            }
+        }
+        return results;
     }
 
     public boolean isMonthClosed(String tenantId, int year, int month) {
@@ -116,48 +149,45 @@ public class MonthClosingService {
         if (isMonthClosed(tenantId, year, month)) {
             throw new IllegalStateException("Месец " + year + "/" + month + " вече е затворен.");
         }
+        Timer.Sample sample = metrics.start();
 
         // Изчисляваме (или преизчисляваме)
-        List<PayrollSnapshot> snapshots = payrollService.calculateAll(tenantId, year, month);
+        List<PayrollSnapshot> snapshots = metrics.closePhase(tenantId, "calculate",
+                () -> payrollService.calculateAll(tenantId, year, month));
 
-        // Маркираме snapshot-ите като CLOSED и обновяваме запорите
+        // Маркираме snapshot-ите като CLOSED (един multi-document запис)
         LocalDateTime now = LocalDateTime.now();
         for (PayrollSnapshot s : snapshots) {
             s.setStatus("CLOSED");
             s.setClosedAt(now);
-            snapshotRepository.save(s);
-            
-            // Обновяване на платената сума по запорите
-            if (s.getDeductions() != null) {
-                for (PayrollSnapshot.PayrollLine line : s.getDeductions()) {
-                    if (line.getMetadata() != null && line.getMetadata().containsKey("garnishmentId")) {
-                        String gId = line.getMetadata().get("garnishmentId");
-                        garnishmentRepository.findById(gId).ifPresent(g -> {
-                            g.setPaidAmount(MoneyUtil.add(g.getPaidAmount(), line.getAmount()));
-                            // Ако е изплатен изцяло, го деактивираме
-                            if (g.getTotalAmount() != null && g.getPaidAmount().compareTo(g.getTotalAmount()) >= 0) {
-                                g.setActive(false);
-                            }
-                            garnishmentRepository.save(g);
-                        });
-                    }
-                }
-            }
         }
+        metrics.closePhase(tenantId, "mark_closed", () -> snapshotRepository.saveAll(snapshots));
+
+        // Удръжките по запори влизат в дневника; платените суми се изчисляват от него
+        metrics.closePhase(tenantId, "garnishment_ledger",
+                () -> garnishmentLedgerService.recordMonth(tenantId, year, month, snapshots));
+
+        // Затвореният месец влиза в базата за проверка на следващите изчисления
+        metrics.closePhase(tenantId, "anomaly_baseline",
+                () -> anomalyService.recordMonth(tenantId, year, month, snapshots));
 
         // Обновяваме Payroll статуса
         Payroll payroll = payrollService.getOrCreatePayroll(tenantId, year, month);
         payroll.setStatus("CLOSED");
         payroll.setClosedAt(now);
-        payrollRepository.save(payroll);
+        metrics.closePhase(tenantId, "payroll_status", () -> payrollRepository.save(payroll));
 
         // Създаваме MonthClosingSnapshot
-        MonthClosingSnapshot closing = buildClosingSnapshot(tenantId, year, month, snapshots);
-        closing.setClosedAt(now);
-        MonthClosingSnapshot saved = closingRepository.save(closing);
+        MonthClosingSnapshot saved = metrics.closePhase(tenantId, "closing_snapshot", () -> {
+            MonthClosingSnapshot closing = buildClosingSnapshot(tenantId, year, month, snapshots);
+            closing.setClosedAt(now);
+            closing.setClosingVersion(payroll.getClosingVersion());
+            return closingRepository.save(closing);
+        });
 
-        // Автоматично обновяване на ДТВ за ТСПО
-        updateSeniorityBonuses(tenantId, year, month);
+        // Автоматично обновяване на ДТВ за ТСПО (фонова стъпка със собствен статус)
+        seniorityBonusService.scheduleAfterClose(tenantId, year, month);
+        metrics.stop(sample, "valstrz.payroll.close", tenantId);
 
         auditService.log(tenantId, "MONTH_CLOSE", "MonthClosingSnapshot",
                 saved.getId(), "Затворен месец " + month + "/" + year,
@@ -170,105 +200,37 @@ public class MonthClosingService {
      * Отваря затворен месец (admin).
      */
     public void reopenMonth(String tenantId, int year, int month) {
+        archiveService.requireNotArchived(tenantId, year);
+
         // Изтриваме MonthClosingSnapshot
         Iterable<MonthClosingSnapshot> closings = closingRepository.findByTenantIdAndYearAndMonth(tenantId, year, month);
         closingRepository.deleteAll(closings);
 
-        // Връщаме snapshot-ите на CALCULATED и възстановяваме сумите по запорите
-        Iterable<PayrollSnapshot> snapshots = snapshotRepository.findByTenantIdAndYearAndMonth(tenantId, year, month);
-        for (PayrollSnapshot s : snapshots) {
+        // Връщаме snapshot-ите на CALCULATED
+        List<PayrollSnapshot> snapshots = new ArrayList<>();
+        for (PayrollSnapshot s : snapshotRepository.findByTenantIdAndYearAndMonth(tenantId, year, month)) {
             s.setStatus("CALCULATED");
             s.setClosedAt(null);
-            snapshotRepository.save(s);
-            
-            // Връщаме сумите по запорите
-            if (s.getDeductions() != null) {
-                for (PayrollSnapshot.PayrollLine line : s.getDeductions()) {
-                    if (line.getMetadata() != null && line.getMetadata().containsKey("garnishmentId")) {
-                        String gId = line.getMetadata().get("garnishmentId");
-                        garnishmentRepository.findById(gId).ifPresent(g -> {
-                            g.setPaidAmount(MoneyUtil.subtract(g.getPaidAmount(), line.getAmount()));
-                            // Ако е бил деактивиран поради изплащане, го активираме отново
-                            if (g.getTotalAmount() != null && g.getPaidAmount().compareTo(g.getTotalAmount()) < 0) {
-                                g.setActive(true);
-                            }
-                            garnishmentRepository.save(g);
-                        });
-                    }
-                }
-            }
+            snapshots.add(s);
         }
+        snapshotRepository.saveAll(snapshots);
+
+        // Изтриваме записите от дневника на запорите и преизчисляваме платените суми
+        garnishmentLedgerService.rollbackMonth(tenantId, year, month, snapshots);
+        anomalyService.rollbackMonth(tenantId, year, month, snapshots);
 
         // Обновяваме Payroll статуса
         Payroll payroll = payrollService.getOrCreatePayroll(tenantId, year, month);
         payroll.setStatus("CALCULATED");
         payroll.setClosedAt(null);
+        payroll.setClosingVersion(payroll.getClosingVersion() + 1);
         payrollRepository.save(payroll);
+        closedPeriodCache.invalidate(tenantId, year, month);
 
         auditService.log(tenantId, "MONTH_REOPEN", "Payroll",
                 year + "/" + month, "Отворен отново месец " + month + "/" + year, null);
     }
 
-    /**
-     * Обновява ДТВ за ТСПО на всички активни служители спрямо SeniorityBonusConfig.
-     * Изчислява общия стаж = previousExperienceYears + години от startDate до края на месеца.
-     * Ако стажът е увеличен, обновява seniorityBonusPercent по brackets таблицата.
-     */
-    private void updateSeniorityBonuses(String tenantId, int year, int month) {
-        SeniorityBonusConfig config = null;
-        for (SeniorityBonusConfig c : seniorityConfigRepository.findByTenantId(tenantId)) {
-            config = c;
-            break;
-        }
-        if (config == null || !config.isAutoUpdateOnMonthClose()) return;
-
-        LocalDate monthEnd = LocalDate.of(year, month, 1).plusMonths(1).minusDays(1);
-        BigDecimal percentPerYear = config.getPercentPerYear();
-        List<SeniorityBonusConfig.SeniorityBracket> brackets = config.getBrackets();
-
-        Iterable<Employee> employees = employeeRepository.findByTenantIdAndActive(tenantId, true);
-        for (Employee emp : employees) {
-            Iterable<Employment> empls = employmentRepository.findByTenantIdAndEmployeeIdAndCurrent(
-                    tenantId, emp.getId(), true);
-            for (Employment empl : empls) {
-                if (empl.getStartDate() == null) continue;
-
-                // Общ стаж = previousExperience + текущ стаж
-                BigDecimal prevYears = empl.getPreviousExperienceYears() != null
-                        ? empl.getPreviousExperienceYears() : BigDecimal.ZERO;
-                long daysSinceStart = ChronoUnit.DAYS.between(empl.getStartDate(), monthEnd);
-                BigDecimal currentYears = BigDecimal.valueOf(daysSinceStart)
-                        .divide(BigDecimal.valueOf(365.25), 6, RoundingMode.HALF_UP);
-                BigDecimal totalYears = prevYears.add(currentYears);
-
-                // Определяне на процент
-                BigDecimal newPercent = BigDecimal.ZERO;
-                if (brackets != null && !brackets.isEmpty()) {
-                    for (SeniorityBonusConfig.SeniorityBracket b : brackets) {
-                        if (totalYears.compareTo(b.getFromYears()) >= 0
-                                && (b.getToYears() == null || totalYears.compareTo(b.getToYears()) <= 0)) {
-                            newPercent = b.getPercent();
-                        }
-                    }
-                } else if (percentPerYear != null) {
-                    // Просто: totalYears * percentPerYear
-                    newPercent = totalYears.setScale(0, RoundingMode.DOWN)
-                            .multiply(percentPerYear)
-                            .setScale(2, RoundingMode.HALF_UP);
-                }
-
-                // Обновяваме само ако има промяна
-                BigDecimal oldPercent = empl.getSeniorityBonusPercent() != null
-                        ? empl.getSeniorityBonusPercent() : BigDecimal.ZERO;
-                if (newPercent.compareTo(oldPercent) != 0) {
-                    empl.setSeniorityBonusYears(totalYears.setScale(2, RoundingMode.HALF_UP));
-                    empl.setSeniorityBonusPercent(newPercent);
-                    employmentRepository.save(empl);
-                }
-            }
-        }
-    }
-
     private MonthClosingSnapshot buildClosingSnapshot(String tenantId, int year, int month,
                                                         List<PayrollSnapshot> snapshots) {
         MonthClosingSnapshot closing = new MonthClosingSnapshot();
@@ -1,19 +1,12 @@
 package com.valstrz.service;
 
-import com.valstrz.entity.calendar.AnnualCalendar;
 import com.valstrz.entity.calendar.MonthlyCalendar;
 import com.valstrz.entity.calendar.WorkSchedule;
-import com.valstrz.repository.AnnualCalendarRepository;
 import com.valstrz.repository.MonthlyCalendarRepository;
-import com.valstrz.repository.WorkScheduleRepository;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
-import java.time.DayOfWeek;
-import java.time.LocalDate;
 import java.time.YearMonth;
-import java.util.HashSet;
-import java.util.Set;
 
 @Service
 public class MonthlyCalendarService {
@@ -21,38 +14,24 @@ public class MonthlyCalendarService {
     private static final BigDecimal DEFAULT_HOURS = new BigDecimal("8");
 
     private final MonthlyCalendarRepository monthlyRepository;
-    private final AnnualCalendarRepository annualRepository;
-    private final WorkScheduleRepository workScheduleRepository;
+    private final WorkingCalendarService workingCalendarService;
+    private final ScheduleRegistry scheduleRegistry;
 
     public MonthlyCalendarService(MonthlyCalendarRepository monthlyRepository,
-                                   AnnualCalendarRepository annualRepository,
-                                   WorkScheduleRepository workScheduleRepository) {
+                                   WorkingCalendarService workingCalendarService,
+                                   ScheduleRegistry scheduleRegistry) {
         this.monthlyRepository = monthlyRepository;
-        this.annualRepository = annualRepository;
-        this.workScheduleRepository = workScheduleRepository;
+        this.workingCalendarService = workingCalendarService;
+        this.scheduleRegistry = scheduleRegistry;
     }
 
     public MonthlyCalendar generateCalendar(String tenantId, int year, int month) {
         YearMonth yearMonth = YearMonth.of(year, month);
         int calendarDays = yearMonth.lengthOfMonth();
         
-        Set<LocalDate> holidays = getHolidays(tenantId, year, month);
-        
-        int workingDays = 0;
-        int holidayCount = 0;
-        for (int day = 1; day <= calendarDays; day++) {
-            LocalDate date = LocalDate.of(year, month, day);
-            DayOfWeek dow = date.getDayOfWeek();
-            
-            boolean isHoliday = holidays.contains(date);
-            boolean isWeekend = dow == DayOfWeek.SATURDAY || dow == DayOfWeek.SUNDAY;
-            
-            if (isHoliday) holidayCount++;
-            
-            if (!isWeekend && !isHoliday) {
-                workingDays++;
-            }
-        }
+        WorkingCalendarService.YearCalendar calendar = workingCalendarService.get(tenantId, year);
+        int workingDays = calendar.workingDaysInMonth(month);
+        int holidayCount = calendar.holidaysInMonth(month);
 
         MonthlyCalendar mc = new MonthlyCalendar();
         mc.setTenantId(tenantId);
@@ -85,7 +64,7 @@ public class MonthlyCalendarService {
      * Взима първата налична часова схема с код "8" или "FULL", иначе 8.
      */
     private BigDecimal getDefaultHoursPerDay(String tenantId) {
-        for (WorkSchedule ws : workScheduleRepository.findByTenantId(tenantId)) {
+        for (WorkSchedule ws : scheduleRegistry.getWorkSchedules(tenantId)) {
             if (ws.getHoursPerDay() != null) {
                 // Ползваме първата намерена схема с пълно работно време
                 String code = ws.getCode() != null ? ws.getCode().toUpperCase() : "";
@@ -96,19 +75,4 @@ public class MonthlyCalendarService {
         }
         return DEFAULT_HOURS;
     }
-
-    private Set<LocalDate> getHolidays(String tenantId, int year, int month) {
-        Set<LocalDate> dates = new HashSet<>();
-        Iterable<AnnualCalendar> annuals = annualRepository.findByTenantIdAndYear(tenantId, year);
-        for (AnnualCalendar ac : annuals) {
-            if (ac.getHolidays() != null) {
-                for (AnnualCalendar.HolidayEntry h : ac.getHolidays()) {
-                    if (h.getDate().getMonthValue() == month) {
-                        dates.add(h.getDate());
-                    }
-                }
-            }
-        }
-        return dates;
-    }
 }
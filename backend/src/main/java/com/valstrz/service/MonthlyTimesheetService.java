@@ -1,12 +1,15 @@
 package com.valstrz.service;
 
-import com.valstrz.entity.calendar.AnnualCalendar;
+import com.valstrz.entity.company.Company;
+import com.valstrz.entity.calendar.ShiftSchedule;
 import com.valstrz.entity.calendar.WorkSchedule;
 import com.valstrz.entity.personnel.Absence;
 import com.valstrz.entity.personnel.Employment;
 import com.valstrz.entity.personnel.MonthlyTimesheet;
 import com.valstrz.entity.personnel.MonthlyTimesheet.DailyEntry;
 import com.valstrz.repository.*;
+import com.valstrz.service.ShiftRotationService.ShiftDays;
+import com.valstrz.service.WorkingCalendarService.YearCalendar;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
@@ -18,35 +21,148 @@ import java.util.*;
 public class MonthlyTimesheetService {
 
     private static final BigDecimal DEFAULT_HOURS = new BigDecimal("8");
+    private static final int BATCH_SIZE = 500;
 
     private final MonthlyTimesheetRepository timesheetRepository;
     private final EmploymentRepository employmentRepository;
-    private final WorkScheduleRepository workScheduleRepository;
+    private final ScheduleRegistry scheduleRegistry;
+    private final ShiftRotationService shiftRotationService;
     private final AbsenceRepository absenceRepository;
-    private final AnnualCalendarRepository annualCalendarRepository;
+    private final WorkingCalendarService workingCalendarService;
+    private final CompanyRepository companyRepository;
+    private final PayrollArchiveService archiveService;
 
     public MonthlyTimesheetService(MonthlyTimesheetRepository timesheetRepository,
                                     EmploymentRepository employmentRepository,
-                                    WorkScheduleRepository workScheduleRepository,
+                                    ScheduleRegistry scheduleRegistry,
+                                    ShiftRotationService shiftRotationService,
                                     AbsenceRepository absenceRepository,
-                                    AnnualCalendarRepository annualCalendarRepository) {
+                                    WorkingCalendarService workingCalendarService,
+                                    CompanyRepository companyRepository,
+                                    PayrollArchiveService archiveService) {
         this.timesheetRepository = timesheetRepository;
         this.employmentRepository = employmentRepository;
-        this.workScheduleRepository = workScheduleRepository;
+        this.scheduleRegistry = scheduleRegistry;
+        this.shiftRotationService = shiftRotationService;
         this.absenceRepository = absenceRepository;
-        this.annualCalendarRepository = annualCalendarRepository;
+        this.workingCalendarService = workingCalendarService;
+        this.companyRepository = companyRepository;
+        this.archiveService = archiveService;
     }
 
     public MonthlyTimesheet getOrCreateTimesheet(String tenantId, String employeeId, int year, int month) {
+        archiveService.requireNotArchived(tenantId, year);
         Iterable<MonthlyTimesheet> existing = timesheetRepository.findByTenantIdAndEmployeeIdAndYearAndMonth(tenantId, employeeId, year, month);
         if (existing.iterator().hasNext()) {
             return existing.iterator().next();
         }
 
-        BigDecimal hoursPerDay = resolveHoursPerDay(tenantId, employeeId);
-        Set<LocalDate> holidays = getHolidays(tenantId, year);
-        Map<LocalDate, Absence> absenceMap = getAbsenceMap(tenantId, employeeId, year, month);
+        Employment employment = null;
+        for (Employment empl : employmentRepository.findByTenantIdAndEmployeeIdAndCurrent(tenantId, employeeId, true)) {
+            employment = empl;
+            break;
+        }
+        BigDecimal hoursPerDay = resolveHoursPerDay(tenantId, employment);
+        ShiftDays shifts = resolveShifts(tenantId, employment, year, month);
+        YearCalendar calendar = workingCalendarService.get(tenantId, year);
+        Map<LocalDate, Absence> absenceMap = getAbsenceMap(
+                absenceRepository.findByTenantIdAndEmployeeId(tenantId, employeeId), year, month);
+
+        return timesheetRepository.save(
+                buildTimesheet(tenantId, employeeId, year, month, hoursPerDay, shifts, calendar, absenceMap));
+    }
+
+    /**
+     * Създава липсващите часови карти за месеца за подадените служители.
+     * Календарът, часови схеми, текущи правоотношения и отсъствията за месеца
+     * се зареждат веднъж за фирмата; картите се записват на партиди.
+     *
+     * @return брой новосъздадени карти
+     * @throws IllegalStateException ако годината е архивирана
+     */
+    public int createTimesheetsForMonth(String tenantId, int year, int month, Collection<String> employeeIds) {
+        archiveService.requireNotArchived(tenantId, year);
+        Set<String> withTimesheet = new HashSet<>();
+        for (MonthlyTimesheet ts : timesheetRepository.findByTenantIdAndYearAndMonth(tenantId, year, month)) {
+            withTimesheet.add(ts.getEmployeeId());
+        }
+
+        Map<String, BigDecimal> hoursByEmployee = new HashMap<>();
+        Map<String, ShiftDays> shiftsByEmployee = new HashMap<>();
+        for (Employment empl : employmentRepository.findByTenantIdAndCurrent(tenantId, true)) {
+            if (hoursByEmployee.containsKey(empl.getEmployeeId())) continue;
+            hoursByEmployee.put(empl.getEmployeeId(), resolveHoursPerDay(tenantId, empl));
+            ShiftDays shifts = resolveShifts(tenantId, empl, year, month);
+            if (shifts != null) shiftsByEmployee.put(empl.getEmployeeId(), shifts);
+        }
+
+        YearCalendar calendar = workingCalendarService.get(tenantId, year);
 
+        LocalDate monthStart = LocalDate.of(year, month, 1);
+        LocalDate monthEnd = monthStart.withDayOfMonth(monthStart.lengthOfMonth());
+        Map<String, List<Absence>> absencesByEmployee = new HashMap<>();
+        for (Absence abs : absenceRepository.findByTenantIdAndFromDateLessThanEqualAndToDateGreaterThanEqual(
+                tenantId, monthEnd, monthStart)) {
+            absencesByEmployee.computeIfAbsent(abs.getEmployeeId(), k -> new ArrayList<>()).add(abs);
+        }
+
+        List<MonthlyTimesheet> batch = new ArrayList<>(BATCH_SIZE);
+        int created = 0;
+        for (String employeeId : employeeIds) {
+            if (!withTimesheet.add(employeeId)) continue;
+            Map<LocalDate, Absence> absenceMap = getAbsenceMap(
+                    absencesByEmployee.getOrDefault(employeeId, List.of()), year, month);
+            batch.add(buildTimesheet(tenantId, employeeId, year, month,
+                    hoursByEmployee.getOrDefault(employeeId, DEFAULT_HOURS), shiftsByEmployee.get(employeeId),
+                    calendar, absenceMap));
+            if (batch.size() >= BATCH_SIZE) {
+                timesheetRepository.saveAll(batch);
+                created += batch.size();
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            timesheetRepository.saveAll(batch);
+            created += batch.size();
+        }
+        return created;
+    }
+
+    /**
+     * Презаписва часовите карти на фирмата на партиди, за да приемат текущия формат
+     * на съхранение (valstrz.timesheets.compact-storage) — миграция в двете посоки.
+     *
+     * @return брой презаписани карти
+     */
+    public int rewriteStorage(String tenantId) {
+        List<MonthlyTimesheet> batch = new ArrayList<>(BATCH_SIZE);
+        int rewritten = 0;
+        for (MonthlyTimesheet ts : timesheetRepository.findByTenantId(tenantId)) {
+            batch.add(ts);
+            if (batch.size() >= BATCH_SIZE) {
+                timesheetRepository.saveAll(batch);
+                rewritten += batch.size();
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            timesheetRepository.saveAll(batch);
+            rewritten += batch.size();
+        }
+        return rewritten;
+    }
+
+    public Map<String, Integer> rewriteStorageForAllTenants() {
+        Map<String, Integer> result = new LinkedHashMap<>();
+        for (Company company : companyRepository.findAll()) {
+            result.put(company.getId(), rewriteStorage(company.getId()));
+        }
+        return result;
+    }
+
+    private MonthlyTimesheet buildTimesheet(String tenantId, String employeeId, int year, int month,
+                                            BigDecimal hoursPerDay, ShiftDays shifts, YearCalendar calendar,
+                                            Map<LocalDate, Absence> absenceMap) {
         MonthlyTimesheet ts = new MonthlyTimesheet();
         ts.setTenantId(tenantId);
         ts.setEmployeeId(employeeId);
@@ -60,6 +176,8 @@ public class MonthlyTimesheetService {
         int sickLeaveDays = 0;
         int unpaidLeaveDays = 0;
         BigDecimal totalWorkedHours = BigDecimal.ZERO;
+        BigDecimal totalOvertimeHours = BigDecimal.ZERO;
+        BigDecimal totalNightHours = BigDecimal.ZERO;
 
         for (int i = 1; i <= daysInMonth; i++) {
             LocalDate date = LocalDate.of(year, month, i);
@@ -69,12 +187,30 @@ public class MonthlyTimesheetService {
             entry.setNightHours(BigDecimal.ZERO);
 
             boolean isWeekend = date.getDayOfWeek() == DayOfWeek.SATURDAY || date.getDayOfWeek() == DayOfWeek.SUNDAY;
-            boolean isHoliday = holidays.contains(date);
+            boolean isHoliday = calendar.isHoliday(date);
 
-            if (isWeekend) {
+            if (shifts != null && !shifts.isWorkDay(i - 1)) {
+                // Почивен ден по сменния график
+                entry.setDayType("WEEKEND");
+                entry.setWorkedHours(BigDecimal.ZERO);
+            } else if (shifts != null && !absenceMap.containsKey(date)) {
+                // Смяна по графика; положеният труд в празничен ден се отчита и като празничен труд
+                BigDecimal shiftHours = shifts.hours(i - 1);
+                BigDecimal shiftNight = shifts.nightHours(i - 1);
+                entry.setDayType(isHoliday ? "HOLIDAY" : "WORK");
+                entry.setWorkedHours(shiftHours);
+                entry.setNightHours(shiftNight);
+                if (isHoliday) {
+                    entry.setOvertimeHours(shiftHours);
+                    totalOvertimeHours = totalOvertimeHours.add(shiftHours);
+                }
+                workedDays++;
+                totalWorkedHours = totalWorkedHours.add(shiftHours);
+                totalNightHours = totalNightHours.add(shiftNight);
+            } else if (shifts == null && isWeekend) {
                 entry.setDayType("WEEKEND");
                 entry.setWorkedHours(BigDecimal.ZERO);
-            } else if (isHoliday) {
+            } else if (shifts == null && isHoliday) {
                 entry.setDayType("HOLIDAY");
                 entry.setWorkedHours(BigDecimal.ZERO);
             } else if (absenceMap.containsKey(date)) {
@@ -106,55 +242,52 @@ public class MonthlyTimesheetService {
         ts.setDays(days);
         ts.setTotalWorkedDays(workedDays);
         ts.setTotalWorkedHours(totalWorkedHours);
+        if (shifts != null) {
+            ts.setScheduledShiftDays(shifts.workDays());
+            ts.setTotalOvertimeHours(totalOvertimeHours);
+            ts.setTotalNightHours(totalNightHours);
+        }
         ts.setTotalAbsenceDays(absenceDays);
         ts.setSickLeaveDays(sickLeaveDays);
         ts.setUnpaidLeaveDays(unpaidLeaveDays);
-
-        return timesheetRepository.save(ts);
+        return ts;
     }
 
     /**
      * Определя часове на ден за конкретен служител, базирано на часовата му схема.
      */
-    private BigDecimal resolveHoursPerDay(String tenantId, String employeeId) {
-        // Търсим текущо employment
-        for (Employment empl : employmentRepository.findByTenantIdAndEmployeeIdAndCurrent(tenantId, employeeId, true)) {
-            String wsCode = empl.getWorkScheduleCode();
-            if (wsCode != null && !wsCode.isEmpty()) {
-                for (WorkSchedule ws : workScheduleRepository.findByTenantId(tenantId)) {
-                    if (wsCode.equals(ws.getCode()) && ws.getHoursPerDay() != null) {
-                        return ws.getHoursPerDay();
-                    }
-                }
+    private BigDecimal resolveHoursPerDay(String tenantId, Employment employment) {
+        if (employment != null) {
+            WorkSchedule ws = scheduleRegistry.findWorkSchedule(tenantId, employment.getWorkScheduleCode());
+            if (ws != null && ws.getHoursPerDay() != null) {
+                return ws.getHoursPerDay();
             }
         }
         return DEFAULT_HOURS;
     }
 
     /**
-     * Зарежда празничните дни от годишния календар.
+     * Смени по дни за месеца, ако служителят работи по сменен график.
+     * Ротацията започва от shiftRotationStart, а при липса — от датата на постъпване.
      */
-    private Set<LocalDate> getHolidays(String tenantId, int year) {
-        Set<LocalDate> dates = new HashSet<>();
-        for (AnnualCalendar ac : annualCalendarRepository.findByTenantIdAndYear(tenantId, year)) {
-            if (ac.getHolidays() != null) {
-                for (AnnualCalendar.HolidayEntry h : ac.getHolidays()) {
-                    dates.add(h.getDate());
-                }
-            }
-        }
-        return dates;
+    private ShiftDays resolveShifts(String tenantId, Employment employment, int year, int month) {
+        if (employment == null) return null;
+        ShiftSchedule schedule = scheduleRegistry.findShiftSchedule(tenantId, employment.getShiftScheduleCode());
+        if (schedule == null || !schedule.isActive()) return null;
+        LocalDate rotationStart = employment.getShiftRotationStart() != null
+                ? employment.getShiftRotationStart() : employment.getStartDate();
+        return shiftRotationService.forMonth(schedule, rotationStart, year, month);
     }
 
     /**
      * Изгражда карта дата -> отсъствие за даден месец.
      */
-    private Map<LocalDate, Absence> getAbsenceMap(String tenantId, String employeeId, int year, int month) {
+    private Map<LocalDate, Absence> getAbsenceMap(Iterable<Absence> absences, int year, int month) {
         Map<LocalDate, Absence> map = new LinkedHashMap<>();
         LocalDate monthStart = LocalDate.of(year, month, 1);
         LocalDate monthEnd = monthStart.withDayOfMonth(monthStart.lengthOfMonth());
 
-        for (Absence abs : absenceRepository.findByTenantIdAndEmployeeId(tenantId, employeeId)) {
+        for (Absence abs : absences) {
             if (abs.getFromDate() == null || abs.getToDate() == null) continue;
             if (!"APPROVED".equals(abs.getStatus()) && !"ACTIVE".equals(abs.getStatus()) && !"COMPLETED".equals(abs.getStatus())) continue;
 
@@ -0,0 +1,220 @@
+package com.valstrz.service;
+
+import com.valstrz.entity.calendar.MonthlyCalendar;
+import com.valstrz.entity.payroll.PayrollSnapshot;
+import com.valstrz.entity.personnel.Employee;
+import com.valstrz.entity.personnel.Employment;
+import com.valstrz.entity.personnel.MonthlyTimesheet;
+import com.valstrz.repository.EmployeeRepository;
+import com.valstrz.repository.EmploymentRepository;
+import com.valstrz.util.MoneyUtil;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * Обратно изчисление: основна заплата (бруто) за желано нето.
+ *
+ * Нетото се получава от PayrollCalculationService за пълен отработен месец, така че
+ * праговете на осигурителния доход, таванът, ДТВ за стаж и необлагаемата сума при
+ * инвалидност се отчитат точно както при реалното изчисление. Нетото расте с брутото
+ * (с изключение на стъпки от закръглянето), затова решението се търси с разполовяване
+ * в цели стотинки между граници, в които нетото е под и над целта, след което се
+ * проверяват съседните стотинки за точно съвпадение.
+ */
+@Service
+public class NetToGrossService {
+
+    private static final int WORKING_DAYS = 21;
+    private static final BigDecimal HOURS_PER_DAY = BigDecimal.valueOf(8);
+    private static final int MAX_BRACKET_STEPS = 20;
+    private static final int NEIGHBOURHOOD_CENTS = 5;
+
+    private final PayrollCalculationService calculationService;
+    private final PayrollService payrollService;
+    private final EmployeeRepository employeeRepository;
+    private final EmploymentRepository employmentRepository;
+
+    public NetToGrossService(PayrollCalculationService calculationService,
+                             PayrollService payrollService,
+                             EmployeeRepository employeeRepository,
+                             EmploymentRepository employmentRepository) {
+        // Търсенето смята по 25–40 пъти на заявка — извън метриките на ведомостите
+        this.calculationService = calculationService.withoutMetrics();
+        this.payrollService = payrollService;
+        this.employeeRepository = employeeRepository;
+        this.employmentRepository = employmentRepository;
+    }
+
+    /**
+     * Параметри на търсенето. При employeeId категорията, видът осигурен, групата,
+     * инвалидността и % за стаж се вземат от служителя; попълнените полета ги заменят.
+     *
+     * @param reference свободен идентификатор (напр. ред от таблица), връща се в резултата
+     */
+    public record SolveRequest(String reference, BigDecimal targetNet, String employeeId,
+                               String category, String insuredType, Integer personnelGroup,
+                               Boolean disability50Plus, BigDecimal seniorityPercent) {}
+
+    public record SolveResult(String reference, BigDecimal targetNet,
+                              BigDecimal baseSalary, BigDecimal gross, BigDecimal net,
+                              BigDecimal insurableIncome, BigDecimal employeeInsurance,
+                              BigDecimal incomeTax, BigDecimal employerCost,
+                              boolean exact, int evaluations, String error) {
+
+        static SolveResult failed(SolveRequest r, String error) {
+            return new SolveResult(r.reference(), r.targetNet(), null, null, null, null, null,
+                    null, null, false, 0, error);
+        }
+    }
+
+    // ── Публични методи ──
+
+    public SolveResult solve(String tenantId, int year, SolveRequest request) {
+        return solveBatch(tenantId, year, List.of(request)).get(0);
+    }
+
+    /**
+     * Решава всички редове; параметрите на законодателството се зареждат по веднъж
+     * за всяка комбинация категория/вид/група, а търсенията вървят паралелно.
+     */
+    public List<SolveResult> solveBatch(String tenantId, int year, List<SolveRequest> requests) {
+        Map<String, PayrollService.Legislation> legislation = new HashMap<>();
+        List<Object> prepared = new ArrayList<>(requests.size());
+        for (SolveRequest r : requests) {
+            try {
+                prepared.add(prepare(tenantId, year, r, legislation));
+            } catch (IllegalArgumentException e) {
+                prepared.add(SolveResult.failed(r, e.getMessage()));
+            }
+        }
+
+        return prepared.parallelStream()
+                .map(p -> p instanceof Problem problem ? search(problem) : (SolveResult) p)
+                .toList();
+    }
+
+    // ── Търсене ──
+
+    /** Неизменими данни за един ред; входът за изчисление се създава наново за всяка проба. */
+    private record Problem(SolveRequest request, long targetCents, Employee employee, Employment template,
+                           MonthlyCalendar calendar, PayrollService.Legislation legislation, int year) {}
+
+    private SolveResult search(Problem p) {
+        int[] evaluations = {0};
+
+        // Горна граница: удвояваме, докато нетото достигне целта
+        long lo = 0;
+        long hi = Math.max(p.targetCents(), 100);
+        PayrollSnapshot atHi = evaluate(p, hi, evaluations);
+        int steps = 0;
+        while (cents(atHi.getNetSalary()) < p.targetCents()) {
+            if (++steps > MAX_BRACKET_STEPS) {
+                return SolveResult.failed(p.request(), "Желаното нето не може да бъде достигнато.");
+            }
+            lo = hi;
+            hi *= 2;
+            atHi = evaluate(p, hi, evaluations);
+        }
+
+        // Разполовяване: net(lo) < цел <= net(hi)
+        while (hi - lo > 1) {
+            long mid = (lo + hi) >>> 1;
+            PayrollSnapshot s = evaluate(p, mid, evaluations);
+            if (cents(s.getNetSalary()) < p.targetCents()) lo = mid; else { hi = mid; atHi = s; }
+        }
+
+        // Закръглянето може да прескочи точното нето — търсим най-малкото бруто с точно съвпадение наоколо
+        PayrollSnapshot best = atHi;
+        long bestCents = hi;
+        for (long c = Math.max(0, hi - NEIGHBOURHOOD_CENTS); c <= hi + NEIGHBOURHOOD_CENTS; c++) {
+            PayrollSnapshot s = c == hi ? atHi : evaluate(p, c, evaluations);
+            if (cents(s.getNetSalary()) == p.targetCents()) {
+                best = s;
+                bestCents = c;
+                break;
+            }
+        }
+
+        return new SolveResult(p.request().reference(), p.request().targetNet(),
+                BigDecimal.valueOf(bestCents, 2), best.getGrossSalary(), best.getNetSalary(),
+                best.getInsurableIncome(), best.getTotalEmployeeInsurance(), best.getIncomeTax(),
+                best.getTotalEmployerCost(), cents(best.getNetSalary()) == p.targetCents(),
+                evaluations[0], null);
+    }
+
+    private PayrollSnapshot evaluate(Problem p, long baseSalaryCents, int[] evaluations) {
+        evaluations[0]++;
+        Employment empl = new Employment();
+        empl.setBaseSalary(BigDecimal.valueOf(baseSalaryCents, 2));
+        empl.setSeniorityBonusPercent(p.template().getSeniorityBonusPercent());
+        empl.setDisability50Plus(p.template().isDisability50Plus());
+        empl.setPersonnelGroup(p.template().getPersonnelGroup());
+        empl.setInsuredType(p.template().getInsuredType());
+
+        MonthlyTimesheet ts = new MonthlyTimesheet();
+        ts.setYear(p.year());
+        ts.setMonth(1);
+        ts.setDays(List.of());
+        ts.setTotalWorkedDays(WORKING_DAYS);
+        ts.setTotalWorkedHours(HOURS_PER_DAY.multiply(BigDecimal.valueOf(WORKING_DAYS)));
+
+        PayrollService.Legislation l = p.legislation();
+        return calculationService.calculate(new PayrollCalculationService.CalculationInput(
+                p.employee(), empl, ts, p.calendar(), null,
+                l.rates(), l.contributions(), l.threshold(), p.year(), 1,
+                List.of(), List.of(), List.of(), null));
+    }
+
+    // ── Helpers ──
+
+    private Problem prepare(String tenantId, int year, SolveRequest r,
+                            Map<String, PayrollService.Legislation> legislationCache) {
+        if (r.targetNet() == null || r.targetNet().signum() <= 0) {
+            throw new IllegalArgumentException("Желаното нето трябва да е положително.");
+        }
+
+        Employee employee = new Employee();
+        employee.setTenantId(tenantId);
+        Employment template = new Employment();
+        String category = "after1960";
+        if (r.employeeId() != null) {
+            Employee existing = employeeRepository.findById(r.employeeId())
+                    .filter(e -> tenantId.equals(e.getTenantId()))
+                    .orElseThrow(() -> new IllegalArgumentException("Служителят не е намерен: " + r.employeeId()));
+            employee = existing;
+            category = payrollService.determineInsuranceCategory(existing.getEgn());
+            for (Employment e : employmentRepository.findByTenantIdAndEmployeeIdAndCurrent(tenantId, existing.getId(), true)) {
+                template.setSeniorityBonusPercent(e.getSeniorityBonusPercent());
+                template.setDisability50Plus(e.isDisability50Plus());
+                template.setPersonnelGroup(e.getPersonnelGroup());
+                template.setInsuredType(e.getInsuredType());
+                break;
+            }
+        }
+        if (r.category() != null) category = r.category();
+        if (r.insuredType() != null) template.setInsuredType(r.insuredType());
+        if (r.personnelGroup() != null) template.setPersonnelGroup(r.personnelGroup());
+        if (r.disability50Plus() != null) template.setDisability50Plus(r.disability50Plus());
+        if (r.seniorityPercent() != null) template.setSeniorityBonusPercent(r.seniorityPercent());
+
+        String insuredType = template.getInsuredType() != null ? template.getInsuredType() : "01";
+        String cat = category;
+        PayrollService.Legislation legislation = legislationCache.computeIfAbsent(
+                cat + "|" + insuredType + "|" + template.getPersonnelGroup(),
+                k -> payrollService.resolveLegislation(tenantId, year, cat, insuredType, template.getPersonnelGroup()));
+
+        MonthlyCalendar calendar = new MonthlyCalendar();
+        calendar.setYear(year);
+        calendar.setMonth(1);
+        calendar.setWorkingDays(WORKING_DAYS);
+        calendar.setTotalWorkingHours(HOURS_PER_DAY.multiply(BigDecimal.valueOf(WORKING_DAYS)));
+
+        return new Problem(r, cents(r.targetNet()), employee, template, calendar, legislation, year);
+    }
+
+    private static long cents(BigDecimal amount) {
+        return MoneyUtil.round(amount != null ? amount : BigDecimal.ZERO).movePointRight(2).longValueExact();
+    }
+}
@@ -3,167 +3,380 @@ package com.valstrz.service;
 import com.valstrz.entity.company.Company;
 import com.valstrz.entity.personnel.Absence;
 import com.valstrz.entity.personnel.Employee;
-import com.valstrz.repository.CompanyRepository;
-import com.valstrz.repository.EmployeeRepository;
+import com.valstrz.repository.AbsenceRepository;
+import com.valstrz.util.StreamingXmlWriter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
 
+import javax.xml.XMLConstants;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.ValidatorHandler;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
 import java.time.format.DateTimeFormatter;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
+/**
+ * Приложение 9 към НОИ (болнични) — XML, записван последователно със StAX.
+ *
+ * Болничните за периода се четат от курсора на порции по CHUNK; служителите
+ * на всяка порция се зареждат с една заявка (EntityLoader). Проверката по XSD
+ * (valstrz.nssi.annex9-schema) върви заедно със записа, без DOM.
+ */
 @Service
 public class NssiExportService {
 
-    private final CompanyRepository companyRepository;
-    private final EmployeeRepository employeeRepository;
-
-    public NssiExportService(CompanyRepository companyRepository, EmployeeRepository employeeRepository) {
-        this.companyRepository = companyRepository;
-        this.employeeRepository = employeeRepository;
-    }
-
-    public String generateAnnex9Xml(String tenantId, List<Absence> absences) {
-        Company company = companyRepository.findById(tenantId).orElseThrow();
-        DateTimeFormatter dtfXml = DateTimeFormatter.ofPattern("dd-MM-yyyy");
-
-        StringBuilder xml = new StringBuilder();
-        xml.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
-        xml.append("<BPril9 xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">\n");
-        xml.append("  <FlagDelegated>0</FlagDelegated>\n");
-        xml.append("  <TypeOfDocument>0</TypeOfDocument>\n");
-        
-        xml.append("  <NSSI_RO_All>\n");
-        xml.append("    <NSSI_RO>01</NSSI_RO>\n");
-        xml.append("    <NSSI_RO_Name>София</NSSI_RO_Name>\n");
-        xml.append("  </NSSI_RO_All>\n");
-
-        xml.append("  <Insurer>\n");
-        xml.append("    <FlagKasa>0</FlagKasa>\n");
-        xml.append("    <BULSTATKasa>").append(company.getBulstat()).append("</BULSTATKasa>\n");
-        xml.append("    <BulName>").append(escapeXml(company.getName())).append("</BulName>\n");
-        xml.append("    <BULSTAT>").append(company.getBulstat()).append("</BULSTAT>\n");
-        xml.append("    <BulAddressFull>\n");
-        xml.append("      <BulRegion>").append(escapeXml(company.getRegion())).append("</BulRegion>\n");
-        xml.append("      <BulSubRegion>").append(escapeXml(company.getMunicipality())).append("</BulSubRegion>\n");
-        xml.append("      <BulCity>").append(escapeXml(company.getCity())).append("</BulCity>\n");
-        xml.append("      <BulPostalCode>").append(company.getPostalCode()).append("</BulPostalCode>\n");
-        xml.append("      <BulAddress>").append(escapeXml(company.getAddress())).append("</BulAddress>\n");
-        xml.append("      <BulPhone>").append(company.getPhone() != null ? company.getPhone() : "").append("</BulPhone>\n");
-        xml.append("      <BulCellPhoneNumber></BulCellPhoneNumber>\n");
-        xml.append("      <BulEMail>").append(company.getEmail() != null ? company.getEmail() : "").append("</BulEMail>\n");
-        xml.append("    </BulAddressFull>\n");
-        xml.append("  </Insurer>\n");
-
-        xml.append("  <DocList>\n");
-        int count = 1;
-        for (Absence abs : absences) {
-            Employee emp = employeeRepository.findById(abs.getEmployeeId()).orElse(null);
-            if (emp == null) continue;
-
-            Map<String, Object> sickData = abs.getSickLeaveData();
-            String chartNo = sickData != null ? (String) sickData.get("chartNumber") : "000000000000";
-
-            xml.append("    <NumberPril9>\n");
-            xml.append("      <Number>").append(count++).append("</Number>\n");
-            xml.append("      <CodeOperation>0</CodeOperation>\n");
-            xml.append("      <PatientsChartNumber>").append(chartNo).append("</PatientsChartNumber>\n");
-            xml.append("      <DateIssued>").append(formatDate(abs.getFromDate())).append("</DateIssued>\n");
-            xml.append("      <SickLeaveStartDate>").append(formatDate(abs.getFromDate())).append("</SickLeaveStartDate>\n");
-            xml.append("      <SickLeaveEndDate>").append(formatDate(abs.getToDate())).append("</SickLeaveEndDate>\n");
-            
-            xml.append("      <Insured>\n");
-            xml.append("        <FirstName>").append(escapeXml(emp.getFirstName())).append("</FirstName>\n");
-            xml.append("        <SurName>").append(escapeXml(emp.getMiddleName())).append("</SurName>\n");
-            xml.append("        <FamilyName>").append(escapeXml(emp.getLastName())).append("</FamilyName>\n");
-            xml.append("        <EGN>").append(emp.getEgn()).append("</EGN>\n");
-            xml.append("        <FlagEGN>0</FlagEGN>\n");
-            xml.append("        <InsuredAddress>\n");
-            xml.append("          <EGNRegion>").append(escapeXml(emp.getPermanentRegion())).append("</EGNRegion>\n");
-            xml.append("          <EGNSubRegion>").append(escapeXml(emp.getPermanentMunicipality())).append("</EGNSubRegion>\n");
-            xml.append("          <EGNCity>").append(escapeXml(emp.getPermanentCity())).append("</EGNCity>\n");
-            xml.append("          <EGNPostalCode>").append(emp.getPermanentPostalCode()).append("</EGNPostalCode>\n");
-            xml.append("          <EGNAddress>").append(escapeXml(emp.getPermanentAddress())).append("</EGNAddress>\n");
-            xml.append("          <EGNPhone>").append(emp.getPhone() != null ? emp.getPhone() : "").append("</EGNPhone>\n");
-            xml.append("          <EGNCellPhoneNumber></EGNCellPhoneNumber>\n");
-            xml.append("          <EGNEMail>").append(emp.getEmail() != null ? emp.getEmail() : "").append("</EGNEMail>\n");
-            xml.append("        </InsuredAddress>\n");
-            xml.append("      </Insured>\n");
-
-            xml.append("      <FlagCertificate>1</FlagCertificate>\n");
-            xml.append("      <Certificates>\n");
-            xml.append("        <RiskInsured>1</RiskInsured>\n");
-            xml.append("        <EmploymentType>0</EmploymentType>\n");
-            xml.append("        <EploymentDateExpire><Day></Day><Month></Month><Year></Year></EploymentDateExpire>\n");
-            xml.append("        <SelfEmploymentType>9</SelfEmploymentType>\n");
-            xml.append("        <SelfEmploymentDateExpire><Day></Day><Month></Month><Year></Year></SelfEmploymentDateExpire>\n");
-            xml.append("        <SixMonthsInsurance>1</SixMonthsInsurance>\n");
-            xml.append("        <DateOfAchievingInsuranceRigths><Day></Day><Month></Month><Year></Year></DateOfAchievingInsuranceRigths>\n");
-            xml.append("        <InsuranceRigthsOZM>1</InsuranceRigthsOZM>\n");
-            xml.append("        <DateOfAchievingInsuranceRigthsOZM><Day></Day><Month></Month><Year></Year></DateOfAchievingInsuranceRigthsOZM>\n");
-            xml.append("        <TypeOfInsured>01</TypeOfInsured>\n");
-            xml.append("        <EGNBulCountTOI>1</EGNBulCountTOI>\n");
-            xml.append("        <DocNumber>1</DocNumber>\n");
-            xml.append("        <InsuranceTerminationDate><Day></Day><Month></Month><Year></Year></InsuranceTerminationDate>\n");
-            xml.append("        <InsuranceStopDate><Day></Day><Month></Month><Year></Year></InsuranceStopDate>\n");
-            
-            xml.append("        <SickLeaveMonths>\n");
-            xml.append("          <BSickLeave>\n");
-            xml.append("            <SickNumber>1</SickNumber>\n");
-            xml.append("            <Month>").append(abs.getFromDate().getMonthValue()).append("</Month>\n");
-            xml.append("            <Year>").append(abs.getFromDate().getYear()).append("</Year>\n");
-            xml.append("            <FromDay>").append(abs.getFromDate().getDayOfMonth()).append("</FromDay>\n");
-            xml.append("            <ToDay>").append(abs.getToDate().getDayOfMonth()).append("</ToDay>\n");
-            xml.append("            <Days>").append(abs.getWorkingDays()).append("</Days>\n");
-            xml.append("            <Hours>").append(abs.getWorkingDays() * 8).append("</Hours>\n");
-            xml.append("            <PersonalLegalWorkHours>8</PersonalLegalWorkHours>\n");
-            xml.append("          </BSickLeave>\n");
-            xml.append("        </SickLeaveMonths>\n");
-
-            xml.append("        <FlagJobTransfer>0</FlagJobTransfer>\n");
-            xml.append("        <Anketa>0</Anketa>\n");
-            xml.append("        <LeaveWithPay>0</LeaveWithPay>\n");
-            xml.append("        <ChildDataFlag>0</ChildDataFlag>\n");
-            xml.append("        <FlagOtherCircumstances>0</FlagOtherCircumstances>\n");
-            xml.append("        <NumberInEmployerRegistry>").append(abs.getOrderNumber() != null ? abs.getOrderNumber() : "1").append("</NumberInEmployerRegistry>\n");
-            xml.append("        <DateInEmployerRegistry>").append(formatDate(abs.getFromDate())).append("</DateInEmployerRegistry>\n");
-            xml.append("        <BankAccountDeclared>1</BankAccountDeclared>\n");
-            xml.append("        <FlagBankAccount>0</FlagBankAccount>\n");
-            xml.append("        <IBAN>").append(emp.getIban() != null ? emp.getIban() : "").append("</IBAN>\n");
-            xml.append("      </Certificates>\n");
-
-            xml.append("      <Representative>\n");
-            xml.append("        <FirstName>Управител</FirstName>\n");
-            xml.append("        <SurName></SurName>\n");
-            xml.append("        <FamilyName></FamilyName>\n");
-            xml.append("        <Position>Управител</Position>\n");
-            xml.append("        <City>").append(escapeXml(company.getCity())).append("</City>\n");
-            xml.append("      </Representative>\n");
-            xml.append("      <DateCertificate>").append(formatDate(java.time.LocalDate.now())).append("</DateCertificate>\n");
-            xml.append("      <DateSaved>").append(java.time.LocalDate.now().format(DateTimeFormatter.ofPattern("dd-MM-yyyy"))).append("</DateSaved>\n");
-            xml.append("      <TimeSaved>12:00:00</TimeSaved>\n");
-            xml.append("    </NumberPril9>\n");
+    static final int CHUNK = 256;
+    private static final int MAX_ISSUES = 200;
+    private static final DateTimeFormatter DATE_SAVED = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+
+    private final AbsenceRepository absenceRepository;
+    private final EntityLoader entityLoader;
+    private final Resource schemaResource;
+
+    private volatile Schema schema;
+
+    public NssiExportService(AbsenceRepository absenceRepository,
+                             EntityLoader entityLoader,
+                             @Value("${valstrz.nssi.annex9-schema:classpath:nssi/BPril9.xsd}") Resource schemaResource) {
+        this.absenceRepository = absenceRepository;
+        this.entityLoader = entityLoader;
+        this.schemaResource = schemaResource;
+    }
+
+    /** Период на болничните (припокриване с [from, to]). */
+    public record Period(LocalDate from, LocalDate to) {
+        public static Period month(int year, int month) {
+            YearMonth ym = YearMonth.of(year, month);
+            return new Period(ym.atDay(1), ym.atEndOfMonth());
         }
-        xml.append("  </DocList>\n");
-        
-        xml.append("  <Exported>1</Exported>\n");
-        xml.append("  <DateExport>").append(formatDate(java.time.LocalDate.now())).append("</DateExport>\n");
-        xml.append("  <Source>").append(company.getBulstat()).append("</Source>\n");
-        xml.append("</BPril9>");
 
-        return xml.toString();
+        /** Без ограничение (датите се пазят като ISO низове — сравнението е лексикографско). */
+        public static Period all() {
+            return new Period(LocalDate.of(1, 1, 1), LocalDate.of(9999, 12, 31));
+        }
     }
 
-    private String formatDate(java.time.LocalDate date) {
-        if (date == null) return "<Day></Day><Month></Month><Year></Year>";
-        return "<Day>" + date.getDayOfMonth() + "</Day><Month>" + date.getMonthValue() + "</Month><Year>" + date.getYear() + "</Year>";
+    /** Грешка по схемата; number е поредният номер на болничния в DocList (null = заглавната част). */
+    public record ValidationIssue(Integer number, String employeeId, String message) {}
+
+    public record ExportResult(String tenantId, String fileName, int documents, List<ValidationIssue> issues) {
+        public boolean valid() {
+            return issues.isEmpty();
+        }
+    }
+
+    // ── Една фирма ──
+
+    /**
+     * Записва Приложение 9 на фирмата в out; при validate проверява по схемата
+     * в движение и връща грешките (файлът е вече записан).
+     */
+    public ExportResult writeAnnex9(String tenantId, Period period, String employeeId,
+                                    OutputStream out, boolean validate) throws IOException {
+        return write(requireCompany(tenantId), period, employeeId, out, validate);
+    }
+
+    /** Само проверка по схемата — XML-ът не се пази никъде. */
+    public ExportResult validateAnnex9(String tenantId, Period period, String employeeId) {
+        try {
+            return write(requireCompany(tenantId), period, employeeId, OutputStream.nullOutputStream(), true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public String fileName(String tenantId) {
+        return fileName(requireCompany(tenantId));
+    }
+
+    // ── Всички фирми ──
+
+    /**
+     * ZIP с по един файл Pril9 на фирма с болнични в периода; при validate и
+     * открити грешки в края се добавя validation.txt.
+     */
+    public List<ExportResult> writeAnnex9AllTenants(Period period, OutputStream out, boolean validate)
+            throws IOException {
+        List<String> tenantIds = new ArrayList<>();
+        absenceRepository.findTenantsWithSickLeaves(period.from(), period.to()).forEach(tenantIds::add);
+        Map<String, Company> companies = entityLoader.companies(tenantIds);
+
+        List<ExportResult> results = new ArrayList<>();
+        ZipOutputStream zip = new ZipOutputStream(out);
+        for (String tenantId : tenantIds) {
+            Company company = companies.get(tenantId);
+            if (company == null) continue;
+            zip.putNextEntry(new ZipEntry(fileName(company)));
+            results.add(write(company, period, null, zip, validate));
+            zip.closeEntry();
+        }
+
+        if (results.stream().anyMatch(r -> !r.valid())) {
+            zip.putNextEntry(new ZipEntry("validation.txt"));
+            Writer w = new OutputStreamWriter(zip, StandardCharsets.UTF_8);
+            for (ExportResult r : results) {
+                for (ValidationIssue issue : r.issues()) {
+                    w.write(r.fileName() + "\t" + (issue.number() != null ? "№ " + issue.number() : "заглавие")
+                            + "\t" + (issue.employeeId() != null ? issue.employeeId() : "") + "\t"
+                            + issue.message() + "\r\n");
+                }
+            }
+            w.flush();
+            zip.closeEntry();
+        }
+        zip.finish();
+        return results;
+    }
+
+    // ── Запис ──
+
+    private ExportResult write(Company company, Period period, String employeeId,
+                               OutputStream out, boolean validate) throws IOException {
+        Issues issues = new Issues();
+        ValidatorHandler validator = null;
+        if (validate) {
+            validator = schema().newValidatorHandler();
+            validator.setErrorHandler(issues);
+        }
+
+        LocalDate today = LocalDate.now();
+        int count = 0;
+        try (StreamingXmlWriter xml = new StreamingXmlWriter(out, validator)) {
+            xml.startDocument();
+            xml.start("BPril9", "xsi", XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI);
+            xml.element("FlagDelegated", 0);
+            xml.element("TypeOfDocument", 0);
+
+            xml.start("NSSI_RO_All");
+            xml.element("NSSI_RO", "01");
+            xml.element("NSSI_RO_Name", "София");
+            xml.end();
+
+            writeInsurer(xml, company);
+
+            xml.start("DocList");
+            List<Absence> chunk = new ArrayList<>(CHUNK);
+            for (Absence absence : absenceRepository.findSickLeaves(
+                    company.getId(), period.from(), period.to(), employeeId)) {
+                chunk.add(absence);
+                if (chunk.size() == CHUNK) {
+                    count = writeChunk(xml, company, chunk, count, today, issues);
+                    chunk.clear();
+                }
+            }
+            count = writeChunk(xml, company, chunk, count, today, issues);
+            issues.at(null, null);
+            xml.end();
+
+            xml.element("Exported", 1);
+            date(xml, "DateExport", today);
+            xml.element("Source", company.getBulstat());
+            xml.endDocument();
+        }
+        return new ExportResult(company.getId(), fileName(company), count, issues.list);
     }
 
-    private String escapeXml(String input) {
-        if (input == null) return "";
-        return input.replace("&", "&amp;")
-                    .replace("<", "&lt;")
-                    .replace(">", "&gt;")
-                    .replace("\"", "&quot;")
-                    .replace("'", "&apos;");
+    /** Служителите на порцията се зареждат с една заявка. */
+    private int writeChunk(StreamingXmlWriter xml, Company company, List<Absence> chunk, int count,
+                           LocalDate today, Issues issues) throws IOException {
+        if (chunk.isEmpty()) return count;
+        Map<String, Employee> employees = entityLoader.employees(
+                chunk.stream().map(Absence::getEmployeeId).distinct().toList());
+        for (Absence absence : chunk) {
+            Employee employee = employees.get(absence.getEmployeeId());
+            if (employee == null) continue;
+            issues.at(++count, employee.getId());
+            writeDocument(xml, company, absence, employee, count, today);
+        }
+        xml.flush();
+        return count;
+    }
+
+    private void writeInsurer(StreamingXmlWriter xml, Company company) throws IOException {
+        xml.start("Insurer");
+        xml.element("FlagKasa", 0);
+        xml.element("BULSTATKasa", company.getBulstat());
+        xml.element("BulName", company.getName());
+        xml.element("BULSTAT", company.getBulstat());
+        xml.start("BulAddressFull");
+        xml.element("BulRegion", company.getRegion());
+        xml.element("BulSubRegion", company.getMunicipality());
+        xml.element("BulCity", company.getCity());
+        xml.element("BulPostalCode", company.getPostalCode());
+        xml.element("BulAddress", company.getAddress());
+        xml.element("BulPhone", company.getPhone());
+        xml.element("BulCellPhoneNumber", null);
+        xml.element("BulEMail", company.getEmail());
+        xml.end();
+        xml.end();
+    }
+
+    private void writeDocument(StreamingXmlWriter xml, Company company, Absence abs, Employee emp,
+                               int number, LocalDate today) throws IOException {
+        Map<String, Object> sickData = abs.getSickLeaveData();
+        Object chartNo = sickData != null ? sickData.get("chartNumber") : null;
+
+        xml.start("NumberPril9");
+        xml.element("Number", number);
+        xml.element("CodeOperation", 0);
+        xml.element("PatientsChartNumber", chartNo != null ? chartNo : "000000000000");
+        date(xml, "DateIssued", abs.getFromDate());
+        date(xml, "SickLeaveStartDate", abs.getFromDate());
+        date(xml, "SickLeaveEndDate", abs.getToDate());
+
+        xml.start("Insured");
+        xml.element("FirstName", emp.getFirstName());
+        xml.element("SurName", emp.getMiddleName());
+        xml.element("FamilyName", emp.getLastName());
+        xml.element("EGN", emp.getEgn());
+        xml.element("FlagEGN", 0);
+        xml.start("InsuredAddress");
+        xml.element("EGNRegion", emp.getPermanentRegion());
+        xml.element("EGNSubRegion", emp.getPermanentMunicipality());
+        xml.element("EGNCity", emp.getPermanentCity());
+        xml.element("EGNPostalCode", emp.getPermanentPostalCode());
+        xml.element("EGNAddress", emp.getPermanentAddress());
+        xml.element("EGNPhone", emp.getPhone());
+        xml.element("EGNCellPhoneNumber", null);
+        xml.element("EGNEMail", emp.getEmail());
+        xml.end();
+        xml.end();
+
+        xml.element("FlagCertificate", 1);
+        xml.start("Certificates");
+        xml.element("RiskInsured", 1);
+        xml.element("EmploymentType", 0);
+        date(xml, "EploymentDateExpire", null);
+        xml.element("SelfEmploymentType", 9);
+        date(xml, "SelfEmploymentDateExpire", null);
+        xml.element("SixMonthsInsurance", 1);
+        date(xml, "DateOfAchievingInsuranceRigths", null);
+        xml.element("InsuranceRigthsOZM", 1);
+        date(xml, "DateOfAchievingInsuranceRigthsOZM", null);
+        xml.element("TypeOfInsured", "01");
+        xml.element("EGNBulCountTOI", 1);
+        xml.element("DocNumber", 1);
+        date(xml, "InsuranceTerminationDate", null);
+        date(xml, "InsuranceStopDate", null);
+
+        xml.start("SickLeaveMonths");
+        xml.start("BSickLeave");
+        xml.element("SickNumber", 1);
+        xml.element("Month", abs.getFromDate().getMonthValue());
+        xml.element("Year", abs.getFromDate().getYear());
+        xml.element("FromDay", abs.getFromDate().getDayOfMonth());
+        xml.element("ToDay", abs.getToDate().getDayOfMonth());
+        xml.element("Days", abs.getWorkingDays());
+        xml.element("Hours", abs.getWorkingDays() * 8);
+        xml.element("PersonalLegalWorkHours", 8);
+        xml.end();
+        xml.end();
+
+        xml.element("FlagJobTransfer", 0);
+        xml.element("Anketa", 0);
+        xml.element("LeaveWithPay", 0);
+        xml.element("ChildDataFlag", 0);
+        xml.element("FlagOtherCircumstances", 0);
+        xml.element("NumberInEmployerRegistry", abs.getOrderNumber() != null ? abs.getOrderNumber() : "1");
+        date(xml, "DateInEmployerRegistry", abs.getFromDate());
+        xml.element("BankAccountDeclared", 1);
+        xml.element("FlagBankAccount", 0);
+        xml.element("IBAN", iban(emp.getIban()));
+        xml.end();
+
+        xml.start("Representative");
+        xml.element("FirstName", "Управител");
+        xml.element("SurName", null);
+        xml.element("FamilyName", null);
+        xml.element("Position", "Управител");
+        xml.element("City", company.getCity());
+        xml.end();
+        date(xml, "DateCertificate", today);
+        xml.element("DateSaved", today.format(DATE_SAVED));
+        xml.element("TimeSaved", "12:00:00");
+        xml.end();
+    }
+
+    // ── Helpers ──
+
+    /** Дата като Day/Month/Year; null — празни елементи. */
+    private static void date(StreamingXmlWriter xml, String name, LocalDate date) throws IOException {
+        xml.start(name);
+        xml.element("Day", date != null ? date.getDayOfMonth() : null);
+        xml.element("Month", date != null ? date.getMonthValue() : null);
+        xml.element("Year", date != null ? date.getYear() : null);
+        xml.end();
+    }
+
+    private Company requireCompany(String tenantId) {
+        Company company = entityLoader.company(tenantId);
+        if (company == null) throw new IllegalArgumentException("Фирмата не е намерена: " + tenantId);
+        return company;
+    }
+
+    /** IBAN без интервали и с главни букви, както го изисква типът Iban в схемата. */
+    private static String iban(String iban) {
+        if (iban == null || iban.isBlank()) return null;
+        return iban.replace(" ", "").toUpperCase();
+    }
+
+    private static String fileName(Company company) {
+        return "Pril9_" + (company.getBulstat() != null ? company.getBulstat() : company.getId()) + ".xml";
+    }
+
+    /** Схемата се зарежда веднъж; Schema е thread-safe, ValidatorHandler — не (нов за всеки файл). */
+    private Schema schema() {
+        Schema s = schema;
+        if (s == null) {
+            synchronized (this) {
+                s = schema;
+                if (s == null) {
+                    try {
+                        s = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI)
+                                .newSchema(schemaResource.getURL());
+                    } catch (IOException | SAXException e) {
+                        throw new IllegalStateException("Схемата на Приложение 9 не може да се зареди: "
+                                + schemaResource, e);
+                    }
+                    schema = s;
+                }
+            }
+        }
+        return s;
+    }
+
+    /** Събира грешките по схемата с номера на текущия документ. */
+    private static final class Issues implements ErrorHandler {
+        final List<ValidationIssue> list = new ArrayList<>();
+        private Integer number;
+        private String employeeId;
+
+        void at(Integer number, String employeeId) {
+            this.number = number;
+            this.employeeId = employeeId;
+        }
+
+        @Override
+        public void warning(SAXParseException e) {}
+
+        @Override
+        public void error(SAXParseException e) {
+            if (list.size() < MAX_ISSUES) list.add(new ValidationIssue(number, employeeId, e.getMessage()));
+        }
+
+        @Override
+        public void fatalError(SAXParseException e) {
+            error(e);
+        }
     }
 }
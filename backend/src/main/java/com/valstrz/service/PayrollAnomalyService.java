@@ -0,0 +1,211 @@
+package com.valstrz.service;
+
+import com.valstrz.entity.payroll.PayrollBaseline;
+import com.valstrz.entity.payroll.PayrollSnapshot;
+import com.valstrz.repository.PayrollBaselineRepository;
+import com.valstrz.repository.PayrollSnapshotRepository;
+import com.valstrz.util.MoneyUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.*;
+
+/**
+ * Проверка на изчислените заплати спрямо историята на служителя.
+ *
+ * Базата (PayrollBaseline) съдържа стойностите от затворените месеци (до 2N назад).
+ * Обновява се при затваряне и отваряне на месец, затова проверката при изчисление
+ * е една заявка за фирмата и O(N) на служител — средно/отклонение се смятат в BigDecimal
+ * за N-те месеца преди проверявания.
+ *
+ * Показател се отбелязва, когато |стойност - средно| / σ надвишава прага.
+ * σ има долна граница (2% от средното, но поне 1 лв.), за да не се отбелязват
+ * дребни промени при напълно еднакви предходни месеци.
+ */
+@Service
+public class PayrollAnomalyService {
+
+    private static final List<String> METRICS = List.of(
+            PayrollBaseline.GROSS, PayrollBaseline.NET,
+            PayrollBaseline.INSURABLE_INCOME, PayrollBaseline.INCOME_TAX);
+
+    private static final BigDecimal MIN_SIGMA = BigDecimal.ONE;
+    private static final BigDecimal MIN_SIGMA_RATIO = new BigDecimal("0.02");
+
+    private final PayrollBaselineRepository baselineRepository;
+    private final PayrollSnapshotRepository snapshotRepository;
+    private final int windowMonths;
+    private final int minSamples;
+    private final BigDecimal zThreshold;
+
+    public PayrollAnomalyService(PayrollBaselineRepository baselineRepository,
+                                 PayrollSnapshotRepository snapshotRepository,
+                                 @Value("${valstrz.payroll.anomaly.window-months:12}") int windowMonths,
+                                 @Value("${valstrz.payroll.anomaly.min-samples:3}") int minSamples,
+                                 @Value("${valstrz.payroll.anomaly.z-threshold:3.0}") double zThreshold) {
+        this.baselineRepository = baselineRepository;
+        this.snapshotRepository = snapshotRepository;
+        this.windowMonths = windowMonths;
+        this.minSamples = minSamples;
+        this.zThreshold = BigDecimal.valueOf(zThreshold);
+    }
+
+    public record AnomalyRow(String employeeId, String employeeName, List<PayrollSnapshot.Anomaly> anomalies) {}
+
+    // ── Проверка при изчисление ──
+
+    /** Базите на всички служители на фирмата (employeeId → база), с една заявка. */
+    public Map<String, PayrollBaseline> loadBaselines(String tenantId) {
+        Map<String, PayrollBaseline> map = new HashMap<>();
+        for (PayrollBaseline b : baselineRepository.findByTenantId(tenantId)) {
+            map.put(b.getEmployeeId(), b);
+        }
+        return map;
+    }
+
+    /**
+     * Сравнява snapshot-а с месеците преди него и записва отклоненията в него (без запис в базата).
+     */
+    public void check(PayrollSnapshot snapshot, PayrollBaseline baseline) {
+        snapshot.setAnomalies(null);
+        if (baseline == null || baseline.getSamples() == null) return;
+
+        List<PayrollSnapshot.Anomaly> anomalies = new ArrayList<>();
+        for (String metric : METRICS) {
+            PayrollBaseline.Stats stats = baseline.stats(metric, snapshot.getYear(), snapshot.getMonth(), windowMonths);
+            if (stats.count() < minSamples) continue;
+
+            BigDecimal value = valueOf(snapshot, metric);
+            BigDecimal floor = MIN_SIGMA.max(stats.mean().abs().multiply(MIN_SIGMA_RATIO));
+            BigDecimal sigma = stats.stdDev().max(floor);
+            BigDecimal z = value.subtract(stats.mean()).divide(sigma, MoneyUtil.CALC_SCALE, MoneyUtil.ROUNDING);
+            if (z.abs().compareTo(zThreshold) <= 0) continue;
+
+            PayrollSnapshot.Anomaly a = new PayrollSnapshot.Anomaly();
+            a.setMetric(metric);
+            a.setValue(MoneyUtil.round(value));
+            a.setMean(MoneyUtil.round(stats.mean()));
+            a.setStdDev(MoneyUtil.round(stats.stdDev()));
+            a.setZScore(z.setScale(2, RoundingMode.HALF_UP));
+            a.setBaselineMonths(stats.count());
+            anomalies.add(a);
+        }
+        if (!anomalies.isEmpty()) snapshot.setAnomalies(anomalies);
+    }
+
+    /** Служителите с отклонения за месеца. */
+    public List<AnomalyRow> getAnomalies(String tenantId, int year, int month) {
+        List<AnomalyRow> rows = new ArrayList<>();
+        for (PayrollSnapshot s : snapshotRepository.findByTenantIdAndYearAndMonth(tenantId, year, month)) {
+            if (s.getAnomalies() == null || s.getAnomalies().isEmpty()) continue;
+            String name = s.getEmployeeData() != null ? (String) s.getEmployeeData().getOrDefault("fullName", "") : "";
+            rows.add(new AnomalyRow(s.getEmployeeId(), name, s.getAnomalies()));
+        }
+        return rows;
+    }
+
+    // ── Обновяване на базата ──
+
+    /**
+     * Добавя затворения месец в базата на всеки служител; месеците отпреди 2N отпадат.
+     */
+    public void recordMonth(String tenantId, int year, int month, List<PayrollSnapshot> snapshots) {
+        if (snapshots.isEmpty()) return;
+        Map<String, PayrollBaseline> baselines = loadFor(tenantId, snapshots);
+        LocalDateTime now = LocalDateTime.now();
+
+        for (PayrollSnapshot s : snapshots) {
+            PayrollBaseline b = baselines.computeIfAbsent(s.getEmployeeId(), id -> newBaseline(tenantId, id));
+            // Пазят се 2N месеца, за да може отварянето на месец да върне по-старите в прозореца
+            b.addSample(sampleOf(s, year, month), 2 * windowMonths);
+            b.setUpdatedAt(now);
+        }
+        baselineRepository.saveAll(baselines.values());
+    }
+
+    /**
+     * Премахва отворения отново месец от базите на служителите му. Прозорецът се определя
+     * от проверявания месец, така че по-старите пазени месеци отново влизат в него.
+     */
+    public void rollbackMonth(String tenantId, int year, int month, Iterable<PayrollSnapshot> snapshots) {
+        List<PayrollSnapshot> list = new ArrayList<>();
+        snapshots.forEach(list::add);
+        if (list.isEmpty()) return;
+
+        List<PayrollBaseline> changed = new ArrayList<>();
+        for (PayrollBaseline b : loadFor(tenantId, list).values()) {
+            if (b.removeSample(year, month)) {
+                b.setUpdatedAt(LocalDateTime.now());
+                changed.add(b);
+            }
+        }
+        baselineRepository.saveAll(changed);
+    }
+
+    /**
+     * Строи базите наново от затворените snapshot-и за 2N месеца до (year, month) включително
+     * (за фирми със затворени месеци отпреди въвеждането на проверката).
+     *
+     * @return брой служители с база
+     */
+    public int rebuildBaselines(String tenantId, int year, int month) {
+        baselineRepository.deleteAll(baselineRepository.findByTenantId(tenantId));
+        YearMonth to = YearMonth.of(year, month);
+        YearMonth from = to.minusMonths(2L * windowMonths - 1);
+        Set<String> employees = new HashSet<>();
+        for (YearMonth ym = from; !ym.isAfter(to); ym = ym.plusMonths(1)) {
+            List<PayrollSnapshot> closed = new ArrayList<>();
+            snapshotRepository.findByTenantIdAndYearAndMonthAndStatus(
+                    tenantId, ym.getYear(), ym.getMonthValue(), "CLOSED").forEach(closed::add);
+            recordMonth(tenantId, ym.getYear(), ym.getMonthValue(), closed);
+            closed.forEach(s -> employees.add(s.getEmployeeId()));
+        }
+        return employees.size();
+    }
+
+    // ── Helpers ──
+
+    private Map<String, PayrollBaseline> loadFor(String tenantId, List<PayrollSnapshot> snapshots) {
+        Set<String> keys = new HashSet<>();
+        for (PayrollSnapshot s : snapshots) keys.add(PayrollBaseline.keyOf(s.getEmployeeId()));
+        Map<String, PayrollBaseline> map = new HashMap<>();
+        for (PayrollBaseline b : baselineRepository.findAllById(keys)) {
+            if (tenantId.equals(b.getTenantId())) map.put(b.getEmployeeId(), b);
+        }
+        return map;
+    }
+
+    private static PayrollBaseline newBaseline(String tenantId, String employeeId) {
+        PayrollBaseline b = new PayrollBaseline();
+        b.setId(PayrollBaseline.keyOf(employeeId));
+        b.setTenantId(tenantId);
+        b.setEmployeeId(employeeId);
+        return b;
+    }
+
+    private static PayrollBaseline.Sample sampleOf(PayrollSnapshot s, int year, int month) {
+        PayrollBaseline.Sample sample = new PayrollBaseline.Sample();
+        sample.setYear(year);
+        sample.setMonth(month);
+        sample.setGross(valueOf(s, PayrollBaseline.GROSS));
+        sample.setNet(valueOf(s, PayrollBaseline.NET));
+        sample.setInsurableIncome(valueOf(s, PayrollBaseline.INSURABLE_INCOME));
+        sample.setIncomeTax(valueOf(s, PayrollBaseline.INCOME_TAX));
+        return sample;
+    }
+
+    private static BigDecimal valueOf(PayrollSnapshot s, String metric) {
+        BigDecimal v = switch (metric) {
+            case PayrollBaseline.GROSS -> s.getGrossSalary();
+            case PayrollBaseline.NET -> s.getNetSalary();
+            case PayrollBaseline.INSURABLE_INCOME -> s.getInsurableIncome();
+            case PayrollBaseline.INCOME_TAX -> s.getIncomeTax();
+            default -> throw new IllegalArgumentException("Непознат показател: " + metric);
+        };
+        return v != null ? v : BigDecimal.ZERO;
+    }
+}
@@ -0,0 +1,456 @@
+package com.valstrz.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.valstrz.entity.AuditLog;
+import com.valstrz.entity.payroll.Payroll;
+import com.valstrz.entity.payroll.PayrollArchive;
+import com.valstrz.entity.payroll.PayrollSnapshot;
+import com.valstrz.entity.personnel.MonthlyTimesheet;
+import com.valstrz.repository.AuditLogRepository;
+import com.valstrz.repository.MonthlyTimesheetRepository;
+import com.valstrz.repository.PayrollArchiveRepository;
+import com.valstrz.repository.PayrollRepository;
+import com.valstrz.repository.PayrollSnapshotRepository;
+import com.valstrz.util.SegmentFile;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Архив на приключени години (студено съхранение).
+ *
+ * Заплатите, часовите карти и дневникът за годината се записват в сегментен файл
+ * {valstrz.archive.dir}/{tenantId}/{year}.seg и се изтриват от базата. Докато годината е
+ * архивирана, PayrollService, CertificateService, Art73DeclarationService и
+ * AttendanceMatrixService четат от файла през индекса тук. restoreYear връща документите
+ * в базата; файлът остава (в него само се добавя — при повторно архивиране важи
+ * последното изпълнение).
+ */
+@Service
+public class PayrollArchiveService {
+
+    static final byte KIND_RUN = 0;
+    static final byte KIND_SNAPSHOT = 1;
+    static final byte KIND_TIMESHEET = 2;
+    static final byte KIND_AUDIT_LOG = 3;
+
+    private static final int BATCH_SIZE = 500;
+
+    private final PayrollArchiveRepository archiveRepository;
+    private final PayrollRepository payrollRepository;
+    private final PayrollSnapshotRepository snapshotRepository;
+    private final MonthlyTimesheetRepository timesheetRepository;
+    private final AuditLogRepository auditLogRepository;
+    private final LegislationSnapshotService legislationSnapshotService;
+    private final ObjectMapper objectMapper;
+    private final Path archiveDir;
+
+    /** Индекс по tenantId|year; NOT_ARCHIVED за години, които са в базата. */
+    private final Map<String, SegmentIndex> indexes = new ConcurrentHashMap<>();
+
+    public PayrollArchiveService(PayrollArchiveRepository archiveRepository,
+                                 PayrollRepository payrollRepository,
+                                 PayrollSnapshotRepository snapshotRepository,
+                                 MonthlyTimesheetRepository timesheetRepository,
+                                 AuditLogRepository auditLogRepository,
+                                 LegislationSnapshotService legislationSnapshotService,
+                                 ObjectMapper objectMapper,
+                                 @Value("${valstrz.archive.dir:./archive}") String archiveDir) {
+        this.archiveRepository = archiveRepository;
+        this.payrollRepository = payrollRepository;
+        this.snapshotRepository = snapshotRepository;
+        this.timesheetRepository = timesheetRepository;
+        this.auditLogRepository = auditLogRepository;
+        this.legislationSnapshotService = legislationSnapshotService;
+        this.objectMapper = objectMapper;
+        this.archiveDir = Paths.get(archiveDir);
+    }
+
+    public record VerifyResult(int year, int records, boolean checksumMatches, List<String> errors) {}
+
+    // ── Архивиране / възстановяване ──
+
+    /**
+     * Изнася годината в сегментния файл и я изтрива от базата.
+     * Всички месеци с ведомост трябва да са затворени.
+     */
+    public PayrollArchive archiveYear(String tenantId, int year) {
+        PayrollArchive existing = archiveRepository.findById(PayrollArchive.keyOf(tenantId, year)).orElse(null);
+        if (existing != null && "ARCHIVED".equals(existing.getStatus())) {
+            throw new IllegalStateException("Година " + year + " вече е архивирана.");
+        }
+        requireClosedYear(tenantId, year);
+
+        List<PayrollSnapshot> snapshots = new ArrayList<>();
+        List<MonthlyTimesheet> timesheets = new ArrayList<>();
+        for (int month = 1; month <= 12; month++) {
+            snapshotRepository.findByTenantIdAndYearAndMonth(tenantId, year, month).forEach(snapshots::add);
+            timesheetRepository.findByTenantIdAndYearAndMonth(tenantId, year, month).forEach(timesheets::add);
+        }
+        for (PayrollSnapshot s : snapshots) {
+            if (!"CLOSED".equals(s.getStatus())) {
+                throw new IllegalStateException("Има незатворени изчисления за " + s.getMonth() + "/" + year + ".");
+            }
+        }
+        List<AuditLog> auditLogs = new ArrayList<>();
+        auditLogRepository.findByTenantIdAndPerformedAtBetween(tenantId,
+                LocalDateTime.of(year, 1, 1, 0, 0), LocalDateTime.of(year + 1, 1, 1, 0, 0).minusNanos(1))
+                .forEach(auditLogs::add);
+
+        LocalDateTime now = LocalDateTime.now();
+        List<SegmentFile.Record> records = new ArrayList<>(snapshots.size() + timesheets.size() + auditLogs.size() + 1);
+        records.add(new SegmentFile.Record(KIND_RUN, 0, null, "run",
+                now.toString().getBytes(StandardCharsets.UTF_8)));
+        for (PayrollSnapshot s : snapshots) {
+            records.add(new SegmentFile.Record(KIND_SNAPSHOT, s.getMonth(), s.getEmployeeId(), s.getId(), snapshotJson(s)));
+        }
+        for (MonthlyTimesheet ts : timesheets) {
+            records.add(new SegmentFile.Record(KIND_TIMESHEET, ts.getMonth(), ts.getEmployeeId(), ts.getId(), json(ts)));
+        }
+        for (AuditLog log : auditLogs) {
+            records.add(new SegmentFile.Record(KIND_AUDIT_LOG, log.getPerformedAt().getMonthValue(), null,
+                    log.getId(), json(log)));
+        }
+
+        // Повторното архивиране добавя към файла от каталога, дори ако archive.dir е сменен
+        Path file = existing != null && existing.getSegmentFile() != null
+                ? Paths.get(existing.getSegmentFile())
+                : segmentPath(tenantId, year);
+        long sizeBefore = 0;
+        try {
+            sizeBefore = Files.exists(file) ? Files.size(file) : 0;
+            List<SegmentFile.Entry> written = SegmentFile.append(file, records);
+            // Проверка, преди да изтрием каквото и да е от базата
+            SegmentIndex index = SegmentIndex.of(file, SegmentFile.scan(file));
+            if (index.size() != written.size() - 1) {
+                throw new IOException("Записани " + (written.size() - 1) + ", прочетени " + index.size() + " записа");
+            }
+            for (SegmentFile.Entry e : written) SegmentFile.read(file, e);
+
+            PayrollArchive archive = existing != null ? existing : new PayrollArchive();
+            archive.setId(PayrollArchive.keyOf(tenantId, year));
+            archive.setTenantId(tenantId);
+            archive.setYear(year);
+            archive.setStatus("ARCHIVED");
+            archive.setSegmentFile(file.toString());
+            archive.setSegmentSha256(sha256(file));
+            archive.setSegmentSize(Files.size(file));
+            archive.setPayrollSnapshots(snapshots.size());
+            archive.setMonthlyTimesheets(timesheets.size());
+            archive.setAuditLogs(auditLogs.size());
+            archive.setArchivedAt(now);
+            archive.setRestoredAt(null);
+            archive = archiveRepository.save(archive);
+            indexes.put(cacheKey(tenantId, year), index);
+
+            snapshotRepository.deleteAll(snapshots);
+            timesheetRepository.deleteAll(timesheets);
+            auditLogRepository.deleteAll(auditLogs);
+            return archive;
+        } catch (IOException e) {
+            truncate(file, sizeBefore);
+            throw new UncheckedIOException("Архивирането на " + year + " не е успешно: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Връща архивираната година в базата. Сегментният файл се пази.
+     */
+    public PayrollArchive restoreYear(String tenantId, int year) {
+        PayrollArchive archive = requireArchived(tenantId, year);
+        SegmentIndex index = index(tenantId, year);
+        Path file = index.file();
+
+        saveInBatches(index.entries(KIND_SNAPSHOT), e -> readSnapshot(file, e), snapshotRepository::saveAll);
+        saveInBatches(index.entries(KIND_TIMESHEET), e -> read(file, e, MonthlyTimesheet.class), timesheetRepository::saveAll);
+        saveInBatches(index.entries(KIND_AUDIT_LOG), e -> read(file, e, AuditLog.class), auditLogRepository::saveAll);
+
+        archive.setStatus("RESTORED");
+        archive.setRestoredAt(LocalDateTime.now());
+        archive = archiveRepository.save(archive);
+        indexes.put(cacheKey(tenantId, year), SegmentIndex.NOT_ARCHIVED);
+        return archive;
+    }
+
+    /**
+     * Пълна проверка на сегмента: контролни суми на всички записи и SHA-256 на файла.
+     */
+    public VerifyResult verify(String tenantId, int year) {
+        PayrollArchive archive = archiveRepository.findById(PayrollArchive.keyOf(tenantId, year))
+                .orElseThrow(() -> new IllegalArgumentException("Година " + year + " не е архивирана."));
+        Path file = Paths.get(archive.getSegmentFile());
+        List<String> errors = new ArrayList<>();
+        int records = 0;
+        boolean checksumMatches = false;
+        try {
+            for (SegmentFile.Entry e : SegmentFile.scan(file)) {
+                records++;
+                try {
+                    SegmentFile.read(file, e);
+                } catch (IOException ex) {
+                    errors.add(ex.getMessage());
+                }
+            }
+            checksumMatches = sha256(file).equals(archive.getSegmentSha256());
+            if (!checksumMatches) errors.add("SHA-256 на файла не съвпада с каталога");
+        } catch (IOException e) {
+            errors.add(e.getMessage());
+        }
+        return new VerifyResult(year, records, checksumMatches, errors);
+    }
+
+    public List<PayrollArchive> getArchives(String tenantId) {
+        List<PayrollArchive> list = new ArrayList<>();
+        archiveRepository.findByTenantId(tenantId).forEach(list::add);
+        list.sort(Comparator.comparingInt(PayrollArchive::getYear));
+        return list;
+    }
+
+    // ── Четене (read-through) ──
+
+    public boolean isArchived(String tenantId, int year) {
+        return index(tenantId, year) != SegmentIndex.NOT_ARCHIVED;
+    }
+
+    /**
+     * Изчисленията за месеца от архива или null, ако годината не е архивирана.
+     */
+    public List<PayrollSnapshot> snapshots(String tenantId, int year, int month) {
+        SegmentIndex index = index(tenantId, year);
+        if (index == SegmentIndex.NOT_ARCHIVED) return null;
+        Path file = index.file();
+        List<PayrollSnapshot> list = new ArrayList<>();
+        for (SegmentFile.Entry e : index.byMonth(KIND_SNAPSHOT, month)) list.add(readSnapshot(file, e));
+        return list;
+    }
+
+    /**
+     * Изчислението на служителя за месеца от архива (null, ако липсва).
+     * Четат се само неговите записи — без останалите от месеца.
+     */
+    public PayrollSnapshot snapshot(String tenantId, String employeeId, int year, int month) {
+        SegmentIndex index = index(tenantId, year);
+        if (index == SegmentIndex.NOT_ARCHIVED) return null;
+        Path file = index.file();
+        for (SegmentFile.Entry e : index.byEmployee(KIND_SNAPSHOT, employeeId)) {
+            if (e.month() == month) return readSnapshot(file, e);
+        }
+        return null;
+    }
+
+    /**
+     * Часовите карти за месеца от архива или null, ако годината не е архивирана.
+     * employeeIds (ако не е null) ограничава служителите.
+     */
+    public List<MonthlyTimesheet> timesheets(String tenantId, int year, int month, Collection<String> employeeIds) {
+        SegmentIndex index = index(tenantId, year);
+        if (index == SegmentIndex.NOT_ARCHIVED) return null;
+        Path file = index.file();
+        List<MonthlyTimesheet> list = new ArrayList<>();
+        for (SegmentFile.Entry e : index.byMonth(KIND_TIMESHEET, month)) {
+            if (employeeIds != null && !employeeIds.contains(e.employeeId())) continue;
+            list.add(read(file, e, MonthlyTimesheet.class));
+        }
+        return list;
+    }
+
+    /**
+     * Изключение, ако годината е архивирана (преди промяна на данни в нея).
+     */
+    public void requireNotArchived(String tenantId, int year) {
+        if (isArchived(tenantId, year)) {
+            throw new IllegalStateException("Година " + year + " е архивирана — първо я възстановете.");
+        }
+    }
+
+    // ── Helpers ──
+
+    private void requireClosedYear(String tenantId, int year) {
+        boolean any = false;
+        for (int month = 1; month <= 12; month++) {
+            for (Payroll p : payrollRepository.findByTenantIdAndYearAndMonth(tenantId, year, month)) {
+                if (!"CLOSED".equals(p.getStatus())) {
+                    throw new IllegalStateException("Месец " + month + "/" + year + " не е затворен.");
+                }
+                any = true;
+            }
+        }
+        if (!any) throw new IllegalStateException("Няма затворени месеци за " + year + ".");
+    }
+
+    private PayrollArchive requireArchived(String tenantId, int year) {
+        PayrollArchive archive = archiveRepository.findById(PayrollArchive.keyOf(tenantId, year)).orElse(null);
+        if (archive == null || !"ARCHIVED".equals(archive.getStatus())) {
+            throw new IllegalStateException("Година " + year + " не е архивирана.");
+        }
+        return archive;
+    }
+
+    private SegmentIndex index(String tenantId, int year) {
+        return indexes.computeIfAbsent(cacheKey(tenantId, year), k -> {
+            PayrollArchive archive = archiveRepository.findById(PayrollArchive.keyOf(tenantId, year)).orElse(null);
+            if (archive == null || !"ARCHIVED".equals(archive.getStatus())) return SegmentIndex.NOT_ARCHIVED;
+            try {
+                Path file = Paths.get(archive.getSegmentFile());
+                return SegmentIndex.of(file, SegmentFile.scan(file));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Архивът за " + year + " не може да бъде прочетен", e);
+            }
+        });
+    }
+
+    /** Път за нов сегмент; вече архивираните години се четат от пътя в каталога. */
+    private Path segmentPath(String tenantId, int year) {
+        return archiveDir.resolve(tenantId).resolve(year + ".seg");
+    }
+
+    private static String cacheKey(String tenantId, int year) {
+        return tenantId + "|" + year;
+    }
+
+    /** Параметрите на законодателството остават в legislationSnapshots — в архива е само хешът. */
+    private byte[] snapshotJson(PayrollSnapshot s) {
+        if (s.getLegislationParams() == null) return json(s);
+        s.setLegislationHash(legislationSnapshotService.keyFor(s));
+        s.detachLegislationBeforeSave();
+        try {
+            return json(s);
+        } finally {
+            s.restoreAfterSave();
+        }
+    }
+
+    private PayrollSnapshot readSnapshot(Path file, SegmentFile.Entry e) {
+        PayrollSnapshot s = read(file, e, PayrollSnapshot.class);
+        if (s.getLegislationParams() == null && s.getLegislationHash() != null) {
+            s.setLegislationParams(legislationSnapshotService.resolve(s.getLegislationHash()));
+        }
+        return s;
+    }
+
+    private byte[] json(Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private <T> T read(Path file, SegmentFile.Entry e, Class<T> type) {
+        try {
+            return objectMapper.readValue(SegmentFile.read(file, e), type);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static <T> void saveInBatches(List<SegmentFile.Entry> entries,
+                                          Function<SegmentFile.Entry, T> reader,
+                                          Consumer<List<T>> saver) {
+        List<T> batch = new ArrayList<>(BATCH_SIZE);
+        for (SegmentFile.Entry e : entries) {
+            batch.add(reader.apply(e));
+            if (batch.size() >= BATCH_SIZE) {
+                saver.accept(batch);
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+        if (!batch.isEmpty()) saver.accept(batch);
+    }
+
+    /** Премахва недописаните записи, за да остане файлът четим. */
+    private static void truncate(Path file, long size) {
+        if (!Files.exists(file)) return;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        } catch (IOException ignored) {
+            // verify ще покаже проблема
+        }
+    }
+
+    private static String sha256(Path file) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Индекс на сегмента, построен само от заглавията на записите.
+     * Важат записите след последния KIND_RUN; при повтарящ се ключ — последният.
+     * Пази и пътя на файла от каталога (PayrollArchive.segmentFile).
+     */
+    static final class SegmentIndex {
+
+        static final SegmentIndex NOT_ARCHIVED = new SegmentIndex(null, List.of());
+
+        private final Path file;
+        private final Map<Byte, List<SegmentFile.Entry>> byKind = new HashMap<>();
+        private final Map<String, List<SegmentFile.Entry>> byMonth = new HashMap<>();
+        private final Map<String, List<SegmentFile.Entry>> byEmployee = new HashMap<>();
+        private final int size;
+
+        private SegmentIndex(Path file, Collection<SegmentFile.Entry> entries) {
+            this.file = file;
+            for (SegmentFile.Entry e : entries) {
+                byKind.computeIfAbsent(e.kind(), k -> new ArrayList<>()).add(e);
+                byMonth.computeIfAbsent(e.kind() + ":" + e.month(), k -> new ArrayList<>()).add(e);
+                if (e.employeeId() != null) {
+                    byEmployee.computeIfAbsent(e.kind() + ":" + e.employeeId(), k -> new ArrayList<>()).add(e);
+                }
+            }
+            this.size = entries.size();
+        }
+
+        static SegmentIndex of(Path file, List<SegmentFile.Entry> scanned) {
+            int start = 0;
+            for (int i = 0; i < scanned.size(); i++) {
+                if (scanned.get(i).kind() == KIND_RUN) start = i + 1;
+            }
+            Map<String, SegmentFile.Entry> latest = new LinkedHashMap<>();
+            for (SegmentFile.Entry e : scanned.subList(start, scanned.size())) {
+                latest.put(e.kind() + ":" + e.key(), e);
+            }
+            return new SegmentIndex(file, latest.values());
+        }
+
+        Path file() { return file; }
+
+        int size() { return size; }
+
+        List<SegmentFile.Entry> entries(byte kind) {
+            return byKind.getOrDefault(kind, List.of());
+        }
+
+        List<SegmentFile.Entry> byMonth(byte kind, int month) {
+            return byMonth.getOrDefault(kind + ":" + month, List.of());
+        }
+
+        List<SegmentFile.Entry> byEmployee(byte kind, String employeeId) {
+            return byEmployee.getOrDefault(kind + ":" + employeeId, List.of());
+        }
+    }
+}
@@ -13,11 +13,13 @@ import com.valstrz.entity.personnel.Garnishment;
 import com.valstrz.entity.personnel.MonthlyTimesheet;
 import com.valstrz.entity.personnel.MonthlyTimesheet.DailyEntry;
 import com.valstrz.util.MoneyUtil;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Stateless изчислителен двигател за заплати.
@@ -28,9 +30,26 @@ import java.util.*;
 public class PayrollCalculationService {
 
     private final GarnishmentService garnishmentService;
+    private final PayrollMetrics metrics;
 
-    public PayrollCalculationService(GarnishmentService garnishmentService) {
+    @Autowired
+    public PayrollCalculationService(GarnishmentService garnishmentService, PayrollMetrics metrics) {
         this.garnishmentService = garnishmentService;
+        this.metrics = metrics;
+    }
+
+    /** Без метрики (тестове, бенчмарк). */
+    public PayrollCalculationService(GarnishmentService garnishmentService) {
+        this(garnishmentService, PayrollMetrics.noop());
+    }
+
+    /**
+     * Същото изчисление без метрики — за симулации и обратното изчисление, които
+     * смятат по няколко пъти на служител и не бива да влизат в таймера и броячите
+     * на реалните ведомости.
+     */
+    public PayrollCalculationService withoutMetrics() {
+        return new PayrollCalculationService(garnishmentService);
     }
 
     // ── Входни данни (record) ──
@@ -48,7 +67,8 @@ public class PayrollCalculationService {
         int month,
         List<AdditionalEarning> additionalEarnings,
         List<AdditionalDeduction> additionalDeductions,
-        List<Garnishment> garnishments // Списък със запори
+        List<Garnishment> garnishments, // Списък със запори
+        SummarizedWorkingTimeService.Settlement sirv // СИРВ; null при нормално работно време
     ) {}
 
     public record AdditionalEarning(String code, String name, String type, BigDecimal value) {}
@@ -104,13 +124,17 @@ public class PayrollCalculationService {
      */
     public PayrollSnapshot calculate(CalculationInput input) {
         Employee emp = input.employee();
+        long started = System.nanoTime();
+        PayrollMetrics.StepClock clock = metrics.stepClock(emp.getTenantId());
         Employment empl = input.employment();
         MonthlyTimesheet ts = input.timesheet();
         MonthlyCalendar cal = input.calendar();
         InsuranceRates rates = input.rates();
         InsuranceContributions contrib = input.contributions();
 
-        int workingDays = cal.getWorkingDays();
+        // При сменен график нормата са дните със смяна по графика, а не работните дни от календара
+        int normDays = ts.getScheduledShiftDays() != null && ts.getScheduledShiftDays() > 0
+                ? ts.getScheduledShiftDays() : cal.getWorkingDays();
         int workedDays = ts.getTotalWorkedDays();
         BigDecimal baseSalary = empl.getBaseSalary();
 
@@ -118,13 +142,13 @@ public class PayrollCalculationService {
         List<PayrollLine> deductions = new ArrayList<>();
 
         // Стъпка 2: Основна заплата пропорционално на отработени дни
-        PayrollLine baseLine = calculateBaseSalary(baseSalary, workedDays, workingDays);
+        PayrollLine baseLine = calculateBaseSalary(baseSalary, workedDays, normDays);
         earnings.add(baseLine);
 
         // Стъпка 3: ДТВ за ТСПО (стаж)
         BigDecimal seniorityPercent = empl.getSeniorityBonusPercent();
         if (seniorityPercent != null && MoneyUtil.isPositive(seniorityPercent)) {
-            PayrollLine seniorityLine = calculateSeniorityBonus(baseSalary, seniorityPercent, workedDays, workingDays);
+            PayrollLine seniorityLine = calculateSeniorityBonus(baseSalary, seniorityPercent, workedDays, normDays);
             earnings.add(seniorityLine);
         }
 
@@ -133,16 +157,16 @@ public class PayrollCalculationService {
                 seniorityPercent != null ? MoneyUtil.percentOfRounded(baseSalary, seniorityPercent) : BigDecimal.ZERO);
         BigDecimal totalWorkingHours = cal.getTotalWorkingHours() != null
                 ? cal.getTotalWorkingHours()
-                : BigDecimal.valueOf(workingDays).multiply(
+                : BigDecimal.valueOf(cal.getWorkingDays()).multiply(
                     input.workSchedule() != null && input.workSchedule().getHoursPerDay() != null
                         ? input.workSchedule().getHoursPerDay() : BigDecimal.valueOf(8));
         BigDecimal hourly = MoneyUtil.hourlyRate(baseForHourly, totalWorkingHours);
 
-        List<PayrollLine> overtimeLines = calculateOvertimeAndNight(hourly, ts);
+        List<PayrollLine> overtimeLines = calculateOvertimeAndNight(hourly, ts, input.sirv());
         earnings.addAll(overtimeLines);
 
         // Стъпка 5: Обезщетения за отпуск (платен) и болнични (работодател)
-        BigDecimal avgDaily = MoneyUtil.dailyRate(baseForHourly, workingDays);
+        BigDecimal avgDaily = MoneyUtil.dailyRate(baseForHourly, normDays);
         List<PayrollLine> leaveLines = calculateLeaveCompensation(ts, avgDaily);
         earnings.addAll(leaveLines);
 
@@ -164,11 +188,13 @@ public class PayrollCalculationService {
             gross = MoneyUtil.add(gross, line.getAmount());
         }
         gross = MoneyUtil.round(gross);
+        if (clock != null) clock.mark(PayrollMetrics.Step.EARNINGS);
 
         // Стъпка 7: Осигуровки работник
         InsuranceResult insResult = calculateEmployeeInsurance(gross, contrib, rates, input.threshold());
 
         deductions.addAll(insResult.deductionLines());
+        if (clock != null) clock.mark(PayrollMetrics.Step.EMPLOYEE_INSURANCE);
 
         // Стъпка 8: Данъчна основа
         BigDecimal taxBase = calculateTaxBase(gross, insResult.totalEmployeeInsurance(),
@@ -184,6 +210,7 @@ public class PayrollCalculationService {
         taxLine.setRate(rates.getFlatTaxRate());
         taxLine.setAmount(incomeTax);
         deductions.add(taxLine);
+        if (clock != null) clock.mark(PayrollMetrics.Step.INCOME_TAX);
 
         // Допълнителни удръжки (аванс, запори)
         BigDecimal otherDeductions = BigDecimal.ZERO;
@@ -203,12 +230,14 @@ public class PayrollCalculationService {
         BigDecimal totalBasicDeductions = MoneyUtil.add(
                 MoneyUtil.add(insResult.totalEmployeeInsurance(), incomeTax), otherDeductions);
         BigDecimal initialNet = MoneyUtil.round(MoneyUtil.subtract(gross, totalBasicDeductions));
+        if (clock != null) clock.mark(PayrollMetrics.Step.DEDUCTIONS);
 
         // Стъпка 10.1: Запори (изчисляват се върху нетото)
         BigDecimal garnishmentsAmount = BigDecimal.ZERO;
         if (input.garnishments() != null && !input.garnishments().isEmpty()) {
             List<GarnishmentService.GarnishmentDeduction> gDeductions = 
                 garnishmentService.distribute(input.garnishments(), initialNet, rates.getMinimumWage());
+            metrics.countCalculated("valstrz.payroll.garnishment.deductions", emp.getTenantId(), gDeductions.size());
             
             for (GarnishmentService.GarnishmentDeduction gd : gDeductions) {
                 PayrollLine line = new PayrollLine();
@@ -224,6 +253,7 @@ public class PayrollCalculationService {
 
         BigDecimal net = MoneyUtil.round(MoneyUtil.subtract(initialNet, garnishmentsAmount));
         BigDecimal totalDeductionsAmount = MoneyUtil.add(totalBasicDeductions, garnishmentsAmount);
+        if (clock != null) clock.mark(PayrollMetrics.Step.GARNISHMENTS);
 
         // Осигуровки работодател (отделно, не влияе на нетото)
         List<PayrollLine> employerContribs = calculateEmployerContributions(insResult.insurableIncome(), contrib);
@@ -232,6 +262,7 @@ public class PayrollCalculationService {
             totalEmployerIns = MoneyUtil.add(totalEmployerIns, line.getAmount());
         }
         totalEmployerIns = MoneyUtil.round(totalEmployerIns);
+        if (clock != null) clock.mark(PayrollMetrics.Step.EMPLOYER_CONTRIBUTIONS);
 
         // ── Сглобяване на PayrollSnapshot ──
         PayrollSnapshot snapshot = new PayrollSnapshot();
@@ -259,7 +290,9 @@ public class PayrollCalculationService {
         snapshot.setNetSalary(net);
         snapshot.setTotalEmployerInsurance(totalEmployerIns);
         snapshot.setTotalEmployerCost(MoneyUtil.round(MoneyUtil.add(gross, totalEmployerIns)));
+        if (clock != null) clock.mark(PayrollMetrics.Step.SNAPSHOT);
 
+        metrics.calculateTimer(emp.getTenantId()).record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
         return snapshot;
     }
 
@@ -279,9 +312,7 @@ public class PayrollCalculationService {
         } else if (workedDays >= workingDays) {
             amount = baseSalary;
         } else {
-            amount = MoneyUtil.round(
-                    MoneyUtil.multiply(baseSalary, BigDecimal.valueOf(workedDays))
-                            .divide(BigDecimal.valueOf(workingDays), MoneyUtil.CALC_SCALE, MoneyUtil.ROUNDING));
+            amount = MoneyUtil.prorate(baseSalary, workedDays, workingDays);
         }
         line.setAmount(MoneyUtil.round(amount));
         return line;
@@ -306,8 +337,7 @@ public class PayrollCalculationService {
         } else if (workedDays >= workingDays) {
             amount = fullAmount;
         } else {
-            amount = MoneyUtil.multiply(fullAmount, BigDecimal.valueOf(workedDays))
-                    .divide(BigDecimal.valueOf(workingDays), MoneyUtil.CALC_SCALE, MoneyUtil.ROUNDING);
+            amount = MoneyUtil.prorate(fullAmount, workedDays, workingDays);
         }
         line.setAmount(MoneyUtil.round(amount));
         return line;
@@ -315,7 +345,8 @@ public class PayrollCalculationService {
 
     // ── Стъпка 4: Извънреден и нощен труд ──
 
-    private List<PayrollLine> calculateOvertimeAndNight(BigDecimal hourlyRate, MonthlyTimesheet ts) {
+    private List<PayrollLine> calculateOvertimeAndNight(BigDecimal hourlyRate, MonthlyTimesheet ts,
+                                                        SummarizedWorkingTimeService.Settlement sirv) {
         List<PayrollLine> lines = new ArrayList<>();
 
         // Разбиваме извънредните часове по тип ден
@@ -328,6 +359,8 @@ public class PayrollCalculationService {
                 BigDecimal ot = day.getOvertimeHours();
                 if (ot == null || !MoneyUtil.isPositive(ot)) continue;
                 String dayType = day.getDayType();
+                // При СИРВ извънредният труд (без празничния) се определя в края на периода
+                if (sirv != null && !"HOLIDAY".equals(dayType)) continue;
                 if ("WEEKEND".equals(dayType)) {
                     overtimeWeekend = MoneyUtil.add(overtimeWeekend, ot);
                 } else if ("HOLIDAY".equals(dayType)) {
@@ -337,6 +370,9 @@ public class PayrollCalculationService {
                 }
             }
         }
+        if (sirv != null && sirv.periodEnd()) {
+            overtimeWeekday = MoneyUtil.add(overtimeWeekday, sirv.overtimeHours());
+        }
 
         if (MoneyUtil.isPositive(overtimeWeekday)) {
             PayrollLine line = new PayrollLine();
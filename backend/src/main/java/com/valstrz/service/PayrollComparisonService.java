@@ -0,0 +1,128 @@
+package com.valstrz.service;
+
+import com.valstrz.repository.PayrollSnapshotRepository;
+import com.valstrz.repository.PayrollSnapshotRepository.ComparisonProjection;
+import com.valstrz.repository.PayrollSnapshotRepository.TrendPoint;
+import com.valstrz.repository.PayrollSnapshotRepository.TrendProjection;
+import com.valstrz.util.MoneyUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Сравнение на заплатите между два периода и тенденция за N месеца.
+ *
+ * Съединяването по (tenantId, employeeId, year, month) се прави в AQL върху индекса
+ * на payrollSnapshots и се връщат само служителите с отклонение над прага — за голяма
+ * ведомост проверяващият получава директно списъка с аномалии.
+ */
+@Service
+public class PayrollComparisonService {
+
+    public static final int MAX_TREND_MONTHS = 36;
+
+    private final PayrollSnapshotRepository snapshotRepository;
+    private final BigDecimal defaultMinDelta;
+
+    public PayrollComparisonService(PayrollSnapshotRepository snapshotRepository,
+                                    @Value("${valstrz.reports.comparison.min-delta:0}") BigDecimal defaultMinDelta) {
+        this.snapshotRepository = snapshotRepository;
+        this.defaultMinDelta = defaultMinDelta;
+    }
+
+    public record PeriodComparison(
+        int year, int month, int baseYear, int baseMonth,
+        BigDecimal minDelta, BigDecimal minPercent,
+        List<PayrollReportService.ComparisonRow> rows
+    ) {}
+
+    public record TrendRow(
+        String employeeId, String employeeName, List<TrendPoint> points,
+        BigDecimal baselineGross, BigDecimal lastGross, BigDecimal delta
+    ) {}
+
+    public record TrendReport(int fromYear, int fromMonth, int toYear, int toMonth,
+                              BigDecimal minDelta, List<TrendRow> rows) {}
+
+    // ── Публични методи ──
+
+    /**
+     * Сравнява (year, month) с произволен базов период.
+     *
+     * @param minDelta   минимална разлика в брутно или нето (null = настройката по подразбиране)
+     * @param minPercent минимална разлика в брутно в % от базовото (null = без ограничение)
+     */
+    public PeriodComparison compare(String tenantId, int year, int month, int baseYear, int baseMonth,
+                                    BigDecimal minDelta, BigDecimal minPercent) {
+        BigDecimal delta = minDelta != null ? minDelta : defaultMinDelta;
+        BigDecimal percent = minPercent != null ? minPercent : BigDecimal.ZERO;
+
+        List<PayrollReportService.ComparisonRow> rows = new ArrayList<>();
+        for (ComparisonProjection p : snapshotRepository.compareMonths(tenantId, year, month,
+                baseYear, baseMonth, delta.doubleValue(), percent.doubleValue())) {
+            BigDecimal curGross = orZero(p.currentGross());
+            BigDecimal prevGross = orZero(p.previousGross());
+            BigDecimal curNet = orZero(p.currentNet());
+            BigDecimal prevNet = orZero(p.previousNet());
+            rows.add(new PayrollReportService.ComparisonRow(
+                    p.employeeId(), p.employeeName() != null ? p.employeeName() : "",
+                    MoneyUtil.round(curGross), MoneyUtil.round(prevGross),
+                    MoneyUtil.round(curGross.subtract(prevGross)),
+                    MoneyUtil.round(curNet), MoneyUtil.round(prevNet),
+                    MoneyUtil.round(curNet.subtract(prevNet))
+            ));
+        }
+        return new PeriodComparison(year, month, baseYear, baseMonth, delta, percent, rows);
+    }
+
+    /** Сравнение с предходния месец. */
+    public PeriodComparison compareWithPrevious(String tenantId, int year, int month,
+                                                BigDecimal minDelta, BigDecimal minPercent) {
+        YearMonth prev = YearMonth.of(year, month).minusMonths(1);
+        return compare(tenantId, year, month, prev.getYear(), prev.getMonthValue(), minDelta, minPercent);
+    }
+
+    /**
+     * Тенденция за последните months месеца до (toYear, toMonth) включително.
+     * За всеки служител с изчисление в последния месец: брутно/нето по месеци и
+     * отклонението на последния месец от средното брутно на предходните.
+     */
+    public TrendReport trend(String tenantId, int toYear, int toMonth, int months, BigDecimal minDelta) {
+        if (months < 2 || months > MAX_TREND_MONTHS) {
+            throw new IllegalArgumentException("Периодът трябва да е между 2 и " + MAX_TREND_MONTHS + " месеца.");
+        }
+        BigDecimal delta = minDelta != null ? minDelta : defaultMinDelta;
+        YearMonth to = YearMonth.of(toYear, toMonth);
+        YearMonth from = to.minusMonths(months - 1L);
+
+        List<TrendRow> rows = new ArrayList<>();
+        for (TrendProjection p : snapshotRepository.trend(tenantId, from.getYear(), to.getYear(),
+                period(from), period(to), delta.doubleValue())) {
+            List<TrendPoint> points = new ArrayList<>();
+            if (p.points() != null) {
+                for (TrendPoint tp : p.points()) {
+                    points.add(new TrendPoint(tp.year(), tp.month(),
+                            MoneyUtil.round(orZero(tp.gross())), MoneyUtil.round(orZero(tp.net()))));
+                }
+            }
+            rows.add(new TrendRow(p.employeeId(), p.employeeName() != null ? p.employeeName() : "", points,
+                    MoneyUtil.round(orZero(p.baselineGross())), MoneyUtil.round(orZero(p.lastGross())),
+                    MoneyUtil.round(orZero(p.delta()))));
+        }
+        return new TrendReport(from.getYear(), from.getMonthValue(), toYear, toMonth, delta, rows);
+    }
+
+    // ── Helpers ──
+
+    private static int period(YearMonth ym) {
+        return ym.getYear() * 12 + ym.getMonthValue() - 1;
+    }
+
+    private static BigDecimal orZero(BigDecimal value) {
+        return value != null ? value : BigDecimal.ZERO;
+    }
+}
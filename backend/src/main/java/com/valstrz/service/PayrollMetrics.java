@@ -0,0 +1,211 @@
+package com.valstrz.service;
+
+import com.valstrz.repository.EmployeeRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Метрики на изчисляването на заплати (Micrometer → /actuator/prometheus).
+ *
+ * Всички метрики носят етикет tenant_size (брой активни служители на фирмата,
+ * на групи), а не tenantId — иначе броят на сериите расте с фирмите.
+ * Разбивката на calculate по стъпки се записва за всяко N-то изчисление
+ * (valstrz.metrics.calculate-step-sample), защото самото изчисление е няколко µs.
+ *
+ * Групата се определя с resolveTenantSize (заявка към базата, кешира се) преди
+ * изчисленията; метриките на самото calculate само четат кеша и не ходят до базата.
+ * Метриките се регистрират веднъж и се пазят по име и етикети.
+ */
+@Component
+public class PayrollMetrics {
+
+    static final String TENANT_SIZE = "tenant_size";
+    private static final long TENANT_SIZE_TTL_NANOS = TimeUnit.MINUTES.toNanos(15);
+
+    /** Стъпки на PayrollCalculationService.calculate. */
+    public enum Step {
+        EARNINGS, EMPLOYEE_INSURANCE, INCOME_TAX, DEDUCTIONS, GARNISHMENTS, EMPLOYER_CONTRIBUTIONS, SNAPSHOT;
+
+        final String tag = name().toLowerCase();
+    }
+
+    private final MeterRegistry registry;
+    private final EmployeeRepository employeeRepository;
+    private final int stepSample;
+
+    private final Map<String, TenantSize> tenantSizes = new ConcurrentHashMap<>();
+    private final Map<String, StepTimers> stepTimers = new ConcurrentHashMap<>();
+    private final Map<String, Timer> calculateTimers = new ConcurrentHashMap<>();
+    private final Map<MeterKey, Meter> meters = new ConcurrentHashMap<>();
+    private final AtomicLong calculations = new AtomicLong();
+
+    public PayrollMetrics(MeterRegistry registry,
+                          EmployeeRepository employeeRepository,
+                          @Value("${valstrz.metrics.calculate-step-sample:16}") int stepSample) {
+        this.registry = registry;
+        this.employeeRepository = employeeRepository;
+        this.stepSample = stepSample;
+    }
+
+    /** Без регистър (тестове, бенчмарк): измерванията не се пазят никъде. */
+    public static PayrollMetrics noop() {
+        return new PayrollMetrics(new CompositeMeterRegistry(), null, 0);
+    }
+
+    private record TenantSize(String bucket, long expiresAt) {}
+
+    private record StepTimers(Map<Step, Timer> timers) {}
+
+    private record MeterKey(String name, Tags tags) {}
+
+    // ── Общо измерване ──
+
+    public <T> T time(String name, String tenantId, Supplier<T> action, String... tags) {
+        return timer(name, tenantId, tags).record(action);
+    }
+
+    public void time(String name, String tenantId, Runnable action, String... tags) {
+        timer(name, tenantId, tags).record(action);
+    }
+
+    public Timer.Sample start() {
+        return Timer.start(registry);
+    }
+
+    public void stop(Timer.Sample sample, String name, String tenantId, String... tags) {
+        sample.stop(timer(name, tenantId, tags));
+    }
+
+    public void count(String name, String tenantId, long amount, String... tags) {
+        if (amount <= 0) return;
+        counter(name, tags(tenantId, tags)).increment(amount);
+    }
+
+    // ── Етапи на заплатите ──
+
+    /** Четене от базата при подготовка на входа за изчисление (lookup = timesheet, rates, ...). */
+    public <T> T lookup(String tenantId, String lookup, Supplier<T> action) {
+        return time("valstrz.payroll.input.lookup", tenantId, action, "lookup", lookup);
+    }
+
+    /** Етап от затварянето на месеца. */
+    public <T> T closePhase(String tenantId, String phase, Supplier<T> action) {
+        return time("valstrz.payroll.close.phase", tenantId, action, "phase", phase);
+    }
+
+    public void closePhase(String tenantId, String phase, Runnable action) {
+        time("valstrz.payroll.close.phase", tenantId, action, "phase", phase);
+    }
+
+    /**
+     * Групата на фирмата за етикета tenant_size (брой активни служители; кешира се за
+     * 15 минути). Вика се преди изчисленията, за да не чете calculate от базата.
+     */
+    public String resolveTenantSize(String tenantId) {
+        return tenantSize(tenantId);
+    }
+
+    /** Таймер на цялото изчисление (кешира се — calculate се вика хиляди пъти на месец). */
+    public Timer calculateTimer(String tenantId) {
+        String bucket = knownTenantSize(tenantId);
+        return calculateTimers.computeIfAbsent(bucket, k -> Timer.builder("valstrz.payroll.calculate")
+                .tags(TENANT_SIZE, bucket)
+                .register(registry));
+    }
+
+    /**
+     * Часовник за стъпките на едно изчисление или null, ако това изчисление
+     * не влиза в извадката.
+     */
+    public StepClock stepClock(String tenantId) {
+        if (stepSample <= 0 || calculations.getAndIncrement() % stepSample != 0) return null;
+        StepTimers timers = stepTimers.computeIfAbsent(knownTenantSize(tenantId), bucket -> {
+            Map<Step, Timer> map = new EnumMap<>(Step.class);
+            for (Step step : Step.values()) {
+                map.put(step, Timer.builder("valstrz.payroll.calculate.step")
+                        .tags(TENANT_SIZE, bucket, "step", step.tag)
+                        .register(registry));
+            }
+            return new StepTimers(map);
+        });
+        return new StepClock(timers.timers());
+    }
+
+    /** Брояч в рамките на calculate — без заявка към базата за tenant_size. */
+    public void countCalculated(String name, String tenantId, long amount) {
+        if (amount <= 0) return;
+        counter(name, Tags.of(TENANT_SIZE, knownTenantSize(tenantId))).increment(amount);
+    }
+
+    /** Записва времето от предишната отметка до текущата за всяка стъпка. */
+    public static final class StepClock {
+        private final Map<Step, Timer> timers;
+        private long last = System.nanoTime();
+
+        private StepClock(Map<Step, Timer> timers) {
+            this.timers = timers;
+        }
+
+        public void mark(Step step) {
+            long now = System.nanoTime();
+            timers.get(step).record(now - last, TimeUnit.NANOSECONDS);
+            last = now;
+        }
+    }
+
+    // ── Helpers ──
+
+    private Timer timer(String name, String tenantId, String... tags) {
+        Tags all = tags(tenantId, tags);
+        return (Timer) meters.computeIfAbsent(new MeterKey(name, all),
+                k -> Timer.builder(name).tags(all).register(registry));
+    }
+
+    private Counter counter(String name, Tags tags) {
+        return (Counter) meters.computeIfAbsent(new MeterKey(name, tags),
+                k -> Counter.builder(name).tags(tags).register(registry));
+    }
+
+    private Tags tags(String tenantId, String... tags) {
+        return Tags.of(tags).and(TENANT_SIZE, tenantSize(tenantId));
+    }
+
+    /** Група по брой активни служители; кешира се за 15 минути. */
+    String tenantSize(String tenantId) {
+        if (tenantId == null || employeeRepository == null) return "unknown";
+        long now = System.nanoTime();
+        TenantSize cached = tenantSizes.get(tenantId);
+        if (cached != null && now - cached.expiresAt() < 0) return cached.bucket();
+
+        String bucket = bucket(employeeRepository.countByTenantIdAndActive(tenantId, true));
+        tenantSizes.put(tenantId, new TenantSize(bucket, now + TENANT_SIZE_TTL_NANOS));
+        return bucket;
+    }
+
+    /** Групата от кеша (и с изтекъл срок) или "unknown" — без заявка към базата. */
+    String knownTenantSize(String tenantId) {
+        TenantSize cached = tenantId != null ? tenantSizes.get(tenantId) : null;
+        return cached != null ? cached.bucket() : "unknown";
+    }
+
+    static String bucket(long employees) {
+        if (employees <= 10) return "xs";      // до 10
+        if (employees <= 50) return "s";       // 11–50
+        if (employees <= 250) return "m";      // 51–250
+        if (employees <= 1000) return "l";     // 251–1000
+        return "xl";
+    }
+}
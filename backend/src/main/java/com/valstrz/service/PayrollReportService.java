@@ -2,13 +2,11 @@ package com.valstrz.service;
 
 import com.valstrz.entity.payroll.PayrollSnapshot;
 import com.valstrz.entity.payroll.PayrollSnapshot.PayrollLine;
-import com.valstrz.entity.personnel.Employee;
-import com.valstrz.entity.personnel.MonthlyTimesheet;
-import com.valstrz.repository.EmployeeRepository;
-import com.valstrz.repository.MonthlyTimesheetRepository;
 import com.valstrz.util.MoneyUtil;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.YearMonth;
@@ -18,15 +16,15 @@ import java.util.*;
 public class PayrollReportService {
 
     private final PayrollService payrollService;
-    private final MonthlyTimesheetRepository timesheetRepository;
-    private final EmployeeRepository employeeRepository;
+    private final AttendanceMatrixService attendanceMatrixService;
+    private final PayrollComparisonService comparisonService;
 
     public PayrollReportService(PayrollService payrollService,
-                                 MonthlyTimesheetRepository timesheetRepository,
-                                 EmployeeRepository employeeRepository) {
+                                 AttendanceMatrixService attendanceMatrixService,
+                                 PayrollComparisonService comparisonService) {
         this.payrollService = payrollService;
-        this.timesheetRepository = timesheetRepository;
-        this.employeeRepository = employeeRepository;
+        this.attendanceMatrixService = attendanceMatrixService;
+        this.comparisonService = comparisonService;
     }
 
     /**
@@ -174,46 +172,12 @@ public class PayrollReportService {
     }
 
     /**
-     * Сравнение текущ vs предходен месец.
+     * Сравнение текущ vs предходен месец (всички служители от текущия месец).
      */
     public ComparisonReport getComparisonReport(String tenantId, int year, int month) {
-        List<PayrollSnapshot> current = payrollService.getPayrollSnapshots(tenantId, year, month);
-
-        int prevMonth = month == 1 ? 12 : month - 1;
-        int prevYear = month == 1 ? year - 1 : year;
-        List<PayrollSnapshot> previous = payrollService.getPayrollSnapshots(tenantId, prevYear, prevMonth);
-
-        Map<String, PayrollSnapshot> prevMap = new LinkedHashMap<>();
-        for (PayrollSnapshot s : previous) {
-            prevMap.put(s.getEmployeeId(), s);
-        }
-
-        List<ComparisonRow> rows = new ArrayList<>();
-        for (PayrollSnapshot cur : current) {
-            Map<String, Object> empData = cur.getEmployeeData();
-            String name = empData != null ? (String) empData.getOrDefault("fullName", "") : "";
-
-            BigDecimal curGross = cur.getGrossSalary() != null ? cur.getGrossSalary() : BigDecimal.ZERO;
-            BigDecimal curNet = cur.getNetSalary() != null ? cur.getNetSalary() : BigDecimal.ZERO;
-
-            PayrollSnapshot prev = prevMap.get(cur.getEmployeeId());
-            BigDecimal prevGross = BigDecimal.ZERO;
-            BigDecimal prevNet = BigDecimal.ZERO;
-            if (prev != null) {
-                prevGross = prev.getGrossSalary() != null ? prev.getGrossSalary() : BigDecimal.ZERO;
-                prevNet = prev.getNetSalary() != null ? prev.getNetSalary() : BigDecimal.ZERO;
-            }
-
-            rows.add(new ComparisonRow(
-                    cur.getEmployeeId(), name,
-                    MoneyUtil.round(curGross), MoneyUtil.round(prevGross),
-                    MoneyUtil.round(curGross.subtract(prevGross)),
-                    MoneyUtil.round(curNet), MoneyUtil.round(prevNet),
-                    MoneyUtil.round(curNet.subtract(prevNet))
-            ));
-        }
-
-        return new ComparisonReport(year, month, prevYear, prevMonth, rows);
+        PayrollComparisonService.PeriodComparison cmp =
+                comparisonService.compareWithPrevious(tenantId, year, month, BigDecimal.ZERO, null);
+        return new ComparisonReport(year, month, cmp.baseYear(), cmp.baseMonth(), cmp.rows());
     }
 
     /**
@@ -300,57 +264,21 @@ public class PayrollReportService {
     // ── Присъствена ведомост ──
 
     public AttendanceReport getAttendanceReport(String tenantId, int year, int month) {
-        int daysInMonth = YearMonth.of(year, month).lengthOfMonth();
-
-        // Зареждаме всички timesheets
-        Map<String, MonthlyTimesheet> tsMap = new LinkedHashMap<>();
-        for (MonthlyTimesheet ts : timesheetRepository.findByTenantIdAndYearAndMonth(tenantId, year, month)) {
-            tsMap.put(ts.getEmployeeId(), ts);
-        }
-
-        // Зареждаме имена на служители
-        Map<String, String> nameMap = new LinkedHashMap<>();
-        for (Employee emp : employeeRepository.findByTenantIdAndActive(tenantId, true)) {
-            nameMap.put(emp.getId(), emp.getFullName());
-        }
+        return getAttendanceReport(tenantId, year, month, null);
+    }
 
+    public AttendanceReport getAttendanceReport(String tenantId, int year, int month, String departmentId) {
+        YearMonth ym = YearMonth.of(year, month);
         List<AttendanceRow> rows = new ArrayList<>();
-        for (Map.Entry<String, MonthlyTimesheet> entry : tsMap.entrySet()) {
-            String empId = entry.getKey();
-            MonthlyTimesheet ts = entry.getValue();
-            String empName = nameMap.getOrDefault(empId, empId);
-
-            List<String> dayCodes = new ArrayList<>();
-            for (int d = 1; d <= daysInMonth; d++) {
-                String code = "";
-                if (ts.getDays() != null) {
-                    for (MonthlyTimesheet.DailyEntry de : ts.getDays()) {
-                        if (de.getDay() == d) {
-                            if (de.getAbsenceCode() != null && !de.getAbsenceCode().isEmpty()) {
-                                code = de.getAbsenceCode();
-                            } else if ("WORK".equals(de.getDayType())) {
-                                code = de.getWorkedHours() != null
-                                        ? de.getWorkedHours().stripTrailingZeros().toPlainString()
-                                        : "8";
-                            } else if ("WEEKEND".equals(de.getDayType())) {
-                                code = "П";
-                            } else if ("HOLIDAY".equals(de.getDayType())) {
-                                code = "Пр";
-                            } else {
-                                code = de.getDayType() != null ? de.getDayType() : "";
-                            }
-                            break;
-                        }
-                    }
-                }
-                dayCodes.add(code);
-            }
-
-            rows.add(new AttendanceRow(empId, empName, dayCodes,
-                    ts.getTotalWorkedDays(), ts.getTotalAbsenceDays()));
+        try {
+            attendanceMatrixService.stream(tenantId, ym, ym, departmentId, row ->
+                    rows.add(new AttendanceRow(row.employeeId(), row.employeeName(),
+                            Arrays.asList(row.dayCodes()), row.workedDays(), row.absenceDays())));
+        } catch (IOException e) {
+            // Редовете се събират в паметта, не се очаква I/O грешка
+            throw new UncheckedIOException(e);
         }
-
-        return new AttendanceReport(year, month, daysInMonth, rows);
+        return new AttendanceReport(year, month, ym.lengthOfMonth(), rows);
     }
 
     public record AttendanceReport(int year, int month, int daysInMonth, List<AttendanceRow> rows) {}
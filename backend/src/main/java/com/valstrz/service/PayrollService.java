@@ -7,31 +7,39 @@ import com.valstrz.entity.insurance.InsuranceContributions;
 import com.valstrz.entity.insurance.InsuranceRates;
 import com.valstrz.entity.insurance.InsuranceThreshold;
 import com.valstrz.entity.payroll.Payroll;
+import com.valstrz.entity.payroll.PayrollBaseline;
 import com.valstrz.entity.payroll.PayrollSnapshot;
 import com.valstrz.entity.personnel.Employee;
 import com.valstrz.entity.personnel.EmployeeDeduction;
 import com.valstrz.entity.personnel.EmployeePayItem;
 import com.valstrz.entity.personnel.Employment;
+import com.valstrz.entity.personnel.Garnishment;
 import com.valstrz.entity.personnel.MonthlyTimesheet;
 import com.valstrz.repository.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 
 @Service
 public class PayrollService {
 
+    private static final Logger log = LoggerFactory.getLogger(PayrollService.class);
+
     private final PayrollCalculationService calculationService;
     private final PayrollRepository payrollRepository;
     private final PayrollSnapshotRepository snapshotRepository;
     private final EmployeeRepository employeeRepository;
-    private final EmploymentRepository employmentRepository;
     private final MonthlyTimesheetRepository timesheetRepository;
     private final MonthlyCalendarRepository calendarRepository;
-    private final WorkScheduleRepository workScheduleRepository;
+    private final ScheduleRegistry scheduleRegistry;
     private final InsuranceRatesRepository ratesRepository;
     private final InsuranceContributionsRepository contributionsRepository;
     private final InsuranceThresholdRepository thresholdRepository;
@@ -39,30 +47,38 @@ public class PayrollService {
     private final EmployeePayItemRepository employeePayItemRepository;
     private final EmployeeDeductionRepository employeeDeductionRepository;
     private final GarnishmentRepository garnishmentRepository;
+    private final SummarizedWorkingTimeService summarizedWorkingTimeService;
+    private final PayrollAnomalyService anomalyService;
+    private final PayrollArchiveService archiveService;
+    private final PayrollMetrics metrics;
+    private final EntityLoader entityLoader;
 
     public PayrollService(PayrollCalculationService calculationService,
                            PayrollRepository payrollRepository,
                            PayrollSnapshotRepository snapshotRepository,
                            EmployeeRepository employeeRepository,
-                           EmploymentRepository employmentRepository,
                            MonthlyTimesheetRepository timesheetRepository,
                            MonthlyCalendarRepository calendarRepository,
-                           WorkScheduleRepository workScheduleRepository,
+                           ScheduleRegistry scheduleRegistry,
                            InsuranceRatesRepository ratesRepository,
                            InsuranceContributionsRepository contributionsRepository,
                            InsuranceThresholdRepository thresholdRepository,
                            CompanyRepository companyRepository,
                            EmployeePayItemRepository employeePayItemRepository,
                            EmployeeDeductionRepository employeeDeductionRepository,
-                           GarnishmentRepository garnishmentRepository) {
+                           GarnishmentRepository garnishmentRepository,
+                           SummarizedWorkingTimeService summarizedWorkingTimeService,
+                           PayrollAnomalyService anomalyService,
+                           PayrollArchiveService archiveService,
+                           PayrollMetrics metrics,
+                           EntityLoader entityLoader) {
         this.calculationService = calculationService;
         this.payrollRepository = payrollRepository;
         this.snapshotRepository = snapshotRepository;
         this.employeeRepository = employeeRepository;
-        this.employmentRepository = employmentRepository;
         this.timesheetRepository = timesheetRepository;
         this.calendarRepository = calendarRepository;
-        this.workScheduleRepository = workScheduleRepository;
+        this.scheduleRegistry = scheduleRegistry;
         this.ratesRepository = ratesRepository;
         this.contributionsRepository = contributionsRepository;
         this.thresholdRepository = thresholdRepository;
@@ -70,6 +86,11 @@ public class PayrollService {
         this.employeePayItemRepository = employeePayItemRepository;
         this.employeeDeductionRepository = employeeDeductionRepository;
         this.garnishmentRepository = garnishmentRepository;
+        this.summarizedWorkingTimeService = summarizedWorkingTimeService;
+        this.anomalyService = anomalyService;
+        this.archiveService = archiveService;
+        this.metrics = metrics;
+        this.entityLoader = entityLoader;
     }
 
     /**
@@ -81,52 +102,84 @@ public class PayrollService {
         if (employee == null || employment == null) {
             throw new IllegalArgumentException("Служителят или трудовото правоотношение не са намерени.");
         }
+        metrics.resolveTenantSize(tenantId);
 
-        PayrollCalculationService.CalculationInput input = buildInput(tenantId, employee, employment, year, month);
+        MonthlyTimesheet ts = metrics.lookup(tenantId, "timesheet",
+                () -> findTimesheet(tenantId, employeeId, year, month));
+        MonthData data = loadMonthData(tenantId, year, month, employeeId);
+        PayrollCalculationService.CalculationInput input = buildInput(tenantId, employee, employment, ts, data);
         return calculationService.calculate(input);
     }
 
     /**
      * Изчислява заплатите на всички активни служители и запазва snapshot-ите.
+     *
+     * @throws IllegalStateException ако месецът е затворен или годината е архивирана
      */
     public List<PayrollSnapshot> calculateAll(String tenantId, int year, int month) {
+        archiveService.requireNotArchived(tenantId, year);
+        for (Payroll p : payrollRepository.findByTenantIdAndYearAndMonth(tenantId, year, month)) {
+            // Затвореният месец се преизчислява само след reopenMonth (който сменя версията му)
+            if ("CLOSED".equals(p.getStatus())) {
+                throw new IllegalStateException("Месец " + month + "/" + year + " е затворен.");
+            }
+        }
+        // Етикетът tenant_size се определя тук, а не в calculate (там няма достъп до базата)
+        metrics.resolveTenantSize(tenantId);
+
         // Изтриваме стари snapshots за този месец (ако има)
         Iterable<PayrollSnapshot> existing = snapshotRepository.findByTenantIdAndYearAndMonth(tenantId, year, month);
         snapshotRepository.deleteAll(existing);
 
         List<PayrollSnapshot> results = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        List<SummarizedWorkingTimeService.Settlement> settlements = new ArrayList<>();
         java.math.BigDecimal totalGross = java.math.BigDecimal.ZERO;
         java.math.BigDecimal totalNet = java.math.BigDecimal.ZERO;
         java.math.BigDecimal totalEmployerCost = java.math.BigDecimal.ZERO;
 
-        Iterable<Employee> activeEmployees = employeeRepository.findByTenantIdAndActive(tenantId, true);
+        // Бази за проверка спрямо предходните затворени месеци (една заявка за фирмата)
+        Map<String, PayrollBaseline> baselines = anomalyService.loadBaselines(tenantId);
+
+        List<Employee> activeEmployees = findActiveEmployees(tenantId);
+        Map<String, Employment> employments = entityLoader.currentEmployments(
+                tenantId, activeEmployees.stream().map(Employee::getId).toList());
+        MonthData data = loadMonthData(tenantId, year, month, null);
         for (Employee employee : activeEmployees) {
-            Employment employment = findCurrentEmployment(tenantId, employee.getId());
+            Employment employment = employments.get(employee.getId());
             if (employment == null) continue;
 
-            MonthlyTimesheet ts = findTimesheet(tenantId, employee.getId(), year, month);
+            MonthlyTimesheet ts = data.timesheets().get(employee.getId());
             if (ts == null) continue;
 
             try {
-                PayrollCalculationService.CalculationInput input = buildInput(tenantId, employee, employment, year, month);
+                PayrollCalculationService.CalculationInput input = buildInput(tenantId, employee, employment, ts, data);
                 PayrollSnapshot snapshot = calculationService.calculate(input);
-                snapshotRepository.save(snapshot);
+                anomalyService.check(snapshot, baselines.get(employee.getId()));
+                metrics.time("valstrz.payroll.snapshot.save", tenantId, () -> snapshotRepository.save(snapshot));
                 results.add(snapshot);
+                if (input.sirv() != null) settlements.add(input.sirv());
 
                 totalGross = totalGross.add(snapshot.getGrossSalary());
                 totalNet = totalNet.add(snapshot.getNetSalary());
                 totalEmployerCost = totalEmployerCost.add(snapshot.getTotalEmployerCost());
             } catch (Exception e) {
-                // Логираме грешката, но продължаваме с останалите
-                System.err.println("Грешка при изчисление за " + employee.getFullName() + ": " + e.getMessage());
+                // Логираме грешката, но продължаваме с останалите; списъкът се пази във ведомостта
+                log.error("Грешка при изчисление за {} ({}) {}/{}", employee.getFullName(), employee.getId(),
+                        month, year, e);
+                errors.add(employee.getFullName() + ": " + e.getMessage());
             }
         }
 
+        // Натрупвания по СИРВ за следващите месеци от периода
+        summarizedWorkingTimeService.saveBalances(tenantId, settlements);
+
         // Обновяваме статуса на ведомостта
         Payroll payroll = getOrCreatePayroll(tenantId, year, month);
         payroll.setStatus("CALCULATED");
         payroll.setCalculatedAt(LocalDateTime.now());
         payroll.setEmployeeCount(results.size());
+        payroll.setCalculationErrors(errors);
         payroll.setTotalGross(totalGross);
         payroll.setTotalNet(totalNet);
         payroll.setTotalEmployerCost(totalEmployerCost);
@@ -135,13 +188,80 @@ public class PayrollService {
         return results;
     }
 
+    /** Осигурителни параметри за година, категория, вид осигурен и група персонал. */
+    public record Legislation(InsuranceRates rates, InsuranceContributions contributions,
+                              InsuranceThreshold threshold) {}
+
+    public Legislation resolveLegislation(String tenantId, int year, String category,
+                                          String insuredType, int personnelGroup) {
+        InsuranceRates rates = findRates(tenantId, year);
+        if (rates == null) {
+            throw new IllegalArgumentException("Няма осигурителни ставки за " + year);
+        }
+        String type = insuredType != null ? insuredType : "01";
+        InsuranceContributions contributions = findContributions(tenantId, year, category, type);
+        if (contributions == null) {
+            throw new IllegalArgumentException("Няма осигурителни вноски за " + year + " / " + category + " / вид " + type);
+        }
+        return new Legislation(rates, contributions, findThreshold(tenantId, year, personnelGroup));
+    }
+
+    /** Служител, за когото изчислението (или подготовката му) е неуспешно. */
+    public record Failure(String employeeId, String employeeName, String error) {
+        static Failure of(Employee employee, Exception e) {
+            return new Failure(employee.getId(), employee.getFullName(), e.getMessage());
+        }
+    }
+
+    /** Входни данни за изчисление без запис; failures = служители с непълни данни. */
+    public record PreparedInputs(List<PayrollCalculationService.CalculationInput> inputs, List<Failure> failures) {
+        public int skipped() {
+            return failures.size();
+        }
+    }
+
+    /**
+     * Подготвя входните данни на всички активни служители с часова карта за месеца,
+     * без да изчислява и записва (за симулации). Данните на фирмата се зареждат
+     * с по една заявка (loadMonthData), входовете се строят в паметта.
+     */
+    public PreparedInputs prepareInputs(String tenantId, int year, int month) {
+        metrics.resolveTenantSize(tenantId);
+        List<PayrollCalculationService.CalculationInput> inputs = new ArrayList<>();
+        List<Failure> failures = new ArrayList<>();
+        List<Employee> activeEmployees = findActiveEmployees(tenantId);
+        Map<String, Employment> employments = entityLoader.currentEmployments(
+                tenantId, activeEmployees.stream().map(Employee::getId).toList());
+        MonthData data = loadMonthData(tenantId, year, month, null);
+        for (Employee employee : activeEmployees) {
+            Employment employment = employments.get(employee.getId());
+            if (employment == null) continue;
+            MonthlyTimesheet ts = data.timesheets().get(employee.getId());
+            if (ts == null) continue;
+            try {
+                inputs.add(buildInput(tenantId, employee, employment, ts, data));
+            } catch (Exception e) {
+                log.warn("Непълни данни за {} ({}) {}/{}: {}", employee.getFullName(), employee.getId(),
+                        month, year, e.getMessage());
+                failures.add(Failure.of(employee, e));
+            }
+        }
+        return new PreparedInputs(inputs, failures);
+    }
+
     public List<PayrollSnapshot> getPayrollSnapshots(String tenantId, int year, int month) {
+        List<PayrollSnapshot> archived = archiveService.snapshots(tenantId, year, month);
+        if (archived != null) return archived;
+
         List<PayrollSnapshot> list = new ArrayList<>();
         snapshotRepository.findByTenantIdAndYearAndMonth(tenantId, year, month).forEach(list::add);
         return list;
     }
 
     public PayrollSnapshot getEmployeeSnapshot(String tenantId, String employeeId, int year, int month) {
+        if (archiveService.isArchived(tenantId, year)) {
+            return archiveService.snapshot(tenantId, employeeId, year, month);
+        }
         Iterable<PayrollSnapshot> snapshots = snapshotRepository.findByTenantIdAndEmployeeIdAndYearAndMonth(
                 tenantId, employeeId, year, month);
         for (PayrollSnapshot s : snapshots) return s;
@@ -163,66 +283,157 @@ public class PayrollService {
 
     // ── Helpers ──
 
+    /**
+     * Данните на фирмата за месеца, общи за служителите: календар, ставки, вноски и
+     * прагове за годината, часовите карти и индивидуалните пера, удръжки и запори
+     * по employeeId. Зареждат се с по една заявка на вид (loadMonthData).
+     */
+    private record MonthData(int year, int month, MonthlyCalendar calendar, InsuranceRates rates,
+                             List<InsuranceContributions> contributions, List<InsuranceThreshold> thresholds,
+                             Map<String, MonthlyTimesheet> timesheets,
+                             Map<String, List<EmployeePayItem>> payItems,
+                             Map<String, List<EmployeeDeduction>> deductions,
+                             Map<String, List<Garnishment>> garnishments) {
+
+        /** Вноските по категория и вид осигурен; без точно съвпадение — вид "01", после записи без вид. */
+        InsuranceContributions contributions(String category, String insuredType) {
+            InsuranceContributions standard = null;
+            InsuranceContributions legacy = null;
+            for (InsuranceContributions c : contributions) {
+                if (!category.equals(c.getCategory())) continue;
+                if (insuredType.equals(c.getInsuredType())) return c;
+                if (standard == null && "01".equals(c.getInsuredType())) standard = c;
+                if (legacy == null) legacy = c;
+            }
+            return standard != null ? standard : legacy;
+        }
+
+        InsuranceThreshold threshold(int personnelGroup) {
+            for (InsuranceThreshold t : thresholds) {
+                if (t.getPersonnelGroup() == personnelGroup) return t;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Зарежда данните на фирмата за месеца; при employeeId != null часовите карти
+     * и индивидуалните данни са само на този служител.
+     */
+    private MonthData loadMonthData(String tenantId, int year, int month, String employeeId) {
+        MonthlyCalendar calendar = metrics.lookup(tenantId, "calendar", () -> findCalendar(tenantId, year, month));
+        InsuranceRates rates = metrics.lookup(tenantId, "insurance_rates", () -> findRates(tenantId, year));
+        List<InsuranceContributions> contributions = metrics.lookup(tenantId, "insurance_contributions",
+                () -> toList(contributionsRepository.findByTenantIdAndYear(tenantId, year)));
+        List<InsuranceThreshold> thresholds = metrics.lookup(tenantId, "insurance_threshold",
+                () -> toList(thresholdRepository.findByTenantIdAndYear(tenantId, year)));
+
+        Map<String, MonthlyTimesheet> timesheets = new HashMap<>();
+        if (employeeId == null) {
+            metrics.lookup(tenantId, "timesheet",
+                    () -> timesheetRepository.findByTenantIdAndYearAndMonth(tenantId, year, month))
+                    .forEach(ts -> timesheets.putIfAbsent(ts.getEmployeeId(), ts));
+        }
+        Map<String, List<EmployeePayItem>> payItems = byEmployee(metrics.lookup(tenantId, "pay_items",
+                () -> employeeId == null
+                        ? employeePayItemRepository.findByTenantId(tenantId)
+                        : employeePayItemRepository.findByTenantIdAndEmployeeId(tenantId, employeeId)),
+                EmployeePayItem::getEmployeeId);
+        Map<String, List<EmployeeDeduction>> deductions = byEmployee(metrics.lookup(tenantId, "deductions",
+                () -> employeeId == null
+                        ? employeeDeductionRepository.findByTenantId(tenantId)
+                        : employeeDeductionRepository.findByTenantIdAndEmployeeId(tenantId, employeeId)),
+                EmployeeDeduction::getEmployeeId);
+        Map<String, List<Garnishment>> garnishments = byEmployee(metrics.lookup(tenantId, "garnishments",
+                () -> employeeId == null
+                        ? garnishmentRepository.findByTenantId(tenantId)
+                        : garnishmentRepository.findByEmployeeId(employeeId)),
+                Garnishment::getEmployeeId);
+
+        return new MonthData(year, month, calendar, rates, contributions, thresholds,
+                timesheets, payItems, deductions, garnishments);
+    }
+
     private PayrollCalculationService.CalculationInput buildInput(
-            String tenantId, Employee employee, Employment employment, int year, int month) {
+            String tenantId, Employee employee, Employment employment, MonthlyTimesheet ts, MonthData data) {
 
-        MonthlyTimesheet ts = findTimesheet(tenantId, employee.getId(), year, month);
         if (ts == null) {
             throw new IllegalArgumentException("Няма часова карта за служител " + employee.getFullName());
         }
+        int year = data.year();
+        int month = data.month();
 
-        MonthlyCalendar calendar = findCalendar(tenantId, year, month);
+        MonthlyCalendar calendar = data.calendar();
         if (calendar == null) {
             throw new IllegalArgumentException("Няма календар за " + year + "/" + month);
         }
 
-        WorkSchedule ws = findWorkSchedule(tenantId, employment.getWorkScheduleCode());
-        InsuranceRates rates = findRates(tenantId, year);
+        WorkSchedule ws = metrics.lookup(tenantId, "work_schedule",
+                () -> scheduleRegistry.findWorkSchedule(tenantId, employment.getWorkScheduleCode()));
+        InsuranceRates rates = data.rates();
         if (rates == null) {
             throw new IllegalArgumentException("Няма осигурителни ставки за " + year);
         }
 
         String category = determineInsuranceCategory(employee.getEgn());
         String insuredType = employment.getInsuredType() != null ? employment.getInsuredType() : "01";
-        InsuranceContributions contributions = findContributions(tenantId, year, category, insuredType);
+        InsuranceContributions contributions = data.contributions(category, insuredType);
         if (contributions == null) {
             throw new IllegalArgumentException("Няма осигурителни вноски за " + year + " / " + category + " / вид " + insuredType);
         }
 
-        InsuranceThreshold threshold = findThreshold(tenantId, year, employment.getPersonnelGroup());
+        InsuranceThreshold threshold = data.threshold(employment.getPersonnelGroup());
 
-        // Зареждане на индивидуални пера за възнаграждение
+        // Индивидуални пера за възнаграждение
         List<PayrollCalculationService.AdditionalEarning> earnings = new ArrayList<>();
-        for (EmployeePayItem pi : employeePayItemRepository.findByTenantIdAndEmployeeId(tenantId, employee.getId())) {
+        for (EmployeePayItem pi : data.payItems().getOrDefault(employee.getId(), List.of())) {
             if (pi.isValidFor(year, month)) {
                 earnings.add(new PayrollCalculationService.AdditionalEarning(
                         pi.getPayItemCode(), pi.getPayItemName(), pi.getType(), pi.getValue()));
             }
         }
 
-        // Зареждане на индивидуални удръжки
+        // Индивидуални удръжки
         List<PayrollCalculationService.AdditionalDeduction> deductions = new ArrayList<>();
-        for (EmployeeDeduction ed : employeeDeductionRepository.findByTenantIdAndEmployeeId(tenantId, employee.getId())) {
+        for (EmployeeDeduction ed : data.deductions().getOrDefault(employee.getId(), List.of())) {
             if (ed.isValidFor(year, month)) {
                 deductions.add(new PayrollCalculationService.AdditionalDeduction(
                         ed.getDeductionCode(), ed.getDeductionName(), ed.getAmount()));
             }
         }
 
-        // Зареждане на индивидуални запори
-        List<com.valstrz.entity.personnel.Garnishment> garnishments = new ArrayList<>();
-        for (com.valstrz.entity.personnel.Garnishment g : garnishmentRepository.findByEmployeeId(employee.getId())) {
+        // Индивидуални запори
+        List<Garnishment> garnishments = new ArrayList<>();
+        for (Garnishment g : data.garnishments().getOrDefault(employee.getId(), List.of())) {
             if (g.isActive()) {
                 garnishments.add(g);
             }
         }
 
+        SummarizedWorkingTimeService.Settlement sirv = metrics.lookup(tenantId, "sirv",
+                () -> summarizedWorkingTimeService.evaluate(
+                        tenantId, employment, ts, calendar, ws != null ? ws.getHoursPerDay() : null, year, month));
+
         return new PayrollCalculationService.CalculationInput(
                 employee, employment, ts, calendar, ws, rates, contributions, threshold,
-                year, month, earnings, deductions, garnishments
+                year, month, earnings, deductions, garnishments, sirv
         );
     }
 
+    private static <T> List<T> toList(Iterable<T> items) {
+        List<T> list = new ArrayList<>();
+        items.forEach(list::add);
+        return list;
+    }
+
+    private static <T> Map<String, List<T>> byEmployee(Iterable<T> items, Function<T, String> employeeId) {
+        Map<String, List<T>> map = new HashMap<>();
+        for (T item : items) {
+            map.computeIfAbsent(employeeId.apply(item), k -> new ArrayList<>()).add(item);
+        }
+        return map;
+    }
+
     /**
      * Определя категорията (before1960/after1960) по ЕГН.
      * ЕГН формат: ГГММДД####
@@ -248,13 +459,21 @@ public class PayrollService {
     }
 
     private Employee findEmployee(String tenantId, String employeeId) {
-        return employeeRepository.findById(employeeId).orElse(null);
+        return entityLoader.employee(employeeId);
     }
 
     private Employment findCurrentEmployment(String tenantId, String employeeId) {
-        Iterable<Employment> list = employmentRepository.findByTenantIdAndEmployeeIdAndCurrent(tenantId, employeeId, true);
-        for (Employment e : list) return e;
-        return null;
+        return entityLoader.currentEmployment(tenantId, employeeId);
+    }
+
+    /** Активните служители; влизат в картата на EntityLoader за останалите услуги в заявката. */
+    private List<Employee> findActiveEmployees(String tenantId) {
+        List<Employee> list = new ArrayList<>();
+        for (Employee e : employeeRepository.findByTenantIdAndActive(tenantId, true)) {
+            entityLoader.prime(e);
+            list.add(e);
+        }
+        return list;
     }
 
     private MonthlyTimesheet findTimesheet(String tenantId, String employeeId, int year, int month) {
@@ -270,15 +489,6 @@ public class PayrollService {
         return null;
     }
 
-    private WorkSchedule findWorkSchedule(String tenantId, String code) {
-        if (code == null) return null;
-        Iterable<WorkSchedule> list = workScheduleRepository.findByTenantId(tenantId);
-        for (WorkSchedule ws : list) {
-            if (code.equals(ws.getCode())) return ws;
-        }
-        return null;
-    }
-
     private InsuranceRates findRates(String tenantId, int year) {
         Iterable<InsuranceRates> list = ratesRepository.findByTenantIdAndYear(tenantId, year);
         for (InsuranceRates r : list) return r;
@@ -0,0 +1,268 @@
+package com.valstrz.service;
+
+import com.valstrz.entity.company.Company;
+import com.valstrz.entity.insurance.InsuranceContributions;
+import com.valstrz.entity.insurance.InsuranceRates;
+import com.valstrz.entity.insurance.InsuranceThreshold;
+import com.valstrz.entity.payroll.PayrollSnapshot;
+import com.valstrz.entity.personnel.Employment;
+import com.valstrz.repository.CompanyRepository;
+import com.valstrz.util.MoneyUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Симулация "какво ако" при промяна на законодателството.
+ *
+ * Изчислява заплатите за месеца два пъти — с действащите параметри и с подменени
+ * ставки/вноски/прагове — изцяло в паметта (нищо не се записва) и връща разликите
+ * в нетното възнаграждение и разхода на работодателя. Входните данни на фирмите се
+ * зареждат последователно в извикващата нишка, с по една заявка на вид данни за фирмата
+ * (PayrollService.prepareInputs); паралелно (в общия pool) вървят само изчисленията по
+ * служители, които не четат от базата. PayrollCalculationService няма състояние.
+ */
+@Service
+public class PayrollSimulationService {
+
+    private static final Logger log = LoggerFactory.getLogger(PayrollSimulationService.class);
+
+    private final PayrollService payrollService;
+    private final PayrollCalculationService calculationService;
+    private final CompanyRepository companyRepository;
+
+    public PayrollSimulationService(PayrollService payrollService,
+                                    PayrollCalculationService calculationService,
+                                    CompanyRepository companyRepository) {
+        this.payrollService = payrollService;
+        // Симулацията смята два пъти на служител — извън метриките на ведомостите
+        this.calculationService = calculationService.withoutMetrics();
+        this.companyRepository = companyRepository;
+    }
+
+    /**
+     * Подменени параметри. Попълнените полета заменят действащите, празните (null) се запазват.
+     * contributions се прилага към всички категории и видове осигурени, threshold — към всички групи.
+     *
+     * @param raiseToMinimumWage при нова МРЗ основните заплати под нея се вдигат до МРЗ
+     */
+    public record Scenario(InsuranceRates rates,
+                           InsuranceContributions contributions,
+                           InsuranceThreshold threshold,
+                           boolean raiseToMinimumWage) {}
+
+    public record Totals(BigDecimal gross, BigDecimal net, BigDecimal employeeInsurance,
+                         BigDecimal employerInsurance, BigDecimal incomeTax, BigDecimal employerCost) {
+
+        static final Totals ZERO = new Totals(BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ZERO,
+                BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ZERO);
+
+        static Totals of(PayrollSnapshot s) {
+            return new Totals(orZero(s.getGrossSalary()), orZero(s.getNetSalary()),
+                    orZero(s.getTotalEmployeeInsurance()), orZero(s.getTotalEmployerInsurance()),
+                    orZero(s.getIncomeTax()), orZero(s.getTotalEmployerCost()));
+        }
+
+        Totals plus(Totals o) {
+            return new Totals(gross.add(o.gross), net.add(o.net), employeeInsurance.add(o.employeeInsurance),
+                    employerInsurance.add(o.employerInsurance), incomeTax.add(o.incomeTax),
+                    employerCost.add(o.employerCost));
+        }
+
+        Totals minus(Totals o) {
+            return new Totals(gross.subtract(o.gross), net.subtract(o.net),
+                    employeeInsurance.subtract(o.employeeInsurance),
+                    employerInsurance.subtract(o.employerInsurance), incomeTax.subtract(o.incomeTax),
+                    employerCost.subtract(o.employerCost));
+        }
+
+        Totals rounded() {
+            return new Totals(MoneyUtil.round(gross), MoneyUtil.round(net), MoneyUtil.round(employeeInsurance),
+                    MoneyUtil.round(employerInsurance), MoneyUtil.round(incomeTax), MoneyUtil.round(employerCost));
+        }
+    }
+
+    public record EmployeeDelta(String employeeId, String employeeName,
+                                Totals current, Totals simulated, Totals delta) {}
+
+    public record TenantResult(String tenantId, String tenantName, int employees, int skipped,
+                               Totals current, Totals simulated, Totals delta,
+                               List<EmployeeDelta> rows, List<PayrollService.Failure> failures) {}
+
+    public record SimulationResult(int year, int month, int tenants, int employees, int skipped,
+                                   Totals current, Totals simulated, Totals delta,
+                                   List<TenantResult> byTenant, long durationMs) {}
+
+    // ── Публични методи ──
+
+    /** Симулация за една фирма, с разбивка по служители. */
+    public SimulationResult simulate(String tenantId, int year, int month, Scenario scenario) {
+        long started = System.currentTimeMillis();
+        String name = companyRepository.findById(tenantId).map(Company::getName).orElse(tenantId);
+        TenantResult result = simulateTenant(tenantId, name, year, month, scenario, true);
+        return summarize(year, month, List.of(result), started);
+    }
+
+    /** Симулация за всички фирми; редовете по служители не се връщат. */
+    public SimulationResult simulateAllTenants(int year, int month, Scenario scenario) {
+        long started = System.currentTimeMillis();
+        List<TenantResult> results = new ArrayList<>();
+        for (Company c : companyRepository.findAll()) {
+            results.add(simulateTenant(c.getId(), c.getName(), year, month, scenario, false));
+        }
+        results.sort(Comparator.comparing((TenantResult r) -> r.delta().employerCost().abs()).reversed());
+        return summarize(year, month, results, started);
+    }
+
+    // ── Helpers ──
+
+    private TenantResult simulateTenant(String tenantId, String tenantName, int year, int month,
+                                        Scenario scenario, boolean withRows) {
+        PayrollService.PreparedInputs prepared = payrollService.prepareInputs(tenantId, year, month);
+
+        List<PayrollService.Failure> failures = Collections.synchronizedList(new ArrayList<>(prepared.failures()));
+        List<EmployeeDelta> rows = prepared.inputs().parallelStream()
+                .map(input -> simulateEmployee(input, scenario, failures))
+                .filter(Objects::nonNull)
+                .toList();
+
+        Totals current = Totals.ZERO;
+        Totals simulated = Totals.ZERO;
+        for (EmployeeDelta row : rows) {
+            current = current.plus(row.current());
+            simulated = simulated.plus(row.simulated());
+        }
+
+        List<EmployeeDelta> sorted = null;
+        if (withRows) {
+            sorted = rows.stream()
+                    .sorted(Comparator.comparing((EmployeeDelta r) -> r.delta().employerCost().abs()).reversed())
+                    .toList();
+        }
+        return new TenantResult(tenantId, tenantName, rows.size(), failures.size(),
+                current.rounded(), simulated.rounded(), simulated.minus(current).rounded(), sorted,
+                List.copyOf(failures));
+    }
+
+    private EmployeeDelta simulateEmployee(PayrollCalculationService.CalculationInput input, Scenario scenario,
+                                           List<PayrollService.Failure> failures) {
+        try {
+            PayrollSnapshot before = calculationService.calculate(input);
+            PayrollSnapshot after = calculationService.calculate(applyScenario(input, scenario));
+            Totals current = Totals.of(before);
+            Totals simulated = Totals.of(after);
+            String name = input.employee().getFullName();
+            return new EmployeeDelta(input.employee().getId(), name, current, simulated, simulated.minus(current));
+        } catch (Exception e) {
+            log.warn("Симулацията за {} ({}) {}/{} е неуспешна", input.employee().getFullName(),
+                    input.employee().getId(), input.month(), input.year(), e);
+            failures.add(new PayrollService.Failure(input.employee().getId(),
+                    input.employee().getFullName(), e.getMessage()));
+            return null;
+        }
+    }
+
+    private PayrollCalculationService.CalculationInput applyScenario(
+            PayrollCalculationService.CalculationInput in, Scenario scenario) {
+        InsuranceRates rates = mergeRates(in.rates(), scenario.rates());
+        InsuranceContributions contributions = mergeContributions(in.contributions(), scenario.contributions());
+        InsuranceThreshold threshold = mergeThreshold(in.threshold(), scenario.threshold(), in.employment());
+
+        Employment employment = in.employment();
+        if (scenario.raiseToMinimumWage() && rates.getMinimumWage() != null
+                && employment.getBaseSalary() != null
+                && employment.getBaseSalary().compareTo(rates.getMinimumWage()) < 0) {
+            // Правоотношението идва от кеша на EntityLoader — променя се копие
+            Employment raised = new Employment();
+            BeanUtils.copyProperties(employment, raised);
+            raised.setBaseSalary(rates.getMinimumWage());
+            employment = raised;
+        }
+
+        return new PayrollCalculationService.CalculationInput(
+                in.employee(), employment, in.timesheet(), in.calendar(), in.workSchedule(),
+                rates, contributions, threshold, in.year(), in.month(),
+                in.additionalEarnings(), in.additionalDeductions(), in.garnishments(), in.sirv());
+    }
+
+    private static InsuranceRates mergeRates(InsuranceRates base, InsuranceRates o) {
+        if (o == null) return base;
+        InsuranceRates r = new InsuranceRates();
+        r.setTenantId(base.getTenantId());
+        r.setYear(base.getYear());
+        r.setMinimumWage(pick(o.getMinimumWage(), base::getMinimumWage));
+        r.setMaxInsurableIncome(pick(o.getMaxInsurableIncome(), base::getMaxInsurableIncome));
+        r.setFlatTaxRate(pick(o.getFlatTaxRate(), base::getFlatTaxRate));
+        r.setDisabilityTaxExemption(pick(o.getDisabilityTaxExemption(), base::getDisabilityTaxExemption));
+        r.setVoluntaryDeductionPercent(pick(o.getVoluntaryDeductionPercent(), base::getVoluntaryDeductionPercent));
+        r.setSocialExpenseExemption(pick(o.getSocialExpenseExemption(), base::getSocialExpenseExemption));
+        return r;
+    }
+
+    private static InsuranceContributions mergeContributions(InsuranceContributions base, InsuranceContributions o) {
+        if (o == null) return base;
+        InsuranceContributions c = new InsuranceContributions();
+        c.setTenantId(base.getTenantId());
+        c.setYear(base.getYear());
+        c.setCategory(base.getCategory());
+        c.setInsuredType(base.getInsuredType());
+        c.setPensionEmployer(pick(o.getPensionEmployer(), base::getPensionEmployer));
+        c.setPensionEmployee(pick(o.getPensionEmployee(), base::getPensionEmployee));
+        c.setSicknessEmployer(pick(o.getSicknessEmployer(), base::getSicknessEmployer));
+        c.setSicknessEmployee(pick(o.getSicknessEmployee(), base::getSicknessEmployee));
+        c.setUnemploymentEmployer(pick(o.getUnemploymentEmployer(), base::getUnemploymentEmployer));
+        c.setUnemploymentEmployee(pick(o.getUnemploymentEmployee(), base::getUnemploymentEmployee));
+        c.setSupplementaryPensionEmployer(pick(o.getSupplementaryPensionEmployer(), base::getSupplementaryPensionEmployer));
+        c.setSupplementaryPensionEmployee(pick(o.getSupplementaryPensionEmployee(), base::getSupplementaryPensionEmployee));
+        c.setHealthEmployer(pick(o.getHealthEmployer(), base::getHealthEmployer));
+        c.setHealthEmployee(pick(o.getHealthEmployee(), base::getHealthEmployee));
+        c.setWorkAccidentEmployer(pick(o.getWorkAccidentEmployer(), base::getWorkAccidentEmployer));
+        c.setProfessionalPensionEmployer(pick(o.getProfessionalPensionEmployer(), base::getProfessionalPensionEmployer));
+        c.setTeacherPensionEmployer(pick(o.getTeacherPensionEmployer(), base::getTeacherPensionEmployer));
+        return c;
+    }
+
+    private static InsuranceThreshold mergeThreshold(InsuranceThreshold base, InsuranceThreshold o,
+                                                     Employment employment) {
+        if (o == null || o.getMinInsurableIncome() == null) return base;
+        InsuranceThreshold t = new InsuranceThreshold();
+        if (base != null) {
+            t.setTenantId(base.getTenantId());
+            t.setYear(base.getYear());
+            t.setNkidCode(base.getNkidCode());
+            t.setNkpdCode(base.getNkpdCode());
+        }
+        t.setPersonnelGroup(base != null ? base.getPersonnelGroup() : employment.getPersonnelGroup());
+        t.setMinInsurableIncome(o.getMinInsurableIncome());
+        return t;
+    }
+
+    private static <T> T pick(T override, Supplier<T> current) {
+        return override != null ? override : current.get();
+    }
+
+    private static SimulationResult summarize(int year, int month, List<TenantResult> results, long started) {
+        Totals current = Totals.ZERO;
+        Totals simulated = Totals.ZERO;
+        int employees = 0;
+        int skipped = 0;
+        for (TenantResult r : results) {
+            current = current.plus(r.current());
+            simulated = simulated.plus(r.simulated());
+            employees += r.employees();
+            skipped += r.skipped();
+        }
+        return new SimulationResult(year, month, results.size(), employees, skipped,
+                current.rounded(), simulated.rounded(), simulated.minus(current).rounded(),
+                results, System.currentTimeMillis() - started);
+    }
+
+    private static BigDecimal orZero(BigDecimal value) {
+        return value != null ? value : BigDecimal.ZERO;
+    }
+}
@@ -9,7 +9,6 @@ import com.lowagie.text.pdf.PdfWriter;
 import com.valstrz.entity.company.Company;
 import com.valstrz.entity.payroll.PayrollSnapshot;
 import com.valstrz.entity.payroll.PayrollSnapshot.PayrollLine;
-import com.valstrz.repository.CompanyRepository;
 import org.springframework.stereotype.Service;
 
 import java.awt.*;
@@ -21,14 +20,14 @@ import java.util.Map;
 @Service
 public class PdfExportService {
 
-    private final CompanyRepository companyRepository;
+    private final EntityLoader entityLoader;
 
-    public PdfExportService(CompanyRepository companyRepository) {
-        this.companyRepository = companyRepository;
+    public PdfExportService(EntityLoader entityLoader) {
+        this.entityLoader = entityLoader;
     }
 
     public byte[] generateSalarySlip(PayrollSnapshot snapshot, String tenantId) throws Exception {
-        Company company = companyRepository.findById(tenantId).orElse(null);
+        Company company = entityLoader.company(tenantId);
 
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         Document document = new Document(PageSize.A4, 40, 40, 40, 40);
@@ -164,17 +163,18 @@ public class PdfExportService {
         PdfWriter.getInstance(document, baos);
         document.open();
 
+        Company company = entityLoader.company(tenantId);
         for (int i = 0; i < snapshots.size(); i++) {
             if (i > 0) document.newPage();
-            addSlipToDocument(document, snapshots.get(i), tenantId);
+            addSlipToDocument(document, snapshots.get(i), company, tenantId);
         }
 
         document.close();
         return baos.toByteArray();
     }
 
-    private void addSlipToDocument(Document document, PayrollSnapshot snapshot, String tenantId) throws Exception {
-        Company company = companyRepository.findById(tenantId).orElse(null);
+    private void addSlipToDocument(Document document, PayrollSnapshot snapshot, Company company,
+                                   String tenantId) throws Exception {
 
         Font titleFont = new Font(Font.HELVETICA, 14, Font.BOLD);
         Font headerFont = new Font(Font.HELVETICA, 10, Font.BOLD);
@@ -0,0 +1,107 @@
+package com.valstrz.service;
+
+import com.valstrz.entity.calendar.ShiftSchedule;
+import com.valstrz.entity.calendar.WorkSchedule;
+import com.valstrz.repository.ShiftScheduleRepository;
+import com.valstrz.repository.WorkScheduleRepository;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Регистър на часовите схеми и сменните графици по фирма.
+ *
+ * Схемите на фирмата се зареждат с една заявка при първо търсене и се пазят
+ * в паметта като индекс код → схема. Кешът се изчиства при всеки запис през
+ * WorkScheduleController / ShiftScheduleController.
+ *
+ * Върнатите обекти са споделени — извикващите не трябва да ги променят.
+ */
+@Service
+public class ScheduleRegistry {
+
+    private final WorkScheduleRepository workScheduleRepository;
+    private final ShiftScheduleRepository shiftScheduleRepository;
+
+    private final Map<String, Index<WorkSchedule>> workSchedules = new ConcurrentHashMap<>();
+    private final Map<String, Index<ShiftSchedule>> shiftSchedules = new ConcurrentHashMap<>();
+
+    public ScheduleRegistry(WorkScheduleRepository workScheduleRepository,
+                            ShiftScheduleRepository shiftScheduleRepository) {
+        this.workScheduleRepository = workScheduleRepository;
+        this.shiftScheduleRepository = shiftScheduleRepository;
+    }
+
+    /**
+     * Неизменим индекс за една фирма: схемите в реда от базата и картата код → схема
+     * (при повтарящ се код печели първата, както при досегашното линейно търсене).
+     */
+    private record Index<T>(List<T> all, Map<String, T> byCode, Map<String, T> byId) {}
+
+    // ── Часови схеми ──
+
+    public WorkSchedule findWorkSchedule(String tenantId, String code) {
+        if (code == null || code.isEmpty()) return null;
+        return workIndex(tenantId).byCode().get(code);
+    }
+
+    public List<WorkSchedule> getWorkSchedules(String tenantId) {
+        return workIndex(tenantId).all();
+    }
+
+    public void invalidateWorkSchedules(String tenantId) {
+        workSchedules.remove(tenantId);
+    }
+
+    // ── Сменни графици ──
+
+    public ShiftSchedule findShiftSchedule(String tenantId, String code) {
+        if (code == null || code.isEmpty()) return null;
+        return shiftIndex(tenantId).byCode().get(code);
+    }
+
+    public ShiftSchedule findShiftScheduleById(String tenantId, String id) {
+        if (id == null) return null;
+        return shiftIndex(tenantId).byId().get(id);
+    }
+
+    public List<ShiftSchedule> getShiftSchedules(String tenantId) {
+        return shiftIndex(tenantId).all();
+    }
+
+    public void invalidateShiftSchedules(String tenantId) {
+        shiftSchedules.remove(tenantId);
+    }
+
+    // ── Helpers ──
+
+    private Index<WorkSchedule> workIndex(String tenantId) {
+        return workSchedules.computeIfAbsent(tenantId, t -> {
+            List<WorkSchedule> all = new ArrayList<>();
+            workScheduleRepository.findByTenantId(t).forEach(all::add);
+            return buildIndex(all, WorkSchedule::getCode, WorkSchedule::getId);
+        });
+    }
+
+    private Index<ShiftSchedule> shiftIndex(String tenantId) {
+        return shiftSchedules.computeIfAbsent(tenantId, t -> {
+            List<ShiftSchedule> all = new ArrayList<>();
+            shiftScheduleRepository.findByTenantId(t).forEach(all::add);
+            return buildIndex(all, ShiftSchedule::getCode, ShiftSchedule::getId);
+        });
+    }
+
+    private static <T> Index<T> buildIndex(List<T> all,
+                                           Function<T, String> code,
+                                           Function<T, String> id) {
+        Map<String, T> byCode = new HashMap<>();
+        Map<String, T> byId = new HashMap<>();
+        for (T item : all) {
+            if (code.apply(item) != null) byCode.putIfAbsent(code.apply(item), item);
+            if (id.apply(item) != null) byId.put(id.apply(item), item);
+        }
+        return new Index<>(List.copyOf(all), Map.copyOf(byCode), Map.copyOf(byId));
+    }
+}
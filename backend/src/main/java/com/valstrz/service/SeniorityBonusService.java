@@ -0,0 +1,261 @@
+package com.valstrz.service;
+
+import com.valstrz.entity.company.SeniorityBonusConfig;
+import com.valstrz.entity.personnel.Employee;
+import com.valstrz.entity.personnel.Employment;
+import com.valstrz.repository.EmployeeRepository;
+import com.valstrz.repository.EmploymentRepository;
+import com.valstrz.repository.SeniorityBonusConfigRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Автоматично обновяване на ДТВ за ТСПО след приключване на месец.
+ *
+ * Изпълнява се като фонова стъпка след closeMonth със собствен статус:
+ * всички текущи правоотношения се зареждат с една заявка, процентът се
+ * определя от предварително сортирана таблица с интервали (двоично търсене),
+ * а променените правоотношения се записват с един saveAll.
+ */
+@Service
+public class SeniorityBonusService {
+
+    private static final Logger log = LoggerFactory.getLogger(SeniorityBonusService.class);
+
+    private static final BigDecimal DAYS_PER_YEAR = BigDecimal.valueOf(365.25);
+    private static final int BATCH_SIZE = 500;
+
+    private final EmployeeRepository employeeRepository;
+    private final EmploymentRepository employmentRepository;
+    private final SeniorityBonusConfigRepository configRepository;
+    private final AuditService auditService;
+    private final TaskExecutor taskExecutor;
+
+    private final Map<String, UpdateStatus> statuses = new ConcurrentHashMap<>();
+
+    public SeniorityBonusService(EmployeeRepository employeeRepository,
+                                 EmploymentRepository employmentRepository,
+                                 SeniorityBonusConfigRepository configRepository,
+                                 AuditService auditService,
+                                 TaskExecutor taskExecutor) {
+        this.employeeRepository = employeeRepository;
+        this.employmentRepository = employmentRepository;
+        this.configRepository = configRepository;
+        this.auditService = auditService;
+        this.taskExecutor = taskExecutor;
+    }
+
+    // ── DTO ──
+
+    /** Статус на обновяването: PENDING, RUNNING, DONE, SKIPPED, FAILED. */
+    public record UpdateStatus(
+            String tenantId, int year, int month, String status,
+            int checkedEmployments, int updatedEmployments,
+            LocalDateTime startedAt, LocalDateTime finishedAt, String error
+    ) {}
+
+    private record Counts(int checked, int updated) {}
+
+    // ── Публични методи ──
+
+    /**
+     * Планира обновяването във фонов режим и връща веднага.
+     */
+    public UpdateStatus scheduleAfterClose(String tenantId, int year, int month) {
+        UpdateStatus pending = new UpdateStatus(tenantId, year, month, "PENDING", 0, 0, null, null, null);
+        statuses.put(key(tenantId, year, month), pending);
+        taskExecutor.execute(() -> runAndRecord(tenantId, year, month));
+        return pending;
+    }
+
+    public UpdateStatus getStatus(String tenantId, int year, int month) {
+        return statuses.get(key(tenantId, year, month));
+    }
+
+    /**
+     * Обновява ДТВ за ТСПО на всички активни служители спрямо SeniorityBonusConfig.
+     * Общ стаж = previousExperienceYears + години от startDate до края на месеца.
+     *
+     * @return брой проверени/обновени правоотношения или null, ако автоматичното обновяване е изключено
+     */
+    private Counts updateSeniorityBonuses(String tenantId, int year, int month) {
+        SeniorityBonusConfig config = null;
+        for (SeniorityBonusConfig c : configRepository.findByTenantId(tenantId)) {
+            config = c;
+            break;
+        }
+        if (config == null || !config.isAutoUpdateOnMonthClose()) return null;
+
+        LocalDate monthEnd = LocalDate.of(year, month, 1).plusMonths(1).minusDays(1);
+        BracketTable table = BracketTable.of(config.getBrackets());
+        BigDecimal percentPerYear = config.getPercentPerYear();
+
+        Set<String> activeEmployeeIds = new HashSet<>();
+        for (Employee emp : employeeRepository.findByTenantIdAndActive(tenantId, true)) {
+            activeEmployeeIds.add(emp.getId());
+        }
+
+        int checked = 0;
+        int updated = 0;
+        List<Employment> changed = new ArrayList<>();
+        for (Employment empl : employmentRepository.findByTenantIdAndCurrent(tenantId, true)) {
+            if (empl.getStartDate() == null || !activeEmployeeIds.contains(empl.getEmployeeId())) continue;
+            checked++;
+
+            // Общ стаж = previousExperience + текущ стаж
+            BigDecimal prevYears = empl.getPreviousExperienceYears() != null
+                    ? empl.getPreviousExperienceYears() : BigDecimal.ZERO;
+            long daysSinceStart = ChronoUnit.DAYS.between(empl.getStartDate(), monthEnd);
+            BigDecimal currentYears = BigDecimal.valueOf(daysSinceStart)
+                    .divide(DAYS_PER_YEAR, 6, RoundingMode.HALF_UP);
+            BigDecimal totalYears = prevYears.add(currentYears);
+
+            // Определяне на процент
+            BigDecimal newPercent;
+            if (!table.isEmpty()) {
+                newPercent = table.percentFor(totalYears);
+            } else if (percentPerYear != null) {
+                // Просто: totalYears * percentPerYear
+                newPercent = totalYears.setScale(0, RoundingMode.DOWN)
+                        .multiply(percentPerYear)
+                        .setScale(2, RoundingMode.HALF_UP);
+            } else {
+                newPercent = BigDecimal.ZERO;
+            }
+
+            // Обновяваме само ако има промяна
+            BigDecimal oldPercent = empl.getSeniorityBonusPercent() != null
+                    ? empl.getSeniorityBonusPercent() : BigDecimal.ZERO;
+            if (newPercent.compareTo(oldPercent) != 0) {
+                empl.setSeniorityBonusYears(totalYears.setScale(2, RoundingMode.HALF_UP));
+                empl.setSeniorityBonusPercent(newPercent);
+                changed.add(empl);
+                updated++;
+                if (changed.size() >= BATCH_SIZE) {
+                    employmentRepository.saveAll(changed);
+                    changed.clear();
+                }
+            }
+        }
+        if (!changed.isEmpty()) {
+            employmentRepository.saveAll(changed);
+        }
+        return new Counts(checked, updated);
+    }
+
+    // ── Helpers ──
+
+    private void runAndRecord(String tenantId, int year, int month) {
+        String key = key(tenantId, year, month);
+        LocalDateTime startedAt = LocalDateTime.now();
+        statuses.put(key, new UpdateStatus(tenantId, year, month, "RUNNING", 0, 0, startedAt, null, null));
+        try {
+            Counts counts = updateSeniorityBonuses(tenantId, year, month);
+            if (counts == null) {
+                statuses.put(key, new UpdateStatus(tenantId, year, month, "SKIPPED", 0, 0,
+                        startedAt, LocalDateTime.now(), null));
+                return;
+            }
+            statuses.put(key, new UpdateStatus(tenantId, year, month, "DONE", counts.checked(), counts.updated(),
+                    startedAt, LocalDateTime.now(), null));
+            if (counts.updated() > 0) {
+                auditService.log(tenantId, "SENIORITY_UPDATE", "Employment",
+                        year + "/" + month, "Обновен ДТВ за ТСПО след приключване на " + month + "/" + year,
+                        Map.of("updatedEmployments", counts.updated()));
+            }
+        } catch (RuntimeException e) {
+            log.error("Грешка при обновяване на ДТВ за ТСПО за {} {}/{}", tenantId, month, year, e);
+            statuses.put(key, new UpdateStatus(tenantId, year, month, "FAILED", 0, 0,
+                    startedAt, LocalDateTime.now(), e.getMessage()));
+        }
+    }
+
+    private static String key(String tenantId, int year, int month) {
+        return tenantId + "/" + year + "/" + month;
+    }
+
+    /**
+     * Таблица с интервали [fromYears, toYears], сортирана по fromYears.
+     * Търсенето е двоично: последният интервал с fromYears <= стаж. Ако стажът е над
+     * неговия toYears (null = без горна граница), при застъпващи се интервали се търси
+     * назад до интервал, който го съдържа; maxTo[i] (най-голямата горна граница до i)
+     * спира търсенето, щом по-ранен интервал не може да го съдържа.
+     */
+    static final class BracketTable {
+
+        private final BigDecimal[] from;
+        private final BigDecimal[] to;
+        private final BigDecimal[] percent;
+        private final BigDecimal[] maxTo;   // null = без горна граница
+
+        private BracketTable(BigDecimal[] from, BigDecimal[] to, BigDecimal[] percent) {
+            this.from = from;
+            this.to = to;
+            this.percent = percent;
+            this.maxTo = new BigDecimal[to.length];
+            BigDecimal running = null;
+            boolean unbounded = false;
+            for (int i = 0; i < to.length; i++) {
+                if (to[i] == null) unbounded = true;
+                else running = running == null ? to[i] : running.max(to[i]);
+                maxTo[i] = unbounded ? null : running;
+            }
+        }
+
+        static BracketTable of(List<SeniorityBonusConfig.SeniorityBracket> brackets) {
+            List<SeniorityBonusConfig.SeniorityBracket> sorted = new ArrayList<>();
+            if (brackets != null) {
+                for (SeniorityBonusConfig.SeniorityBracket b : brackets) {
+                    if (b.getFromYears() != null && b.getPercent() != null) sorted.add(b);
+                }
+            }
+            // Стабилно сортиране: при равен fromYears печели по-късният в списъка
+            sorted.sort(Comparator.comparing(SeniorityBonusConfig.SeniorityBracket::getFromYears));
+
+            int n = sorted.size();
+            BigDecimal[] from = new BigDecimal[n];
+            BigDecimal[] to = new BigDecimal[n];
+            BigDecimal[] percent = new BigDecimal[n];
+            for (int i = 0; i < n; i++) {
+                from[i] = sorted.get(i).getFromYears();
+                to[i] = sorted.get(i).getToYears();
+                percent[i] = sorted.get(i).getPercent();
+            }
+            return new BracketTable(from, to, percent);
+        }
+
+        boolean isEmpty() {
+            return from.length == 0;
+        }
+
+        BigDecimal percentFor(BigDecimal years) {
+            int lo = 0;
+            int hi = from.length - 1;
+            int idx = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (from[mid].compareTo(years) <= 0) {
+                    idx = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            for (int i = idx; i >= 0; i--) {
+                if (maxTo[i] != null && years.compareTo(maxTo[i]) > 0) break;
+                if (to[i] == null || years.compareTo(to[i]) <= 0) return percent[i];
+            }
+            return BigDecimal.ZERO;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.valstrz.service;
+
+import com.valstrz.entity.calendar.ShiftSchedule;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Разгръщане на ротационен сменен график в конкретни дни.
+ *
+ * rotationPattern съдържа за всеки ден от цикъла индекса на смяната (ShiftDefinition.index)
+ * или 0 за почивен ден. Денят от цикъла за дата D е (D - начало на ротацията) mod дължината
+ * на модела, т.е. всички служители с едно и също отместване за месеца получават еднакъв резултат.
+ *
+ * Резултатът за месец се кешира по (график, отместване, година, месец). Кешираният месец
+ * пази и инстанцията на графика, от която е изчислен — след промяна през ShiftScheduleController
+ * ScheduleRegistry връща нова инстанция и месецът се преизчислява. При запълване на кеша
+ * отпада най-отдавна използваният месец.
+ */
+@Service
+public class ShiftRotationService {
+
+    private static final int MAX_CACHED_MONTHS = 20_000;
+
+    private final Map<MonthKey, CachedMonth> cache = Collections.synchronizedMap(
+            new LinkedHashMap<>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<MonthKey, CachedMonth> eldest) {
+                    return size() > MAX_CACHED_MONTHS;
+                }
+            });
+
+    private record MonthKey(String scheduleId, int offset, int year, int month) {}
+
+    private record CachedMonth(ShiftSchedule source, ShiftDays days) {}
+
+    /**
+     * Смени по дни за последователен период. Масивите са споделени с кеша,
+     * затова достъпът е само за четене.
+     */
+    public static final class ShiftDays {
+
+        private final LocalDate from;
+        private final byte[] shiftIndex;
+        private final BigDecimal[] hours;
+        private final BigDecimal[] nightHours;
+
+        private ShiftDays(LocalDate from, byte[] shiftIndex, BigDecimal[] hours, BigDecimal[] nightHours) {
+            this.from = from;
+            this.shiftIndex = shiftIndex;
+            this.hours = hours;
+            this.nightHours = nightHours;
+        }
+
+        public LocalDate getFrom() { return from; }
+
+        public LocalDate getTo() { return from.plusDays(shiftIndex.length - 1L); }
+
+        public int length() { return shiftIndex.length; }
+
+        /** Индекс на смяната за i-тия ден от периода (0 = почивен). */
+        public int shiftIndex(int i) { return shiftIndex[i]; }
+
+        public BigDecimal hours(int i) { return hours[i]; }
+
+        public BigDecimal nightHours(int i) { return nightHours[i]; }
+
+        public boolean isWorkDay(int i) { return shiftIndex[i] != 0; }
+
+        public BigDecimal totalHours() {
+            BigDecimal sum = BigDecimal.ZERO;
+            for (BigDecimal h : hours) sum = sum.add(h);
+            return sum;
+        }
+
+        public BigDecimal totalNightHours() {
+            BigDecimal sum = BigDecimal.ZERO;
+            for (BigDecimal h : nightHours) sum = sum.add(h);
+            return sum;
+        }
+
+        public int workDays() {
+            int n = 0;
+            for (byte idx : shiftIndex) if (idx != 0) n++;
+            return n;
+        }
+    }
+
+    /** Ден от разгърнатия график (за преглед през API). */
+    public record RotationDay(LocalDate date, int shiftIndex, BigDecimal hours, BigDecimal nightHours) {}
+
+    // ── Публични методи ──
+
+    /**
+     * Смени за календарен месец.
+     *
+     * @param rotationStart ден с позиция 0 в модела (null = 01.01.1970)
+     * @return null, ако графикът няма ротационен модел
+     */
+    public ShiftDays forMonth(ShiftSchedule schedule, LocalDate rotationStart, int year, int month) {
+        int cycle = cycleLength(schedule);
+        if (cycle == 0) return null;
+
+        LocalDate monthStart = LocalDate.of(year, month, 1);
+        int offset = offsetOf(rotationStart, monthStart, cycle);
+        MonthKey key = new MonthKey(schedule.getId(), offset, year, month);
+
+        CachedMonth cached = cache.get(key);
+        if (cached != null && cached.source() == schedule) {
+            return cached.days();
+        }
+
+        ShiftDays days = expand(schedule, offset, monthStart, YearMonth.of(year, month).lengthOfMonth());
+        cache.put(key, new CachedMonth(schedule, days));
+        return days;
+    }
+
+    /**
+     * Смени за произволен период [from, to]; сглобява се от кешираните месеци.
+     *
+     * @return null, ако графикът няма ротационен модел
+     */
+    public ShiftDays forRange(ShiftSchedule schedule, LocalDate rotationStart, LocalDate from, LocalDate to) {
+        if (to.isBefore(from)) {
+            throw new IllegalArgumentException("Крайната дата е преди началната.");
+        }
+        if (cycleLength(schedule) == 0) return null;
+
+        int length = (int) ChronoUnit.DAYS.between(from, to) + 1;
+        byte[] shiftIndex = new byte[length];
+        BigDecimal[] hours = new BigDecimal[length];
+        BigDecimal[] nightHours = new BigDecimal[length];
+
+        int pos = 0;
+        YearMonth ym = YearMonth.from(from);
+        while (pos < length) {
+            ShiftDays month = forMonth(schedule, rotationStart, ym.getYear(), ym.getMonthValue());
+            int start = ym.equals(YearMonth.from(from)) ? from.getDayOfMonth() - 1 : 0;
+            int count = Math.min(month.length() - start, length - pos);
+            System.arraycopy(month.shiftIndex, start, shiftIndex, pos, count);
+            System.arraycopy(month.hours, start, hours, pos, count);
+            System.arraycopy(month.nightHours, start, nightHours, pos, count);
+            pos += count;
+            ym = ym.plusMonths(1);
+        }
+        return new ShiftDays(from, shiftIndex, hours, nightHours);
+    }
+
+    public List<RotationDay> toDays(ShiftDays days) {
+        List<RotationDay> list = new ArrayList<>(days.length());
+        for (int i = 0; i < days.length(); i++) {
+            list.add(new RotationDay(days.getFrom().plusDays(i), days.shiftIndex(i), days.hours(i), days.nightHours(i)));
+        }
+        return list;
+    }
+
+    // ── Helpers ──
+
+    private static int cycleLength(ShiftSchedule schedule) {
+        return schedule.getRotationPattern() != null ? schedule.getRotationPattern().size() : 0;
+    }
+
+    private static int offsetOf(LocalDate rotationStart, LocalDate date, int cycle) {
+        LocalDate anchor = rotationStart != null ? rotationStart : LocalDate.EPOCH;
+        return (int) Math.floorMod(ChronoUnit.DAYS.between(anchor, date), (long) cycle);
+    }
+
+    private static ShiftDays expand(ShiftSchedule schedule, int offset, LocalDate from, int length) {
+        // Таблица индекс на смяна -> часове (индексите са малки цели числа)
+        int maxIndex = 0;
+        if (schedule.getShifts() != null) {
+            for (ShiftSchedule.ShiftDefinition sd : schedule.getShifts()) {
+                if (sd.getIndex() <= Byte.MAX_VALUE) maxIndex = Math.max(maxIndex, sd.getIndex());
+            }
+        }
+        BigDecimal[] hoursByShift = new BigDecimal[maxIndex + 1];
+        BigDecimal[] nightByShift = new BigDecimal[maxIndex + 1];
+        Arrays.fill(hoursByShift, BigDecimal.ZERO);
+        Arrays.fill(nightByShift, BigDecimal.ZERO);
+        boolean[] defined = new boolean[maxIndex + 1];
+        if (schedule.getShifts() != null) {
+            for (ShiftSchedule.ShiftDefinition sd : schedule.getShifts()) {
+                if (sd.getIndex() <= 0 || sd.getIndex() > maxIndex) continue;
+                hoursByShift[sd.getIndex()] = hoursOf(sd.getTotalHours());
+                nightByShift[sd.getIndex()] = hoursOf(sd.getNightHours());
+                defined[sd.getIndex()] = true;
+            }
+        }
+
+        int cycle = schedule.getRotationPattern().size();
+        byte[] pattern = new byte[cycle];
+        for (int i = 0; i < cycle; i++) {
+            Integer idx = schedule.getRotationPattern().get(i);
+            // Непознат индекс се третира като почивен ден
+            pattern[i] = (idx != null && idx > 0 && idx <= maxIndex && defined[idx]) ? idx.byteValue() : 0;
+        }
+
+        byte[] shiftIndex = new byte[length];
+        BigDecimal[] hours = new BigDecimal[length];
+        BigDecimal[] nightHours = new BigDecimal[length];
+        int p = offset;
+        for (int d = 0; d < length; d++) {
+            byte idx = pattern[p];
+            shiftIndex[d] = idx;
+            hours[d] = hoursByShift[idx];
+            nightHours[d] = nightByShift[idx];
+            if (++p == cycle) p = 0;
+        }
+        return new ShiftDays(from, shiftIndex, hours, nightHours);
+    }
+
+    /** Часовете на смяната (в графика са double) — до стотни, без излишни нули. */
+    private static BigDecimal hoursOf(double value) {
+        BigDecimal hours = BigDecimal.valueOf(value).setScale(2, RoundingMode.HALF_UP).stripTrailingZeros();
+        return hours.scale() < 0 ? hours.setScale(0) : hours;
+    }
+}
@@ -0,0 +1,337 @@
+package com.valstrz.service;
+
+import com.valstrz.entity.calendar.MonthlyCalendar;
+import com.valstrz.entity.calendar.ShiftSchedule;
+import com.valstrz.entity.personnel.Employment;
+import com.valstrz.entity.personnel.MonthlyTimesheet;
+import com.valstrz.entity.personnel.MonthlyTimesheet.DailyEntry;
+import com.valstrz.entity.personnel.WorkTimeBalance;
+import com.valstrz.repository.MonthlyCalendarRepository;
+import com.valstrz.repository.MonthlyTimesheetRepository;
+import com.valstrz.repository.WorkTimeBalanceRepository;
+import com.valstrz.util.MoneyUtil;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Сумирано изчисляване на работното време (СИРВ, чл. 142, ал. 2 КТ).
+ *
+ * Периодът е ShiftSchedule.referenceMonths месеца, подравнени към началото на годината
+ * (напр. при 4 месеца: I–IV, V–VIII, IX–XII). За всеки изчислен месец се записва
+ * WorkTimeBalance с нормата, отработените часове и натрупаните суми от началото на периода.
+ * Изчислението на следващия месец чете само записа за предходния месец; часовите карти
+ * на по-ранни месеци се четат само ако такъв запис липсва.
+ *
+ * Извънредният труд се определя в последния месец на периода като
+ * натрупани отработени - натрупана норма (ако е положително).
+ * Преизчислението на по-ранен месец пренарежда натрупванията на вече записаните
+ * следващи месеци от същия период.
+ * Трудът в празнични дни не влиза в сумите — той се заплаща отделно като празничен труд.
+ */
+@Service
+public class SummarizedWorkingTimeService {
+
+    private static final BigDecimal DEFAULT_HOURS = new BigDecimal("8");
+
+    private final ScheduleRegistry scheduleRegistry;
+    private final WorkTimeBalanceRepository balanceRepository;
+    private final MonthlyTimesheetRepository timesheetRepository;
+    private final MonthlyCalendarRepository calendarRepository;
+    private final WorkingCalendarService workingCalendarService;
+    private final ShiftRotationService shiftRotationService;
+
+    public SummarizedWorkingTimeService(ScheduleRegistry scheduleRegistry,
+                                        WorkTimeBalanceRepository balanceRepository,
+                                        MonthlyTimesheetRepository timesheetRepository,
+                                        MonthlyCalendarRepository calendarRepository,
+                                        WorkingCalendarService workingCalendarService,
+                                        ShiftRotationService shiftRotationService) {
+        this.scheduleRegistry = scheduleRegistry;
+        this.balanceRepository = balanceRepository;
+        this.timesheetRepository = timesheetRepository;
+        this.calendarRepository = calendarRepository;
+        this.workingCalendarService = workingCalendarService;
+        this.shiftRotationService = shiftRotationService;
+    }
+
+    // ── DTO ──
+
+    /**
+     * Резултат за един служител и месец. overtimeHours е различно от нула
+     * само в последния месец на периода.
+     */
+    public record Settlement(
+            String employeeId, String shiftScheduleCode, int year, int month,
+            int referenceMonths, int periodStartMonth, int periodEndMonth,
+            BigDecimal plannedHours, BigDecimal workedHours,
+            BigDecimal cumulativePlannedHours, BigDecimal cumulativeWorkedHours,
+            boolean periodEnd, BigDecimal overtimeHours
+    ) {
+        /** Текущо салдо: положително = часове над нормата. */
+        public BigDecimal balanceHours() {
+            return MoneyUtil.subtract(cumulativeWorkedHours, cumulativePlannedHours);
+        }
+    }
+
+    /** Салдо за целия период, в който попада месецът. */
+    public record PeriodBalance(
+            String employeeId, int year, int referenceMonths, int periodStartMonth, int periodEndMonth,
+            BigDecimal plannedHours, BigDecimal workedHours, BigDecimal balanceHours,
+            List<WorkTimeBalance> months
+    ) {}
+
+    // ── Публични методи ──
+
+    /**
+     * Изчислява месеца по СИРВ, без да записва.
+     *
+     * @return null, ако служителят не работи по сменен график
+     */
+    public Settlement evaluate(String tenantId, Employment employment, MonthlyTimesheet ts,
+                               MonthlyCalendar calendar, BigDecimal hoursPerDay, int year, int month) {
+        ShiftSchedule schedule = findSchedule(tenantId, employment);
+        if (schedule == null) return null;
+
+        int refMonths = referenceMonths(schedule);
+        int periodStart = periodStart(month, refMonths);
+        int periodEnd = Math.min(periodStart + refMonths - 1, 12);
+        BigDecimal dayHours = dayHours(calendar, hoursPerDay);
+
+        BigDecimal planned = plannedHours(tenantId, ts, calendar, dayHours,
+                shifts(schedule, employment, year, month), year, month);
+        BigDecimal worked = workedHours(ts);
+
+        BigDecimal prevPlanned = BigDecimal.ZERO;
+        BigDecimal prevWorked = BigDecimal.ZERO;
+        if (month > periodStart) {
+            Optional<WorkTimeBalance> prev = balanceRepository.findById(
+                    WorkTimeBalance.keyOf(employment.getEmployeeId(), year, month - 1));
+            if (prev.isPresent() && prev.get().getPeriodStartMonth() == periodStart) {
+                prevPlanned = prev.get().getCumulativePlannedHours();
+                prevWorked = prev.get().getCumulativeWorkedHours();
+            } else {
+                BigDecimal[] totals = sumFromTimesheets(tenantId, schedule, employment,
+                        dayHours, year, periodStart, month - 1);
+                prevPlanned = totals[0];
+                prevWorked = totals[1];
+            }
+        }
+
+        BigDecimal cumPlanned = MoneyUtil.add(prevPlanned, planned);
+        BigDecimal cumWorked = MoneyUtil.add(prevWorked, worked);
+        boolean isPeriodEnd = month == periodEnd;
+        BigDecimal overtime = BigDecimal.ZERO;
+        if (isPeriodEnd && cumWorked.compareTo(cumPlanned) > 0) {
+            overtime = cumWorked.subtract(cumPlanned);
+        }
+
+        return new Settlement(employment.getEmployeeId(), schedule.getCode(), year, month,
+                refMonths, periodStart, periodEnd, planned, worked, cumPlanned, cumWorked, isPeriodEnd, overtime);
+    }
+
+    /**
+     * Записва натрупванията след изчисление на ведомостта (един multi-document запис).
+     */
+    public void saveBalances(String tenantId, Collection<Settlement> settlements) {
+        if (settlements.isEmpty()) return;
+        LocalDateTime now = LocalDateTime.now();
+        List<WorkTimeBalance> docs = new ArrayList<>(settlements.size());
+        for (Settlement s : settlements) {
+            WorkTimeBalance b = new WorkTimeBalance();
+            b.setId(WorkTimeBalance.keyOf(s.employeeId(), s.year(), s.month()));
+            b.setTenantId(tenantId);
+            b.setEmployeeId(s.employeeId());
+            b.setShiftScheduleCode(s.shiftScheduleCode());
+            b.setYear(s.year());
+            b.setMonth(s.month());
+            b.setReferenceMonths(s.referenceMonths());
+            b.setPeriodStartMonth(s.periodStartMonth());
+            b.setPeriodEndMonth(s.periodEndMonth());
+            b.setPlannedHours(s.plannedHours());
+            b.setWorkedHours(s.workedHours());
+            b.setCumulativePlannedHours(s.cumulativePlannedHours());
+            b.setCumulativeWorkedHours(s.cumulativeWorkedHours());
+            b.setOvertimeHours(s.overtimeHours());
+            b.setUpdatedAt(now);
+            docs.add(b);
+        }
+        docs.addAll(carryForward(tenantId, docs, now));
+        balanceRepository.saveAll(docs);
+    }
+
+    /**
+     * Пренасочва натрупванията на вече записаните следващи месеци от същия период
+     * към новите стойности, вкл. извънредния труд в последния месец.
+     */
+    private List<WorkTimeBalance> carryForward(String tenantId, List<WorkTimeBalance> saved, LocalDateTime now) {
+        Map<String, WorkTimeBalance> byKey = new HashMap<>();
+        int year = saved.get(0).getYear();
+        int fromMonth = 13;
+        int toMonth = 0;
+        for (WorkTimeBalance b : saved) {
+            byKey.put(b.getId(), b);
+            if (b.getYear() != year) return List.of();
+            if (b.getMonth() < b.getPeriodEndMonth()) {
+                fromMonth = Math.min(fromMonth, b.getMonth() + 1);
+                toMonth = Math.max(toMonth, b.getPeriodEndMonth());
+            }
+        }
+        if (fromMonth > toMonth) return List.of();
+
+        List<WorkTimeBalance> later = new ArrayList<>();
+        balanceRepository.findByTenantIdAndYearAndMonthBetween(tenantId, year, fromMonth, toMonth).forEach(later::add);
+        later.sort(Comparator.comparingInt(WorkTimeBalance::getMonth));
+
+        List<WorkTimeBalance> updated = new ArrayList<>();
+        for (WorkTimeBalance b : later) {
+            if (byKey.containsKey(b.getId())) continue;
+            WorkTimeBalance prev = byKey.get(WorkTimeBalance.keyOf(b.getEmployeeId(), year, b.getMonth() - 1));
+            if (prev == null || prev.getPeriodStartMonth() != b.getPeriodStartMonth()) continue;
+
+            BigDecimal cumPlanned = MoneyUtil.add(prev.getCumulativePlannedHours(), b.getPlannedHours());
+            BigDecimal cumWorked = MoneyUtil.add(prev.getCumulativeWorkedHours(), b.getWorkedHours());
+            BigDecimal overtime = BigDecimal.ZERO;
+            if (b.getMonth() == b.getPeriodEndMonth() && cumWorked.compareTo(cumPlanned) > 0) {
+                overtime = cumWorked.subtract(cumPlanned);
+            }
+            b.setCumulativePlannedHours(cumPlanned);
+            b.setCumulativeWorkedHours(cumWorked);
+            b.setOvertimeHours(overtime);
+            b.setUpdatedAt(now);
+            byKey.put(b.getId(), b);
+            updated.add(b);
+        }
+        return updated;
+    }
+
+    /**
+     * Салдото по СИРВ за периода, в който попада месецът (от записаните натрупвания).
+     */
+    public PeriodBalance getPeriodBalance(String tenantId, String employeeId, int year, int month) {
+        List<WorkTimeBalance> all = new ArrayList<>();
+        balanceRepository.findByTenantIdAndEmployeeIdAndYear(tenantId, employeeId, year).forEach(all::add);
+
+        WorkTimeBalance anchor = null;
+        for (WorkTimeBalance b : all) {
+            if (b.getPeriodStartMonth() <= month && month <= b.getPeriodEndMonth()
+                    && (anchor == null || b.getMonth() > anchor.getMonth())) {
+                anchor = b;
+            }
+        }
+        if (anchor == null) return null;
+
+        List<WorkTimeBalance> months = new ArrayList<>();
+        for (WorkTimeBalance b : all) {
+            if (b.getPeriodStartMonth() == anchor.getPeriodStartMonth()) months.add(b);
+        }
+        months.sort(Comparator.comparingInt(WorkTimeBalance::getMonth));
+        WorkTimeBalance last = months.get(months.size() - 1);
+
+        return new PeriodBalance(employeeId, year, last.getReferenceMonths(),
+                last.getPeriodStartMonth(), last.getPeriodEndMonth(),
+                last.getCumulativePlannedHours(), last.getCumulativeWorkedHours(),
+                MoneyUtil.subtract(last.getCumulativeWorkedHours(), last.getCumulativePlannedHours()),
+                months);
+    }
+
+    public List<WorkTimeBalance> getMonthBalances(String tenantId, int year, int month) {
+        List<WorkTimeBalance> list = new ArrayList<>();
+        balanceRepository.findByTenantIdAndYearAndMonth(tenantId, year, month).forEach(list::add);
+        return list;
+    }
+
+    // ── Helpers ──
+
+    private ShiftSchedule findSchedule(String tenantId, Employment employment) {
+        if (employment == null) return null;
+        ShiftSchedule schedule = scheduleRegistry.findShiftSchedule(tenantId, employment.getShiftScheduleCode());
+        return schedule != null && schedule.isActive() ? schedule : null;
+    }
+
+    static int referenceMonths(ShiftSchedule schedule) {
+        return Math.max(1, Math.min(12, schedule.getReferenceMonths()));
+    }
+
+    static int periodStart(int month, int refMonths) {
+        return ((month - 1) / refMonths) * refMonths + 1;
+    }
+
+    /** Смените по графика за месеца; null, ако графикът няма ротационен модел. */
+    private ShiftRotationService.ShiftDays shifts(ShiftSchedule schedule, Employment employment, int year, int month) {
+        LocalDate rotationStart = employment.getShiftRotationStart() != null
+                ? employment.getShiftRotationStart() : employment.getStartDate();
+        return shiftRotationService.forMonth(schedule, rotationStart, year, month);
+    }
+
+    private static BigDecimal dayHours(MonthlyCalendar calendar, BigDecimal hoursPerDay) {
+        if (hoursPerDay != null) return hoursPerDay;
+        if (calendar != null && calendar.getWorkingHoursPerDay() != null) return calendar.getWorkingHoursPerDay();
+        return DEFAULT_HOURS;
+    }
+
+    /**
+     * Норма = работни дни по календара × часове на ден, намалена с отсъствията.
+     * Отсъствие в ден със смяна по графика намалява нормата с часовете на смяната;
+     * без ротационен модел — с дневната норма на служителя, ако денят е работен по календара.
+     */
+    private BigDecimal plannedHours(String tenantId, MonthlyTimesheet ts, MonthlyCalendar calendar,
+                                    BigDecimal dayHours, ShiftRotationService.ShiftDays shifts,
+                                    int year, int month) {
+        BigDecimal norm = calendar != null
+                ? BigDecimal.valueOf(calendar.getWorkingDays()).multiply(dayHours)
+                : BigDecimal.ZERO;
+        if (ts != null && ts.getDays() != null) {
+            WorkingCalendarService.YearCalendar workingCalendar = shifts == null
+                    ? workingCalendarService.get(tenantId, year) : null;
+            for (DailyEntry day : ts.getDays()) {
+                if (!"ABSENCE".equals(day.getDayType())) continue;
+                if (shifts != null) {
+                    norm = norm.subtract(shifts.hours(day.getDay() - 1));
+                } else if (workingCalendar.isWorkingDay(LocalDate.of(year, month, day.getDay()))) {
+                    norm = norm.subtract(dayHours);
+                }
+            }
+        }
+        return norm.max(BigDecimal.ZERO);
+    }
+
+    private static BigDecimal workedHours(MonthlyTimesheet ts) {
+        BigDecimal worked = BigDecimal.ZERO;
+        if (ts == null || ts.getDays() == null) return worked;
+        for (DailyEntry day : ts.getDays()) {
+            if ("HOLIDAY".equals(day.getDayType())) continue;
+            worked = MoneyUtil.add(worked, day.getWorkedHours());
+            worked = MoneyUtil.add(worked, day.getOvertimeHours());
+        }
+        return worked;
+    }
+
+    /** Резервен път: натрупване от часовите карти, когато липсва запис за предходния месец. */
+    private BigDecimal[] sumFromTimesheets(String tenantId, ShiftSchedule schedule, Employment employment,
+                                           BigDecimal dayHours, int year, int fromMonth, int toMonth) {
+        String employeeId = employment.getEmployeeId();
+        BigDecimal planned = BigDecimal.ZERO;
+        BigDecimal worked = BigDecimal.ZERO;
+        for (int m = fromMonth; m <= toMonth; m++) {
+            MonthlyTimesheet ts = null;
+            for (MonthlyTimesheet t : timesheetRepository.findByTenantIdAndEmployeeIdAndYearAndMonth(tenantId, employeeId, year, m)) {
+                ts = t;
+                break;
+            }
+            MonthlyCalendar cal = null;
+            for (MonthlyCalendar c : calendarRepository.findByTenantIdAndYearAndMonth(tenantId, year, m)) {
+                cal = c;
+                break;
+            }
+            if (ts == null || cal == null) continue;
+            planned = planned.add(plannedHours(tenantId, ts, cal, dayHours,
+                    shifts(schedule, employment, year, m), year, m));
+            worked = worked.add(workedHours(ts));
+        }
+        return new BigDecimal[] { planned, worked };
+    }
+}
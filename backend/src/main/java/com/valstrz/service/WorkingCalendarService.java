@@ -0,0 +1,152 @@
+package com.valstrz.service;
+
+import com.valstrz.entity.calendar.AnnualCalendar;
+import com.valstrz.repository.AnnualCalendarRepository;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.Year;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Календар на работните и почивните дни по фирма и година.
+ *
+ * За всяка година се строи веднъж набор от битове (ден от годината → работен / празник /
+ * фирмен почивен ден) и префиксни суми, така че "работни дни между две дати" е O(1)
+ * в рамките на годината. Кешът се изчиства при промяна на годишния календар на фирмата.
+ */
+@Service
+public class WorkingCalendarService {
+
+    private final AnnualCalendarRepository annualRepository;
+
+    private final Map<String, Map<Integer, YearCalendar>> cache = new ConcurrentHashMap<>();
+
+    public WorkingCalendarService(AnnualCalendarRepository annualRepository) {
+        this.annualRepository = annualRepository;
+    }
+
+    /**
+     * Неизменим календар за една година. Индексът на деня е dayOfYear - 1.
+     */
+    public static final class YearCalendar {
+
+        private final int year;
+        private final BitSet holidays;
+        private final BitSet bridgeDays;
+        private final BitSet workingDays;
+        private final int[] workingPrefix;   // workingPrefix[i] = работни дни сред първите i дни
+        private final int[] holidayPrefix;
+
+        private YearCalendar(int year, BitSet holidays, BitSet bridgeDays) {
+            this.year = year;
+            this.holidays = holidays;
+            this.bridgeDays = bridgeDays;
+
+            int length = Year.of(year).length();
+            this.workingDays = new BitSet(length);
+            this.workingPrefix = new int[length + 1];
+            this.holidayPrefix = new int[length + 1];
+            LocalDate date = LocalDate.of(year, 1, 1);
+            for (int i = 0; i < length; i++, date = date.plusDays(1)) {
+                DayOfWeek dow = date.getDayOfWeek();
+                boolean weekend = dow == DayOfWeek.SATURDAY || dow == DayOfWeek.SUNDAY;
+                if (!weekend && !holidays.get(i)) workingDays.set(i);
+                workingPrefix[i + 1] = workingPrefix[i] + (workingDays.get(i) ? 1 : 0);
+                holidayPrefix[i + 1] = holidayPrefix[i] + (holidays.get(i) ? 1 : 0);
+            }
+        }
+
+        public int getYear() { return year; }
+
+        public boolean isWorkingDay(LocalDate date) { return workingDays.get(index(date)); }
+
+        /** Официален празник или фирмен почивен ден (включително преместените по чл. 154, ал. 2 КТ). */
+        public boolean isHoliday(LocalDate date) { return holidays.get(index(date)); }
+
+        /** Фирмен почивен ден (неофициален, напр. "мост" между празник и почивни дни). */
+        public boolean isBridgeDay(LocalDate date) { return bridgeDays.get(index(date)); }
+
+        /** Работни дни в [from, to]; датите трябва да са в годината на календара. */
+        public int workingDays(LocalDate from, LocalDate to) {
+            if (to.isBefore(from)) return 0;
+            return workingPrefix[index(to) + 1] - workingPrefix[index(from)];
+        }
+
+        /** Празнични дни в [from, to] (включително падащите се в събота/неделя). */
+        public int holidays(LocalDate from, LocalDate to) {
+            if (to.isBefore(from)) return 0;
+            return holidayPrefix[index(to) + 1] - holidayPrefix[index(from)];
+        }
+
+        public int workingDaysInMonth(int month) {
+            LocalDate start = LocalDate.of(year, month, 1);
+            return workingDays(start, start.withDayOfMonth(start.lengthOfMonth()));
+        }
+
+        public int holidaysInMonth(int month) {
+            LocalDate start = LocalDate.of(year, month, 1);
+            return holidays(start, start.withDayOfMonth(start.lengthOfMonth()));
+        }
+
+        private int index(LocalDate date) {
+            if (date.getYear() != year) {
+                throw new IllegalArgumentException("Датата " + date + " не е в година " + year);
+            }
+            return date.getDayOfYear() - 1;
+        }
+    }
+
+    // ── Публични методи ──
+
+    public YearCalendar get(String tenantId, int year) {
+        return cache.computeIfAbsent(tenantId, t -> new ConcurrentHashMap<>())
+                .computeIfAbsent(year, y -> build(tenantId, y));
+    }
+
+    public boolean isWorkingDay(String tenantId, LocalDate date) {
+        return get(tenantId, date.getYear()).isWorkingDay(date);
+    }
+
+    /** Работни дни в [from, to]; периодът може да обхваща няколко години. */
+    public int workingDays(String tenantId, LocalDate from, LocalDate to) {
+        int total = 0;
+        for (int y = from.getYear(); y <= to.getYear(); y++) {
+            LocalDate start = y == from.getYear() ? from : LocalDate.of(y, 1, 1);
+            LocalDate end = y == to.getYear() ? to : LocalDate.of(y, 12, 31);
+            total += get(tenantId, y).workingDays(start, end);
+        }
+        return total;
+    }
+
+    public BigDecimal workingHours(String tenantId, LocalDate from, LocalDate to, BigDecimal hoursPerDay) {
+        return BigDecimal.valueOf(workingDays(tenantId, from, to)).multiply(hoursPerDay);
+    }
+
+    /** Извиква се при всяка промяна на годишния календар на фирмата. */
+    public void invalidate(String tenantId) {
+        cache.remove(tenantId);
+    }
+
+    // ── Helpers ──
+
+    private YearCalendar build(String tenantId, int year) {
+        int length = Year.of(year).length();
+        BitSet holidays = new BitSet(length);
+        BitSet bridgeDays = new BitSet(length);
+        for (AnnualCalendar ac : annualRepository.findByTenantIdAndYear(tenantId, year)) {
+            if (ac.getHolidays() == null) continue;
+            for (AnnualCalendar.HolidayEntry h : ac.getHolidays()) {
+                if (h.getDate() == null || h.getDate().getYear() != year) continue;
+                int i = h.getDate().getDayOfYear() - 1;
+                holidays.set(i);
+                if (!h.isOfficial()) bridgeDays.set(i);
+            }
+        }
+        return new YearCalendar(year, holidays, bridgeDays);
+    }
+}
@@ -0,0 +1,118 @@
+package com.valstrz.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Поточен CSV токенизатор (RFC 4180) без регулярни изрази.
+ *
+ * Правила:
+ * - Полета в кавички могат да съдържат разделител, нов ред и "" (екранирана кавичка)
+ * - Поддържа \n, \r\n и \r като край на запис
+ * - Пропуска UTF-8 BOM в началото на файла
+ * - Чете по един запис наведнъж — паметта не зависи от размера на файла
+ */
+public final class CsvTokenizer {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader reader;
+    private final char delimiter;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private final StringBuilder field = new StringBuilder(64);
+
+    private int pos;
+    private int limit;
+    private int lineNumber = 1;
+    private int recordLineNumber;
+    private boolean bomChecked;
+
+    public CsvTokenizer(Reader reader) {
+        this(reader, ',');
+    }
+
+    public CsvTokenizer(Reader reader, char delimiter) {
+        this.reader = reader;
+        this.delimiter = delimiter;
+    }
+
+    /**
+     * Прочита следващия запис.
+     *
+     * @return полетата на записа или null при край на файла
+     */
+    public String[] next() throws IOException {
+        if (!bomChecked) {
+            bomChecked = true;
+            if (fill() && buffer[pos] == '\uFEFF') pos++;
+        }
+        if (!fill()) return null;
+
+        recordLineNumber = lineNumber;
+        List<String> fields = new ArrayList<>(16);
+        field.setLength(0);
+        boolean quoted = false;
+        boolean afterQuote = false;
+
+        while (fill()) {
+            char c = buffer[pos++];
+            if (quoted) {
+                if (c == '"') {
+                    if (fill() && buffer[pos] == '"') {
+                        field.append('"');
+                        pos++;
+                    } else {
+                        quoted = false;
+                        afterQuote = true;
+                    }
+                } else {
+                    if (c == '\n') lineNumber++;
+                    field.append(c);
+                }
+            } else if (c == delimiter) {
+                fields.add(field.toString());
+                field.setLength(0);
+                afterQuote = false;
+            } else if (c == '\n' || c == '\r') {
+                if (c == '\r' && fill() && buffer[pos] == '\n') pos++;
+                lineNumber++;
+                fields.add(field.toString());
+                return fields.toArray(new String[0]);
+            } else if (c == '"' && !afterQuote && isBlank(field)) {
+                field.setLength(0);
+                quoted = true;
+            } else {
+                field.append(c);
+            }
+        }
+
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+    }
+
+    /** Номер на реда (1-базиран), от който започва последно прочетеният запис. */
+    public int getRecordLineNumber() {
+        return recordLineNumber;
+    }
+
+    private boolean fill() throws IOException {
+        if (pos < limit) return true;
+        int n;
+        do {
+            n = reader.read(buffer, 0, buffer.length);
+        } while (n == 0);
+        if (n < 0) return false;
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    private static boolean isBlank(StringBuilder sb) {
+        for (int i = 0; i < sb.length(); i++) {
+            if (!Character.isWhitespace(sb.charAt(i))) return false;
+        }
+        return true;
+    }
+}
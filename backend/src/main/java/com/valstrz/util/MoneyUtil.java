@@ -78,6 +78,12 @@ public final class MoneyUtil {
         return monthlySalary.divide(workingHours, CALC_SCALE, ROUNDING);
     }
 
+    /** Пропорция по дни: amount * worked / working, закръглена до 2 знака. */
+    public static BigDecimal prorate(BigDecimal amount, int worked, int working) {
+        return round(multiply(amount, BigDecimal.valueOf(worked))
+                .divide(BigDecimal.valueOf(working), CALC_SCALE, ROUNDING));
+    }
+
     // ── Сумиране ──
 
     /** Безопасно събиране (null = 0). */
@@ -0,0 +1,244 @@
+package com.valstrz.util;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Архивен сегмент: файл, в който записи само се добавят.
+ *
+ * Формат: заглавие "VTSG" + версия, след това записи
+ * [kind:1][month:1][employeeId:UTF][key:UTF][length:4][crc32:4][payload:length],
+ * където payload е компресирано (Deflate) съдържание, а crc32 е на некомпресираните байтове.
+ * Заглавията на записите не са компресирани — индексът се строи, без да се разархивира нищо.
+ * По-късен запис със същите kind и key замества по-ранния.
+ */
+public final class SegmentFile {
+
+    private static final byte[] MAGIC = {'V', 'T', 'S', 'G'};
+    private static final int VERSION = 1;
+
+    /** Заглавие на запис и позицията на съдържанието му във файла. */
+    public record Entry(byte kind, int month, String employeeId, String key,
+                        long payloadOffset, int payloadLength, int crc) {}
+
+    /** Запис за добавяне. */
+    public record Record(byte kind, int month, String employeeId, String key, byte[] content) {}
+
+    private SegmentFile() {}
+
+    /**
+     * Добавя записите в края на файла и го синхронизира с диска.
+     *
+     * @return заглавията на добавените записи
+     */
+    public static List<Entry> append(Path file, List<Record> records) throws IOException {
+        Files.createDirectories(file.getParent());
+        boolean fresh = !Files.exists(file) || Files.size(file) == 0;
+        if (!fresh) readHeader(file);
+
+        List<Entry> entries = new ArrayList<>(records.size());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+             CountingOutputStream counting = new CountingOutputStream(
+                     new BufferedOutputStream(Channels.newOutputStream(channel)), channel.size());
+             DataOutputStream out = new DataOutputStream(counting)) {
+            if (fresh) {
+                out.write(MAGIC);
+                out.writeByte(VERSION);
+            }
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            try {
+                for (Record r : records) {
+                    byte[] payload = deflate(deflater, r.content());
+                    int crc = crc(r.content());
+                    out.writeByte(r.kind());
+                    out.writeByte(r.month());
+                    out.writeUTF(r.employeeId() != null ? r.employeeId() : "");
+                    out.writeUTF(r.key());
+                    out.writeInt(payload.length);
+                    out.writeInt(crc);
+                    out.flush();
+                    long offset = counting.position();
+                    out.write(payload);
+                    entries.add(new Entry(r.kind(), r.month(), r.employeeId(), r.key(), offset, payload.length, crc));
+                }
+            } finally {
+                deflater.end();
+            }
+            out.flush();
+            channel.force(true);
+        }
+        return entries;
+    }
+
+    /**
+     * Чете заглавията на всички записи (без съдържанието).
+     */
+    public static List<Entry> scan(Path file) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        if (!Files.exists(file)) return entries;
+        try (CountingInputStream counting = new CountingInputStream(
+                new BufferedInputStream(Files.newInputStream(file)));
+             DataInputStream in = new DataInputStream(counting)) {
+            checkHeader(in);
+            while (true) {
+                int kind = in.read();
+                if (kind < 0) break;
+                int month = in.readUnsignedByte();
+                String employeeId = in.readUTF();
+                String key = in.readUTF();
+                int length = in.readInt();
+                int crc = in.readInt();
+                long offset = counting.position();
+                in.skipNBytes(length);
+                entries.add(new Entry((byte) kind, month, employeeId.isEmpty() ? null : employeeId, key,
+                        offset, length, crc));
+            }
+        } catch (EOFException e) {
+            throw new IOException("Непълен запис в края на " + file, e);
+        }
+        return entries;
+    }
+
+    /**
+     * Чете и разархивира съдържанието на записа; проверява контролната сума.
+     */
+    public static byte[] read(Path file, Entry entry) throws IOException {
+        byte[] payload = new byte[entry.payloadLength()];
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
+            raf.seek(entry.payloadOffset());
+            raf.readFully(payload);
+        }
+        byte[] content = inflate(payload);
+        if (crc(content) != entry.crc()) {
+            throw new IOException("Грешна контролна сума за " + entry.key() + " в " + file);
+        }
+        return content;
+    }
+
+    // ── Helpers ──
+
+    private static void readHeader(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            checkHeader(in);
+        }
+    }
+
+    private static void checkHeader(DataInputStream in) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        int version = in.readUnsignedByte();
+        if (!Arrays.equals(magic, MAGIC) || version != VERSION) {
+            throw new IOException("Файлът не е архивен сегмент (версия " + VERSION + ")");
+        }
+    }
+
+    private static int crc(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] content) {
+        deflater.reset();
+        deflater.setInput(content);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, content.length / 4));
+        byte[] buf = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(buf, 0, deflater.deflate(buf));
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] payload) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(payload);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length * 4);
+            byte[] buf = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buf);
+                if (n == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Непълно компресирано съдържание");
+                }
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Повредено компресирано съдържание", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** Байтовете от заглавието до текущата позиция (за отместванията на записите). */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long position;
+
+        CountingOutputStream(OutputStream out, long start) {
+            super(out);
+            this.position = start;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            position++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            position += len;
+        }
+
+        long position() {
+            return position;
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long position;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) position++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) position += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            position += skipped;
+            return skipped;
+        }
+
+        long position() {
+            return position;
+        }
+    }
+}
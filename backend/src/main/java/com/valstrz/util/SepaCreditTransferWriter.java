@@ -0,0 +1,232 @@
+package com.valstrz.util;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * SEPA нареждане за кредитни преводи (ISO 20022 pain.001.001.03), записвано
+ * последователно със StAX — преводите не се пазят в паметта.
+ *
+ * Редът на извикване: start(...) → за всяка сметка на наредителя
+ * startPayment(...) → transfer(...)* → endPayment() → end().
+ * Броят и сумата в заглавията се подават предварително (стандартът ги иска
+ * преди самите преводи). endPayment() и end() ги сверяват със записаните преводи
+ * и при разлика хвърлят IllegalStateException, преди да затворят елементите —
+ * така непълното нареждане не е валиден XML документ.
+ */
+public final class SepaCreditTransferWriter implements AutoCloseable {
+
+    private static final String NAMESPACE = "urn:iso:std:iso:20022:tech:xsd:pain.001.001.03";
+    /** Схемата SEPA Credit Transfer е само в евро. */
+    public static final String CURRENCY = "EUR";
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+
+    private final XMLStreamWriter xml;
+    private final String currency;
+
+    private long declaredTransactions;
+    private BigDecimal declaredSum;
+    private long transactions;
+    private BigDecimal sum = BigDecimal.ZERO;
+
+    private long declaredPaymentTransactions;
+    private BigDecimal declaredPaymentSum;
+    private long paymentTransactions;
+    private BigDecimal paymentSum = BigDecimal.ZERO;
+
+    /**
+     * @param currency валутата на сумите (ISO 4217) — на периода, за който се плаща
+     * @throws IllegalArgumentException ако валутата не е евро
+     */
+    public SepaCreditTransferWriter(OutputStream out, String currency) throws XMLStreamException {
+        if (!CURRENCY.equals(currency)) {
+            throw new IllegalArgumentException("SEPA нареждането е само в " + CURRENCY + ", сумите са в " + currency);
+        }
+        this.currency = currency;
+        this.xml = XMLOutputFactory.newFactory().createXMLStreamWriter(out, "UTF-8");
+    }
+
+    /** Наредител: име и ЕИК/БУЛСТАТ на фирмата. */
+    public record Party(String name, String id) {}
+
+    public void start(String messageId, Party initiator, long transactions, BigDecimal controlSum)
+            throws XMLStreamException {
+        xml.writeStartDocument("UTF-8", "1.0");
+        xml.writeStartElement("Document");
+        xml.writeDefaultNamespace(NAMESPACE);
+        xml.writeStartElement("CstmrCdtTrfInitn");
+
+        declaredTransactions = transactions;
+        declaredSum = rounded(controlSum);
+
+        xml.writeStartElement("GrpHdr");
+        element("MsgId", max(messageId, 35));
+        element("CreDtTm", LocalDateTime.now().format(DATE_TIME));
+        element("NbOfTxs", String.valueOf(transactions));
+        element("CtrlSum", amount(controlSum));
+        party("InitgPty", initiator);
+        xml.writeEndElement();
+    }
+
+    /**
+     * Блок преводи от една сметка на наредителя (категория SALA — заплати).
+     */
+    public void startPayment(String paymentId, Party debtor, String debtorIban, String debtorBic,
+                             LocalDate executionDate, long transactions, BigDecimal controlSum)
+            throws XMLStreamException {
+        declaredPaymentTransactions = transactions;
+        declaredPaymentSum = rounded(controlSum);
+        paymentTransactions = 0;
+        paymentSum = BigDecimal.ZERO;
+
+        xml.writeStartElement("PmtInf");
+        element("PmtInfId", max(paymentId, 35));
+        element("PmtMtd", "TRF");
+        element("BtchBookg", "true");
+        element("NbOfTxs", String.valueOf(transactions));
+        element("CtrlSum", amount(controlSum));
+
+        xml.writeStartElement("PmtTpInf");
+        xml.writeStartElement("SvcLvl");
+        element("Cd", "SEPA");
+        xml.writeEndElement();
+        xml.writeStartElement("CtgyPurp");
+        element("Cd", "SALA");
+        xml.writeEndElement();
+        xml.writeEndElement();
+
+        element("ReqdExctnDt", executionDate.toString());
+        party("Dbtr", debtor);
+        account("DbtrAcct", debtorIban);
+        agent("DbtrAgt", debtorBic);
+        element("ChrgBr", "SLEV");
+    }
+
+    public void transfer(String endToEndId, BigDecimal amount, String creditorName,
+                         String creditorIban, String creditorBic, String remittance)
+            throws XMLStreamException {
+        BigDecimal value = rounded(amount);
+        paymentTransactions++;
+        paymentSum = paymentSum.add(value);
+        transactions++;
+        sum = sum.add(value);
+
+        xml.writeStartElement("CdtTrfTxInf");
+        xml.writeStartElement("PmtId");
+        element("EndToEndId", max(endToEndId, 35));
+        xml.writeEndElement();
+
+        xml.writeStartElement("Amt");
+        xml.writeStartElement("InstdAmt");
+        xml.writeAttribute("Ccy", currency);
+        xml.writeCharacters(value.toPlainString());
+        xml.writeEndElement();
+        xml.writeEndElement();
+
+        if (creditorBic != null && !creditorBic.isBlank()) agent("CdtrAgt", creditorBic);
+        xml.writeStartElement("Cdtr");
+        element("Nm", max(creditorName, 70));
+        xml.writeEndElement();
+        account("CdtrAcct", creditorIban);
+
+        xml.writeStartElement("RmtInf");
+        element("Ustrd", max(remittance, 140));
+        xml.writeEndElement();
+        xml.writeEndElement();
+    }
+
+    public void endPayment() throws XMLStreamException {
+        verify("PmtInf", declaredPaymentTransactions, declaredPaymentSum, paymentTransactions, paymentSum);
+        xml.writeEndElement();
+    }
+
+    public void end() throws XMLStreamException {
+        verify("GrpHdr", declaredTransactions, declaredSum, transactions, sum);
+        xml.writeEndElement();
+        xml.writeEndElement();
+        xml.writeEndDocument();
+        xml.flush();
+    }
+
+    /** Затваря само StAX записа; изходният поток остава отворен. */
+    @Override
+    public void close() throws XMLStreamException {
+        xml.close();
+    }
+
+    // ── Helpers ──
+
+    private void party(String tag, Party party) throws XMLStreamException {
+        xml.writeStartElement(tag);
+        element("Nm", max(party.name(), 70));
+        if (party.id() != null && !party.id().isBlank()) {
+            xml.writeStartElement("Id");
+            xml.writeStartElement("OrgId");
+            xml.writeStartElement("Othr");
+            element("Id", party.id());
+            xml.writeEndElement();
+            xml.writeEndElement();
+            xml.writeEndElement();
+        }
+        xml.writeEndElement();
+    }
+
+    private void account(String tag, String iban) throws XMLStreamException {
+        xml.writeStartElement(tag);
+        xml.writeStartElement("Id");
+        element("IBAN", iban.replace(" ", "").toUpperCase());
+        xml.writeEndElement();
+        xml.writeEndElement();
+    }
+
+    private void agent(String tag, String bic) throws XMLStreamException {
+        xml.writeStartElement(tag);
+        xml.writeStartElement("FinInstnId");
+        if (bic != null && !bic.isBlank()) {
+            element("BIC", bic.strip().toUpperCase());
+        } else {
+            // Без BIC (IBAN-only) — позволено в SEPA
+            xml.writeStartElement("Othr");
+            element("Id", "NOTPROVIDED");
+            xml.writeEndElement();
+        }
+        xml.writeEndElement();
+        xml.writeEndElement();
+    }
+
+    private void element(String tag, String value) throws XMLStreamException {
+        xml.writeStartElement(tag);
+        xml.writeCharacters(value != null ? value : "");
+        xml.writeEndElement();
+    }
+
+    /** Данните са се променили между заглавието и преводите (напр. преизчисление на месеца). */
+    private static void verify(String block, long declaredCount, BigDecimal declaredSum,
+                               long count, BigDecimal sum) {
+        if (declaredCount != count || declaredSum.compareTo(sum) != 0) {
+            throw new IllegalStateException(block + ": обявени " + declaredCount + " превода за "
+                    + declaredSum.toPlainString() + ", записани " + count + " за " + sum.toPlainString());
+        }
+    }
+
+    private static BigDecimal rounded(BigDecimal value) {
+        return value.setScale(2, RoundingMode.HALF_UP);
+    }
+
+    private static String amount(BigDecimal value) {
+        return rounded(value).toPlainString();
+    }
+
+    private static String max(String value, int length) {
+        if (value == null) return "";
+        String s = value.strip();
+        return s.length() > length ? s.substring(0, length) : s;
+    }
+}
@@ -0,0 +1,133 @@
+package com.valstrz.util;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.validation.ValidatorHandler;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * XML, записван последователно със StAX, с проверка по XSD в движение.
+ *
+ * Всяко събитие (начало/край на елемент, текст) отива едновременно в изхода и
+ * в ValidatorHandler (SAX) — документът не се строи в паметта нито за записа,
+ * нито за проверката. Грешките по схемата се подават на ErrorHandler-а на
+ * validator-а; без validator се пише само изходът.
+ */
+public final class StreamingXmlWriter implements AutoCloseable {
+
+    private static final AttributesImpl NO_ATTRIBUTES = new AttributesImpl();
+
+    private final XMLStreamWriter xml;
+    private final ValidatorHandler validator;
+    private final Deque<String> open = new ArrayDeque<>();
+
+    public StreamingXmlWriter(OutputStream out, ValidatorHandler validator) throws IOException {
+        try {
+            this.xml = XMLOutputFactory.newFactory().createXMLStreamWriter(out, "UTF-8");
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+        this.validator = validator;
+    }
+
+    public void startDocument() throws IOException {
+        try {
+            xml.writeStartDocument("utf-8", "1.0");
+            if (validator != null) validator.startDocument();
+        } catch (XMLStreamException | SAXException e) {
+            throw failure(e);
+        }
+    }
+
+    public void endDocument() throws IOException {
+        try {
+            while (!open.isEmpty()) end();
+            xml.writeEndDocument();
+            xml.flush();
+            if (validator != null) validator.endDocument();
+        } catch (XMLStreamException | SAXException e) {
+            throw failure(e);
+        }
+    }
+
+    /** Начален елемент с декларация на префикс (напр. xsi на кореновия елемент). */
+    public void start(String name, String prefix, String namespace) throws IOException {
+        try {
+            xml.writeStartElement(name);
+            xml.writeNamespace(prefix, namespace);
+            if (validator != null) {
+                validator.startPrefixMapping(prefix, namespace);
+                validator.startElement("", name, name, NO_ATTRIBUTES);
+            }
+            open.push(name);
+        } catch (XMLStreamException | SAXException e) {
+            throw failure(e);
+        }
+    }
+
+    public void start(String name) throws IOException {
+        try {
+            xml.writeStartElement(name);
+            if (validator != null) validator.startElement("", name, name, NO_ATTRIBUTES);
+            open.push(name);
+        } catch (XMLStreamException | SAXException e) {
+            throw failure(e);
+        }
+    }
+
+    public void text(String value) throws IOException {
+        if (value == null || value.isEmpty()) return;
+        try {
+            xml.writeCharacters(value);
+            if (validator != null) validator.characters(value.toCharArray(), 0, value.length());
+        } catch (XMLStreamException | SAXException e) {
+            throw failure(e);
+        }
+    }
+
+    public void end() throws IOException {
+        String name = open.pop();
+        try {
+            xml.writeEndElement();
+            if (validator != null) validator.endElement("", name, name);
+        } catch (XMLStreamException | SAXException e) {
+            throw failure(e);
+        }
+    }
+
+    /** Елемент само с текст; null се записва като празен елемент. */
+    public void element(String name, Object value) throws IOException {
+        start(name);
+        if (value != null) text(value.toString());
+        end();
+    }
+
+    public void flush() throws IOException {
+        try {
+            xml.flush();
+        } catch (XMLStreamException e) {
+            throw failure(e);
+        }
+    }
+
+    /** Затваря само StAX записа; изходният поток остава отворен (напр. за следващ файл в ZIP). */
+    @Override
+    public void close() throws IOException {
+        try {
+            xml.close();
+        } catch (XMLStreamException e) {
+            throw failure(e);
+        }
+    }
+
+    private static IOException failure(Exception e) {
+        return e.getCause() instanceof IOException io ? io : new IOException(e.getMessage(), e);
+    }
+}
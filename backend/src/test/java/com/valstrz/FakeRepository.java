@@ -0,0 +1,54 @@
+package com.valstrz;
+
+import com.valstrz.entity.calendar.AnnualCalendar;
+import com.valstrz.repository.AnnualCalendarRepository;
+
+import java.lang.reflect.Proxy;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Хранилище за тестове без база: всеки метод връща резултата, зададен по име.
+ * Незададените методи хвърлят UnsupportedOperationException, за да личи, ако
+ * тестваният код започне да чете нещо ново.
+ */
+public final class FakeRepository {
+
+    private FakeRepository() {}
+
+    @SuppressWarnings("unchecked")
+    public static <T> T of(Class<T> type, Map<String, Function<Object[], Object>> methods) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "toString": return type.getSimpleName() + "(fake)";
+                case "hashCode": return System.identityHashCode(proxy);
+                case "equals": return proxy == args[0];
+                default:
+            }
+            Function<Object[], Object> answer = methods.get(method.getName());
+            if (answer == null) throw new UnsupportedOperationException(method.getName());
+            return answer.apply(args);
+        });
+    }
+
+    /** Годишен календар на фирмата само с дадените официални празници. */
+    public static AnnualCalendarRepository calendar(LocalDate... holidays) {
+        return of(AnnualCalendarRepository.class, Map.of("findByTenantIdAndYear", args -> {
+            int year = (int) args[1];
+            AnnualCalendar ac = new AnnualCalendar();
+            ac.setYear(year);
+            ac.setHolidays(Arrays.stream(holidays)
+                    .filter(d -> d.getYear() == year)
+                    .map(d -> {
+                        AnnualCalendar.HolidayEntry h = new AnnualCalendar.HolidayEntry();
+                        h.setDate(d);
+                        h.setOfficial(true);
+                        return h;
+                    }).toList());
+            return List.of(ac);
+        }));
+    }
+}
@@ -0,0 +1,52 @@
+package com.valstrz.controller;
+
+import com.valstrz.FakeRepository;
+import com.valstrz.entity.personnel.Absence;
+import com.valstrz.repository.AbsenceRepository;
+import com.valstrz.service.WorkingCalendarService;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Работните дни на отсъствието се броят по календара на фирмата,
+ * т.е. без съботи, недели и празници.
+ */
+class AbsenceControllerTest {
+
+    private final AbsenceController controller = new AbsenceController(
+            FakeRepository.of(AbsenceRepository.class, Map.of("save", args -> args[0])),
+            new WorkingCalendarService(FakeRepository.calendar(LocalDate.of(2025, 3, 3))));
+
+    @Test
+    void sickLeaveSkipsHoliday() {
+        // 03.03.2025 (понеделник) е празник: 03–07.03 са 4 работни дни, не 5
+        Absence absence = controller.create("t1", "e1", absence("SICK", "2025-03-03", "2025-03-07")).getBody();
+
+        assertNotNull(absence);
+        assertEquals(4, absence.getWorkingDays());
+        assertEquals(2, absence.getEmployerDays());
+        assertEquals(2, absence.getNssiDays());
+    }
+
+    @Test
+    void leaveOverHolidayMonth() {
+        Absence absence = controller.create("t1", "e1", absence("351301", "2025-03-01", "2025-03-31")).getBody();
+
+        assertNotNull(absence);
+        assertEquals(20, absence.getWorkingDays());
+        assertEquals(0, absence.getEmployerDays());
+        assertEquals(0, absence.getNssiDays());
+    }
+
+    static Absence absence(String type, String from, String to) {
+        Absence a = new Absence();
+        a.setType(type);
+        a.setFromDate(LocalDate.parse(from));
+        a.setToDate(LocalDate.parse(to));
+        return a;
+    }
+}
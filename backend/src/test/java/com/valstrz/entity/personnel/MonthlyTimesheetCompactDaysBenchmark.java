@@ -0,0 +1,54 @@
+package com.valstrz.entity.personnel;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.valstrz.entity.personnel.MonthlyTimesheet.CompactDays;
+import com.valstrz.entity.personnel.MonthlyTimesheet.DailyEntry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * (Де)сериализация на дневните данни за един месец: разгърнат списък срещу CompactDays.
+ *
+ * Стартиране: mvn test-compile, след което main() от IDE или
+ * java -cp target/test-classes:target/classes:<test classpath> com.valstrz.entity.personnel.MonthlyTimesheetCompactDaysBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class MonthlyTimesheetCompactDaysBenchmark {
+
+    private ObjectMapper mapper;
+    private List<DailyEntry> days;
+
+    @Setup
+    public void setUp() {
+        mapper = new ObjectMapper();
+        days = MonthlyTimesheetCompactDaysTest.sampleMonth();
+    }
+
+    @Benchmark
+    public DailyEntry[] days() throws Exception {
+        byte[] json = mapper.writeValueAsBytes(days);
+        return mapper.readValue(json, DailyEntry[].class);
+    }
+
+    @Benchmark
+    public List<DailyEntry> compactDays() throws Exception {
+        byte[] json = mapper.writeValueAsBytes(CompactDays.pack(days));
+        return mapper.readValue(json, CompactDays.class).unpack();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MonthlyTimesheetCompactDaysBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
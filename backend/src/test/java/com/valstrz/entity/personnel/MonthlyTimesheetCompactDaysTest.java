@@ -0,0 +1,88 @@
+package com.valstrz.entity.personnel;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.valstrz.entity.personnel.MonthlyTimesheet.CompactDays;
+import com.valstrz.entity.personnel.MonthlyTimesheet.DailyEntry;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Компактен запис на дневните данни: обратимост и размер на JSON документа.
+ * Времето за (де)сериализация се мери в MonthlyTimesheetCompactDaysBenchmark.
+ */
+class MonthlyTimesheetCompactDaysTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void roundTripIsLossless() {
+        List<DailyEntry> days = sampleMonth();
+        CompactDays packed = CompactDays.pack(days);
+        assertNotNull(packed);
+
+        List<DailyEntry> unpacked = packed.unpack();
+        assertEquals(days.size(), unpacked.size());
+        for (int i = 0; i < days.size(); i++) {
+            DailyEntry a = days.get(i);
+            DailyEntry b = unpacked.get(i);
+            assertEquals(a.getDay(), b.getDay());
+            assertEquals(a.getDayType(), b.getDayType());
+            assertEquals(a.getAbsenceCode(), b.getAbsenceCode());
+            assertEquals(0, a.getWorkedHours().compareTo(b.getWorkedHours()));
+            assertEquals(0, a.getOvertimeHours().compareTo(b.getOvertimeHours()));
+            assertEquals(0, a.getNightHours().compareTo(b.getNightHours()));
+        }
+    }
+
+    @Test
+    void packRefusesLossyValues() {
+        List<DailyEntry> days = sampleMonth();
+        days.get(3).setWorkedHours(new BigDecimal("7.125"));
+        assertNull(CompactDays.pack(days));
+
+        days = sampleMonth();
+        days.get(3).setDayType("BUSINESS_TRIP");
+        assertNull(CompactDays.pack(days));
+    }
+
+    @Test
+    void compactDocumentIsSmaller() throws Exception {
+        List<DailyEntry> days = sampleMonth();
+
+        byte[] verboseJson = mapper.writeValueAsBytes(days);
+        byte[] compactJson = mapper.writeValueAsBytes(CompactDays.pack(days));
+
+        assertTrue(compactJson.length * 3 < verboseJson.length,
+                "Компактният запис трябва да е поне 3 пъти по-малък");
+    }
+
+    /** Месец с работни дни, почивни, три дни отсъствие и извънреден труд. */
+    static List<DailyEntry> sampleMonth() {
+        List<DailyEntry> days = new ArrayList<>();
+        for (int d = 1; d <= 31; d++) {
+            DailyEntry e = new DailyEntry();
+            e.setDay(d);
+            int dow = (d + 2) % 7;
+            if (dow >= 5) {
+                e.setDayType("WEEKEND");
+                e.setWorkedHours(BigDecimal.ZERO);
+            } else if (d >= 20 && d <= 22) {
+                e.setDayType("ABSENCE");
+                e.setAbsenceCode("351201");
+                e.setWorkedHours(BigDecimal.ZERO);
+            } else {
+                e.setDayType("WORK");
+                e.setWorkedHours(new BigDecimal("8"));
+            }
+            e.setOvertimeHours(d == 10 ? new BigDecimal("1.5") : BigDecimal.ZERO);
+            e.setNightHours(BigDecimal.ZERO);
+            days.add(e);
+        }
+        return days;
+    }
+}
@@ -0,0 +1,83 @@
+package com.valstrz.service;
+
+import com.valstrz.FakeRepository;
+import com.valstrz.entity.company.Company;
+import com.valstrz.entity.personnel.Absence;
+import com.valstrz.entity.personnel.Employee;
+import com.valstrz.entity.personnel.Employment;
+import com.valstrz.repository.AbsenceRepository;
+import com.valstrz.repository.CompanyRepository;
+import com.valstrz.repository.EmployeeRepository;
+import com.valstrz.repository.EmploymentRepository;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Стажът в УП-3: неплатеният отпуск над 30 работни дни в годината се приспада,
+ * като работните дни се броят по календара на фирмата.
+ */
+class CertificateServiceTest {
+
+    private static final LocalDate FROM = LocalDate.of(2025, 1, 1);
+    private static final LocalDate TO = LocalDate.of(2025, 12, 31);
+
+    @Test
+    void unpaidLeaveOverLimitSkipsHoliday() {
+        // 03.03–15.04.2025: 20 работни дни през март (03.03 е празник) и 11 през април,
+        // общо 31 — един ден над лимита
+        CertificateService.UP3Data up3 = service(unpaid("2025-03-03", "2025-04-15")).generateUP3("t1", "e1", FROM, TO);
+
+        assertEquals(1, up3.periods().size());
+        assertEquals(0, up3.totalYears());
+        assertEquals(11, up3.totalMonths());
+        assertEquals(29, up3.totalDays());
+    }
+
+    @Test
+    void unpaidLeaveWithinLimitCountsInFull() {
+        // 03.03–14.04.2025: 20 + 10 = 30 работни дни
+        CertificateService.UP3Data up3 = service(unpaid("2025-03-03", "2025-04-14")).generateUP3("t1", "e1", FROM, TO);
+
+        assertEquals(1, up3.totalYears());
+        assertEquals(0, up3.totalMonths());
+        assertEquals(0, up3.totalDays());
+    }
+
+    // ── Helpers ──
+
+    private static CertificateService service(Absence... absences) {
+        Employee employee = new Employee();
+        employee.setId("e1");
+        employee.setFirstName("Иван");
+        Company company = new Company();
+        company.setId("t1");
+        company.setName("Фирма ЕООД");
+        Employment employment = new Employment();
+        employment.setStartDate(FROM);
+        employment.setJobTitle("Счетоводител");
+
+        return new CertificateService(null,
+                FakeRepository.of(EmployeeRepository.class, Map.of("findById", args -> Optional.of(employee))),
+                FakeRepository.of(EmploymentRepository.class,
+                        Map.of("findByTenantIdAndEmployeeId", args -> List.of(employment))),
+                FakeRepository.of(CompanyRepository.class, Map.of("findById", args -> Optional.of(company))),
+                FakeRepository.of(AbsenceRepository.class,
+                        Map.of("findByTenantIdAndEmployeeId", args -> List.of(absences))),
+                new WorkingCalendarService(FakeRepository.calendar(LocalDate.of(2025, 3, 3))),
+                null);
+    }
+
+    private static Absence unpaid(String from, String to) {
+        Absence a = new Absence();
+        a.setType("351305");
+        a.setFromDate(LocalDate.parse(from));
+        a.setToDate(LocalDate.parse(to));
+        return a;
+    }
+}
@@ -0,0 +1,126 @@
+package com.valstrz.service;
+
+import com.valstrz.entity.payroll.PayrollBaseline;
+import com.valstrz.entity.payroll.PayrollSnapshot;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Правилата за отклонение спрямо предходните затворени месеци.
+ * Проверката не чете от базата, затова хранилищата не са нужни.
+ */
+class PayrollAnomalyServiceTest {
+
+    private static final int WINDOW = 3;
+
+    private final PayrollAnomalyService service = new PayrollAnomalyService(null, null, WINDOW, 3, 3.0);
+
+    @Test
+    void jumpInGrossIsFlagged() {
+        PayrollBaseline b = baseline("2000", "2010", "1990");
+
+        PayrollSnapshot s = snapshot(4, "3000");
+        service.check(s, b);
+
+        assertNotNull(s.getAnomalies());
+        assertEquals(1, s.getAnomalies().size());
+        PayrollSnapshot.Anomaly a = s.getAnomalies().get(0);
+        assertEquals(PayrollBaseline.GROSS, a.getMetric());
+        assertEquals(new BigDecimal("2000.00"), a.getMean());
+        assertEquals(new BigDecimal("10.00"), a.getStdDev());
+        assertEquals(new BigDecimal("25.00"), a.getZScore());
+        assertEquals(3, a.getBaselineMonths());
+    }
+
+    @Test
+    void identicalMonthsUseSigmaFloor() {
+        PayrollBaseline b = baseline("2000", "2000", "2000");
+
+        // σ = 2% от 2000 = 40 лв.
+        PayrollSnapshot small = snapshot(4, "2100");
+        service.check(small, b);
+        assertNull(small.getAnomalies());
+
+        PayrollSnapshot large = snapshot(4, "2200");
+        service.check(large, b);
+        assertEquals(new BigDecimal("5.00"), large.getAnomalies().get(0).getZScore());
+    }
+
+    @Test
+    void tooFewMonthsAreNotChecked() {
+        PayrollBaseline b = baseline("2000", "2000");
+
+        PayrollSnapshot s = snapshot(3, "9000");
+        service.check(s, b);
+
+        assertNull(s.getAnomalies());
+    }
+
+    @Test
+    void recalculatedMonthIsNotComparedWithItselfOrLaterMonths() {
+        PayrollBaseline b = baseline("2000", "2000", "2000", "9000", "9000");
+
+        PayrollSnapshot s = snapshot(4, "9000");
+        service.check(s, b);
+
+        assertEquals(3, s.getAnomalies().get(0).getBaselineMonths());
+        assertEquals(new BigDecimal("2000.00"), s.getAnomalies().get(0).getMean());
+    }
+
+    @Test
+    void reopenedMonthRestoresOlderMonthsToTheWindow() {
+        PayrollBaseline b = baseline("2000", "2000", "2000", "2000");
+
+        // Месец 4 е отворен отново и се преизчислява: сравнява се с месеци 1–3,
+        // въпреки че месец 1 е излязъл от прозореца при затварянето на месец 4
+        assertTrue(b.removeSample(2025, 4));
+        PayrollSnapshot s = snapshot(4, "9000");
+        service.check(s, b);
+
+        assertEquals(3, s.getAnomalies().get(0).getBaselineMonths());
+    }
+
+    @Test
+    void monthsBeyondTheRetentionAreDropped() {
+        PayrollBaseline b = baseline("1", "2", "3", "4", "5", "6", "7", "8");
+
+        assertEquals(2 * WINDOW, b.getSamples().size());
+        assertEquals(3, b.getSamples().get(0).getMonth());
+    }
+
+    // ── Helpers ──
+
+    /** Затворени месеци 1, 2, 3... на 2025 г. с дадения брутен доход и непроменени останали показатели. */
+    private static PayrollBaseline baseline(String... gross) {
+        PayrollBaseline b = new PayrollBaseline();
+        b.setEmployeeId("e1");
+        for (int i = 0; i < gross.length; i++) {
+            PayrollBaseline.Sample sample = new PayrollBaseline.Sample();
+            sample.setYear(2025);
+            sample.setMonth(i + 1);
+            sample.setGross(new BigDecimal(gross[i]));
+            sample.setNet(new BigDecimal("1500"));
+            sample.setInsurableIncome(new BigDecimal("2000"));
+            sample.setIncomeTax(new BigDecimal("170"));
+            b.addSample(sample, 2 * WINDOW);
+        }
+        return b;
+    }
+
+    private static PayrollSnapshot snapshot(int month, String gross) {
+        PayrollSnapshot s = new PayrollSnapshot();
+        s.setEmployeeId("e1");
+        s.setYear(2025);
+        s.setMonth(month);
+        s.setGrossSalary(new BigDecimal(gross));
+        s.setNetSalary(new BigDecimal("1500"));
+        s.setInsurableIncome(new BigDecimal("2000"));
+        s.setIncomeTax(new BigDecimal("170"));
+        s.setAnomalies(List.of());
+        return s;
+    }
+}
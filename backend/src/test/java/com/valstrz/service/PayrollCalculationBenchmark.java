@@ -0,0 +1,51 @@
+package com.valstrz.service;
+
+import com.valstrz.entity.payroll.PayrollSnapshot;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пълно изчисление на заплата — база за масовите симулации и преизчисления.
+ *
+ * Стартиране: mvn test-compile, след което main() от IDE или
+ * java -cp target/test-classes:target/classes:<test classpath> com.valstrz.service.PayrollCalculationBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class PayrollCalculationBenchmark {
+
+    private PayrollCalculationService service;
+    private List<PayrollCalculationService.CalculationInput> inputs;
+
+    @Setup
+    public void setUp() {
+        service = new PayrollCalculationService(new GarnishmentService());
+        inputs = PayrollCalculationFixtures.inputs(41, 1_000);
+    }
+
+    /** 1000 служителя (един месец на средна фирма). */
+    @Benchmark
+    @OperationsPerInvocation(1_000)
+    public void calculateMonth(Blackhole bh) {
+        for (PayrollCalculationService.CalculationInput input : inputs) {
+            PayrollSnapshot s = service.calculate(input);
+            bh.consume(s.getNetSalary());
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PayrollCalculationBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
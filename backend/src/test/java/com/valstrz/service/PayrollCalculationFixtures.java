@@ -0,0 +1,124 @@
+package com.valstrz.service;
+
+import com.valstrz.entity.calendar.MonthlyCalendar;
+import com.valstrz.entity.insurance.InsuranceContributions;
+import com.valstrz.entity.insurance.InsuranceRates;
+import com.valstrz.entity.insurance.InsuranceThreshold;
+import com.valstrz.entity.personnel.Employee;
+import com.valstrz.entity.personnel.Employment;
+import com.valstrz.entity.personnel.MonthlyTimesheet;
+import com.valstrz.entity.personnel.MonthlyTimesheet.DailyEntry;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Случайни, но възпроизводими входни данни за PayrollCalculationService
+ * (за диференциалния тест и бенчмарка).
+ */
+final class PayrollCalculationFixtures {
+
+    private static final String[] ABSENCES = {"321", "322", "160", "301", "351305"};
+
+    private PayrollCalculationFixtures() {}
+
+    static List<PayrollCalculationService.CalculationInput> inputs(long seed, int count) {
+        Random rnd = new Random(seed);
+        List<PayrollCalculationService.CalculationInput> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) list.add(input(rnd, i));
+        return list;
+    }
+
+    static PayrollCalculationService.CalculationInput input(Random rnd, int index) {
+        Employee emp = new Employee();
+        emp.setId("e" + index);
+        emp.setTenantId("t1");
+        emp.setFirstName("Иван");
+        emp.setLastName("Петров");
+
+        Employment empl = new Employment();
+        // Заплати от МРЗ до над тавана, понякога с 3+ знака след точката
+        empl.setBaseSalary(rnd.nextInt(10) == 0
+                ? BigDecimal.valueOf(rnd.nextLong(933_000, 9_000_000), 3)
+                : BigDecimal.valueOf(rnd.nextLong(93_300, 900_000), 2));
+        if (rnd.nextBoolean()) empl.setSeniorityBonusPercent(BigDecimal.valueOf(rnd.nextInt(0, 4000), 2));
+        empl.setDisability50Plus(rnd.nextInt(8) == 0);
+
+        int workingDays = 19 + rnd.nextInt(5);
+        MonthlyCalendar cal = new MonthlyCalendar();
+        cal.setYear(2025);
+        cal.setMonth(1 + rnd.nextInt(12));
+        cal.setWorkingDays(workingDays);
+        if (rnd.nextBoolean()) cal.setTotalWorkingHours(BigDecimal.valueOf(workingDays * 8L));
+
+        MonthlyTimesheet ts = new MonthlyTimesheet();
+        List<DailyEntry> days = new ArrayList<>();
+        int worked = 0;
+        BigDecimal night = BigDecimal.ZERO;
+        for (int d = 1; d <= 31; d++) {
+            DailyEntry e = new DailyEntry();
+            e.setDay(d);
+            int roll = rnd.nextInt(20);
+            if (roll < 5) {
+                e.setDayType(roll == 0 ? "HOLIDAY" : "WEEKEND");
+            } else if (roll < 7) {
+                e.setDayType("ABSENCE");
+                e.setAbsenceCode(ABSENCES[rnd.nextInt(ABSENCES.length)]);
+            } else {
+                e.setDayType("WORK");
+                e.setWorkedHours(BigDecimal.valueOf(8));
+                worked++;
+            }
+            if (rnd.nextInt(6) == 0) e.setOvertimeHours(BigDecimal.valueOf(rnd.nextInt(1, 17), 1 + rnd.nextInt(2)));
+            if (rnd.nextInt(8) == 0) night = night.add(BigDecimal.valueOf(rnd.nextInt(1, 9)));
+            days.add(e);
+        }
+        ts.setDays(days);
+        ts.setTotalWorkedDays(Math.min(worked, workingDays + 2));
+        ts.setTotalNightHours(night.signum() > 0 ? night : null);
+
+        InsuranceRates rates = new InsuranceRates();
+        rates.setMinimumWage(new BigDecimal("1077"));
+        rates.setMaxInsurableIncome(new BigDecimal("4130"));
+        rates.setFlatTaxRate(new BigDecimal("10"));
+        rates.setDisabilityTaxExemption(new BigDecimal("660"));
+
+        InsuranceContributions c = new InsuranceContributions();
+        c.setCategory("after1960");
+        c.setInsuredType("01");
+        c.setPensionEmployer(new BigDecimal("8.22"));
+        c.setPensionEmployee(new BigDecimal("6.58"));
+        c.setSicknessEmployer(new BigDecimal("2.1"));
+        c.setSicknessEmployee(new BigDecimal("1.4"));
+        c.setUnemploymentEmployer(new BigDecimal("0.6"));
+        c.setUnemploymentEmployee(new BigDecimal("0.4"));
+        c.setSupplementaryPensionEmployer(new BigDecimal("2.8"));
+        c.setSupplementaryPensionEmployee(new BigDecimal("2.2"));
+        c.setHealthEmployer(new BigDecimal("4.8"));
+        c.setHealthEmployee(new BigDecimal("3.2"));
+        c.setWorkAccidentEmployer(BigDecimal.valueOf(rnd.nextInt(4, 11), 1));
+        if (rnd.nextInt(5) == 0) c.setProfessionalPensionEmployer(new BigDecimal("12"));
+
+        InsuranceThreshold threshold = null;
+        if (rnd.nextBoolean()) {
+            threshold = new InsuranceThreshold();
+            threshold.setMinInsurableIncome(BigDecimal.valueOf(rnd.nextLong(107_700, 250_000), 2));
+        }
+
+        List<PayrollCalculationService.AdditionalEarning> earnings = new ArrayList<>();
+        if (rnd.nextInt(4) == 0) {
+            earnings.add(new PayrollCalculationService.AdditionalEarning("301", "Бонус", "FIXED",
+                    BigDecimal.valueOf(rnd.nextLong(1, 100_000), 2)));
+        }
+        List<PayrollCalculationService.AdditionalDeduction> deductions = new ArrayList<>();
+        if (rnd.nextInt(4) == 0) {
+            deductions.add(new PayrollCalculationService.AdditionalDeduction("401", "Аванс",
+                    BigDecimal.valueOf(rnd.nextLong(1, 50_000), 2)));
+        }
+
+        return new PayrollCalculationService.CalculationInput(emp, empl, ts, cal, null,
+                rates, c, threshold, 2025, cal.getMonth(), earnings, deductions, List.of(), null);
+    }
+}
@@ -0,0 +1,98 @@
+package com.valstrz.service;
+
+import com.valstrz.entity.calendar.MonthlyCalendar;
+import com.valstrz.entity.calendar.ShiftSchedule;
+import com.valstrz.entity.payroll.PayrollSnapshot;
+import com.valstrz.entity.payroll.PayrollSnapshot.PayrollLine;
+import com.valstrz.entity.personnel.Employment;
+import com.valstrz.entity.personnel.MonthlyTimesheet;
+import com.valstrz.util.MoneyUtil;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Основната заплата и ДТВ при сменен график се съотнасят към дните със смяна
+ * по графика, а не към работните дни от календара.
+ */
+class PayrollCalculationShiftTest {
+
+    private final PayrollCalculationService service = new PayrollCalculationService(new GarnishmentService());
+
+    private final ShiftRotationService rotation = new ShiftRotationService();
+
+    @Test
+    void completeRotaYieldsFullBaseSalary() {
+        ShiftRotationService.ShiftDays shifts = twelveHourRota(2025, 3);
+        assertTrue(shifts.workDays() < 21, "12-часовият график има по-малко смени от работните дни");
+
+        PayrollSnapshot snapshot = service.calculate(input(shifts, shifts.workDays()));
+
+        assertEquals(new BigDecimal("2000.00"), amount(snapshot, "101"));
+        assertEquals(new BigDecimal("100.00"), amount(snapshot, "201"));
+    }
+
+    @Test
+    void missedShiftIsProratedOverScheduledShifts() {
+        ShiftRotationService.ShiftDays shifts = twelveHourRota(2025, 3);
+        int scheduled = shifts.workDays();
+
+        PayrollSnapshot snapshot = service.calculate(input(shifts, scheduled - 1));
+
+        BigDecimal expected = MoneyUtil.prorate(new BigDecimal("2000.00"), scheduled - 1, scheduled);
+        assertEquals(MoneyUtil.round(expected), amount(snapshot, "101"));
+    }
+
+    // ── Helpers ──
+
+    /** Два дни по 12 часа, два почивни. */
+    private ShiftRotationService.ShiftDays twelveHourRota(int year, int month) {
+        ShiftSchedule.ShiftDefinition day = new ShiftSchedule.ShiftDefinition();
+        day.setIndex(1);
+        day.setName("12-часова ден");
+        day.setTotalHours(12);
+
+        ShiftSchedule schedule = new ShiftSchedule();
+        schedule.setId("rota-12");
+        schedule.setShifts(List.of(day));
+        schedule.setRotationPattern(List.of(1, 1, 0, 0));
+        return rotation.forMonth(schedule, LocalDate.of(year, 1, 1), year, month);
+    }
+
+    private static PayrollCalculationService.CalculationInput input(ShiftRotationService.ShiftDays shifts,
+                                                                    int workedShifts) {
+        PayrollCalculationService.CalculationInput base = PayrollCalculationFixtures.input(new Random(32), 0);
+
+        Employment empl = new Employment();
+        empl.setBaseSalary(new BigDecimal("2000.00"));
+        empl.setSeniorityBonusPercent(new BigDecimal("5"));
+
+        MonthlyCalendar cal = new MonthlyCalendar();
+        cal.setYear(2025);
+        cal.setMonth(3);
+        cal.setWorkingDays(21);
+        cal.setTotalWorkingHours(BigDecimal.valueOf(168));
+
+        MonthlyTimesheet ts = new MonthlyTimesheet();
+        ts.setDays(List.of());
+        ts.setScheduledShiftDays(shifts.workDays());
+        ts.setTotalWorkedDays(workedShifts);
+        ts.setTotalWorkedHours(shifts.hours(0).multiply(BigDecimal.valueOf(workedShifts)));
+
+        return new PayrollCalculationService.CalculationInput(base.employee(), empl, ts, cal, null,
+                base.rates(), base.contributions(), null, 2025, 3, List.of(), List.of(), List.of(), null);
+    }
+
+    private static BigDecimal amount(PayrollSnapshot snapshot, String code) {
+        return snapshot.getEarnings().stream()
+                .filter(l -> code.equals(l.getCode()))
+                .map(PayrollLine::getAmount)
+                .findFirst()
+                .orElseThrow();
+    }
+}
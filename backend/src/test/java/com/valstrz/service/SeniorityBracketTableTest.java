@@ -0,0 +1,58 @@
+package com.valstrz.service;
+
+import com.valstrz.entity.company.SeniorityBonusConfig.SeniorityBracket;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Търсене на процента за ДТВ по интервали от стаж.
+ */
+class SeniorityBracketTableTest {
+
+    @Test
+    void overlappingBracketFallsBackToEnclosingOne() {
+        SeniorityBonusService.BracketTable table = SeniorityBonusService.BracketTable.of(List.of(
+                bracket("0", "10", "5"),
+                bracket("3", "5", "2")));
+
+        assertEquals(new BigDecimal("5"), table.percentFor(new BigDecimal("7")));
+        assertEquals(new BigDecimal("2"), table.percentFor(new BigDecimal("4")));
+        assertEquals(new BigDecimal("5"), table.percentFor(new BigDecimal("1")));
+        assertEquals(BigDecimal.ZERO, table.percentFor(new BigDecimal("11")));
+    }
+
+    @Test
+    void adjacentAndOpenEndedBrackets() {
+        SeniorityBonusService.BracketTable table = SeniorityBonusService.BracketTable.of(List.of(
+                bracket("20", null, "8"),
+                bracket("0", "9.99", "0.6"),
+                bracket("10", "19.99", "0.8")));
+
+        assertEquals(new BigDecimal("0.6"), table.percentFor(new BigDecimal("3")));
+        assertEquals(new BigDecimal("0.8"), table.percentFor(new BigDecimal("10")));
+        assertEquals(new BigDecimal("8"), table.percentFor(new BigDecimal("35")));
+        assertEquals(BigDecimal.ZERO, table.percentFor(new BigDecimal("19.995")));
+    }
+
+    @Test
+    void unboundedBracketCoversLaterGaps() {
+        SeniorityBonusService.BracketTable table = SeniorityBonusService.BracketTable.of(List.of(
+                bracket("0", null, "1"),
+                bracket("5", "6", "3")));
+
+        assertEquals(new BigDecimal("3"), table.percentFor(new BigDecimal("5.5")));
+        assertEquals(new BigDecimal("1"), table.percentFor(new BigDecimal("30")));
+    }
+
+    private static SeniorityBracket bracket(String from, String to, String percent) {
+        SeniorityBracket b = new SeniorityBracket();
+        b.setFromYears(new BigDecimal(from));
+        b.setToYears(to != null ? new BigDecimal(to) : null);
+        b.setPercent(new BigDecimal(percent));
+        return b;
+    }
+}
@@ -0,0 +1,108 @@
+package com.valstrz.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Запис и четене на архивен сегмент, добавяне към съществуващ файл и
+ * разпознаване на непълни или повредени записи.
+ */
+class SegmentFileTest {
+
+    private final Path dir;
+    private final Path file;
+
+    SegmentFileTest() throws IOException {
+        dir = Files.createTempDirectory("segment");
+        file = dir.resolve("t1").resolve("2024.seg");
+    }
+
+    @AfterEach
+    void cleanUp() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : paths.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+        }
+    }
+
+    @Test
+    void appendedRecordsRoundTrip() throws IOException {
+        List<SegmentFile.Record> first = List.of(
+                record(1, 3, "e1", "s1", "{\"net\":1234.56}"),
+                record(2, 3, null, "t1", "x".repeat(10_000)),
+                record(3, 12, "e2", "a1", ""));
+        List<SegmentFile.Entry> written = SegmentFile.append(file, first);
+        List<SegmentFile.Entry> more = SegmentFile.append(file, List.of(record(1, 4, "e1", "s1", "второ")));
+
+        List<SegmentFile.Entry> scanned = SegmentFile.scan(file);
+        List<SegmentFile.Entry> all = new ArrayList<>(written);
+        all.addAll(more);
+        assertEquals(all, scanned);
+
+        assertNull(scanned.get(1).employeeId());
+        assertEquals(12, scanned.get(2).month());
+        assertEquals("{\"net\":1234.56}", text(SegmentFile.read(file, scanned.get(0))));
+        assertEquals("x".repeat(10_000), text(SegmentFile.read(file, scanned.get(1))));
+        assertEquals("", text(SegmentFile.read(file, scanned.get(2))));
+        assertEquals("второ", text(SegmentFile.read(file, scanned.get(3))));
+    }
+
+    @Test
+    void truncatedRecordIsDetected() throws IOException {
+        SegmentFile.append(file, List.of(record(1, 1, "e1", "s1", "първи"), record(1, 1, "e2", "s2", "втори")));
+        long size = Files.size(file);
+
+        for (long cut : new long[]{size - 1, size - 6}) {
+            Path copy = dir.resolve("cut" + cut + ".seg");
+            Files.copy(file, copy);
+            try (FileChannel channel = FileChannel.open(copy, StandardOpenOption.WRITE)) {
+                channel.truncate(cut);
+            }
+            assertThrows(IOException.class, () -> SegmentFile.scan(copy));
+        }
+    }
+
+    @Test
+    void corruptedPayloadFailsChecksum() throws IOException {
+        List<SegmentFile.Entry> written = SegmentFile.append(file,
+                List.of(record(1, 1, "e1", "s1", "съдържание, което ще бъде повредено")));
+        SegmentFile.Entry entry = written.get(0);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            long pos = entry.payloadOffset() + entry.payloadLength() / 2;
+            raf.seek(pos);
+            int b = raf.read();
+            raf.seek(pos);
+            raf.write(b ^ 0xFF);
+        }
+        assertThrows(IOException.class, () -> SegmentFile.read(file, entry));
+    }
+
+    @Test
+    void foreignFileIsRejected() throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, "not a segment");
+        assertThrows(IOException.class, () -> SegmentFile.scan(file));
+        assertThrows(IOException.class, () -> SegmentFile.append(file, List.of(record(1, 1, null, "k", "v"))));
+    }
+
+    private static SegmentFile.Record record(int kind, int month, String employeeId, String key, String content) {
+        return new SegmentFile.Record((byte) kind, month, employeeId, key, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String text(byte[] content) {
+        return new String(content, StandardCharsets.UTF_8);
+    }
+}
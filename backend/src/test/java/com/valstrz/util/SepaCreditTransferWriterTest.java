@@ -0,0 +1,114 @@
+package com.valstrz.util;
+
+import com.valstrz.service.BankPaymentService;
+import org.junit.jupiter.api.Test;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * SEPA нареждането спрямо схемата pain.001.001.03 и сверката на броя и сумата
+ * в заглавията със записаните преводи.
+ */
+class SepaCreditTransferWriterTest {
+
+    private static final SepaCreditTransferWriter.Party COMPANY =
+            new SepaCreditTransferWriter.Party("Фирма ЕООД", "123456789");
+
+    @Test
+    void documentIsValidAgainstPain001() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (SepaCreditTransferWriter sepa = new SepaCreditTransferWriter(out, "EUR")) {
+            sepa.start("SAL-123456789-202503-abc", COMPANY, 3, new BigDecimal("4001.50"));
+            sepa.startPayment("SAL-123456789-202503-abc-1", COMPANY, "bg80 bnbg 9661 1020 3456 78", "bnbgbgsd",
+                    LocalDate.of(2025, 4, 5), 2, new BigDecimal("3000.00"));
+            sepa.transfer("202503-e1", new BigDecimal("1500.004"), "Иван Петров Иванов",
+                    "BG80BNBG96611020345678", "BNBGBGSD", "Заплата 03/2025");
+            sepa.transfer("202503-e2", new BigDecimal("1500"), "x".repeat(200),
+                    "BG18RZBB91550123456789", null, "Заплата 03/2025");
+            sepa.endPayment();
+            sepa.startPayment("SAL-123456789-202503-abc-2", COMPANY, "BG18RZBB91550123456789", null,
+                    LocalDate.of(2025, 4, 5), 1, new BigDecimal("1001.50"));
+            sepa.transfer("202503-e3", new BigDecimal("1001.5"), "Мария Георгиева",
+                    "BG18RZBB91550123456789", "RZBBBGSF", "Заплата 03/2025");
+            sepa.endPayment();
+            sepa.end();
+        }
+
+        schema().newValidator().validate(new StreamSource(new ByteArrayInputStream(out.toByteArray())));
+
+        String xml = out.toString(StandardCharsets.UTF_8);
+        assertTrue(xml.contains("<NbOfTxs>3</NbOfTxs><CtrlSum>4001.50</CtrlSum>"));
+        assertTrue(xml.contains("<IBAN>BG80BNBG96611020345678</IBAN>"));
+        assertTrue(xml.contains("<Id>NOTPROVIDED</Id>"));
+        assertTrue(xml.contains("<InstdAmt Ccy=\"EUR\">1500.00</InstdAmt>"));
+    }
+
+    @Test
+    void amountsInLevaAreRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new SepaCreditTransferWriter(new ByteArrayOutputStream(), "BGN"));
+    }
+
+    @Test
+    void periodCurrencyFollowsEuroAdoption() {
+        assertEquals("BGN", BankPaymentService.currency(2025, 12));
+        assertEquals("EUR", BankPaymentService.currency(2026, 1));
+    }
+
+    @Test
+    void transferCountDifferentFromHeaderFails() throws XMLStreamException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SepaCreditTransferWriter sepa = new SepaCreditTransferWriter(out, "EUR");
+        sepa.start("M1", COMPANY, 2, new BigDecimal("200.00"));
+        sepa.startPayment("M1-1", COMPANY, "BG80BNBG96611020345678", "BNBGBGSD",
+                LocalDate.of(2025, 4, 5), 2, new BigDecimal("200.00"));
+        sepa.transfer("e1", new BigDecimal("100.00"), "А", "BG18RZBB91550123456789", null, "Заплата");
+
+        assertThrows(IllegalStateException.class, sepa::endPayment);
+    }
+
+    @Test
+    void amountDifferentFromHeaderFails() throws XMLStreamException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SepaCreditTransferWriter sepa = new SepaCreditTransferWriter(out, "EUR");
+        sepa.start("M1", COMPANY, 1, new BigDecimal("100.00"));
+        sepa.startPayment("M1-1", COMPANY, "BG80BNBG96611020345678", "BNBGBGSD",
+                LocalDate.of(2025, 4, 5), 1, new BigDecimal("100.00"));
+        sepa.transfer("e1", new BigDecimal("100.01"), "А", "BG18RZBB91550123456789", null, "Заплата");
+
+        assertThrows(IllegalStateException.class, sepa::endPayment);
+    }
+
+    @Test
+    void groupHeaderIsCheckedAcrossPayments() throws XMLStreamException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SepaCreditTransferWriter sepa = new SepaCreditTransferWriter(out, "EUR");
+        sepa.start("M1", COMPANY, 2, new BigDecimal("200.00"));
+        sepa.startPayment("M1-1", COMPANY, "BG80BNBG96611020345678", "BNBGBGSD",
+                LocalDate.of(2025, 4, 5), 1, new BigDecimal("100.00"));
+        sepa.transfer("e1", new BigDecimal("100.00"), "А", "BG18RZBB91550123456789", null, "Заплата");
+        sepa.endPayment();
+
+        assertThrows(IllegalStateException.class, sepa::end);
+    }
+
+    private static Schema schema() throws SAXException, IOException {
+        URL xsd = SepaCreditTransferWriterTest.class.getResource("/sepa/pain.001.001.03.xsd");
+        assertNotNull(xsd);
+        return SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(xsd);
+    }
+}